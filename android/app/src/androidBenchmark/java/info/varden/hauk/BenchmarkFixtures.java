@@ -0,0 +1,71 @@
+package info.varden.hauk;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import info.varden.hauk.http.ConnectionParameters;
+import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.struct.Geofence;
+import info.varden.hauk.struct.KeyDerivable;
+import info.varden.hauk.struct.LocationPoint;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.struct.ShareMode;
+import info.varden.hauk.struct.Version;
+
+/**
+ * Shared test data for the microbenchmarks, modelled on a typical sharing session.
+ */
+public enum BenchmarkFixtures {
+    ;
+
+    /**
+     * A backend version that supports the binary post format.
+     */
+    public static final Version CURRENT_BACKEND = new Version("1.8");
+
+    /**
+     * A backend version that only supports URL-encoded location updates.
+     */
+    public static final Version LEGACY_BACKEND = new Version("1.6");
+
+    public static Context getContext() {
+        return InstrumentationRegistry.getInstrumentation().getTargetContext();
+    }
+
+    public static KeyDerivable newKey() {
+        return new KeyDerivable("correct horse battery staple", "0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Session newSession(Version backendVersion, KeyDerivable e2eKey) {
+        return new Session(
+                "https://hauk.example.com/",
+                new ConnectionParameters(null, null, 10000, CertificateValidationPolicy.VALIDATE_ALL),
+                backendVersion,
+                "5f0c1e2d3b4a59687f6e5d4c3b2a1908",
+                System.currentTimeMillis() + 3600000L,
+                1, 30, 5.0F, 1, 0,
+                e2eKey,
+                Collections.<Geofence>emptyList()
+        );
+    }
+
+    public static List<Share> newShares(Session session, int count) {
+        List<Share> shares = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            shares.add(new Share(session, "https://hauk.example.com/?abcd-" + i, "abcd-" + i, ShareMode.CREATE_ALONE));
+        }
+        return shares;
+    }
+
+    public static LocationPoint newPoint(int index) {
+        return new LocationPoint(59.9138688D + index * 1.0E-5D, 10.7522454D - index * 1.0E-5D, 1600000000000L + index * 1000L, LocationProvider.FINE, 1.4F, 4.5F);
+    }
+}
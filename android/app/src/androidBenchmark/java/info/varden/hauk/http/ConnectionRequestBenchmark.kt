@@ -0,0 +1,40 @@
+package info.varden.hauk.http
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import info.varden.hauk.BenchmarkFixtures
+import info.varden.hauk.Constants
+import org.junit.Rule
+import org.junit.Test
+
+@Suppress("HardCodedStringLiteral")
+class ConnectionRequestBenchmark {
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    @Test
+    fun urlEncodedData() {
+        val session = BenchmarkFixtures.newSession(BenchmarkFixtures.LEGACY_BACKEND, null)
+        val point = BenchmarkFixtures.newPoint(0)
+        val data = mapOf(
+            Constants.PACKET_PARAM_SESSION_ID to session.getID(),
+            Constants.PACKET_PARAM_LATITUDE to point.latitude.toString(),
+            Constants.PACKET_PARAM_LONGITUDE to point.longitude.toString(),
+            Constants.PACKET_PARAM_PROVIDER_ACCURACY to point.provider.mode.toString(),
+            Constants.PACKET_PARAM_TIMESTAMP to point.timeSeconds.toString(),
+            Constants.PACKET_PARAM_SPEED to point.speed.toString(),
+            Constants.PACKET_PARAM_ACCURACY to point.accuracy.toString()
+        )
+        val request = ConnectionThread.Request(
+            BenchmarkFixtures.getContext(),
+            session.getServerURL() + Constants.URL_PATH_POST_LOCATION,
+            data, null, null, false,
+            session.getConnectionParameters(),
+            session.getID(), true
+        )
+        benchmarkRule.measureRepeated {
+            request.urlEncodedData
+        }
+    }
+}
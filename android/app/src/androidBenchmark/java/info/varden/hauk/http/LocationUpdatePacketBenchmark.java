@@ -0,0 +1,86 @@
+package info.varden.hauk.http;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+import info.varden.hauk.BenchmarkFixtures;
+import info.varden.hauk.struct.KeyDerivable;
+import info.varden.hauk.struct.LocationPoint;
+import info.varden.hauk.struct.Session;
+
+public final class LocationUpdatePacketBenchmark {
+
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private static final class SinglePacket extends LocationUpdatePacket {
+        private SinglePacket(Session session, LocationPoint point) {
+            super(BenchmarkFixtures.getContext(), session, point);
+        }
+
+        @Override
+        protected void onShareListReceived(String linkFormat, String[] shares) {
+        }
+
+        @Override
+        protected void onFailure(Exception ex) {
+        }
+    }
+
+    private static final class BatchPacket extends BatchLocationUpdatePacket {
+        private BatchPacket(Session session, List<LocationPoint> points) {
+            super(BenchmarkFixtures.getContext(), session, points);
+        }
+
+        @Override
+        protected void onShareListReceived(String linkFormat, String[] shares) {
+        }
+
+        @Override
+        protected void onFailure(Exception ex) {
+        }
+    }
+
+    private void benchmarkSingle(Session session) {
+        LocationPoint point = BenchmarkFixtures.newPoint(0);
+        BenchmarkState state = this.benchmarkRule.getState();
+        while (state.keepRunning()) {
+            new SinglePacket(session, point);
+        }
+    }
+
+    @Test
+    public void plainLegacy() {
+        benchmarkSingle(BenchmarkFixtures.newSession(BenchmarkFixtures.LEGACY_BACKEND, null));
+    }
+
+    @Test
+    public void plainBinary() {
+        benchmarkSingle(BenchmarkFixtures.newSession(BenchmarkFixtures.CURRENT_BACKEND, null));
+    }
+
+    @Test
+    public void endToEnd() throws GeneralSecurityException {
+        KeyDerivable key = BenchmarkFixtures.newKey();
+        key.deriveSpec();
+        benchmarkSingle(BenchmarkFixtures.newSession(BenchmarkFixtures.CURRENT_BACKEND, key));
+    }
+
+    @Test
+    public void batchBinary() {
+        Session session = BenchmarkFixtures.newSession(BenchmarkFixtures.CURRENT_BACKEND, null);
+        List<LocationPoint> points = new ArrayList<>();
+        for (int i = 0; i < 30; i++) points.add(BenchmarkFixtures.newPoint(i));
+        BenchmarkState state = this.benchmarkRule.getState();
+        while (state.keepRunning()) {
+            new BatchPacket(session, points);
+        }
+    }
+}
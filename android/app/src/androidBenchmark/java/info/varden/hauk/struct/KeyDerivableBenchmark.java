@@ -0,0 +1,35 @@
+package info.varden.hauk.struct;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+
+import info.varden.hauk.BenchmarkFixtures;
+
+public final class KeyDerivableBenchmark {
+
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void deriveSpecCold() throws GeneralSecurityException {
+        BenchmarkState state = this.benchmarkRule.getState();
+        while (state.keepRunning()) {
+            BenchmarkFixtures.newKey().deriveSpec();
+        }
+    }
+
+    @Test
+    public void deriveSpecCached() throws GeneralSecurityException {
+        KeyDerivable key = BenchmarkFixtures.newKey();
+        key.deriveSpec();
+        BenchmarkState state = this.benchmarkRule.getState();
+        while (state.keepRunning()) {
+            key.deriveSpec();
+        }
+    }
+}
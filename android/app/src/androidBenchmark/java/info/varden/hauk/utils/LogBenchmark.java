@@ -0,0 +1,21 @@
+package info.varden.hauk.utils;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+public final class LogBenchmark {
+
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void getLogPrefix() {
+        BenchmarkState state = this.benchmarkRule.getState();
+        while (state.keepRunning()) {
+            Log.getLogPrefix();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package info.varden.hauk.utils;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import info.varden.hauk.BenchmarkFixtures;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Share;
+
+public final class StringSerializerBenchmark {
+
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final Session session = BenchmarkFixtures.newSession(BenchmarkFixtures.CURRENT_BACKEND, BenchmarkFixtures.newKey());
+    private final ArrayList<Share> shares = new ArrayList<>(BenchmarkFixtures.newShares(this.session, 3));
+
+    @Test
+    public void serializeSession() {
+        BenchmarkState state = this.benchmarkRule.getState();
+        while (state.keepRunning()) {
+            StringSerializer.serialize(this.session);
+        }
+    }
+
+    @Test
+    public void deserializeSession() {
+        String serialized = StringSerializer.serialize(this.session);
+        BenchmarkState state = this.benchmarkRule.getState();
+        while (state.keepRunning()) {
+            StringSerializer.<Session>deserialize(serialized);
+        }
+    }
+
+    @Test
+    public void serializeShares() {
+        BenchmarkState state = this.benchmarkRule.getState();
+        while (state.keepRunning()) {
+            StringSerializer.serialize(this.shares);
+        }
+    }
+
+    @Test
+    public void deserializeShares() {
+        String serialized = StringSerializer.serialize(this.shares);
+        BenchmarkState state = this.benchmarkRule.getState();
+        while (state.keepRunning()) {
+            StringSerializer.<ArrayList<Share>>deserialize(serialized);
+        }
+    }
+}
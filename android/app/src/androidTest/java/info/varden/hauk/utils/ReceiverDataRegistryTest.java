@@ -25,4 +25,40 @@ public final class ReceiverDataRegistryTest {
         assertThat("Retrieved object is wrong type", retrieved, is(instanceOf(testObject.getClass())));
         assertThat("Retrieved object is different instance", retrieved, is(sameInstance((Object) testObject)));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void oneShotTest() {
+        String testObject = "one-shot";
+        int first = ReceiverDataRegistry.register(testObject);
+        int second = ReceiverDataRegistry.register(testObject);
+        assertThat("Indices collide", first, is(not(second)));
+        assertThat("Index is not positive", first > 0, is(true));
+
+        assertThat("Typed retrieval failed", ReceiverDataRegistry.retrieve(first, String.class), is(sameInstance(testObject)));
+        assertThat("One-shot entry not removed on retrieval", ReceiverDataRegistry.retrieve(first), is(nullValue()));
+
+        long misses = ReceiverDataRegistry.getMissCount();
+        assertThat("Object of wrong type returned", ReceiverDataRegistry.retrieve(second, Integer.class), is(nullValue()));
+        assertThat("Retrieval of wrong type counted as a miss", ReceiverDataRegistry.getMissCount(), is(misses));
+    }
+
+    @Test
+    public void persistentTest() {
+        List<Integer> testObject = new ArrayList<>();
+        int index = ReceiverDataRegistry.registerPersistent(testObject);
+        int size = ReceiverDataRegistry.size();
+        assertThat("Same object registered twice", ReceiverDataRegistry.registerPersistent(testObject), is(index));
+        assertThat("Registry grew on re-registration", ReceiverDataRegistry.size(), is(size));
+
+        assertThat("Persistent entry not retrieved", ReceiverDataRegistry.retrieve(index, true), is(sameInstance((Object) testObject)));
+        assertThat("Persistent entry not kept", ReceiverDataRegistry.retrieve(index, true), is(sameInstance((Object) testObject)));
+
+        List<Integer> equalObject = new ArrayList<>();
+        assertThat("Equal object shares entry of other instance", ReceiverDataRegistry.registerPersistent(equalObject), is(not(index)));
+
+        ReceiverDataRegistry.retrieve(index);
+        int reregistered = ReceiverDataRegistry.registerPersistent(testObject);
+        assertThat("Removed entry returned on re-registration", reregistered, is(not(index)));
+        assertThat("Re-registered entry not retrieved", ReceiverDataRegistry.retrieve(reregistered, true), is(sameInstance((Object) testObject)));
+    }
+}
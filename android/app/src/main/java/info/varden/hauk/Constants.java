@@ -37,8 +37,13 @@ public enum Constants {
     public static final Preference<String> PREF_PASSWORD_ENCRYPTED = new Preference.EncryptedString("cryptPassword", "");
     public static final Preference<Integer> PREF_DURATION = new Preference.Integer("duration", 30);
     public static final Preference<Integer> PREF_INTERVAL = new Preference.Integer("interval", 1);
+    public static final Preference<Integer> PREF_MAX_INTERVAL = new Preference.Integer("maxInterval", 20);
     public static final Preference<Integer> PREF_NO_GNSS_FALLBACK = new Preference.Integer("noGnssFallback", 45);
     public static final Preference<Float> PREF_UPDATE_DISTANCE = new Preference.Float("minUpdateDistance", 0.0F);
+    public static final Preference<Float> PREF_TRACK_TOLERANCE = new Preference.Float("trackTolerance", 0.0F);
+    public static final Preference<String> PREF_QUIET_ZONES = new Preference.String("quietZones", "");
+    public static final Preference<Integer> PREF_BATCH_SIZE = new Preference.Integer("batchSize", 1);
+    public static final Preference<Integer> PREF_BATCH_INTERVAL = new Preference.Integer("batchInterval", 0);
     public static final Preference<String> PREF_CUSTOM_ID = new Preference.String("requestLink", "");
     public static final Preference<Boolean> PREF_ENABLE_E2E = new Preference.Boolean("enableE2E", false);
     public static final Preference<String> PREF_E2E_PASSWORD = new Preference.EncryptedString("e2ePassword", "");
@@ -56,12 +61,48 @@ public enum Constants {
     @Deprecated // Use PREF_PASSWORD_ENCRYPTED instead
     public static final Preference<String> PREF_PASSWORD = new Preference.String("password", "");
 
-    // Keys for use in session resumption preferences.
+    // Keys for use in session resumption preferences. Only read when migrating data stored by older
+    // versions of Hauk; resumption data is now stored in the resumption journal.
     public static final String RESUME_AVAILABLE = "canResume";
-    public static final String RESUME_CLIENT_VERSION = "clientVersion";
     public static final String RESUME_SESSION_PARAMS = "sessionParams";
     public static final String RESUME_SHARE_PARAMS = "shareParams";
 
+    // Session resumption journal.
+    public static final String RESUME_JOURNAL_FILE = "resumption.journal";
+    public static final long RESUME_JOURNAL_SYNC_DELAY = 1000L;
+    public static final int RESUME_JOURNAL_COMPACT_THRESHOLD = 32;
+
+    // Diagnostic trace recording.
+    public static final String TRACE_DIRECTORY = "trace";
+    public static final int TRACE_BUFFER_SIZE = 4096;
+    public static final long TRACE_SPILL_DELAY = 5L * 60L * 1000L;
+    public static final int TRACE_MAX_SEGMENTS = 48;
+    public static final String TRACE_EXPORT_FILE_NAME = "hauk-trace.txt.gz";
+    public static final String TRACE_EXPORT_MIME_TYPE = "application/gzip";
+
+    // Time after which objects passed to services through ReceiverDataRegistry are discarded if
+    // they have not been retrieved.
+    public static final long RECEIVER_REGISTRY_TTL = 10L * 60L * 1000L;
+
+    // Minimum time between updates of session metrics in the sharing notification.
+    public static final long TELEMETRY_NOTIFY_INTERVAL = 15L * 1000L;
+
+    // Time after a session's telemetry is discarded during which packets of the session that are
+    // still pending are prevented from registering its telemetry again (ms).
+    public static final long TELEMETRY_DISCARD_RETENTION = 10L * 60L * 1000L;
+
+    // Time after a wakeup alarm during which location points are sent even if the device is idle.
+    // The system grants network access for a short time after an alarm that is allowed while idle.
+    public static final long UPLOAD_WAKEUP_WINDOW = 10L * 1000L;
+
+    // Network policy. Networks with an upstream bandwidth estimate below the slow threshold (kbps)
+    // are treated like roaming and unvalidated networks. On such networks, location points are sent
+    // in batches of at least the constrained batch size, and held back for up to the constrained
+    // flush interval (ms).
+    public static final int NETWORK_SLOW_BANDWIDTH = 256;
+    public static final int NETWORK_CONSTRAINED_BATCH_SIZE = 10;
+    public static final long NETWORK_CONSTRAINED_FLUSH_INTERVAL = 60L * 1000L;
+
     // Keys for use in device spec preferences.
     public static final String DEVICE_PREF_WARNED_BATTERY_SAVINGS = "hasPromptedBatterySavings";
 
@@ -79,6 +120,7 @@ public enum Constants {
     public static final String EXTRA_STOP_TASK = "stopTask";
     public static final String EXTRA_HANDLER = "handler";
     public static final String EXTRA_GNSS_ACTIVE_TASK = "gnssActiveTask";
+    public static final String EXTRA_SESSION_ID = "sessionID";
     public static final String EXTRA_BROADCAST_RECEIVER_REGISTRY_INDEX = "dataRegistryIndex";
     public static final String EXTRA_BROADCAST_AUTHORIZATION_IDENTIFIER = "source";
     public static final String EXTRA_SESSION_SERVER_URL = "server";
@@ -88,7 +130,11 @@ public enum Constants {
     public static final String EXTRA_SESSION_CUSTOM_ID = "requestLink";
     public static final String EXTRA_SESSION_E2E_PASSWORD = "e2ePassword";
     public static final String EXTRA_SESSION_INTERVAL = "interval";
+    public static final String EXTRA_SESSION_MAX_INTERVAL = "maxInterval";
     public static final String EXTRA_SESSION_MIN_DISTANCE = "minDistance";
+    public static final String EXTRA_SESSION_BATCH_SIZE = "batchSize";
+    public static final String EXTRA_SESSION_BATCH_INTERVAL = "batchInterval";
+    public static final String EXTRA_SESSION_QUIET_ZONES = "quietZones";
     public static final String EXTRA_SESSION_ALLOW_ADOPT = "adoptable";
 
     // Content types for intents.
@@ -113,6 +159,7 @@ public enum Constants {
     public static final String PACKET_PARAM_LATITUDE = "lat";
     public static final String PACKET_PARAM_LONGITUDE = "lon";
     public static final String PACKET_PARAM_NICKNAME = "nic";
+    public static final String PACKET_PARAM_PACKED_DATA = "pkd";
     public static final String PACKET_PARAM_PASSWORD = "pwd";
     public static final String PACKET_PARAM_PROVIDER_ACCURACY = "prv";
     public static final String PACKET_PARAM_SALT = "salt";
@@ -128,6 +175,55 @@ public enum Constants {
 
     // HTTP data.
     public static final String HTTP_HEADER_HAUK_VERSION = "X-Hauk-Version";
+    public static final String HTTP_CONTENT_TYPE_BINARY_POST = "application/vnd.hauk.location";
+    public static final int HTTP_GZIP_MIN_SIZE = 256;
+
+    // Maximum number of requests waiting to be sent in a single dispatch lane, i.e. for a single
+    // session.
+    public static final int DISPATCH_LANE_CAPACITY = 16;
+
+    // Version of the binary post format written by this client.
+    public static final int BINARY_POST_FORMAT_VERSION = 1;
+
+    // Offline location queue. The queue holds two hours' worth of points at the default interval.
+    // Stored queues are kept in the given directory, one file per session, and are compacted once
+    // the obsolete records in a file outnumber the live points by the compaction threshold.
+    public static final int LOCATION_QUEUE_CAPACITY = 7200;
+    public static final String LOCATION_QUEUE_DIRECTORY = "queue";
+    public static final int LOCATION_QUEUE_COMPACT_THRESHOLD = 32;
+
+    // Maximum number of location points sent in a single batch location update request.
+    public static final int LOCATION_BATCH_MAX_POINTS = 100;
+
+    // Adaptive update interval parameters. While moving, updates are requested about once per
+    // target distance; a device that stays within the stationary radius for the stationary time
+    // backs off to the session's maximum interval.
+    public static final float ADAPTIVE_TARGET_DISTANCE = 20.0F;
+    public static final float ADAPTIVE_STATIONARY_RADIUS = 25.0F;
+    public static final long ADAPTIVE_STATIONARY_TIME = 60000L;
+
+    // Track simplification parameters. Speeds below the stop speed (m/s) count as stationary, and
+    // heading changes (degrees) above the threshold are always sent. A fix is sent at least once
+    // per maximum gap (ms) so that viewers do not mark the device as offline.
+    public static final float TRACK_STOP_SPEED = 0.5F;
+    public static final float TRACK_HEADING_CHANGE = 30.0F;
+    public static final long TRACK_MAX_GAP = 20000L;
+
+    // Location filter parameters. The process noise (m/s) is how fast the device is assumed to
+    // move if it does not report its speed. Fixes that imply a speed above the maximum speed (m/s)
+    // are rejected, unless the maximum number of fixes in a row have already been rejected. Fixes
+    // without an accuracy radius are assumed to have the default accuracy (m).
+    public static final float FILTER_PROCESS_NOISE = 3.0F;
+    public static final float FILTER_MAX_SPEED = 90.0F;
+    public static final int FILTER_MAX_REJECTED = 3;
+    public static final float FILTER_DEFAULT_ACCURACY = 100.0F;
+
+    // Quiet zone parameters. A quiet session resumes sharing once it is further outside all of its
+    // quiet zones than the margin (m) plus the accuracy of the position estimate. While all sessions
+    // are quiet, network location is checked once per check interval (ms) in addition to passively
+    // received fixes.
+    public static final float QUIET_EXIT_MARGIN = 25.0F;
+    public static final long QUIET_CHECK_INTERVAL = 2L * 60L * 1000L;
 
     // Minimum backend version supporting group shares.
     public static final Version VERSION_COMPAT_GROUP_SHARE = new Version("1.1");
@@ -138,10 +234,23 @@ public enum Constants {
     // Minimum backend/frontend version that support end-to-end encryption.
     public static final Version VERSION_COMPAT_E2E_ENCRYPTION = new Version("1.5");
 
+    // Minimum backend version that accepts multiple location points in one post request.
+    public static final Version VERSION_COMPAT_BATCH_POST = new Version("1.7");
+
+    // Minimum backend/frontend version that supports packed end-to-end encrypted location data.
+    public static final Version VERSION_COMPAT_E2E_PACKED = new Version("1.7");
+
+    // Minimum backend version that accepts location updates in the binary post format.
+    public static final Version VERSION_COMPAT_BINARY_POST = new Version("1.7");
+
+    // Minimum backend version that accepts gzip-compressed location update request bodies.
+    public static final Version VERSION_COMPAT_GZIP_POST = new Version("1.8");
+
     // End-to-end encryption specifications.
     public static final int E2E_AES_KEY_SIZE = 256;
     public static final int E2E_PBKDF2_ITERATIONS = 65536;
     public static final String E2E_KD_FUNCTION = "PBKDF2WithHmacSHA1";
     public static final String E2E_TRANSFORMATION = "AES/CBC/PKCS5Padding";
     public static final String E2E_KEY_SPEC = "AES";
+    public static final int E2E_BUFFER_SIZE = 128;
 }
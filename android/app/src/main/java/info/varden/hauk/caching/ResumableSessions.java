@@ -3,70 +3,102 @@ package info.varden.hauk.caching;
 import android.content.Context;
 import android.content.SharedPreferences;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 
-import info.varden.hauk.BuildConfig;
 import info.varden.hauk.Constants;
+import info.varden.hauk.struct.KeyDerivable;
 import info.varden.hauk.struct.Session;
 import info.varden.hauk.struct.Share;
+import info.varden.hauk.system.security.EncryptedData;
+import info.varden.hauk.system.security.EncryptionException;
+import info.varden.hauk.system.security.KeyStoreAlias;
+import info.varden.hauk.system.security.KeyStoreHelper;
 import info.varden.hauk.utils.Log;
 import info.varden.hauk.utils.StringSerializer;
 
 /**
  * If the Hauk app crashes or shuts down, the app should give the option to resume any interrupted
- * shares. This class handles this functionality.
+ * shares. This class handles this functionality. Resumption data is stored in a
+ * {@link ResumptionJournal}.
  *
  * @author Marius Lindvall
  */
 public final class ResumableSessions {
     private final Context ctx;
-    private final SharedPreferences prefs;
+    private final ResumptionJournal journal;
 
     public ResumableSessions(Context ctx) {
         this.ctx = ctx;
-        this.prefs = ctx.getSharedPreferences(Constants.SHARED_PREFS_RESUMABLE, Context.MODE_PRIVATE);
+        this.journal = ResumptionJournal.get(ctx);
     }
 
     /**
      * If the app crashed, or phone restarted, Hauk gives the option to resume interrupted shares.
      * This function checks if any incomplete shares are saved on the phone and asks the user if
-     * they want to resume them.
+     * they want to resume them. The handler is called once for each session that has resumable
+     * shares.
      *
      * @param handler A handler that is called if there are shares available for resumption.
      */
     public void tryResumeShare(ResumeHandler handler) {
         Log.i("Looking for resumable shares..."); //NON-NLS
-        if (this.prefs.getBoolean(Constants.RESUME_AVAILABLE, false)) {
-            Log.i("Resumable shares found"); //NON-NLS
-
-            // Check if the app version that wrote the resumption data is the same as this session
-            // to avoid deserialization errors due to incompatibilities.
-            String writeVersion = this.prefs.getString(Constants.RESUME_CLIENT_VERSION, "");
-            if (writeVersion.equals(BuildConfig.VERSION_NAME)) {
-                Log.i("Resumable shares are compatible with this version of Hauk"); //NON-NLS
-
-                // Get session parameters.
-                Session session = StringSerializer.deserialize(this.prefs.getString(Constants.RESUME_SESSION_PARAMS, null));
-                List<Share> shares = StringSerializer.deserialize(this.prefs.getString(Constants.RESUME_SHARE_PARAMS, null));
-
-                // Check that the session is still valid.
-                boolean sessionValid = session != null && session.isActive();
-                boolean sharesAvailable = shares != null && !shares.isEmpty();
-
-                if (sessionValid && sharesAvailable) {
-                    Log.i("Stored session is valid and shares are available"); //NON-NLS
-                    handler.onSharesFetched(this.ctx, session, shares.toArray(new Share[0]));
-                } else {
-                    Log.i("Stored share data is invalid"); //NON-NLS
-                    clearResumableSession();
-                }
-            } else {
-                Log.w("Resumption data incompatible, running=%s, stored=%s", BuildConfig.VERSION_NAME, writeVersion); //NON-NLS
+        migrateLegacyData();
+
+        List<Session> sessions = this.journal.getSessions();
+        if (sessions.isEmpty()) {
+            Log.i("No resumable shares found"); //NON-NLS
+            return;
+        }
+
+        for (Session session : sessions) {
+            resume(session, handler);
+        }
+    }
+
+    /**
+     * Checks if shares of a specific session are saved on the phone, and passes them to the
+     * handler if they can be resumed. Saved data of other sessions is left untouched.
+     *
+     * @param sessionID The ID of the session to resume.
+     * @param handler   A handler that is called if there are shares available for resumption.
+     */
+    public void tryResumeSession(String sessionID, ResumeHandler handler) {
+        for (Session session : this.journal.getSessions()) {
+            if (session.getID().equals(sessionID)) {
+                resume(session, handler);
+                return;
             }
+        }
+        Log.i("No resumable shares found for session %s", sessionID); //NON-NLS
+    }
+
+    /**
+     * Passes the saved shares of a session to the handler if the session can be resumed, or clears
+     * its resumption data if it cannot.
+     *
+     * @param session The saved session.
+     * @param handler A handler that is called if there are shares available for resumption.
+     */
+    private void resume(Session session, ResumeHandler handler) {
+        Log.i("Resumable shares found for session %s", session); //NON-NLS
+        List<Share> shares = this.journal.getShares(session.getID());
+
+        // Check that the session is still valid.
+        if (session.isActive() && !shares.isEmpty()) {
+            Log.i("Stored session is valid and shares are available"); //NON-NLS
+            restoreDerivedKey(session);
+            KeyDerivable key = session.getDerivableE2EKey();
+            if (key != null && !key.isUsable()) {
+                // The password is not saved, so the session cannot be resumed without its key.
+                Log.w("End-to-end key of stored session is unavailable"); //NON-NLS
+                clearResumableSession(session.getID());
+                return;
+            }
+            handler.onSharesFetched(this.ctx, session, shares.toArray(new Share[0]));
         } else {
-            Log.i("No resumable shares found"); //NON-NLS
+            Log.i("Stored share data is invalid"); //NON-NLS
+            clearResumableSession(session.getID());
         }
     }
 
@@ -78,11 +110,53 @@ public final class ResumableSessions {
      */
     public void setSessionResumable(Session session) {
         Log.i("Setting session %s resumable", session); //NON-NLS
-        SharedPreferences.Editor editor = this.prefs.edit();
-        editor.putBoolean(Constants.RESUME_AVAILABLE, true);
-        editor.putString(Constants.RESUME_CLIENT_VERSION, BuildConfig.VERSION_NAME);
-        editor.putString(Constants.RESUME_SESSION_PARAMS, StringSerializer.serialize(session));
-        editor.apply();
+        this.journal.setSession(session);
+    }
+
+    /**
+     * Saves the derived end-to-end encryption key of a session, wrapped by a key in the Android key
+     * store, so that the key does not have to be derived again when the session is resumed. The key
+     * is saved along with the session ID and salt, and is only restored into a session with the
+     * same ID and salt.
+     *
+     * @param session The session whose key to save. The key must already have been derived.
+     */
+    public void setDerivedKeyResumable(Session session) {
+        KeyDerivable key = session.getDerivableE2EKey();
+        if (key == null) return;
+        byte[] raw = key.getDerivedKey();
+        if (raw == null) return;
+
+        try {
+            Log.i("Saving derived end-to-end key for resumption"); //NON-NLS
+            this.journal.setWrappedKey(session.getID(), key.getSalt(), new KeyStoreHelper(KeyStoreAlias.E2E_KEYS).encrypt(raw));
+        } catch (EncryptionException e) {
+            Log.e("Unable to save derived end-to-end key", e); //NON-NLS
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    /**
+     * Restores the saved derived end-to-end encryption key into the given session, if the session
+     * is end-to-end encrypted and a key was saved.
+     *
+     * @param session The session to restore the key for.
+     */
+    private void restoreDerivedKey(Session session) {
+        KeyDerivable key = session.getDerivableE2EKey();
+        if (key == null) return;
+        EncryptedData wrapped = this.journal.getWrappedKey(session.getID(), key.getSalt());
+        if (wrapped == null) return;
+
+        try {
+            byte[] raw = new KeyStoreHelper(KeyStoreAlias.E2E_KEYS).decrypt(wrapped);
+            key.restoreDerivedKey(raw);
+            Arrays.fill(raw, (byte) 0);
+            Log.i("Restored derived end-to-end key"); //NON-NLS
+        } catch (EncryptionException e) {
+            Log.e("Unable to restore derived end-to-end key; it will be derived again", e); //NON-NLS
+        }
     }
 
     /**
@@ -93,49 +167,45 @@ public final class ResumableSessions {
      */
     public void setShareResumable(Share share) {
         Log.i("Setting share %s resumable", share); //NON-NLS
-
-        // Get the current list of resumable shares.
-        ArrayList<Share> shares = StringSerializer.deserialize(this.prefs.getString(Constants.RESUME_SHARE_PARAMS, null));
-        if (shares == null) shares = new ArrayList<>();
-
-        // Add the share and save the updated list.
-        shares.add(share);
-        SharedPreferences.Editor editor = this.prefs.edit();
-        editor.putString(Constants.RESUME_SHARE_PARAMS, StringSerializer.serialize(shares));
-        editor.apply();
+        this.journal.addShare(share);
     }
 
     /**
      * Removes a share from the list of resumable shares.
      *
-     * @param shareID The ID of the share to remove.
+     * @param sessionID The ID of the session the share belongs to.
+     * @param shareID   The ID of the share to remove.
      */
-    public void clearResumableShare(String shareID) {
+    public void clearResumableShare(String sessionID, String shareID) {
         Log.i("Clearing resumable share %s", shareID); //NON-NLS
-
-        // Get the current list of resumable shares.
-        ArrayList<Share> shares = StringSerializer.deserialize(this.prefs.getString(Constants.RESUME_SHARE_PARAMS, null));
-        if (shares == null) return;
-
-        // Remove the share and save the updated list.
-        for (Iterator<Share> it = shares.iterator(); it.hasNext();) {
-            if (it.next().getID().equals(shareID)) {
-                it.remove();
-            }
-        }
-        SharedPreferences.Editor editor = this.prefs.edit();
-        editor.putString(Constants.RESUME_SHARE_PARAMS, StringSerializer.serialize(shares));
-        editor.apply();
+        this.journal.removeShare(sessionID, shareID);
     }
 
     /**
-     * Clears saved resumable session data.
+     * Clears saved resumption data for a session, including any saved end-to-end encryption key.
+     * Resumption data for other sessions is kept. Should be called when sharing in the session is
+     * stopped.
+     *
+     * @param sessionID The ID of the session to clear resumption data for.
      */
-    public void clearResumableSession() {
-        Log.i("Clearing all resumption data"); //NON-NLS
+    public void clearResumableSession(String sessionID) {
+        Log.i("Clearing resumption data for session %s", sessionID); //NON-NLS
+        this.journal.removeSession(sessionID);
+    }
 
-        SharedPreferences.Editor editor = this.prefs.edit();
-        editor.clear();
-        editor.apply();
+    /**
+     * Older versions of Hauk stored resumption data as serialized objects in shared preferences.
+     * This moves any such data into the journal, so that shares interrupted by an app upgrade can
+     * still be resumed.
+     */
+    private void migrateLegacyData() {
+        SharedPreferences prefs = this.ctx.getSharedPreferences(Constants.SHARED_PREFS_RESUMABLE, Context.MODE_PRIVATE);
+        if (!prefs.getBoolean(Constants.RESUME_AVAILABLE, false)) return;
+
+        Log.i("Migrating resumption data from shared preferences"); //NON-NLS
+        Session session = StringSerializer.deserialize(prefs.getString(Constants.RESUME_SESSION_PARAMS, null));
+        List<Share> shares = StringSerializer.deserialize(prefs.getString(Constants.RESUME_SHARE_PARAMS, null));
+        this.journal.importLegacy(session, shares);
+        prefs.edit().clear().apply();
     }
 }
@@ -0,0 +1,593 @@
+package info.varden.hauk.caching;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.system.security.EncryptedData;
+import info.varden.hauk.utils.Log;
+
+/**
+ * An append-only journal file that stores the state needed to resume sessions and shares. Each
+ * change is appended as a small record, so that saving a share does not require reading and
+ * rewriting all other state. The journal is read once per process, and is compacted to the live
+ * state when it is loaded and whenever enough obsolete records have accumulated.
+ *
+ * <p>Several sessions may be active at the same time, so all records are keyed by session ID.
+ * Each session is saved and removed independently of the others.</p>
+ *
+ * <p>The file starts with a magic number and a schema version. Each record consists of a one-byte
+ * record type, a four-byte payload length, the payload, and a CRC32 checksum of the type and
+ * payload. Payloads are written using the explicit {@code writeTo} methods of {@link Session} and
+ * {@link Share}. If the app is killed while a record is being written, the incomplete record is
+ * detected by its checksum and discarded along with anything after it.</p>
+ *
+ * <p>End-to-end encryption passwords are never written to the journal. An end-to-end encrypted
+ * session is instead resumed using its derived key, which is stored wrapped by the Android key
+ * store.</p>
+ *
+ * <p>Records are written to the file immediately, but are only synced to the storage device after
+ * {@link Constants#RESUME_JOURNAL_SYNC_DELAY} milliseconds, so that several changes made in quick
+ * succession share one sync.</p>
+ */
+final class ResumptionJournal {
+    private static final int MAGIC = 0x484B524A;
+    private static final int SCHEMA_VERSION = 1;
+
+    /**
+     * The largest payload that is accepted when reading the journal.
+     */
+    private static final int MAX_RECORD_SIZE = 65536;
+
+    /**
+     * Record types.
+     */
+    private static final int RECORD_SESSION = 1;
+    private static final int RECORD_SHARE_ADDED = 2;
+    private static final int RECORD_SHARE_REMOVED = 3;
+    private static final int RECORD_KEY = 4;
+    private static final int RECORD_SESSION_REMOVED = 5;
+
+    /**
+     * Executor that runs delayed syncs of the journal file.
+     */
+    private static final ScheduledExecutorService syncExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * The journal instance for this process.
+     */
+    @Nullable
+    private static ResumptionJournal instance = null;
+
+    /**
+     * The journal file.
+     */
+    private final File file;
+
+    /**
+     * The live state described by the journal, by session ID.
+     */
+    private final Map<String, Entry> sessions = new LinkedHashMap<>();
+
+    /**
+     * The number of records currently in the journal file, including obsolete ones.
+     */
+    private int records = 0;
+
+    /**
+     * The stream that records are appended to, or null if the file is not open.
+     */
+    @Nullable
+    private FileOutputStream out = null;
+
+    /**
+     * Whether or not a sync of the journal file has been scheduled.
+     */
+    private boolean syncScheduled = false;
+
+    /**
+     * Buffers reused for encoding records.
+     */
+    private final ByteArrayOutputStream payloadBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream payload = new DataOutputStream(this.payloadBuffer);
+    private final ByteArrayOutputStream frameBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream frame = new DataOutputStream(this.frameBuffer);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Returns the journal for this process, loading it if necessary.
+     *
+     * @param ctx Android application context.
+     */
+    static synchronized ResumptionJournal get(Context ctx) {
+        if (instance == null) instance = new ResumptionJournal(new File(ctx.getFilesDir(), Constants.RESUME_JOURNAL_FILE));
+        return instance;
+    }
+
+    /**
+     * Opens a journal file and loads its state.
+     *
+     * @param file The journal file.
+     */
+    ResumptionJournal(File file) {
+        this.file = file;
+        if (file.exists()) {
+            load();
+            compact();
+        }
+    }
+
+    /**
+     * Returns all saved sessions, in the order they were first saved.
+     */
+    synchronized List<Session> getSessions() {
+        List<Session> list = new ArrayList<>(this.sessions.size());
+        for (Entry entry : this.sessions.values()) list.add(entry.session);
+        return list;
+    }
+
+    /**
+     * Returns the saved shares of a session.
+     *
+     * @param sessionID The ID of the session.
+     * @return A list of shares, which is empty if the session is not saved.
+     */
+    synchronized List<Share> getShares(String sessionID) {
+        Entry entry = this.sessions.get(sessionID);
+        return entry == null ? new ArrayList<Share>() : new ArrayList<>(entry.shares.values());
+    }
+
+    /**
+     * Returns the wrapped end-to-end encryption key of a session, if one is saved and it was
+     * derived with the given salt.
+     *
+     * @param sessionID The ID of the session to return the key for.
+     * @param salt      The salt of the session's end-to-end encryption parameters.
+     */
+    @Nullable
+    synchronized EncryptedData getWrappedKey(String sessionID, byte[] salt) {
+        Entry entry = this.sessions.get(sessionID);
+        if (entry == null || entry.wrappedKey == null || !Arrays.equals(salt, entry.keySalt)) return null;
+        return entry.wrappedKey;
+    }
+
+    /**
+     * Saves a session to resume. If the session is already saved, it is replaced, but its shares
+     * and wrapped key are kept. Other sessions are not affected.
+     *
+     * @param session The session to save.
+     */
+    synchronized void setSession(Session session) {
+        try {
+            session.writeTo(beginPayload());
+            putSession(session);
+            append(RECORD_SESSION);
+        } catch (IOException e) {
+            Log.e("Failed to encode session for resumption journal", e); //NON-NLS
+        }
+    }
+
+    /**
+     * Adds a share to resume. The session of the share must already be saved.
+     *
+     * @param share The share to save.
+     */
+    synchronized void addShare(Share share) {
+        String sessionID = share.getSession().getID();
+        Entry entry = this.sessions.get(sessionID);
+        if (entry == null) {
+            Log.w("Not saving share of session that is not resumable"); //NON-NLS
+            return;
+        }
+        try {
+            DataOutputStream out = beginPayload();
+            out.writeUTF(sessionID);
+            share.writeTo(out);
+            entry.shares.put(share.getID(), share);
+            append(RECORD_SHARE_ADDED);
+        } catch (IOException e) {
+            Log.e("Failed to encode share for resumption journal", e); //NON-NLS
+        }
+    }
+
+    /**
+     * Removes a share so that it is no longer resumed.
+     *
+     * @param sessionID The ID of the session the share belongs to.
+     * @param shareID   The ID of the share to remove.
+     */
+    synchronized void removeShare(String sessionID, String shareID) {
+        Entry entry = this.sessions.get(sessionID);
+        if (entry == null || entry.shares.remove(shareID) == null) return;
+        try {
+            DataOutputStream out = beginPayload();
+            out.writeUTF(sessionID);
+            out.writeUTF(shareID);
+            append(RECORD_SHARE_REMOVED);
+        } catch (IOException e) {
+            Log.e("Failed to encode share removal for resumption journal", e); //NON-NLS
+        }
+    }
+
+    /**
+     * Saves the wrapped end-to-end encryption key of a session. The session must already be saved.
+     *
+     * @param sessionID The ID of the session the key was derived for.
+     * @param salt      The salt the key was derived with.
+     * @param key       The key, wrapped by the Android key store.
+     */
+    synchronized void setWrappedKey(String sessionID, byte[] salt, EncryptedData key) {
+        Entry entry = this.sessions.get(sessionID);
+        if (entry == null) {
+            Log.w("Not saving key of session that is not resumable"); //NON-NLS
+            return;
+        }
+        try {
+            writeKey(beginPayload(), sessionID, salt, key);
+            entry.keySalt = salt.clone();
+            entry.wrappedKey = key;
+            append(RECORD_KEY);
+        } catch (IOException e) {
+            Log.e("Failed to encode key for resumption journal", e); //NON-NLS
+        }
+    }
+
+    /**
+     * Removes a session along with its shares and wrapped key, so that it is no longer resumed.
+     * Other sessions are not affected. If no sessions remain, the journal file is deleted.
+     *
+     * @param sessionID The ID of the session to remove.
+     */
+    synchronized void removeSession(String sessionID) {
+        if (this.sessions.remove(sessionID) == null) return;
+        if (this.sessions.isEmpty()) {
+            this.records = 0;
+            close();
+            if (this.file.exists() && !this.file.delete()) Log.w("Failed to delete resumption journal"); //NON-NLS
+            return;
+        }
+        try {
+            beginPayload().writeUTF(sessionID);
+            append(RECORD_SESSION_REMOVED);
+        } catch (IOException e) {
+            Log.e("Failed to encode session removal for resumption journal", e); //NON-NLS
+        }
+    }
+
+    /**
+     * Imports resumption data that was stored by an older version of Hauk. The data is ignored if
+     * the journal already contains the session.
+     *
+     * @param session The session to import, or null if none was stored.
+     * @param shares  The shares of the session, or null if none were stored.
+     */
+    synchronized void importLegacy(@Nullable Session session, @Nullable List<Share> shares) {
+        if (session == null || this.sessions.containsKey(session.getID())) return;
+        setSession(session);
+        if (shares == null) return;
+        for (Share share : shares) {
+            share.setSession(session);
+            addShare(share);
+        }
+    }
+
+    /**
+     * Reads all valid records from the journal file into memory.
+     */
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != SCHEMA_VERSION) {
+                Log.w("Resumption journal has an unknown format and will be discarded"); //NON-NLS
+                return;
+            }
+            int type;
+            while ((type = in.read()) != -1) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE) throw new IOException("Invalid record length " + length);
+                byte[] data = new byte[length];
+                in.readFully(data);
+                if (in.readInt() != checksum(type, data)) throw new IOException("Record checksum mismatch");
+                apply(type, data);
+                this.records++;
+            }
+            Log.i("Loaded %s records from resumption journal", this.records); //NON-NLS
+        } catch (IOException e) {
+            // The last record may have been partially written if the app was killed while writing
+            // it. Every record before it is still valid.
+            Log.w("Resumption journal is truncated or corrupt after %s valid records", e, this.records); //NON-NLS
+        }
+    }
+
+    /**
+     * Applies a record to the in-memory state.
+     *
+     * @param type The record type.
+     * @param data The record payload.
+     * @throws IOException if the payload is invalid.
+     */
+    private void apply(int type, byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        switch (type) {
+            case RECORD_SESSION:
+                putSession(Session.readFrom(in));
+                break;
+
+            case RECORD_SHARE_ADDED: {
+                Entry entry = getEntry(in.readUTF());
+                Share share = Share.readFrom(in, entry.session);
+                entry.shares.put(share.getID(), share);
+                break;
+            }
+
+            case RECORD_SHARE_REMOVED:
+                getEntry(in.readUTF()).shares.remove(in.readUTF());
+                break;
+
+            case RECORD_KEY: {
+                Entry entry = getEntry(in.readUTF());
+                byte[] salt = new byte[in.readUnsignedShort()];
+                in.readFully(salt);
+                byte[] iv = new byte[in.readUnsignedByte()];
+                in.readFully(iv);
+                byte[] message = new byte[in.readUnsignedShort()];
+                in.readFully(message);
+                entry.keySalt = salt;
+                entry.wrappedKey = new EncryptedData(iv, message);
+                break;
+            }
+
+            case RECORD_SESSION_REMOVED:
+                this.sessions.remove(in.readUTF());
+                break;
+
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Adds or replaces a session in the in-memory state, keeping its shares and wrapped key.
+     *
+     * @param session The session.
+     */
+    private void putSession(Session session) {
+        Entry entry = this.sessions.get(session.getID());
+        if (entry == null) {
+            this.sessions.put(session.getID(), new Entry(session));
+        } else {
+            entry.session = session;
+            for (Share share : entry.shares.values()) share.setSession(session);
+        }
+    }
+
+    /**
+     * Returns the in-memory state of a session that a record refers to.
+     *
+     * @param sessionID The ID of the session.
+     * @throws IOException if the session is not saved.
+     */
+    private Entry getEntry(String sessionID) throws IOException {
+        Entry entry = this.sessions.get(sessionID);
+        if (entry == null) throw new IOException("Record refers to unknown session");
+        return entry;
+    }
+
+    /**
+     * Clears the payload buffer and returns a stream to write the next payload to.
+     */
+    private DataOutputStream beginPayload() {
+        this.payloadBuffer.reset();
+        return this.payload;
+    }
+
+    /**
+     * Appends the record in the payload buffer to the journal file, compacting the journal if it
+     * contains too many obsolete records.
+     *
+     * @param type The record type.
+     */
+    private void append(int type) {
+        int live = 0;
+        for (Entry entry : this.sessions.values()) live += 1 + entry.shares.size() + (entry.wrappedKey != null ? 1 : 0);
+        if (this.records + 1 >= live + Constants.RESUME_JOURNAL_COMPACT_THRESHOLD) {
+            compact();
+            return;
+        }
+
+        try {
+            if (this.out == null) {
+                boolean empty = this.file.length() == 0;
+                this.out = new FileOutputStream(this.file, true);
+                if (empty) {
+                    this.out.write(header());
+                    this.records = 0;
+                }
+            }
+            this.out.write(frame(type, this.payloadBuffer.toByteArray()));
+            this.records++;
+            scheduleSync();
+        } catch (IOException e) {
+            Log.e("Failed to append to resumption journal", e); //NON-NLS
+            close();
+        }
+    }
+
+    /**
+     * Rewrites the journal file so that it only contains the live state. The new journal is
+     * written to a temporary file and synced before it replaces the old one.
+     */
+    private void compact() {
+        close();
+        File temp = new File(this.file.getPath() + ".tmp");
+        try {
+            ByteArrayOutputStream journal = new ByteArrayOutputStream();
+            journal.write(header());
+            int count = 0;
+            for (Map.Entry<String, Entry> e : this.sessions.entrySet()) {
+                String sessionID = e.getKey();
+                Entry entry = e.getValue();
+                entry.session.writeTo(beginPayload());
+                journal.write(frame(RECORD_SESSION, this.payloadBuffer.toByteArray()));
+                count++;
+                for (Share share : entry.shares.values()) {
+                    DataOutputStream out = beginPayload();
+                    out.writeUTF(sessionID);
+                    share.writeTo(out);
+                    journal.write(frame(RECORD_SHARE_ADDED, this.payloadBuffer.toByteArray()));
+                    count++;
+                }
+                if (entry.wrappedKey != null) {
+                    writeKey(beginPayload(), sessionID, entry.keySalt, entry.wrappedKey);
+                    journal.write(frame(RECORD_KEY, this.payloadBuffer.toByteArray()));
+                    count++;
+                }
+            }
+
+            try (FileOutputStream tempOut = new FileOutputStream(temp)) {
+                journal.writeTo(tempOut);
+                tempOut.getFD().sync();
+            }
+            if (!temp.renameTo(this.file)) throw new IOException("Failed to replace journal file");
+            this.records = count;
+            Log.v("Compacted resumption journal to %s records", count); //NON-NLS
+        } catch (IOException e) {
+            Log.e("Failed to compact resumption journal", e); //NON-NLS
+            if (temp.exists() && !temp.delete()) Log.w("Failed to delete temporary journal file"); //NON-NLS
+        }
+    }
+
+    /**
+     * Schedules a sync of the journal file, unless one is already scheduled.
+     */
+    private void scheduleSync() {
+        if (this.syncScheduled) return;
+        this.syncScheduled = true;
+        syncExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                sync();
+            }
+        }, Constants.RESUME_JOURNAL_SYNC_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Syncs all records written so far to the storage device.
+     */
+    private synchronized void sync() {
+        this.syncScheduled = false;
+        if (this.out == null) return;
+        try {
+            this.out.getFD().sync();
+        } catch (IOException e) {
+            Log.w("Failed to sync resumption journal", e); //NON-NLS
+        }
+    }
+
+    /**
+     * Closes the journal file, syncing it first.
+     */
+    private void close() {
+        if (this.out == null) return;
+        try {
+            this.out.getFD().sync();
+            this.out.close();
+        } catch (IOException e) {
+            Log.w("Failed to close resumption journal", e); //NON-NLS
+        }
+        this.out = null;
+    }
+
+    /**
+     * Returns the journal file header.
+     */
+    private static byte[] header() {
+        return new byte[] {
+                (byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC,
+                (byte) (SCHEMA_VERSION >>> 24), (byte) (SCHEMA_VERSION >>> 16), (byte) (SCHEMA_VERSION >>> 8), (byte) SCHEMA_VERSION
+        };
+    }
+
+    /**
+     * Frames a record payload with its type, length and checksum.
+     *
+     * @param type The record type.
+     * @param data The record payload.
+     * @return The framed record.
+     * @throws IOException if framing fails.
+     */
+    private byte[] frame(int type, byte[] data) throws IOException {
+        this.frameBuffer.reset();
+        this.frame.writeByte(type);
+        this.frame.writeInt(data.length);
+        this.frame.write(data);
+        this.frame.writeInt(checksum(type, data));
+        return this.frameBuffer.toByteArray();
+    }
+
+    /**
+     * Calculates the checksum of a record.
+     */
+    private int checksum(int type, byte[] data) {
+        this.crc.reset();
+        this.crc.update(type);
+        this.crc.update(data, 0, data.length);
+        return (int) this.crc.getValue();
+    }
+
+    /**
+     * Writes a wrapped key record payload.
+     */
+    private static void writeKey(DataOutputStream out, String sessionID, byte[] salt, EncryptedData key) throws IOException {
+        byte[] iv = key.getIV();
+        byte[] message = key.getMessage();
+        out.writeUTF(sessionID);
+        out.writeShort(salt.length);
+        out.write(salt);
+        out.writeByte(iv.length);
+        out.write(iv);
+        out.writeShort(message.length);
+        out.write(message);
+    }
+
+    /**
+     * The saved state of a single session.
+     */
+    private static final class Entry {
+        private Session session;
+        private final Map<String, Share> shares = new LinkedHashMap<>();
+
+        /**
+         * The wrapped end-to-end encryption key of the session, and the salt it was derived with.
+         */
+        @Nullable
+        private EncryptedData wrappedKey = null;
+        @Nullable
+        private byte[] keySalt = null;
+
+        private Entry(Session session) {
+            this.session = session;
+        }
+    }
+}
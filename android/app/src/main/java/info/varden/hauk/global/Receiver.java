@@ -9,6 +9,7 @@ import android.widget.Toast;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.SocketAddress;
+import java.util.List;
 
 import info.varden.hauk.Constants;
 import info.varden.hauk.R;
@@ -21,6 +22,7 @@ import info.varden.hauk.http.ConnectionParameters;
 import info.varden.hauk.http.SessionInitiationPacket;
 import info.varden.hauk.http.security.CertificateValidationPolicy;
 import info.varden.hauk.manager.SessionManager;
+import info.varden.hauk.struct.Geofence;
 // import info.varden.hauk.struct.AdoptabilityPreference; // a.i. generated
 import info.varden.hauk.system.LocationPermissionsNotGrantedException;
 import info.varden.hauk.system.LocationServicesDisabledException;
@@ -118,7 +120,13 @@ public final class Receiver extends BroadcastReceiver {
     private static void startAloneThenShareVia(Context ctx, Intent intent) {
         // Create session initiation parameters.
         PreferenceManager prefs = new PreferenceManager(ctx);
-        SessionInitiationPacket.InitParameters initParams = buildSessionParams(intent, prefs);
+        SessionInitiationPacket.InitParameters initParams;
+        try {
+            initParams = buildSessionParams(intent, prefs);
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(ctx, R.string.err_invalid_quiet_zones, Toast.LENGTH_LONG).show();
+            return;
+        }
         // boolean adoptable = intent.hasExtra(Constants.EXTRA_SESSION_ALLOW_ADOPT) ? intent.getBooleanExtra(Constants.EXTRA_SESSION_ALLOW_ADOPT, true) : prefs.get(Constants.PREF_ALLOW_ADOPTION); // TODO: AdoptabilityPreference removed a.i. generated
 
         SessionManager manager = new BroadcastSessionManager(ctx);
@@ -146,7 +154,13 @@ public final class Receiver extends BroadcastReceiver {
 
         // Create session initiation parameters.
         PreferenceManager prefs = new PreferenceManager(ctx);
-        SessionInitiationPacket.InitParameters initParams = buildSessionParams(intent, prefs);
+        SessionInitiationPacket.InitParameters initParams;
+        try {
+            initParams = buildSessionParams(intent, prefs);
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(ctx, R.string.err_invalid_quiet_zones, Toast.LENGTH_LONG).show();
+            return;
+        }
         // boolean adoptable = intent.hasExtra(Constants.EXTRA_SESSION_ALLOW_ADOPT) ? intent.getBooleanExtra(Constants.EXTRA_SESSION_ALLOW_ADOPT, true) : prefs.get(Constants.PREF_ALLOW_ADOPTION); // TODO: AdoptabilityPreference removed a.i. generated
 
         SessionManager manager = new BroadcastSessionManager(ctx);
@@ -168,14 +182,18 @@ public final class Receiver extends BroadcastReceiver {
      * @param intent   The intent to extract data from.
      * @param fallback A preference manager to fetch default values from.
      * @return Session initiation parameters.
+     * @throws IllegalArgumentException if the quiet zones are not a valid list of geofences.
      */
-    private static SessionInitiationPacket.InitParameters buildSessionParams(Intent intent, PreferenceManager fallback) {
+    private static SessionInitiationPacket.InitParameters buildSessionParams(Intent intent, PreferenceManager fallback) throws IllegalArgumentException {
         String server = intent.hasExtra(Constants.EXTRA_SESSION_SERVER_URL) ? intent.getStringExtra(Constants.EXTRA_SESSION_SERVER_URL) : fallback.get(Constants.PREF_SERVER_ENCRYPTED);
         String username = intent.hasExtra(Constants.EXTRA_SESSION_USERNAME) ? intent.getStringExtra(Constants.EXTRA_SESSION_USERNAME) : fallback.get(Constants.PREF_USERNAME_ENCRYPTED);
         String password = intent.hasExtra(Constants.EXTRA_SESSION_PASSWORD) ? intent.getStringExtra(Constants.EXTRA_SESSION_PASSWORD) : fallback.get(Constants.PREF_PASSWORD_ENCRYPTED);
         int duration = intent.hasExtra(Constants.EXTRA_SESSION_DURATION) ? intent.getIntExtra(Constants.EXTRA_SESSION_DURATION, 0) : TimeUtils.timeUnitsToSeconds(fallback.get(Constants.PREF_DURATION), fallback.get(Constants.PREF_DURATION_UNIT));
         int interval = intent.hasExtra(Constants.EXTRA_SESSION_INTERVAL) ? intent.getIntExtra(Constants.EXTRA_SESSION_INTERVAL, 0) : fallback.get(Constants.PREF_INTERVAL);
+        int maxInterval = intent.hasExtra(Constants.EXTRA_SESSION_MAX_INTERVAL) ? intent.getIntExtra(Constants.EXTRA_SESSION_MAX_INTERVAL, 0) : fallback.get(Constants.PREF_MAX_INTERVAL);
         float minDistance = intent.hasExtra(Constants.EXTRA_SESSION_MIN_DISTANCE) ? intent.getIntExtra(Constants.EXTRA_SESSION_MIN_DISTANCE, 0) : fallback.get(Constants.PREF_UPDATE_DISTANCE);
+        int batchSize = intent.hasExtra(Constants.EXTRA_SESSION_BATCH_SIZE) ? intent.getIntExtra(Constants.EXTRA_SESSION_BATCH_SIZE, 1) : fallback.get(Constants.PREF_BATCH_SIZE);
+        int batchInterval = intent.hasExtra(Constants.EXTRA_SESSION_BATCH_INTERVAL) ? intent.getIntExtra(Constants.EXTRA_SESSION_BATCH_INTERVAL, 0) : fallback.get(Constants.PREF_BATCH_INTERVAL);
         String customID = intent.hasExtra(Constants.EXTRA_SESSION_CUSTOM_ID) ? intent.getStringExtra(Constants.EXTRA_SESSION_CUSTOM_ID) : fallback.get(Constants.PREF_CUSTOM_ID);
 
         String e2ePass = "";
@@ -185,6 +203,8 @@ public final class Receiver extends BroadcastReceiver {
             e2ePass = fallback.get(Constants.PREF_E2E_PASSWORD);
         }
 
+        List<Geofence> quietZones = Geofence.parseList(intent.hasExtra(Constants.EXTRA_SESSION_QUIET_ZONES) ? intent.getStringExtra(Constants.EXTRA_SESSION_QUIET_ZONES) : fallback.get(Constants.PREF_QUIET_ZONES));
+
         assert server != null;
         server = server.endsWith("/") ? server : server + "/";
 
@@ -201,7 +221,7 @@ public final class Receiver extends BroadcastReceiver {
             connParams = new ConnectionParameters(null, null, timeout, tlsPolicy);
         }
 
-        SessionInitiationPacket.InitParameters initParams = new SessionInitiationPacket.InitParameters(server, username, password, duration, interval, minDistance, customID, e2ePass);
+        SessionInitiationPacket.InitParameters initParams = new SessionInitiationPacket.InitParameters(server, username, password, duration, interval, maxInterval, minDistance, batchSize, batchInterval, customID, e2ePass, quietZones);
         initParams.setConnectionParameters(connParams);
         return initParams;
     }
@@ -0,0 +1,56 @@
+package info.varden.hauk.http;
+
+import android.content.Context;
+
+import java.util.List;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.struct.LocationPoint;
+import info.varden.hauk.struct.Session;
+
+/**
+ * Packet that is sent to update the client's location on the map with several location points at
+ * once. Requires backend version {@link info.varden.hauk.Constants#VERSION_COMPAT_BATCH_POST} if
+ * more than one point is sent; a batch of a single point is sent in the same format as a
+ * {@link LocationUpdatePacket}.
+ */
+public abstract class BatchLocationUpdatePacket extends LocationUpdatePacket {
+    /**
+     * The number of location points contained in this packet.
+     */
+    private final int size;
+
+    /**
+     * Creates the packet.
+     *
+     * @param ctx     Android application context.
+     * @param session The session for which location is being updated.
+     * @param points  The location points to send, ordered from oldest to newest.
+     */
+    protected BatchLocationUpdatePacket(Context ctx, Session session, List<LocationPoint> points) {
+        this(ctx, session, points, false);
+    }
+
+    /**
+     * Creates the packet, optionally compressing it if the backend supports compressed request
+     * bodies ({@link info.varden.hauk.Constants#VERSION_COMPAT_GZIP_POST}).
+     *
+     * @param ctx      Android application context.
+     * @param session  The session for which location is being updated.
+     * @param points   The location points to send, ordered from oldest to newest.
+     * @param compress Whether or not to compress the request body, e.g. on a metered connection.
+     */
+    protected BatchLocationUpdatePacket(Context ctx, Session session, List<LocationPoint> points, boolean compress) {
+        super(ctx, session);
+        this.size = points.size();
+        setPoints(session, points);
+        setCompressed(compress && session.getBackendVersion().isAtLeast(Constants.VERSION_COMPAT_GZIP_POST));
+    }
+
+    /**
+     * Returns the number of location points contained in this packet.
+     */
+    public final int getSize() {
+        return this.size;
+    }
+}
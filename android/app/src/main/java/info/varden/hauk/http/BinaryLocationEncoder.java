@@ -0,0 +1,193 @@
+package info.varden.hauk.http;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.struct.LocationPoint;
+
+/**
+ * Encodes location updates in the compact binary format accepted by backends since version
+ * {@link Constants#VERSION_COMPAT_BINARY_POST}. It replaces URL-encoded decimal strings with
+ * fixed-point coordinates and delta-encoded timestamps, which shrinks a single location update from
+ * a couple of hundred bytes to about fifty, most of which is the session ID.
+ *
+ * <p>All integers are big-endian. Varints are unsigned LEB128; signed varints are zigzag-encoded
+ * before being written as varints. The body is laid out as follows:</p>
+ * <pre>
+ * u8      format version ({@link Constants#BINARY_POST_FORMAT_VERSION})
+ * u8      length of the session ID, in bytes
+ * byte[]  session ID, as raw bytes rather than hexadecimal
+ * u8      number of points
+ * u32     timestamp of the first point, in whole seconds since the Unix epoch
+ * point[] location points, oldest first
+ * </pre>
+ * <p>Each point is laid out as follows:</p>
+ * <pre>
+ * u8      flags: {@link #FLAG_COARSE}, {@link #FLAG_ACCURACY}, {@link #FLAG_SPEED},
+ *         {@link #FLAG_ACCURACY_METERS}
+ * svarint milliseconds since the previous point, or since the base timestamp for the first point
+ * s32     latitude, in units of {@link #COORDINATE_SCALE} degrees; a svarint delta from the
+ *         previous point for all points except the first
+ * s32     longitude, encoded like the latitude
+ * u16     accuracy, in decimeters, or in meters if {@link #FLAG_ACCURACY_METERS} is set, if
+ *         {@link #FLAG_ACCURACY} is set
+ * u16     speed, in centimeters per second, if {@link #FLAG_SPEED} is set
+ * </pre>
+ * <p>Accuracies too large to be stored in decimeters, e.g. from cell tower based fixes, are stored
+ * in whole meters instead. Accuracies and speeds that do not fit even then are clamped.</p>
+ */
+enum BinaryLocationEncoder {
+    ;
+
+    /**
+     * Point flag set if the location was obtained from the coarse location provider.
+     */
+    static final int FLAG_COARSE = 0x01;
+
+    /**
+     * Point flag set if the point contains an accuracy field.
+     */
+    static final int FLAG_ACCURACY = 0x02;
+
+    /**
+     * Point flag set if the point contains a speed field.
+     */
+    static final int FLAG_SPEED = 0x04;
+
+    /**
+     * Point flag set if the accuracy field is in meters rather than decimeters.
+     */
+    static final int FLAG_ACCURACY_METERS = 0x08;
+
+    /**
+     * The number of coordinate units per degree, i.e. about one centimeter per unit.
+     */
+    static final double COORDINATE_SCALE = 1.0E7D;
+
+    /**
+     * The largest value that fits in an unsigned 16-bit field.
+     */
+    private static final int MAX_U16 = 0xFFFF;
+
+    /**
+     * The largest value that fits in an unsigned 8-bit field, which limits the session ID length
+     * and the number of points.
+     */
+    private static final int MAX_U8 = 0xFF;
+
+    /**
+     * Returns whether or not location updates for the given session can be binary encoded. This
+     * requires the session ID to be hexadecimal, which is always the case for IDs issued by the
+     * backend.
+     *
+     * @param sessionID The ID of the session.
+     */
+    static boolean canEncode(String sessionID) {
+        int length = sessionID.length();
+        if (length == 0 || length % 2 != 0 || length / 2 > MAX_U8) return false;
+        for (int i = 0; i < length; i++) {
+            if (Character.digit(sessionID.charAt(i), 16) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encodes location points for the given session.
+     *
+     * @param sessionID The ID of the session. Must satisfy {@link #canEncode(String)}.
+     * @param points    The location points to encode, ordered from oldest to newest.
+     * @return The request body.
+     * @throws IllegalArgumentException if there are no points or too many points.
+     */
+    static byte[] encode(String sessionID, List<LocationPoint> points) {
+        int count = points.size();
+        if (count == 0 || count > MAX_U8) throw new IllegalArgumentException("Cannot encode " + count + " points");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + sessionID.length() / 2 + count * 16);
+        out.write(Constants.BINARY_POST_FORMAT_VERSION);
+        out.write(sessionID.length() / 2);
+        for (int i = 0; i < sessionID.length(); i += 2) {
+            out.write(Character.digit(sessionID.charAt(i), 16) << 4 | Character.digit(sessionID.charAt(i + 1), 16));
+        }
+        out.write(count);
+
+        long time = points.get(0).getTimeMillis() / 1000L * 1000L;
+        writeInt(out, (int) (time / 1000L));
+
+        int latitude = 0;
+        int longitude = 0;
+        for (int i = 0; i < count; i++) {
+            LocationPoint point = points.get(i);
+            Float accuracy = point.getAccuracy();
+            Float speed = point.getSpeed();
+
+            int flags = 0;
+            int accuracyField = 0;
+            if (point.getProvider() == LocationProvider.COARSE) flags |= FLAG_COARSE;
+            if (accuracy != null) {
+                flags |= FLAG_ACCURACY;
+                accuracyField = Math.round(accuracy * 10.0F);
+                if (accuracyField > MAX_U16) {
+                    flags |= FLAG_ACCURACY_METERS;
+                    accuracyField = Math.round(accuracy);
+                }
+            }
+            if (speed != null) flags |= FLAG_SPEED;
+            out.write(flags);
+
+            writeSignedVarint(out, point.getTimeMillis() - time);
+            time = point.getTimeMillis();
+
+            int lat = (int) Math.round(point.getLatitude() * COORDINATE_SCALE);
+            int lon = (int) Math.round(point.getLongitude() * COORDINATE_SCALE);
+            if (i == 0) {
+                writeInt(out, lat);
+                writeInt(out, lon);
+            } else {
+                // The difference between two coordinates does not always fit in an int, e.g. when
+                // crossing the antimeridian.
+                writeSignedVarint(out, (long) lat - latitude);
+                writeSignedVarint(out, (long) lon - longitude);
+            }
+            latitude = lat;
+            longitude = lon;
+
+            if (accuracy != null) writeShort(out, accuracyField);
+            if (speed != null) writeShort(out, Math.round(speed * 100.0F));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a 32-bit integer.
+     */
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Writes an unsigned 16-bit integer, clamping the value to the range of the field.
+     */
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        value = Math.max(0, Math.min(MAX_U16, value));
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Writes a zigzag-encoded signed varint.
+     */
+    private static void writeSignedVarint(ByteArrayOutputStream out, long value) {
+        long zigzag = value << 1 ^ value >> 63;
+        while ((zigzag & ~0x7FL) != 0L) {
+            out.write((int) (zigzag & 0x7FL | 0x80L));
+            zigzag >>>= 7;
+        }
+        out.write((int) zigzag);
+    }
+}
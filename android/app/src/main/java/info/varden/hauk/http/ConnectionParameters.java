@@ -2,11 +2,17 @@ package info.varden.hauk.http;
 
 import androidx.annotation.Nullable;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.SocketAddress;
 
 import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.system.preferences.IndexedEnum;
 
 /**
  * Structure used to store connection parameters for backend connections, e.g. proxy details.
@@ -56,6 +62,61 @@ public final class ConnectionParameters implements Serializable {
         return this.tlsPolicy;
     }
 
+    /**
+     * Writes these connection parameters to a stream. Proxy addresses are written with their
+     * resolved IP address, if any, so that they do not have to be resolved again when read.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        boolean hasProxy = this.proxyType != null && this.proxyAddress instanceof InetSocketAddress;
+        out.writeBoolean(hasProxy);
+        if (hasProxy) {
+            InetSocketAddress address = (InetSocketAddress) this.proxyAddress;
+            out.writeUTF(this.proxyType.name());
+            out.writeUTF(address.getHostString());
+            out.writeShort(address.getPort());
+            byte[] ip = address.getAddress() == null ? new byte[0] : address.getAddress().getAddress();
+            out.writeByte(ip.length);
+            out.write(ip);
+        }
+        out.writeInt(this.connectTimeout);
+        out.writeInt(this.tlsPolicy.getIndex());
+    }
+
+    /**
+     * Reads connection parameters written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in The stream to read from.
+     * @throws IOException if reading fails or the data is invalid.
+     */
+    public static ConnectionParameters readFrom(DataInput in) throws IOException {
+        Proxy.Type proxyType = null;
+        SocketAddress proxyAddress = null;
+        if (in.readBoolean()) {
+            try {
+                proxyType = Proxy.Type.valueOf(in.readUTF());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e);
+            }
+            String host = in.readUTF();
+            int port = in.readUnsignedShort();
+            byte[] ip = new byte[in.readUnsignedByte()];
+            in.readFully(ip);
+            proxyAddress = ip.length == 0
+                    ? InetSocketAddress.createUnresolved(host, port)
+                    : new InetSocketAddress(InetAddress.getByAddress(host, ip), port);
+        }
+        int connectTimeout = in.readInt();
+        try {
+            CertificateValidationPolicy tlsPolicy = IndexedEnum.fromIndex(CertificateValidationPolicy.class, in.readInt());
+            return new ConnectionParameters(proxyType, proxyAddress, connectTimeout, tlsPolicy);
+        } catch (IllegalAccessException | InstantiationException e) {
+            throw new IOException(e);
+        }
+    }
+
     @Override
     public String toString() {
         return "ConnectionParameters{"
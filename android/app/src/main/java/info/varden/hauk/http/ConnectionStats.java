@@ -0,0 +1,88 @@
+package info.varden.hauk.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters that show how well HTTPS connections to the backend are reused. Android keeps idle
+ * connections in a pool and reuses them for later requests to the same host, provided that the
+ * previous response was read to the end and that the same socket factory is used. A request that
+ * reuses a pooled connection skips both the TCP and the TLS handshake. A request that opens a new
+ * connection may still skip part of the TLS handshake if a previous TLS session is resumed.
+ *
+ * <p>Only HTTPS requests are counted, as new plain HTTP connections cannot be observed.</p>
+ */
+public enum ConnectionStats {
+    ;
+
+    /**
+     * The number of HTTPS requests that have been made.
+     */
+    private static final AtomicLong requests = new AtomicLong();
+
+    /**
+     * The number of new HTTPS connections that have been opened.
+     */
+    private static final AtomicLong connections = new AtomicLong();
+
+    /**
+     * The number of TLS handshakes that have been completed.
+     */
+    private static final AtomicLong handshakes = new AtomicLong();
+
+    /**
+     * The number of TLS handshakes that resumed a previous TLS session.
+     */
+    private static final AtomicLong resumedHandshakes = new AtomicLong();
+
+    static void onRequest() {
+        requests.incrementAndGet();
+    }
+
+    static void onConnectionOpened() {
+        connections.incrementAndGet();
+    }
+
+    static void onHandshakeCompleted(boolean resumed) {
+        handshakes.incrementAndGet();
+        if (resumed) resumedHandshakes.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of HTTPS requests that reused a pooled connection.
+     */
+    public static long getPoolHits() {
+        return Math.max(0, requests.get() - connections.get());
+    }
+
+    /**
+     * Returns the number of HTTPS requests that had to open a new connection.
+     */
+    public static long getPoolMisses() {
+        return connections.get();
+    }
+
+    /**
+     * Returns the number of TLS handshakes that have been completed.
+     */
+    public static long getHandshakes() {
+        return handshakes.get();
+    }
+
+    /**
+     * Returns the number of TLS handshakes that resumed a previous TLS session.
+     */
+    public static long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    /**
+     * Returns a human-readable summary of the counters.
+     */
+    @SuppressWarnings("HardCodedStringLiteral")
+    public static String summarize() {
+        return "pool hits=" + getPoolHits()
+                + ", pool misses=" + getPoolMisses()
+                + ", TLS handshakes=" + getHandshakes()
+                + ", resumed=" + getResumedHandshakes();
+    }
+}
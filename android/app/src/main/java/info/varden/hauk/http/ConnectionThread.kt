@@ -1,15 +1,17 @@
 package info.varden.hauk.http
 
 import android.content.Context
+import android.os.SystemClock
+import androidx.annotation.VisibleForTesting
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import java.io.BufferedReader
-import java.io.BufferedWriter
+import java.io.ByteArrayOutputStream
+import java.io.FilterInputStream
+import java.io.InputStream
 import java.io.InputStreamReader
-import java.io.OutputStream
-import java.io.OutputStreamWriter
 import java.io.UnsupportedEncodingException
 import java.net.HttpURLConnection
 import java.net.Proxy
@@ -18,7 +20,9 @@ import java.net.URLEncoder
 import java.nio.charset.StandardCharsets
 import java.util.Locale
 import java.util.Random
+import java.util.zip.GZIPOutputStream
 import javax.net.ssl.HttpsURLConnection
+import javax.net.ssl.SSLSocketFactory
 import info.varden.hauk.BuildConfig
 import info.varden.hauk.Constants
 import info.varden.hauk.R
@@ -47,7 +51,7 @@ internal class ConnectionThread(private val callback: Callback) {
      * @param request The request to send.
      */
     suspend fun execute(request: Request) {
-        val response = performRequest(request)
+        val response = withContext(Dispatchers.IO) { performRequest(request) }
         withContext(Dispatchers.Main) {
             callback.run(response)
         }
@@ -56,94 +60,143 @@ internal class ConnectionThread(private val callback: Callback) {
     /**
      * Executes the HTTP request from Java code by launching a coroutine.
      * The callback will be invoked on the main thread.
+     * If the request has a dispatch lane, it is queued behind other requests in the same lane. If
+     * the request is dropped from the lane before it is sent, the callback receives the reason as
+     * the exception of the response.
      *
      * @param request The request to send.
      */
     fun executeFromJava(request: Request) {
-        coroutineScope.launch {
-            // It's important to handle potential exceptions within this coroutine
-            // to prevent crashes if 'execute' or 'performRequest' throws.
-            // The existing 'performRequest' already catches exceptions and returns them in Response.
-            execute(request)
+        // It's important to handle potential exceptions within this coroutine
+        // to prevent crashes if 'execute' or 'performRequest' throws.
+        // The existing 'performRequest' already catches exceptions and returns them in Response.
+        if (request.lane != null) {
+            DispatchQueue.submit(request.lane, request.supersedable, { execute(request) }) { ex ->
+                withContext(Dispatchers.Main) {
+                    callback.run(Response(ex, null, null))
+                }
+            }
+        } else {
+            coroutineScope.launch {
+                execute(request)
+            }
         }
     }
 
+    /**
+     * Sends the request and reads the response on the calling thread. Exceptions are not thrown,
+     * but returned in the response.
+     *
+     * @param req The request to send.
+     */
+    @VisibleForTesting
     @Suppress("HardCodedStringLiteral")
-    private suspend fun performRequest(req: Request): Response {
-        // Perform the network operation on the IO dispatcher
-        return withContext(Dispatchers.IO) {
-            val seq = Random().nextInt()
-            try {
-                Log.v("Assigning seq=%s for request %s", seq, req)
-
-                // Configure and open the connection.
-                val proxy = req.parameters.proxy
-                val url = URL(req.url)
-                val client = (if (proxy == null) url.openConnection() else url.openConnection(proxy)) as HttpURLConnection
-                if (url.host.endsWith(".onion") && url.protocol == "https") {
-                    if (req.parameters.tlsPolicy == CertificateValidationPolicy.DISABLE_TRUST_ANCHOR_ONION) {
-                        Log.v("[seq:%s] Setting insecure SSL socket factory for connection to comply with TLS policy", seq)
-                        (client as HttpsURLConnection).sslSocketFactory = InsecureTrustManager.getSocketFactory() // Changed
-                    } else if (req.parameters.tlsPolicy == CertificateValidationPolicy.DISABLE_ALL_ONION) {
-                        Log.v("[seq:%s] Setting insecure SSL socket factory and disabling hostname validation for connection to comply with TLS policy", seq)
-                        (client as HttpsURLConnection).sslSocketFactory = InsecureTrustManager.getSocketFactory() // Changed
-                        client.hostnameVerifier = InsecureHostnameVerifier()
-                    }
-                }
+    fun performRequest(req: Request): Response {
+        val seq = Random().nextInt()
+        val start = SystemClock.elapsedRealtime()
+        var connection: HttpURLConnection? = null
+        var bytesSent = 0L
+        return try {
+            Log.v("Assigning seq=%s for request %s", seq, req)
 
-                Log.v("[seq:%s] Setting connection parameters", seq)
-                client.connectTimeout = req.parameters.timeout
-                client.requestMethod = "POST"
-                client.setRequestProperty("Accept-Language", Locale.getDefault().language)
-                if (req.url.endsWith("/api/create")) {
-                    client.setRequestProperty("Content-Type", "application/json; charset=UTF-8")
+            // Configure and open the connection.
+            val proxy = req.parameters.proxy
+            val url = URL(req.url)
+            val client = (if (proxy == null) url.openConnection() else url.openConnection(proxy)) as HttpURLConnection
+            connection = client
+            if (client is HttpsURLConnection) {
+                // Connections are only reused if they were created by the same socket factory,
+                // so the factories must be shared between requests.
+                ConnectionStats.onRequest()
+                if (url.host.endsWith(".onion") && req.parameters.tlsPolicy == CertificateValidationPolicy.DISABLE_TRUST_ANCHOR_ONION) {
+                    Log.v("[seq:%s] Setting insecure SSL socket factory for connection to comply with TLS policy", seq)
+                    client.sslSocketFactory = insecureSocketFactory
+                } else if (url.host.endsWith(".onion") && req.parameters.tlsPolicy == CertificateValidationPolicy.DISABLE_ALL_ONION) {
+                    Log.v("[seq:%s] Setting insecure SSL socket factory and disabling hostname validation for connection to comply with TLS policy", seq)
+                    client.sslSocketFactory = insecureSocketFactory
+                    client.hostnameVerifier = InsecureHostnameVerifier()
                 } else {
-                    client.setRequestProperty("Content-Type", "application/x-www-form-urlencoded")
+                    client.sslSocketFactory = defaultSocketFactory
                 }
-                client.setRequestProperty("User-Agent", "Hauk/" + BuildConfig.VERSION_NAME + " " + System.getProperty("http.agent"))
-                client.doInput = true
-                client.doOutput = true
-
-                Log.v("[seq:%s] Writing data to socket", seq)
-                val os: OutputStream = client.outputStream
-                val writer = BufferedWriter(OutputStreamWriter(os, StandardCharsets.UTF_8))
-                if (req.url.endsWith("/api/create")) {
-                    val jsonBuilder = StringBuilder("{")
-                    var first = true
-                    for ((key, value) in req.data) {
-                        if (!first) jsonBuilder.append(",") else first = false
-                        jsonBuilder.append("\"").append(key).append("\":")
-                        jsonBuilder.append("\"").append(value.replace("\"", "\\\"")).append("\"")
-                    }
-                    jsonBuilder.append("}")
-                    writer.write(jsonBuilder.toString())
-                } else {
-                    writer.write(req.urlEncodedData)
+            }
+
+            Log.v("[seq:%s] Setting connection parameters", seq)
+            client.connectTimeout = req.parameters.timeout
+            client.requestMethod = "POST"
+            client.setRequestProperty("Accept-Language", Locale.getDefault().language)
+            if (req.contentType != null) {
+                client.setRequestProperty("Content-Type", req.contentType)
+            } else if (req.url.endsWith("/api/create")) {
+                client.setRequestProperty("Content-Type", "application/json; charset=UTF-8")
+            } else {
+                client.setRequestProperty("Content-Type", "application/x-www-form-urlencoded")
+            }
+            client.setRequestProperty("Connection", "keep-alive")
+            client.setRequestProperty("User-Agent", "Hauk/" + BuildConfig.VERSION_NAME + " " + System.getProperty("http.agent"))
+            client.doInput = true
+            client.doOutput = true
+
+            var body = req.body ?: (if (req.url.endsWith("/api/create")) {
+                val jsonBuilder = StringBuilder("{")
+                var first = true
+                for ((key, value) in req.data) {
+                    if (!first) jsonBuilder.append(",") else first = false
+                    jsonBuilder.append("\"").append(key).append("\":")
+                    jsonBuilder.append("\"").append(value.replace("\"", "\\\"")).append("\"")
                 }
-                writer.flush()
-                os.close()
-
-                val responseCode = client.responseCode
-                Log.v("[seq:%s] Response code for request is %s", seq, responseCode)
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    val lines = ArrayList<String>()
-                    val br = BufferedReader(InputStreamReader(client.inputStream, StandardCharsets.UTF_8))
+                jsonBuilder.append("}")
+                jsonBuilder.toString()
+            } else {
+                req.urlEncodedData
+            }).toByteArray(StandardCharsets.UTF_8)
+            if (req.compress && body.size >= Constants.HTTP_GZIP_MIN_SIZE) {
+                Log.v("[seq:%s] Compressing %s byte request body", seq, body.size)
+                client.setRequestProperty("Content-Encoding", "gzip")
+                body = gzip(body)
+            }
+
+            // Sending a fixed length body avoids buffering the whole request before sending.
+            Log.v("[seq:%s] Writing %s bytes to socket", seq, body.size)
+            client.setFixedLengthStreamingMode(body.size)
+            client.outputStream.use { it.write(body) }
+            bytesSent = body.size.toLong()
+
+            val responseCode = client.responseCode
+            Log.v("[seq:%s] Response code for request is %s", seq, responseCode)
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                // The response must be read to the end and closed for the connection to be
+                // returned to the connection pool.
+                val lines = ArrayList<String>()
+                val input = CountingInputStream(client.inputStream)
+                BufferedReader(InputStreamReader(input, StandardCharsets.UTF_8)).use { br ->
                     var line: String?
                     while (br.readLine().also { line = it } != null) {
-                        Log.v("[seq:%s] resp += \"%s\"", seq, line)
+                        if (Log.isVerbose()) Log.v("[seq:%s] resp += \"%s\"", seq, line)
                         lines.add(line!!)
                     }
-                    br.close()
-                    Log.v("[seq:%s] Returning success response", seq)
-                    Response(null, lines.toTypedArray(), Version(client.getHeaderField(Constants.HTTP_HEADER_HAUK_VERSION)))
-                } else {
-                    Log.v("[seq:%s] Returning HTTP code failure response", seq)
-                    Response(ServerException(String.format(req.context.getString(R.string.err_response_code), responseCode.toString())), null, null)
                 }
-            } catch (ex: Exception) {
-                Log.v("[seq:%s] Returning exception failure response", ex, seq)
-                Response(ex, null, null)
+                if (client is HttpsURLConnection && Log.isVerbose()) Log.v("[seq:%s] Connection reuse: %s", seq, ConnectionStats.summarize())
+                Log.v("[seq:%s] Returning success response", seq)
+                Response(null, lines.toTypedArray(), Version(client.getHeaderField(Constants.HTTP_HEADER_HAUK_VERSION)), SystemClock.elapsedRealtime() - start, bytesSent, input.count)
+            } else {
+                // Drain the error response as well, so that the connection can be reused.
+                var bytesReceived = 0L
+                client.errorStream?.use {
+                    val buffer = ByteArray(DRAIN_BUFFER_SIZE)
+                    var read = it.read(buffer)
+                    while (read != -1) {
+                        bytesReceived += read
+                        read = it.read(buffer)
+                    }
+                }
+                Log.v("[seq:%s] Returning HTTP code failure response", seq)
+                Response(ServerException(String.format(req.context.getString(R.string.err_response_code), responseCode.toString())), null, null, SystemClock.elapsedRealtime() - start, bytesSent, bytesReceived)
             }
+        } catch (ex: Exception) {
+            // The state of the connection is unknown, so it should not be reused.
+            connection?.disconnect()
+            Log.v("[seq:%s] Returning exception failure response", ex, seq)
+            Response(ex, null, null, SystemClock.elapsedRealtime() - start, bytesSent, 0L)
         }
     }
 
@@ -151,7 +204,12 @@ internal class ConnectionThread(private val callback: Callback) {
         internal val context: Context,
         internal val url: String,
         data: Map<String, String>,
-        internal val parameters: ConnectionParameters
+        internal val body: ByteArray?,
+        internal val contentType: String?,
+        internal val compress: Boolean,
+        internal val parameters: ConnectionParameters,
+        internal val lane: String?,
+        internal val supersedable: Boolean
     ) {
         internal val data: Map<String, String> = data.toMap() // Make a defensive copy
 
@@ -170,6 +228,7 @@ internal class ConnectionThread(private val callback: Callback) {
             }
 
         override fun toString(): String {
+            if (body != null) return "Request{url=$url,body=<${body.size} bytes of $contentType>,params=$parameters}"
             val body: String = try {
                 urlEncodedData
             } catch (e: UnsupportedEncodingException) {
@@ -180,10 +239,17 @@ internal class ConnectionThread(private val callback: Callback) {
         }
     }
 
+    /**
+     * The result of a request. Besides the response itself, it carries the round-trip time and the
+     * number of body bytes sent and received, which are recorded as session telemetry.
+     */
     internal data class Response(
         val ex: Exception?,
         val data: Array<String>?,
-        val ver: Version?
+        val ver: Version?,
+        val rttMillis: Long = 0L,
+        val bytesSent: Long = 0L,
+        val bytesReceived: Long = 0L
     ) {
         // Auto-generated equals, hashCode, toString by data class are generally sufficient.
         // Custom implementations are kept here if they were specifically needed.
@@ -212,7 +278,59 @@ internal class ConnectionThread(private val callback: Callback) {
         }
     }
 
+    /**
+     * Counts the bytes read from the response body.
+     */
+    private class CountingInputStream(input: InputStream) : FilterInputStream(input) {
+        var count = 0L
+            private set
+
+        override fun read(): Int {
+            val b = super.read()
+            if (b != -1) count++
+            return b
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val n = super.read(b, off, len)
+            if (n > 0) count += n
+            return n
+        }
+    }
+
     fun interface Callback {
         fun run(resp: Response)
     }
+
+    private companion object {
+        /**
+         * Size of the buffer used to discard error responses.
+         */
+        private const val DRAIN_BUFFER_SIZE = 1024
+
+        /**
+         * Socket factory for connections that validate certificates normally.
+         */
+        private val defaultSocketFactory: SSLSocketFactory by lazy {
+            PooledSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory())
+        }
+
+        /**
+         * Socket factory for connections to onion services whose certificates are not validated.
+         * Its TLS context also holds the TLS session cache, so it must be created only once for
+         * sessions to be resumed.
+         */
+        private val insecureSocketFactory: SSLSocketFactory by lazy {
+            PooledSocketFactory(InsecureTrustManager.getSocketFactory())
+        }
+
+        /**
+         * Compresses a request body with gzip.
+         */
+        private fun gzip(data: ByteArray): ByteArray {
+            val out = ByteArrayOutputStream(data.size)
+            GZIPOutputStream(out).use { it.write(data) }
+            return out.toByteArray()
+        }
+    }
 }
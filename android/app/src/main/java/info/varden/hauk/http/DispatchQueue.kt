@@ -0,0 +1,141 @@
+package info.varden.hauk.http
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import info.varden.hauk.Constants
+import info.varden.hauk.utils.Log
+
+/**
+ * Serial dispatch queue for requests. Requests are submitted to a named lane, usually the ID of
+ * the session they belong to. Each lane runs one request at a time, in the order they were
+ * submitted, and does not start the next request until the previous one has completed and its
+ * callback has run. This keeps the number of requests in flight per session at one, so that
+ * requests cannot arrive at the backend out of order on a slow connection.
+ *
+ * Lanes are created when a request is submitted to them and removed once they have no more
+ * requests to run. While a request runs, later requests wait in the lane. Waiting requests can be
+ * marked as supersedable, e.g. location updates, which are outdated by the next update: a waiting
+ * supersedable request is dropped when a newer supersedable request is submitted to the same lane.
+ * Each lane also holds at most [Constants.DISPATCH_LANE_CAPACITY] waiting requests. When it is
+ * full, the oldest waiting supersedable request is dropped to make room; if there is none, the new
+ * request is dropped instead. Dropped requests never run, but are notified so that they can fail.
+ */
+@Suppress("HardCodedStringLiteral")
+internal object DispatchQueue {
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    /**
+     * A map of lane names to pending tasks. Access must be synchronized on the map itself.
+     */
+    private val lanes = HashMap<String, ArrayDeque<Task>>()
+
+    /**
+     * A task waiting in a lane.
+     *
+     * @param supersedable Whether or not the task is dropped in favor of newer supersedable tasks.
+     * @param action       The task to run.
+     * @param onDropped    Called instead of the task if the task is dropped from the lane.
+     */
+    private class Task(
+        val supersedable: Boolean,
+        val action: suspend () -> Unit,
+        val onDropped: suspend (Exception) -> Unit
+    )
+
+    /**
+     * Submits a task to run in the given lane.
+     *
+     * @param lane         The name of the lane to run the task in.
+     * @param supersedable Whether or not the task may be dropped in favor of newer tasks.
+     * @param task         The task to run.
+     * @param onDropped    Called with the reason if the task is dropped before it has run.
+     */
+    fun submit(lane: String, supersedable: Boolean, task: suspend () -> Unit, onDropped: suspend (Exception) -> Unit) {
+        val submitted = Task(supersedable, task, onDropped)
+        var start = false
+        var superseded: Task? = null
+        var rejected = false
+        synchronized(lanes) {
+            val pending = lanes[lane]
+            if (pending == null) {
+                lanes[lane] = ArrayDeque()
+                start = true
+            } else {
+                // A worker is already running for this lane, and will pick up the task when the
+                // tasks in front of it have completed. The running task itself is never dropped.
+                if (supersedable || pending.size >= Constants.DISPATCH_LANE_CAPACITY) {
+                    val index = pending.indexOfFirst { it.supersedable }
+                    if (index >= 0) superseded = pending.removeAt(index)
+                }
+                if (pending.size >= Constants.DISPATCH_LANE_CAPACITY) {
+                    rejected = true
+                } else {
+                    pending.addLast(submitted)
+                    Log.v("Queued task in dispatch lane, %s tasks pending", pending.size)
+                }
+            }
+        }
+
+        if (start) {
+            scope.launch { drain(lane, submitted) }
+            return
+        }
+        superseded?.let {
+            Log.i("Dropping superseded task from dispatch lane")
+            scope.launch { it.onDropped(IllegalStateException("Superseded by a newer request")) }
+        }
+        if (rejected) {
+            Log.w("Dispatch lane is full, dropping task")
+            scope.launch { onDropped(IllegalStateException("Too many requests waiting to be sent")) }
+        }
+    }
+
+    /**
+     * Runs tasks from the given lane until it is empty, then removes the lane.
+     *
+     * @param lane  The name of the lane to run tasks from.
+     * @param first The first task to run.
+     */
+    private suspend fun drain(lane: String, first: Task) {
+        var task: Task? = first
+        while (task != null) {
+            val running: Task = task
+            task = null
+            var completed = false
+            try {
+                running.action()
+                completed = true
+            } catch (ex: Exception) {
+                Log.e("Uncaught exception in dispatch lane", ex)
+                completed = true
+            } finally {
+                // Advance the lane even if the task threw an Error, so that the lane is never left
+                // marked as running without a worker to drain it. The Error propagates out of this
+                // worker, so the remaining tasks are handed to a new one.
+                val next = advance(lane)
+                if (completed) {
+                    task = next
+                } else if (next != null) {
+                    scope.launch { drain(lane, next) }
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the next task from the given lane, or removes the lane if it is empty.
+     *
+     * @param lane The name of the lane.
+     * @return The next task to run, or null if the lane was removed.
+     */
+    private fun advance(lane: String): Task? = synchronized(lanes) {
+        val pending = lanes[lane]!!
+        pending.removeFirstOrNull() ?: run {
+            lanes.remove(lane)
+            null
+        }
+    }
+}
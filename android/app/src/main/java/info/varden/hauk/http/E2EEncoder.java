@@ -0,0 +1,142 @@
+package info.varden.hauk.http;
+
+import android.util.Base64;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.struct.KeyDerivable;
+import info.varden.hauk.struct.LocationPoint;
+
+/**
+ * Encrypts location data for end-to-end encrypted sessions. A single encoder is kept for each
+ * session key, so that the cipher, random number generator and buffers are reused for every
+ * location update rather than recreated for each one.
+ *
+ * <p>Each location point is encrypted with one IV, which is generated when
+ * {@link #beginPoint()} is called. This class is not thread safe; callers must synchronize on the
+ * encoder while encrypting a point.</p>
+ */
+final class E2EEncoder {
+    /**
+     * Encoders for each session key that is in use.
+     */
+    private static final Map<KeyDerivable, E2EEncoder> encoders = new WeakHashMap<>();
+
+    /**
+     * Separator between data fields in packed location points.
+     */
+    private static final char PACKED_SEPARATOR = ',';
+
+    /**
+     * The secret key used for encryption.
+     */
+    private final SecretKeySpec key;
+
+    /**
+     * The cipher used for encryption. Re-initialized with a new IV for every point.
+     */
+    private final Cipher cipher;
+
+    /**
+     * Random number generator for IVs.
+     */
+    private final SecureRandom random;
+
+    /**
+     * Buffer for the current IV.
+     */
+    private final byte[] iv;
+
+    /**
+     * Buffer for encrypted data. Grows if a larger buffer is needed.
+     */
+    private byte[] output;
+
+    /**
+     * Buffer for building packed location points.
+     */
+    private final StringBuilder packer;
+
+    private E2EEncoder(SecretKeySpec key) throws GeneralSecurityException {
+        this.key = key;
+        this.cipher = Cipher.getInstance(Constants.E2E_TRANSFORMATION);
+        this.random = new SecureRandom();
+        this.iv = new byte[this.cipher.getBlockSize()];
+        this.output = new byte[Constants.E2E_BUFFER_SIZE];
+        this.packer = new StringBuilder(Constants.E2E_BUFFER_SIZE);
+    }
+
+    /**
+     * Returns the encoder for the given session key, creating it if necessary.
+     *
+     * @param key The end-to-end encryption key of the session.
+     * @throws GeneralSecurityException if the key or cipher could not be initialized.
+     */
+    static E2EEncoder forKey(KeyDerivable key) throws GeneralSecurityException {
+        synchronized (encoders) {
+            E2EEncoder encoder = encoders.get(key);
+            if (encoder == null) {
+                encoder = new E2EEncoder(key.deriveSpec());
+                encoders.put(key, encoder);
+            }
+            return encoder;
+        }
+    }
+
+    /**
+     * Generates a new IV for the next location point and initializes the cipher with it.
+     *
+     * @return The IV, encoded as Base64.
+     * @throws GeneralSecurityException if the cipher could not be initialized.
+     */
+    String beginPoint() throws GeneralSecurityException {
+        this.random.nextBytes(this.iv);
+        this.cipher.init(Cipher.ENCRYPT_MODE, this.key, new IvParameterSpec(this.iv));
+        return Base64.encodeToString(this.iv, Base64.DEFAULT);
+    }
+
+    /**
+     * Encrypts a single value using the IV of the current point.
+     *
+     * @param value The value to encrypt.
+     * @return The encrypted value, encoded as Base64.
+     * @throws GeneralSecurityException if encryption fails.
+     */
+    String encrypt(CharSequence value) throws GeneralSecurityException {
+        byte[] input = value.toString().getBytes(StandardCharsets.UTF_8);
+        int size = this.cipher.getOutputSize(input.length);
+        if (this.output.length < size) this.output = new byte[size];
+        int length = this.cipher.doFinal(input, 0, input.length, this.output, 0);
+        return Base64.encodeToString(this.output, 0, length, Base64.DEFAULT);
+    }
+
+    /**
+     * Encrypts all data fields of a location point as a single value, using the IV of the current
+     * point. The fields are the latitude, longitude, timestamp, provider, accuracy and speed, in
+     * that order, separated by commas. Unavailable fields are left empty.
+     *
+     * @param point The location point to encrypt.
+     * @return The encrypted point, encoded as Base64.
+     * @throws GeneralSecurityException if encryption fails.
+     */
+    String encryptPacked(LocationPoint point) throws GeneralSecurityException {
+        this.packer.setLength(0);
+        this.packer.append(point.getLatitude()).append(PACKED_SEPARATOR);
+        this.packer.append(point.getLongitude()).append(PACKED_SEPARATOR);
+        this.packer.append(point.getTimeSeconds()).append(PACKED_SEPARATOR);
+        this.packer.append(point.getProvider().getMode()).append(PACKED_SEPARATOR);
+        if (point.getAccuracy() != null) this.packer.append(point.getAccuracy().floatValue());
+        this.packer.append(PACKED_SEPARATOR);
+        if (point.getSpeed() != null) this.packer.append(point.getSpeed().floatValue());
+        return encrypt(this.packer);
+    }
+}
@@ -2,20 +2,17 @@ package info.varden.hauk.http;
 
 import android.content.Context;
 import android.location.Location;
-import android.util.Base64;
 
-import java.nio.charset.StandardCharsets;
-import java.security.SecureRandom;
-
-import javax.crypto.Cipher;
+import java.util.Collections;
+import java.util.List;
 
 import info.varden.hauk.Constants;
 import info.varden.hauk.R;
 import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.struct.LocationPoint;
 import info.varden.hauk.struct.Session;
 import info.varden.hauk.struct.Version;
 import info.varden.hauk.utils.Log;
-import info.varden.hauk.utils.TimeUtils;
 
 /**
  * Packet that is sent to update the client's location on the map.
@@ -43,37 +40,102 @@ public abstract class LocationUpdatePacket extends Packet {
      * @param ctx      Android application context.
      * @param session  The session for which location is being updated.
      * @param location The updated location data obtained from GNSS/network sensors.
+     * @param accuracy The location provider that produced the location data.
      */
     protected LocationUpdatePacket(Context ctx, Session session, Location location, LocationProvider accuracy) {
-        super(ctx, session.getServerURL(), session.getConnectionParameters(), Constants.URL_PATH_POST_LOCATION);
+        this(ctx, session, new LocationPoint(location, accuracy));
+    }
+
+    /**
+     * Creates the packet from a previously recorded location point.
+     *
+     * @param ctx     Android application context.
+     * @param session The session for which location is being updated.
+     * @param point   The location point to send.
+     */
+    protected LocationUpdatePacket(Context ctx, Session session, LocationPoint point) {
+        this(ctx, session);
+        setPoints(session, Collections.singletonList(point));
+    }
+
+    /**
+     * Creates the packet without any location data. Subclasses must add location data using
+     * {@link #setPoints(Session, List)}.
+     *
+     * @param ctx     Android application context.
+     * @param session The session for which location is being updated.
+     */
+    LocationUpdatePacket(Context ctx, Session session) {
+        super(ctx, session, Constants.URL_PATH_POST_LOCATION);
         setParameter(Constants.PACKET_PARAM_SESSION_ID, session.getID());
+        // A location update that has not been sent yet is outdated by the next one. If it is
+        // dropped, its points are not lost; onFailure() is called so that they can be sent again.
+        setSupersedable(true);
+    }
 
+    /**
+     * Adds location points to the packet. If the backend supports it, the points are sent in the
+     * binary post format; otherwise, they are sent as URL-encoded parameters, with each data field
+     * sent as an array if there is more than one point.
+     *
+     * @param session The session for which location is being updated.
+     * @param points  The location points to add, ordered from oldest to newest.
+     */
+    final void setPoints(Session session, List<LocationPoint> points) {
+        // End-to-end encrypted data is opaque to the backend and cannot be packed any further.
+        if (session.getDerivableE2EKey() == null
+                && session.getBackendVersion().isAtLeast(Constants.VERSION_COMPAT_BINARY_POST)
+                && BinaryLocationEncoder.canEncode(session.getID())) {
+            setBody(Constants.HTTP_CONTENT_TYPE_BINARY_POST, BinaryLocationEncoder.encode(session.getID(), points));
+        } else if (points.size() == 1) {
+            setPointParameters(session, points.get(0), "");
+        } else {
+            for (int i = 0; i < points.size(); i++) {
+                setPointParameters(session, points.get(i), "[" + i + "]");
+            }
+        }
+    }
+
+    /**
+     * Adds the data of a location point to the packet, encrypting it if the session uses
+     * end-to-end encryption.
+     *
+     * @param session The session for which location is being updated.
+     * @param point   The location point to add.
+     * @param suffix  A suffix to append to the name of every parameter, e.g. an array index.
+     */
+    private void setPointParameters(Session session, LocationPoint point, String suffix) {
         if (session.getDerivableE2EKey() == null) {
             // If not using end-to-end encryption, send parameters in plain text.
-            setParameter(Constants.PACKET_PARAM_LATITUDE, String.valueOf(location.getLatitude()));
-            setParameter(Constants.PACKET_PARAM_LONGITUDE, String.valueOf(location.getLongitude()));
-            setParameter(Constants.PACKET_PARAM_PROVIDER_ACCURACY, String.valueOf(accuracy.getMode()));
-            setParameter(Constants.PACKET_PARAM_TIMESTAMP, String.valueOf(System.currentTimeMillis() / (double) TimeUtils.MILLIS_PER_SECOND));
+            setParameter(Constants.PACKET_PARAM_LATITUDE + suffix, String.valueOf(point.getLatitude()));
+            setParameter(Constants.PACKET_PARAM_LONGITUDE + suffix, String.valueOf(point.getLongitude()));
+            setParameter(Constants.PACKET_PARAM_PROVIDER_ACCURACY + suffix, String.valueOf(point.getProvider().getMode()));
+            setParameter(Constants.PACKET_PARAM_TIMESTAMP + suffix, String.valueOf(point.getTimeSeconds()));
 
             // Not all devices provide these parameters:
-            if (location.hasSpeed()) setParameter(Constants.PACKET_PARAM_SPEED, String.valueOf(location.getSpeed()));
-            if (location.hasAccuracy()) setParameter(Constants.PACKET_PARAM_ACCURACY, String.valueOf(location.getAccuracy()));
+            if (point.getSpeed() != null) setParameter(Constants.PACKET_PARAM_SPEED + suffix, String.valueOf(point.getSpeed()));
+            if (point.getAccuracy() != null) setParameter(Constants.PACKET_PARAM_ACCURACY + suffix, String.valueOf(point.getAccuracy()));
         } else {
             // We're using end-to-end encryption - generate an IV and encrypt all parameters.
             try {
-                Cipher cipher = Cipher.getInstance(Constants.E2E_TRANSFORMATION);
-                cipher.init(Cipher.ENCRYPT_MODE, session.getDerivableE2EKey().deriveSpec(), new SecureRandom());
-                byte[] iv = cipher.getIV();
-                setParameter(Constants.PACKET_PARAM_INIT_VECTOR, Base64.encodeToString(iv, Base64.DEFAULT));
+                E2EEncoder encoder = E2EEncoder.forKey(session.getDerivableE2EKey());
+                synchronized (encoder) {
+                    setParameter(Constants.PACKET_PARAM_INIT_VECTOR + suffix, encoder.beginPoint());
 
-                setParameter(Constants.PACKET_PARAM_LATITUDE, Base64.encodeToString(cipher.doFinal(String.valueOf(location.getLatitude()).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
-                setParameter(Constants.PACKET_PARAM_LONGITUDE, Base64.encodeToString(cipher.doFinal(String.valueOf(location.getLongitude()).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
-                setParameter(Constants.PACKET_PARAM_PROVIDER_ACCURACY, Base64.encodeToString(cipher.doFinal(String.valueOf(accuracy.getMode()).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
-                setParameter(Constants.PACKET_PARAM_TIMESTAMP, Base64.encodeToString(cipher.doFinal(String.valueOf(System.currentTimeMillis() / (double) TimeUtils.MILLIS_PER_SECOND).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
+                    if (session.getBackendVersion().isAtLeast(Constants.VERSION_COMPAT_E2E_PACKED)) {
+                        // Newer backends accept all parameters encrypted together in one field.
+                        setParameter(Constants.PACKET_PARAM_PACKED_DATA + suffix, encoder.encryptPacked(point));
+                    } else {
+                        setParameter(Constants.PACKET_PARAM_LATITUDE + suffix, encoder.encrypt(String.valueOf(point.getLatitude())));
+                        setParameter(Constants.PACKET_PARAM_LONGITUDE + suffix, encoder.encrypt(String.valueOf(point.getLongitude())));
+                        setParameter(Constants.PACKET_PARAM_PROVIDER_ACCURACY + suffix, encoder.encrypt(String.valueOf(point.getProvider().getMode())));
+                        setParameter(Constants.PACKET_PARAM_TIMESTAMP + suffix, encoder.encrypt(String.valueOf(point.getTimeSeconds())));
 
-                // Not all devices provide these parameters:
-                if (location.hasSpeed()) setParameter(Constants.PACKET_PARAM_SPEED, Base64.encodeToString(cipher.doFinal(String.valueOf(location.getSpeed()).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
-                if (location.hasAccuracy()) setParameter(Constants.PACKET_PARAM_ACCURACY, Base64.encodeToString(cipher.doFinal(String.valueOf(location.getAccuracy()).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
+                        // Not all devices provide these parameters:
+                        if (point.getSpeed() != null) setParameter(Constants.PACKET_PARAM_SPEED + suffix, encoder.encrypt(String.valueOf(point.getSpeed())));
+                        if (point.getAccuracy() != null) setParameter(Constants.PACKET_PARAM_ACCURACY + suffix, encoder.encrypt(String.valueOf(point.getAccuracy())));
+                    }
+                }
             } catch (Exception e) {
                 Log.e("Error was thrown when encrypting location data", e); //NON-NLS
             }
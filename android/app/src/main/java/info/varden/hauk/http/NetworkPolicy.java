@@ -0,0 +1,166 @@
+package info.varden.hauk.http;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.utils.Log;
+import info.varden.hauk.utils.TraceEvent;
+
+/**
+ * Watches the capabilities of the device's default network and decides how location updates should
+ * be sent over it. On Wi-Fi and other unmetered networks, updates are sent as configured for the
+ * session. On ordinary metered networks, such as most mobile data connections, updates are still
+ * sent as configured, so that real-time sessions stay real-time, but request bodies are compressed.
+ * Only on roaming, unvalidated or slow networks is the link considered constrained; updates are
+ * then also collected into larger batches that are flushed less often, which saves data and radio
+ * wakeups on e.g. roaming SIMs.
+ *
+ * <p>Whether a link is slow is decided from the platform's estimate of the upstream bandwidth,
+ * which reflects signal strength as well as the type of network.</p>
+ */
+public final class NetworkPolicy {
+    /**
+     * Android connectivity manager instance.
+     */
+    private final ConnectivityManager connMan;
+
+    /**
+     * The listener that is called when the link changes between constrained and unconstrained.
+     */
+    private final Listener listener;
+
+    /**
+     * The class of the current default network.
+     */
+    private LinkClass link = LinkClass.UNMETERED;
+
+    /**
+     * Whether or not the network callback is registered.
+     */
+    private boolean registered = false;
+
+    /**
+     * Receives changes of the default network. Callbacks are run on the main thread.
+     */
+    private final ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities caps) {
+            boolean metered = !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+            boolean roaming = !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_ROAMING);
+            boolean validated = caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+            int bandwidth = caps.getLinkUpstreamBandwidthKbps();
+            if (Log.isVerbose()) Log.v("Default network changed: metered=%s, roaming=%s, validated=%s, upstream=%s kbps", metered, roaming, validated, bandwidth); //NON-NLS
+            setLink(LinkClass.classify(metered, roaming, validated, bandwidth), bandwidth);
+        }
+
+        @Override
+        public void onLost(@NonNull Network network) {
+            // Nothing can be sent without a network, so collect points as if on a constrained link
+            // until a network is available again.
+            setLink(LinkClass.CONSTRAINED, 0);
+        }
+    };
+
+    public NetworkPolicy(Context ctx, Listener listener) {
+        this.connMan = (ConnectivityManager) ctx.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching the default network. The platform immediately reports the capabilities of
+     * the current default network, if any.
+     */
+    public void start() {
+        if (this.registered) return;
+        this.connMan.registerDefaultNetworkCallback(this.callback, new Handler(Looper.getMainLooper()));
+        this.registered = true;
+    }
+
+    /**
+     * Stops watching the default network.
+     */
+    public void stop() {
+        if (!this.registered) return;
+        this.connMan.unregisterNetworkCallback(this.callback);
+        this.registered = false;
+    }
+
+    /**
+     * Returns whether or not location updates should be collected into larger batches because the
+     * current default network is roaming, unvalidated or slow.
+     */
+    public boolean isConstrained() {
+        return this.link == LinkClass.CONSTRAINED;
+    }
+
+    /**
+     * Returns whether or not request bodies should be compressed because the current default
+     * network is metered or constrained.
+     */
+    public boolean shouldCompress() {
+        return this.link != LinkClass.UNMETERED;
+    }
+
+    private void setLink(LinkClass link, int bandwidth) {
+        if (link == this.link) return;
+        boolean wasConstrained = isConstrained();
+        this.link = link;
+        Log.i("Default network is %s", link); //NON-NLS
+        Log.trace(TraceEvent.NETWORK_CHANGED, link.ordinal(), bandwidth);
+        if (isConstrained() != wasConstrained) this.listener.onPolicyChanged(isConstrained());
+    }
+
+    /**
+     * Classes of networks that location updates are sent differently over.
+     */
+    enum LinkClass {
+        /**
+         * Wi-Fi and other unmetered networks. Updates are sent as configured.
+         */
+        UNMETERED,
+
+        /**
+         * Metered networks that are otherwise usable, e.g. mobile data in the home network. Updates
+         * are sent as configured, but compressed.
+         */
+        METERED,
+
+        /**
+         * Roaming, unvalidated and slow networks. Updates are batched and compressed.
+         */
+        CONSTRAINED;
+
+        /**
+         * Classifies a network from its capabilities.
+         *
+         * @param metered   Whether or not the network is metered.
+         * @param roaming   Whether or not the network is roaming.
+         * @param validated Whether or not the network has been validated to reach the Internet.
+         * @param bandwidth The estimated upstream bandwidth in kbps, or 0 if unknown.
+         */
+        static LinkClass classify(boolean metered, boolean roaming, boolean validated, int bandwidth) {
+            boolean slow = bandwidth > 0 && bandwidth < Constants.NETWORK_SLOW_BANDWIDTH;
+            if (roaming || !validated || slow) return CONSTRAINED;
+            return metered ? METERED : UNMETERED;
+        }
+    }
+
+    /**
+     * Receives notice when the network policy changes.
+     */
+    public interface Listener {
+        /**
+         * Called when the default network changes between constrained and unconstrained.
+         *
+         * @param constrained Whether or not the new network is constrained.
+         */
+        void onPolicyChanged(boolean constrained);
+    }
+}
@@ -2,8 +2,13 @@ package info.varden.hauk.http;
 
 import android.content.Context;
 
+import androidx.annotation.Nullable;
+
 import java.util.HashMap;
 
+import info.varden.hauk.Constants;
+import info.varden.hauk.manager.SessionTelemetry;
+import info.varden.hauk.struct.Session;
 import info.varden.hauk.struct.Version;
 import info.varden.hauk.utils.Log;
 
@@ -21,6 +26,39 @@ public abstract class Packet {
     private final String path;
     private final ConnectionParameters connParams;
 
+    /**
+     * The dispatch lane this packet is sent in, or null if it may be sent concurrently with any
+     * other packet.
+     */
+    @Nullable
+    private final String lane;
+
+    /**
+     * A raw request body to send instead of the URL-encoded parameters, and its content type.
+     */
+    @Nullable
+    private byte[] body = null;
+    @Nullable
+    private String contentType = null;
+
+    /**
+     * Whether or not the request body should be compressed.
+     */
+    private boolean compress = false;
+
+    /**
+     * Whether or not this packet may be dropped if a newer supersedable packet is sent in the same
+     * dispatch lane before this packet is sent.
+     */
+    private boolean supersedable = false;
+
+    /**
+     * The telemetry that the outcome of this packet is recorded to, or null if the packet does not
+     * belong to a session.
+     */
+    @Nullable
+    private final SessionTelemetry telemetry;
+
     /**
      * Called if the request is successful.
      *
@@ -54,6 +92,27 @@ public abstract class Packet {
         this.server = server;
         this.path = path;
         this.connParams = connParams;
+        this.lane = null;
+        this.telemetry = null;
+    }
+
+    /**
+     * Constructor for a packet that belongs to a session. Packets that belong to the same session
+     * are sent one at a time, in the order {@link #send()} was called, so that e.g. location
+     * updates cannot overtake each other or a request to stop sharing.
+     *
+     * @param ctx     Android application context.
+     * @param session The session this packet belongs to.
+     * @param path    The path underneath the base URL that should be called.
+     */
+    Packet(Context ctx, Session session, String path) {
+        this.params = new HashMap<>();
+        this.ctx = ctx;
+        this.server = session.getServerURL();
+        this.path = path;
+        this.connParams = session.getConnectionParameters();
+        this.lane = session.getID();
+        this.telemetry = SessionTelemetry.forSession(session.getID());
     }
 
     /**
@@ -66,6 +125,39 @@ public abstract class Packet {
         this.params.put(key, value);
     }
 
+    /**
+     * Sets a raw request body. If set, the body is sent instead of the packet parameters.
+     *
+     * @param contentType The MIME type of the body.
+     * @param body        The request body.
+     */
+    final void setBody(String contentType, byte[] body) {
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    /**
+     * Sets whether or not the request body should be compressed with gzip. Only bodies of at least
+     * {@link Constants#HTTP_GZIP_MIN_SIZE} bytes are compressed, since the gzip framing outweighs
+     * the savings for smaller bodies. The backend must support compressed request bodies.
+     *
+     * @param compress Whether or not to compress the request body.
+     */
+    final void setCompressed(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Sets whether or not this packet is superseded by newer supersedable packets of the same
+     * session. If this packet is still waiting to be sent when such a packet is sent, or when too
+     * many packets are waiting to be sent for the session, it is dropped and fails.
+     *
+     * @param supersedable Whether or not the packet may be dropped in favor of newer packets.
+     */
+    final void setSupersedable(boolean supersedable) {
+        this.supersedable = supersedable;
+    }
+
     /**
      * Returns Android application context for usage in e.g. creating ServerExceptions.
      */
@@ -82,6 +174,11 @@ public abstract class Packet {
             @Override
             public void run(ConnectionThread.Response resp) {
                 Log.v("Received as response to packet %s", resp); //NON-NLS
+                // Requests dropped from their dispatch lane were never sent, and have no round trip
+                // to record.
+                if (Packet.this.telemetry != null && resp.getRttMillis() > 0L) {
+                    Packet.this.telemetry.onRequestCompleted(resp.getRttMillis(), resp.getBytesSent(), resp.getBytesReceived());
+                }
 
                 // An exception may have occurred, but it cannot be thrown because this is a
                 // callback. Instead, the exception (if any) is stored in the response object.
@@ -89,13 +186,46 @@ public abstract class Packet {
                 if (e == null) {
                     try {
                         onSuccess(resp.getData(), resp.getVer()); // Changed to use Kotlin getter for version
+                        recordResult(true);
                     } catch (Exception ex) {
+                        recordResult(false);
                         onFailure(ex);
                     }
                 } else {
+                    recordResult(false);
                     onFailure(e);
                 }
             }
-        }).executeFromJava(new ConnectionThread.Request(this.ctx, this.server + this.path, this.params, this.connParams)); // Changed to executeFromJava
+        }).executeFromJava(toRequest()); // Changed to executeFromJava
+    }
+
+    /**
+     * Creates the HTTP request that sends this packet.
+     */
+    final ConnectionThread.Request toRequest() {
+        return new ConnectionThread.Request(this.ctx, this.server + this.path, this.params, this.body, this.contentType, this.compress, this.connParams, this.lane, this.supersedable);
+    }
+
+    /**
+     * Records the outcome of this packet in the session telemetry, if the packet belongs to a
+     * session.
+     *
+     * @param success Whether or not the packet was accepted by the backend.
+     */
+    private void recordResult(boolean success) {
+        if (this.telemetry != null) this.telemetry.onPacketResult(getTypeName(), success);
+    }
+
+    /**
+     * Returns the name of the packet type for telemetry. Subclasses that implement the callbacks
+     * of a packet outside of this package, such as anonymous classes, are reported as the packet
+     * they extend.
+     */
+    private String getTypeName() {
+        Class<?> type = getClass();
+        while (type.getSuperclass() != Packet.class && (type.isAnonymousClass() || type.getPackage() != Packet.class.getPackage())) {
+            type = type.getSuperclass();
+        }
+        return type.getSimpleName();
     }
 }
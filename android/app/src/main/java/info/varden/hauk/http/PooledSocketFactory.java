@@ -0,0 +1,105 @@
+package info.varden.hauk.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import info.varden.hauk.utils.Log;
+
+/**
+ * An SSL socket factory that wraps another factory and records every new connection and TLS
+ * handshake in {@link ConnectionStats}. Connections are only pooled and reused by Android if they
+ * were created by the same socket factory instance, so a single instance of this class should be
+ * created for each underlying factory and reused for every request.
+ */
+final class PooledSocketFactory extends SSLSocketFactory {
+    /**
+     * The underlying socket factory.
+     */
+    private final SSLSocketFactory delegate;
+
+    PooledSocketFactory(SSLSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return this.delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return this.delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+        return track(this.delegate.createSocket(s, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return track(this.delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return track(this.delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return track(this.delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return track(this.delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return track(this.delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    /**
+     * Records a newly created socket in the connection statistics.
+     *
+     * @param socket The socket that was created.
+     * @return The same socket.
+     */
+    private static Socket track(Socket socket) {
+        ConnectionStats.onConnectionOpened();
+        if (socket instanceof SSLSocket) {
+            ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeListener(System.currentTimeMillis()));
+        }
+        return socket;
+    }
+
+    /**
+     * Listens for the completion of the TLS handshake on a new socket. A TLS session that was
+     * created before the socket itself must have been resumed from an earlier connection.
+     */
+    private static final class HandshakeListener implements HandshakeCompletedListener {
+        /**
+         * The time the socket was created, in milliseconds since the Unix epoch.
+         */
+        private final long socketCreated;
+
+        private HandshakeListener(long socketCreated) {
+            this.socketCreated = socketCreated;
+        }
+
+        @Override
+        public void handshakeCompleted(HandshakeCompletedEvent event) {
+            boolean resumed = event.getSession().getCreationTime() < this.socketCreated;
+            Log.v("TLS handshake completed with %s, resumed=%s", event.getSession().getPeerHost(), resumed); //NON-NLS
+            ConnectionStats.onHandshakeCompleted(resumed);
+        }
+    }
+}
@@ -6,10 +6,12 @@ import android.util.Base64;
 import androidx.annotation.Nullable;
 
 import java.security.SecureRandom;
+import java.util.List;
 
 import info.varden.hauk.Constants;
 import info.varden.hauk.R;
 // import info.varden.hauk.struct.AdoptabilityPreference; // a.i. generated
+import info.varden.hauk.struct.Geofence;
 import info.varden.hauk.struct.KeyDerivable;
 import info.varden.hauk.struct.Session;
 import info.varden.hauk.struct.Share;
@@ -113,8 +115,12 @@ public class SessionInitiationPacket extends Packet {
                     sessionID,
                     this.params.getDuration() * TimeUtils.MILLIS_PER_SECOND + System.currentTimeMillis(),
                     this.params.getInterval(),
+                    this.params.getMaxInterval(),
                     this.params.getMinimumDistance(),
-                    e2eParams
+                    this.params.getBatchSize(),
+                    this.params.getBatchInterval(),
+                    e2eParams,
+                    this.params.getQuietZones()
             );
             // Mode is always CREATE_ALONE now
             Share share = new Share(session, viewURL, viewID, joinCode, this.mode);
@@ -147,21 +153,29 @@ public class SessionInitiationPacket extends Packet {
         private final String password;
         private final int duration;
         private final int interval;
+        private final int maxInterval;
         private final float minDistance;
+        private final int batchSize;
+        private final int batchInterval;
         private final String customID;
         private final String e2ePass; // Field name
+        private final List<Geofence> quietZones;
         private ConnectionParameters connParams;
 
-        public InitParameters(String server, String username, String password, int duration, int interval, float minDistance, String customID, String e2ePass) {
+        public InitParameters(String server, String username, String password, int duration, int interval, int maxInterval, float minDistance, int batchSize, int batchInterval, String customID, String e2ePass, List<Geofence> quietZones) {
             this.server = server;
             this.connParams = null;
             this.username = username == null || username.isEmpty() ? null : username;
             this.password = password;
             this.duration = duration;
             this.interval = interval;
+            this.maxInterval = maxInterval;
             this.minDistance = minDistance;
+            this.batchSize = batchSize;
+            this.batchInterval = batchInterval;
             this.customID = customID == null || customID.isEmpty() ? null : customID;
             this.e2ePass = e2ePass == null || e2ePass.isEmpty() ? null : e2ePass;
+            this.quietZones = quietZones;
         }
 
         String getServerURL() { return this.server; }
@@ -171,8 +185,12 @@ public class SessionInitiationPacket extends Packet {
         String getPassword() { return this.password; }
         int getDuration() { return this.duration; }
         int getInterval() { return this.interval; }
+        int getMaxInterval() { return this.maxInterval; }
         float getMinimumDistance() { return this.minDistance; }
+        int getBatchSize() { return this.batchSize; }
+        int getBatchInterval() { return this.batchInterval; }
         @Nullable String getCustomID() { return this.customID; }
         @Nullable String getE2EPassword() { return this.e2ePass; } // Corrected: this.e2ePass
+        List<Geofence> getQuietZones() { return this.quietZones; }
     }
 }
@@ -49,27 +49,38 @@ public final class AutoResumptionPrompter implements ResumeHandler {
         for (Share share : shares) {
             share.setSession(session);
         }
-        this.prompt.promptForResumption(ctx, session, shares, new Callback(shares));
+        this.prompt.promptForResumption(ctx, session, shares, new Callback(session, shares));
     }
 
     /**
      * A prompt callback provided to the {@link ResumePrompt} to handle user response.
      */
     private final class Callback implements PromptCallback {
+        /**
+         * The session that the shares belong to.
+         */
+        private final Session session;
+
         /**
          * The list of shares to resume.
          */
         private final Share[] shares;
 
-        private Callback(Share[] shares) {
+        private Callback(Session session, Share[] shares) {
+            this.session = session;
             this.shares = shares;
         }
 
         @Override
         public void accept() {
-            // If yes, do continue the session.
+            // If yes, do continue the session. A session manager only runs one session at a time,
+            // so if another session was resumed first, this one is left for the next launch.
+            if (AutoResumptionPrompter.this.manager.isSessionActive()) {
+                Log.w("Another session is already active; not resuming session %s", this.session); //NON-NLS
+                return;
+            }
             Log.i("Resuming shares..."); //NON-NLS
-            AutoResumptionPrompter.this.resumptionHandler.clearResumableSession();
+            AutoResumptionPrompter.this.resumptionHandler.clearResumableSession(this.session.getID());
             for (Share share : this.shares) {
                 AutoResumptionPrompter.this.manager.shareLocation(share, SessionInitiationReason.USER_RESUMED);
             }
@@ -80,7 +91,7 @@ public final class AutoResumptionPrompter implements ResumeHandler {
             // If not, clear the resumption data so that the user isn't asked again for
             // the share in question.
             Log.i("Shares are not resumed"); //NON-NLS
-            AutoResumptionPrompter.this.resumptionHandler.clearResumableSession();
+            AutoResumptionPrompter.this.resumptionHandler.clearResumableSession(this.session.getID());
         }
     }
 }
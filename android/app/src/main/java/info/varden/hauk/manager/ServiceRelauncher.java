@@ -39,7 +39,7 @@ public final class ServiceRelauncher implements ResumeHandler {
         // The shares provided by ResumableSessions do not have a session attached to them. Attach
         // it to the shares so that they can be shown properly by the prompt and so that the updates
         // have a backend to be broadcast to when the shares are resumed.
-        this.resumptionHandler.clearResumableSession();
+        this.resumptionHandler.clearResumableSession(session.getID());
         for (Share share : shares) {
             share.setSession(session);
             this.manager.shareLocation(share, SessionInitiationReason.SERVICE_RELAUNCH);
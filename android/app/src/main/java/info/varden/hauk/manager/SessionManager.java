@@ -11,17 +11,19 @@ import android.os.Handler;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import info.varden.hauk.Constants;
 import info.varden.hauk.R;
 // import info.varden.hauk.caching.ResumeEncryptionKeyCallback; // a.i. generated
+import info.varden.hauk.caching.ResumableSessions;
 import info.varden.hauk.caching.ResumePrompt;
-// import info.varden.hauk.caching.ResumableShare; // TODO: ResumableShare is missing a.i. generated
 import info.varden.hauk.dialog.DialogService;
 // import info.varden.hauk.dialog.PromptDialogListener; // a.i. generated
 import info.varden.hauk.http.ConnectionParameters;
@@ -81,24 +83,35 @@ public abstract class SessionManager {
     private final StopTask stopTask = new StopTask(this);
     */
 
+    /**
+     * Listeners that receive performance metrics for the active session.
+     */
+    private final List<TelemetryListener> telemetryListeners = new ArrayList<>();
+
     /**
      * The active session. This can be null if no session is currently active.
      */
-    private Session activeSession = null;
+    private volatile Session activeSession = null;
+
+    /**
+     * The background derivation of the end-to-end encryption key of the active session, if any.
+     */
+    @Nullable
+    private Future<?> keyDerivation = null;
 
     /**
-     * A task that saves session data to preferences so that it can be resumed later if the app is
+     * Saves session data to the resumption journal so that it can be resumed later if the app is
      * unexpectedly terminated.
      */
-    // private final ResumableShare resumable; // TODO: ResumableShare is missing a.i. generated
+    private final ResumableSessions resumable;
 
     /**
-     * A reference to the running location push service. This is stored statically because the service
-     * itself runs in a separate process. Since Hauk only supports one share at a time (even though
-     * multiple links may point to that share), this should be fine.
+     * The intent that started the location push service for this manager's session. The service is
+     * shared by all session managers, so it is not stopped directly, but asked to stop sharing to
+     * this manager's session, which leaves sessions started by other managers running.
      */
     @Nullable
-    private static Intent pusher = null;
+    private Intent pusher = null;
 
     /**
      * Creates a session manager.
@@ -108,7 +121,7 @@ public abstract class SessionManager {
      */
     protected SessionManager(Context ctx, StopSharingCallback stopSharingCallback) {
         this.ctx = ctx;
-        // this.resumable = new ResumableShare(ctx); // TODO: ResumableShare is missing a.i. generated
+        this.resumable = new ResumableSessions(ctx);
         // TODO: Missing class StopTask a.i. generated
         /*
         if (this.stopTask != null) { // Condition added due to missing StopTask
@@ -197,6 +210,30 @@ public abstract class SessionManager {
         Log.w("SessionManager: ListenerRegistry related call (detachStatusListener) skipped due to missing ListenerRegistry class.");
     }
 
+    /**
+     * Adds a listener for session performance metrics. If a session is active, the listener
+     * immediately receives its current metrics.
+     *
+     * @param listener The listener to add.
+     * @see #detachTelemetryListener(TelemetryListener)
+     */
+    public final void attachTelemetryListener(TelemetryListener listener) {
+        this.telemetryListeners.add(listener);
+        if (this.activeSession != null) {
+            listener.onTelemetryUpdated(SessionTelemetry.forSession(this.activeSession.getID()).snapshot());
+        }
+    }
+
+    /**
+     * Removes a listener for session performance metrics.
+     *
+     * @param listener The listener to remove.
+     * @see #attachTelemetryListener(TelemetryListener)
+     */
+    public final void detachTelemetryListener(TelemetryListener listener) {
+        this.telemetryListeners.remove(listener);
+    }
+
     /**
      * Returns whether or a session is currently active.
      *
@@ -233,10 +270,16 @@ public abstract class SessionManager {
             */
             Log.w("SessionManager: StopTask related calls (removeCallbacks, run) skipped due to missing StopTask class.");
             // Fallback: Directly attempt to stop services and clear session if StopTask is unavailable
-            if (pusher != null) {
-                this.ctx.stopService(pusher);
-                pusher = null;
+            if (this.pusher != null) {
+                LocationPushService.stopSession(this.ctx, this.activeSession.getID());
+                this.pusher = null;
             }
+            if (this.keyDerivation != null) {
+                this.keyDerivation.cancel(true);
+                this.keyDerivation = null;
+            }
+            SessionTelemetry.discard(this.activeSession.getID());
+            this.resumable.clearResumableSession(this.activeSession.getID());
             this.activeSession = null;
             this.knownShares.clear();
              // Manually call UI stop if available, since StopTask would have done it.
@@ -250,36 +293,11 @@ public abstract class SessionManager {
      *
      * @param prompter A prompter that creates a user-facing dialog for session resumption.
      */
-/* // a.i. generated: Commenting out resumeShares due to multiple problematic symbols
-    public final void resumeShares(final ResumePrompt prompter) {
-        // this.resumable.getResumableShares(new ResumePrompt() { // TODO: ResumableShare is missing a.i. generated
-            @Override
-            public void promptForResumption(final Context ctx, final Session session, final Share[] shares, final PromptCallback callback) {
-                // Check if the session uses E2E and prompt for key if so.
-                // TODO: session.isEndToEndEncrypted() may not exist or E2E logic changed a.i. generated
-                if (session.isEndToEndEncrypted()) { 
-                    // TODO: Buttons.Two.OK_CANCEL is problematic, ResumeEncryptionKeyCallback and PromptDialogListener are missing a.i. generated
-                    new DialogService(ctx).showDialog(R.string.resume_e2e_title, R.string.resume_e2e_body, R.layout.dialog_input_password, Buttons.Two.OK_CANCEL, new ResumeEncryptionKeyCallback(ctx, session, new PromptDialogListener() {
-                        @Override
-                        public void onPositive() {
-                            // E2E key entered, now prompt for session resumption itself.
-                            prompter.promptForResumption(ctx, session, shares, callback);
-                        }
-
-                        @Override
-                        public void onNegative() {
-                            // User cancelled, so deny resumption.
-                            callback.deny();
-                        }
-                    }));
-                } else {
-                    // Not E2E, so prompt for resumption directly.
-                    prompter.promptForResumption(ctx, session, shares, callback);
-                }
-            }
-        // }, new AutoResumptionPrompter(this, this.resumable, new PreferenceManager(this.ctx).get(Constants.PREF_AUTO_RESUME))); // TODO: ResumableShare is missing a.i. generated
+    public final void resumeShares(ResumePrompt prompter) {
+        // The derived end-to-end key is restored from the resumption data, so resumed shares do
+        // not need the password to be entered again.
+        this.resumable.tryResumeShare(new AutoResumptionPrompter(this, this.resumable, prompter));
     }
-*/
 
     /**
      * This function is called after the user has accepted a {@link ResumePrompt} to resume a
@@ -304,14 +322,17 @@ public abstract class SessionManager {
      */
     final void relaunchService(boolean prompt) {
         // If there is an active session, it means the service should be relaunched.
-        if (pusher != null && this.activeSession != null) {
-            Log.w("Service relaunch was requested because the service was killed. Relaunching pusher %s", pusher); //NON-NLS
-            this.ctx.stopService(pusher);
-            pusher = null;
-            // this.resumable.tryResumeShare(new ServiceRelauncher(this, this.resumable)); // TODO: ResumableShare is missing a.i. generated
+        if (this.pusher != null && this.activeSession != null) {
+            Log.w("Service relaunch was requested because the service was killed. Relaunching pusher %s", this.pusher); //NON-NLS
+            String sessionID = this.activeSession.getID();
+            LocationPushService.stopSession(this.ctx, sessionID);
+            this.pusher = null;
+            // Clear the active session so that resuming the first share starts the service again.
+            this.activeSession = null;
+            this.resumable.tryResumeSession(sessionID, new ServiceRelauncher(this, this.resumable));
         } else {
-            Log.d("Pusher is null, calling resumption prompter"); //NON-NLS
-            // this.resumable.tryResumeShare(new AutoResumptionPrompter(this, this.resumable, prompt)); // TODO: ResumableShare is missing a.i. generated
+            // Shares of sessions that are not running are offered to the user by resumeShares().
+            Log.d("Pusher is null, not relaunching"); //NON-NLS
         }
     }
 
@@ -427,7 +448,7 @@ public abstract class SessionManager {
         }
 
         Log.i("Attaching to share, share=%s", share); //NON-NLS
-        // this.resumable.setShareResumable(share); // TODO: ResumableShare is missing a.i. generated
+        this.resumable.setShareResumable(share);
         this.knownShares.put(share.getID(), share);
 
         // TODO: Missing class ListenerRegistry a.i. generated
@@ -449,7 +470,7 @@ public abstract class SessionManager {
             @Override
             public void onSuccess() {
                 Log.i("Share %s was successfully stopped", share); //NON-NLS
-                // SessionManager.this.resumable.clearResumableShare(share.getID()); // TODO: ResumableShare is missing a.i. generated
+                SessionManager.this.resumable.clearResumableShare(share.getSession().getID(), share.getID());
                 SessionManager.this.knownShares.remove(share.getID());
                 // TODO: Missing class ListenerRegistry a.i. generated
                 /*
@@ -475,7 +496,14 @@ public abstract class SessionManager {
      */
     private void initiateSessionForExistingShare(Session session, SessionInitiationReason reason) {
         this.activeSession = session;
-        // this.resumable.setSessionResumable(this.activeSession); // TODO: ResumableShare is missing a.i. generated
+        this.resumable.setSessionResumable(this.activeSession);
+
+        // Derive the end-to-end key in the background so that the first location update does not
+        // have to wait for it. This is a no-op if the key was restored from resumption data.
+        KeyDerivable e2eKey = session.getDerivableE2EKey();
+        if (e2eKey != null) {
+            this.keyDerivation = e2eKey.deriveInBackground(new KeyDerivationListener(session));
+        }
 
         if (this.ctx.checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
             Log.i("Location permission has been granted; sharing will commence"); //NON-NLS
@@ -507,8 +535,8 @@ public abstract class SessionManager {
             */
             Log.w("SessionManager: StopTask related call (updateTask) skipped due to missing StopTask class.");
 
-            Log.d("Setting static pusher %s (was %s)", pusherIntent, SessionManager.pusher); //NON-NLS
-            SessionManager.pusher = pusherIntent;
+            Log.d("Setting pusher %s (was %s)", pusherIntent, this.pusher); //NON-NLS
+            this.pusher = pusherIntent;
 
             long expireIn = session.getRemainingMillis();
             // TODO: Missing class StopTask a.i. generated
@@ -565,6 +593,32 @@ public abstract class SessionManager {
         }
     }
 
+    /**
+     * Logs the progress of background key derivation, and saves the derived key so that it does
+     * not have to be derived again if the session is resumed.
+     */
+    private final class KeyDerivationListener implements KeyDerivable.DerivationListener {
+        private final Session session;
+
+        private KeyDerivationListener(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void onProgress(int done, int total) {
+            Log.v("Key derivation progress: %s/%s", done, total); //NON-NLS
+        }
+
+        @Override
+        public void onDerived(KeyDerivable key) {
+            Log.i("End-to-end key derived"); //NON-NLS
+            // Sharing may have been stopped while the key was being derived, in which case the
+            // resumption data has already been cleared and the key must not be saved.
+            if (this.session != SessionManager.this.activeSession) return;
+            SessionManager.this.resumable.setDerivedKeyResumable(this.session);
+        }
+    }
+
     private final class GNSSStatusUpdateTask implements GNSSActiveHandler {
         private final Session session;
 
@@ -627,6 +681,15 @@ public abstract class SessionManager {
             Log.w("SessionManager.GNSSStatusUpdateTask: ListenerRegistry related loop (onServerConnectionRestored) skipped.");
         }
 
+        @Override
+        public void onTelemetryUpdated(SessionTelemetry telemetry) {
+            if (SessionManager.this.telemetryListeners.isEmpty()) return;
+            SessionTelemetry.Snapshot snapshot = telemetry.snapshot();
+            for (TelemetryListener listener : SessionManager.this.telemetryListeners) {
+                listener.onTelemetryUpdated(snapshot);
+            }
+        }
+
         @Override
         public void onShareListReceived(String linkFormat, String[] shareIDs) {
             List<String> currentShares = Arrays.asList(shareIDs);
@@ -643,7 +706,7 @@ public abstract class SessionManager {
                 if (!currentShares.contains(entry.getKey())) {
                     Log.i("Share %s was terminated on server, removing", entry.getKey()); //NON-NLS
                     it.remove();
-                    // SessionManager.this.resumable.clearResumableShare(entry.getKey()); // TODO: ResumableShare is missing a.i. generated
+                    SessionManager.this.resumable.clearResumableShare(this.session.getID(), entry.getKey());
                     // TODO: Missing class ListenerRegistry a.i. generated
                     /*
                     for (ShareListener listener : SessionManager.this.upstreamShareListeners) {
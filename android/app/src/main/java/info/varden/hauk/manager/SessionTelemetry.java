@@ -0,0 +1,371 @@
+package info.varden.hauk.manager;
+
+import android.content.Context;
+import android.text.format.Formatter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.R;
+import info.varden.hauk.http.parameter.LocationProvider;
+
+/**
+ * Collects performance metrics for a sharing session, such as backend round-trip times, request
+ * outcomes per packet type, the delay between a location fix and its upload, and the amount of data
+ * transferred. Unlike the binary connected/disconnected state reported through
+ * {@link GNSSStatusUpdateListener}, these metrics show when a connection to the backend is up but
+ * degraded.
+ *
+ * <p>Metrics are recorded by the packets and the location push service of a session, and are
+ * passed to {@link TelemetryListener}s attached to the {@link SessionManager} as immutable
+ * {@link Snapshot}s.</p>
+ */
+public final class SessionTelemetry {
+    /**
+     * Telemetry instances for all sessions that are currently active, by session ID.
+     */
+    private static final Map<String, SessionTelemetry> sessions = new HashMap<>();
+
+    /**
+     * IDs of sessions whose telemetry has been discarded, and the times they were discarded, in
+     * the order they were discarded. Packets of a stopped session may still complete after it has
+     * been discarded, and must not register its telemetry again. Once those packets have had
+     * {@link Constants#TELEMETRY_DISCARD_RETENTION} milliseconds to complete, the ID is forgotten.
+     */
+    private static final Map<String, Long> discarded = new LinkedHashMap<>();
+
+    /**
+     * Round-trip times of all requests sent for the session, in milliseconds.
+     */
+    private final Histogram roundTrip = new Histogram();
+
+    /**
+     * Time from when each location point was recorded until the backend accepted it, in
+     * milliseconds.
+     */
+    private final Histogram fixDelay = new Histogram();
+
+    /**
+     * The number of successful and failed requests for each packet type.
+     */
+    private final Map<String, long[]> results = new TreeMap<>();
+
+    private long fineFixes = 0L;
+    private long coarseFixes = 0L;
+    private long bytesSent = 0L;
+    private long bytesReceived = 0L;
+
+    /**
+     * Returns the telemetry instance for the given session, creating it if it does not exist. If
+     * the telemetry of the session has been discarded, a detached instance is returned instead,
+     * whose metrics are never reported.
+     *
+     * @param sessionID The ID of the session.
+     */
+    public static SessionTelemetry forSession(String sessionID) {
+        synchronized (sessions) {
+            if (discarded.containsKey(sessionID)) return new SessionTelemetry();
+            SessionTelemetry telemetry = sessions.get(sessionID);
+            if (telemetry == null) {
+                telemetry = new SessionTelemetry();
+                sessions.put(sessionID, telemetry);
+            }
+            return telemetry;
+        }
+    }
+
+    /**
+     * Discards the telemetry of a session that has been stopped.
+     *
+     * @param sessionID The ID of the session.
+     */
+    static void discard(String sessionID) {
+        discard(sessionID, System.currentTimeMillis());
+    }
+
+    /**
+     * Discards the telemetry of a session that has been stopped, and forgets sessions that were
+     * discarded long enough ago that none of their packets can still be pending.
+     *
+     * @param sessionID The ID of the session.
+     * @param now       The current time, in milliseconds since the Unix epoch.
+     */
+    static void discard(String sessionID, long now) {
+        synchronized (sessions) {
+            for (Iterator<Long> it = discarded.values().iterator(); it.hasNext();) {
+                if (it.next() > now - Constants.TELEMETRY_DISCARD_RETENTION) break;
+                it.remove();
+            }
+            sessions.remove(sessionID);
+            discarded.remove(sessionID);
+            discarded.put(sessionID, now);
+        }
+    }
+
+    SessionTelemetry() {
+    }
+
+    /**
+     * Records a completed request, whether or not it was successful.
+     *
+     * @param rttMillis     The time from when the request was sent until the response had been
+     *                      received, in milliseconds.
+     * @param bytesSent     The size of the request body.
+     * @param bytesReceived The size of the response body.
+     */
+    public synchronized void onRequestCompleted(long rttMillis, long bytesSent, long bytesReceived) {
+        this.roundTrip.add(rttMillis);
+        this.bytesSent += bytesSent;
+        this.bytesReceived += bytesReceived;
+    }
+
+    /**
+     * Records the outcome of a packet.
+     *
+     * @param packetType The type of packet, e.g. its class name.
+     * @param success    Whether or not the packet was accepted by the backend.
+     */
+    public synchronized void onPacketResult(String packetType, boolean success) {
+        long[] counts = this.results.get(packetType);
+        if (counts == null) {
+            counts = new long[2];
+            this.results.put(packetType, counts);
+        }
+        counts[success ? 0 : 1]++;
+    }
+
+    /**
+     * Records a location fix received from the device's location services.
+     *
+     * @param provider The provider the location fix was received from.
+     */
+    public synchronized void onFix(LocationProvider provider) {
+        if (provider == LocationProvider.FINE) {
+            this.fineFixes++;
+        } else {
+            this.coarseFixes++;
+        }
+    }
+
+    /**
+     * Records that a location point was accepted by the backend.
+     *
+     * @param fixTimeMillis The time the point was recorded, in milliseconds since the Unix epoch.
+     * @param nowMillis     The current time, in milliseconds since the Unix epoch.
+     */
+    public synchronized void onFixUploaded(long fixTimeMillis, long nowMillis) {
+        this.fixDelay.add(Math.max(0L, nowMillis - fixTimeMillis));
+    }
+
+    /**
+     * Returns an immutable copy of the current metrics.
+     */
+    public synchronized Snapshot snapshot() {
+        Map<String, long[]> results = new TreeMap<>();
+        for (Map.Entry<String, long[]> entry : this.results.entrySet()) {
+            results.put(entry.getKey(), entry.getValue().clone());
+        }
+        return new Snapshot(
+                this.roundTrip.getCount(), this.roundTrip.getPercentile(0.5D), this.roundTrip.getPercentile(0.95D),
+                this.fixDelay.getCount(), this.fixDelay.getPercentile(0.5D), this.fixDelay.getPercentile(0.95D),
+                results, this.fineFixes, this.coarseFixes, this.bytesSent, this.bytesReceived
+        );
+    }
+
+    /**
+     * A histogram with exponentially sized buckets, which keeps memory usage constant regardless of
+     * the number of recorded values. Bucket {@code i > 0} counts values in the range
+     * {@code [2^(i-1), 2^i)}, so percentiles are accurate to within a factor of two.
+     */
+    static final class Histogram {
+        private static final int BUCKETS = 40;
+
+        private final long[] buckets = new long[BUCKETS];
+        private long count = 0L;
+
+        void add(long value) {
+            int bucket = value <= 0L ? 0 : Math.min(BUCKETS - 1, Long.SIZE - Long.numberOfLeadingZeros(value));
+            this.buckets[bucket]++;
+            this.count++;
+        }
+
+        long getCount() {
+            return this.count;
+        }
+
+        /**
+         * Returns an upper bound of the given percentile of the recorded values, or -1 if no values
+         * have been recorded.
+         *
+         * @param quantile The percentile to return, between 0 and 1.
+         */
+        long getPercentile(double quantile) {
+            if (this.count == 0L) return -1L;
+            long rank = (long) Math.ceil(quantile * this.count);
+            long seen = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.buckets[i];
+                if (seen >= rank && seen > 0L) return i == 0 ? 0L : (1L << i) - 1L;
+            }
+            return (1L << (BUCKETS - 1)) - 1L;
+        }
+    }
+
+    /**
+     * An immutable copy of the metrics of a session at a given time.
+     */
+    public static final class Snapshot {
+        private final long requests;
+        private final long roundTripMedian;
+        private final long roundTripP95;
+        private final long uploadedFixes;
+        private final long fixDelayMedian;
+        private final long fixDelayP95;
+        private final Map<String, long[]> results;
+        private final long fineFixes;
+        private final long coarseFixes;
+        private final long bytesSent;
+        private final long bytesReceived;
+
+        @SuppressWarnings("ConstructorWithTooManyParameters")
+        private Snapshot(long requests, long roundTripMedian, long roundTripP95, long uploadedFixes, long fixDelayMedian, long fixDelayP95, Map<String, long[]> results, long fineFixes, long coarseFixes, long bytesSent, long bytesReceived) {
+            this.requests = requests;
+            this.roundTripMedian = roundTripMedian;
+            this.roundTripP95 = roundTripP95;
+            this.uploadedFixes = uploadedFixes;
+            this.fixDelayMedian = fixDelayMedian;
+            this.fixDelayP95 = fixDelayP95;
+            this.results = Collections.unmodifiableMap(results);
+            this.fineFixes = fineFixes;
+            this.coarseFixes = coarseFixes;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+        }
+
+        /**
+         * Returns the number of requests sent to the backend, including failed requests.
+         */
+        public long getRequestCount() {
+            return this.requests;
+        }
+
+        /**
+         * Returns the median round-trip time in milliseconds, or -1 if no requests have been sent.
+         */
+        public long getRoundTripMedian() {
+            return this.roundTripMedian;
+        }
+
+        /**
+         * Returns the 95th percentile round-trip time in milliseconds, or -1 if no requests have
+         * been sent.
+         */
+        public long getRoundTripP95() {
+            return this.roundTripP95;
+        }
+
+        /**
+         * Returns the number of location points that have been accepted by the backend.
+         */
+        public long getUploadedFixCount() {
+            return this.uploadedFixes;
+        }
+
+        /**
+         * Returns the median delay between recording a location point and the backend accepting
+         * it, in milliseconds, or -1 if no points have been accepted.
+         */
+        public long getFixDelayMedian() {
+            return this.fixDelayMedian;
+        }
+
+        /**
+         * Returns the 95th percentile delay between recording a location point and the backend
+         * accepting it, in milliseconds, or -1 if no points have been accepted.
+         */
+        public long getFixDelayP95() {
+            return this.fixDelayP95;
+        }
+
+        /**
+         * Returns the number of successful packets of the given type.
+         */
+        public long getSuccessCount(String packetType) {
+            long[] counts = this.results.get(packetType);
+            return counts == null ? 0L : counts[0];
+        }
+
+        /**
+         * Returns the number of failed packets of the given type.
+         */
+        public long getFailureCount(String packetType) {
+            long[] counts = this.results.get(packetType);
+            return counts == null ? 0L : counts[1];
+        }
+
+        /**
+         * Returns the types of all packets that have been sent, in alphabetical order.
+         */
+        public Iterable<String> getPacketTypes() {
+            return this.results.keySet();
+        }
+
+        public long getFineFixCount() {
+            return this.fineFixes;
+        }
+
+        public long getCoarseFixCount() {
+            return this.coarseFixes;
+        }
+
+        /**
+         * Returns the fraction of location fixes that were received from the coarse location
+         * provider, or 0 if no fixes have been received.
+         */
+        public double getCoarseRatio() {
+            long total = this.fineFixes + this.coarseFixes;
+            return total == 0L ? 0.0D : (double) this.coarseFixes / total;
+        }
+
+        /**
+         * Returns the total size of all request bodies sent to the backend.
+         */
+        public long getBytesSent() {
+            return this.bytesSent;
+        }
+
+        /**
+         * Returns the total size of all response bodies received from the backend.
+         */
+        public long getBytesReceived() {
+            return this.bytesReceived;
+        }
+
+        /**
+         * Formats the metrics as human-readable text, one metric per line.
+         *
+         * @param ctx Android application context.
+         */
+        public String describe(Context ctx) {
+            if (this.requests == 0L && this.fineFixes == 0L && this.coarseFixes == 0L) {
+                return ctx.getString(R.string.telemetry_none);
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append(ctx.getString(R.string.telemetry_round_trip, this.roundTripMedian, this.roundTripP95, this.requests));
+            for (Map.Entry<String, long[]> entry : this.results.entrySet()) {
+                sb.append('\n').append(ctx.getString(R.string.telemetry_packet_results, entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+            }
+            if (this.uploadedFixes > 0L) {
+                sb.append('\n').append(ctx.getString(R.string.telemetry_fix_delay, this.fixDelayMedian, this.fixDelayP95));
+            }
+            sb.append('\n').append(ctx.getString(R.string.telemetry_fixes, this.fineFixes, this.coarseFixes, Math.round(getCoarseRatio() * 100.0D)));
+            sb.append('\n').append(ctx.getString(R.string.telemetry_bytes, Formatter.formatShortFileSize(ctx, this.bytesSent), Formatter.formatShortFileSize(ctx, this.bytesReceived)));
+            return sb.toString();
+        }
+    }
+}
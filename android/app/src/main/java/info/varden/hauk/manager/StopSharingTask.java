@@ -4,6 +4,7 @@ import android.content.Context;
 import android.content.Intent;
 
 import info.varden.hauk.http.StopSharingPacket;
+import info.varden.hauk.service.LocationPushService;
 import info.varden.hauk.struct.Session;
 import info.varden.hauk.utils.Log;
 
@@ -98,7 +99,12 @@ public abstract class StopSharingTask implements Runnable {
         Log.i("Executing share stop task"); //NON-NLS
         this.canExecute = false;
         Log.i("Stopping location push service"); //NON-NLS
-        this.ctx.stopService(this.pusher);
+        if (this.session != null) {
+            // Other sessions may still be shared through the service.
+            LocationPushService.stopSession(this.ctx, this.session.getID());
+        } else {
+            this.ctx.stopService(this.pusher);
+        }
 
         // If a session is currently active, send a cancellation request to the backend to remove
         // session data from the server.
@@ -0,0 +1,15 @@
+package info.varden.hauk.manager;
+
+/**
+ * Callback interface that {@link SessionManager} handlers can attach to receive performance metrics
+ * for the active session.
+ */
+public interface TelemetryListener {
+    /**
+     * Called whenever the metrics of the active session have changed, e.g. after a location update
+     * has been sent.
+     *
+     * @param telemetry The current metrics of the session.
+     */
+    void onTelemetryUpdated(SessionTelemetry.Snapshot telemetry);
+}
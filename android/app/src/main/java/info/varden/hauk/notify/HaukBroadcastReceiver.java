@@ -47,6 +47,11 @@ public abstract class HaukBroadcastReceiver<T> extends BroadcastReceiver {
         int index = intent.getIntExtra(Constants.EXTRA_BROADCAST_RECEIVER_REGISTRY_INDEX, -1);
         //noinspection unchecked
         T data = (T) ReceiverDataRegistry.retrieve(index, true);
+        if (data == null) {
+            // The share that the notification belonged to is no longer running.
+            Log.w("No data is stored for broadcast to class %s; ignoring", getClass().getName()); //NON-NLS
+            return;
+        }
         Log.v("Received broadcast for class %s; fetched stored data of type %s; calling handler", getClass().getName(), data.getClass().getName()); //NON-NLS
         handle(context, data);
     }
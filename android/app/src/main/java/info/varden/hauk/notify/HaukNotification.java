@@ -63,7 +63,7 @@ public abstract class HaukNotification {
     /**
      * Displays the notification, or updates if it is already displayed.
      */
-    final void push() {
+    public final void push() {
         NotificationManager manager = (NotificationManager) this.ctx.getSystemService(Context.NOTIFICATION_SERVICE);
         if (manager != null) {
             try {
@@ -76,6 +76,18 @@ public abstract class HaukNotification {
         }
     }
 
+    /**
+     * Removes the notification if it is displayed.
+     */
+    public final void cancel() {
+        NotificationManager manager = (NotificationManager) this.ctx.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager != null) {
+            manager.cancel(this.id);
+        } else {
+            Log.e("Notification manager is null"); //NON-NLS
+        }
+    }
+
     /**
      * Creates a notification instance that can be displayed using NotificationManager.
      *
@@ -14,6 +14,13 @@ import info.varden.hauk.utils.ReceiverDataRegistry;
  * retrieval by the associated receiver class. The class maintains a registry of objects for each
  * receiver registered; these objects are returned to the receiver when it is called.
  *
+ * <p>The data object is registered persistently in {@link ReceiverDataRegistry}, which only holds a
+ * weak reference to it and identifies it by instance rather than by equality. The caller must
+ * therefore keep the same data instance strongly reachable for as long as the notification is
+ * shown, e.g. as a field of the notification, and pass that instance every time the notification is
+ * rebuilt. Otherwise, the buttons stop working once the object is garbage collected, or every
+ * rebuild registers a new entry.</p>
+ *
  * @author Marius Lindvall
  * @param <T> The type of data to be passed to the receiving listener.
  */
@@ -53,9 +60,14 @@ final class Receiver<T> {
         intent.setAction(this.receiver.getConstructor().newInstance().getActionID());
 
         // Store the provided data in the registry for later retrieval, and pass the data index to
-        // the intent.
-        intent.putExtra(Constants.EXTRA_BROADCAST_RECEIVER_REGISTRY_INDEX, ReceiverDataRegistry.register(this.data));
+        // the intent. The notification may be rebuilt many times with the same data, and its
+        // buttons may be pressed any number of times, so the data is registered persistently.
+        int index = ReceiverDataRegistry.registerPersistent(this.data);
+        intent.putExtra(Constants.EXTRA_BROADCAST_RECEIVER_REGISTRY_INDEX, index);
 
-        return PendingIntent.getBroadcast(this.ctx, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        // PendingIntents that only differ in their extras are considered equal, so the index is
+        // also used as the request code. Otherwise, the notification of one share would replace
+        // the data index in the buttons of every other share's notification.
+        return PendingIntent.getBroadcast(this.ctx, index, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
     }
 }
@@ -1,10 +1,13 @@
 package info.varden.hauk.notify;
 
 import android.content.Context;
+import android.os.SystemClock;
 
 import androidx.core.app.NotificationCompat;
 
+import info.varden.hauk.Constants;
 import info.varden.hauk.R;
+import info.varden.hauk.manager.SessionTelemetry;
 import info.varden.hauk.manager.StopSharingTask;
 import info.varden.hauk.service.GNSSActiveHandler;
 import info.varden.hauk.struct.Share;
@@ -38,6 +41,18 @@ public final class SharingNotification extends HaukNotification implements GNSSA
      */
     private int lastTitle;
 
+    /**
+     * Performance metrics of the session shown in the expanded notification, or null if none have
+     * been received yet.
+     */
+    private String telemetry = null;
+
+    /**
+     * The time the notification was last updated with new metrics, from
+     * {@link SystemClock#elapsedRealtime()}.
+     */
+    private long lastTelemetryPush = 0L;
+
     /**
      * Creates a persistent notification.
      *
@@ -57,9 +72,16 @@ public final class SharingNotification extends HaukNotification implements GNSSA
     public void build(NotificationCompat.Builder builder) throws Exception {
         Log.v("Building sharing notification"); //NON-NLS
         builder.setContentTitle(getContext().getString(this.notifyTitle));
-        builder.setContentText(String.format(getContext().getString(R.string.notify_body), this.share.getSession().getServerURL()));
+        String body = String.format(getContext().getString(R.string.notify_body), this.share.getSession().getServerURL());
+        builder.setContentText(body);
         builder.setSmallIcon(R.drawable.ic_notify);
         builder.setPriority(NotificationCompat.PRIORITY_DEFAULT);
+        builder.setOnlyAlertOnce(true);
+
+        // Show session metrics when the notification is expanded.
+        if (this.telemetry != null) {
+            builder.setStyle(new NotificationCompat.BigTextStyle().bigText(body + "\n\n" + this.telemetry));
+        }
 
         // Add "Copy link" and "Stop sharing" buttons to the notification.
         builder.addAction(R.drawable.ic_button_copy, getContext().getString(R.string.action_copy), new Receiver<>(getContext(), CopyLinkReceiver.class, this.share.getViewURL()).toPending());
@@ -102,6 +124,17 @@ public final class SharingNotification extends HaukNotification implements GNSSA
         push();
     }
 
+    @Override
+    public void onTelemetryUpdated(SessionTelemetry telemetry) {
+        // Metrics change with every location update, so limit how often the notification is
+        // rebuilt to avoid being rate limited by the system.
+        long now = SystemClock.elapsedRealtime();
+        if (this.telemetry != null && now - this.lastTelemetryPush < Constants.TELEMETRY_NOTIFY_INTERVAL) return;
+        this.telemetry = telemetry.snapshot().describe(getContext());
+        this.lastTelemetryPush = now;
+        push();
+    }
+
     @Override
     public void onShareListReceived(String linkFormat, String[] shareIDs) {
     }
@@ -0,0 +1,156 @@
+package info.varden.hauk.service;
+
+import info.varden.hauk.Constants;
+
+/**
+ * Chooses the interval at which location updates should be requested from the GNSS provider,
+ * based on how the device is moving. The interval is kept within the bounds of the session's
+ * update interval and maximum update interval.
+ *
+ * <p>While the device is moving, the interval is chosen so that the device moves roughly
+ * {@link Constants#ADAPTIVE_TARGET_DISTANCE} meters between each update, so that fast movement
+ * is sampled at the full rate while slow movement is sampled less often. If all fixes have stayed
+ * within {@link Constants#ADAPTIVE_STATIONARY_RADIUS} meters (or the accuracy radius of the fix,
+ * if larger) for {@link Constants#ADAPTIVE_STATIONARY_TIME} milliseconds, the device is
+ * considered stationary, and the interval is doubled for every update until it reaches the
+ * maximum. Any movement outside that radius immediately lowers the interval again.</p>
+ *
+ * <p>This class does not depend on Android APIs, and is not thread safe.</p>
+ */
+final class AdaptiveIntervalController {
+    /**
+     * Mean radius of the Earth, in meters.
+     */
+    static final double EARTH_RADIUS = 6371008.8;
+
+    /**
+     * The shortest interval that may be used, in milliseconds.
+     */
+    private final long minInterval;
+
+    /**
+     * The longest interval that may be used, in milliseconds.
+     */
+    private final long maxInterval;
+
+    /**
+     * The interval currently in use, in milliseconds.
+     */
+    private long interval;
+
+    /**
+     * Whether or not a fix has been received yet.
+     */
+    private boolean hasFix = false;
+
+    /**
+     * The location and time of the previous fix.
+     */
+    private double lastLatitude, lastLongitude;
+    private long lastTime;
+
+    /**
+     * The location and time of the first fix in the current stationary period, i.e. the center of
+     * the stationary radius.
+     */
+    private double anchorLatitude, anchorLongitude;
+    private long anchorTime;
+
+    /**
+     * Creates an interval controller.
+     *
+     * @param minInterval The shortest interval that may be used, in milliseconds.
+     * @param maxInterval The longest interval that may be used, in milliseconds. If this is not
+     *                    larger than {@code minInterval}, the interval is never changed.
+     */
+    AdaptiveIntervalController(long minInterval, long maxInterval) {
+        this.minInterval = minInterval;
+        this.maxInterval = Math.max(minInterval, maxInterval);
+        this.interval = minInterval;
+    }
+
+    /**
+     * Returns the interval currently in use, in milliseconds.
+     */
+    long getInterval() {
+        return this.interval;
+    }
+
+    /**
+     * Returns whether or not the interval can ever be changed by this controller.
+     */
+    boolean isEnabled() {
+        return this.maxInterval > this.minInterval;
+    }
+
+    /**
+     * Updates the controller with a new location fix and returns the interval that should be used
+     * from now on.
+     *
+     * @param latitude  The latitude of the fix, in degrees.
+     * @param longitude The longitude of the fix, in degrees.
+     * @param accuracy  The accuracy radius of the fix, in meters, or NaN if unknown.
+     * @param speed     The speed of the device, in meters per second, or NaN if unknown.
+     * @param time      The time of the fix, in milliseconds since the Unix epoch.
+     * @return The new interval, in milliseconds.
+     */
+    long onLocation(double latitude, double longitude, float accuracy, float speed, long time) {
+        if (!isEnabled()) return this.interval;
+
+        if (!this.hasFix) {
+            this.hasFix = true;
+            setAnchor(latitude, longitude, time);
+        } else {
+            // Estimate the speed from the previous fix if the provider does not report it.
+            if (Float.isNaN(speed) && time > this.lastTime) {
+                speed = (float) (distance(this.lastLatitude, this.lastLongitude, latitude, longitude) * 1000.0D / (time - this.lastTime));
+            }
+
+            // Fixes within the accuracy radius of the anchor cannot be distinguished from noise.
+            double radius = Float.isNaN(accuracy) ? Constants.ADAPTIVE_STATIONARY_RADIUS : Math.max(Constants.ADAPTIVE_STATIONARY_RADIUS, accuracy);
+            if (distance(this.anchorLatitude, this.anchorLongitude, latitude, longitude) > radius) {
+                setAnchor(latitude, longitude, time);
+            }
+        }
+        this.lastLatitude = latitude;
+        this.lastLongitude = longitude;
+        this.lastTime = time;
+
+        long target;
+        if (time - this.anchorTime >= Constants.ADAPTIVE_STATIONARY_TIME) {
+            // Stationary; back off gradually.
+            target = this.maxInterval;
+        } else if (!Float.isNaN(speed) && speed > 0.0F) {
+            target = (long) (Constants.ADAPTIVE_TARGET_DISTANCE * 1000.0F / speed);
+        } else {
+            target = this.minInterval;
+        }
+        target = Math.max(this.minInterval, Math.min(this.maxInterval, target));
+
+        // Lower the interval immediately, but raise it by at most a factor of two at a time.
+        this.interval = target < this.interval ? target : Math.min(target, this.interval * 2);
+        return this.interval;
+    }
+
+    /**
+     * Starts a new stationary period at the given location.
+     */
+    private void setAnchor(double latitude, double longitude, long time) {
+        this.anchorLatitude = latitude;
+        this.anchorLongitude = longitude;
+        this.anchorTime = time;
+    }
+
+    /**
+     * Calculates the great-circle distance between two coordinates using the haversine formula.
+     *
+     * @return The distance between the coordinates, in meters.
+     */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1.0D, Math.sqrt(a)));
+    }
+}
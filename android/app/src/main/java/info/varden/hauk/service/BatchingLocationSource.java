@@ -0,0 +1,57 @@
+package info.varden.hauk.service;
+
+import android.content.Context;
+import android.location.LocationManager;
+import android.location.LocationRequest;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.concurrent.Executor;
+
+import info.varden.hauk.utils.Log;
+
+/**
+ * Location source that uses the platform location request API, which supports delivering fixes in
+ * hardware-batched groups. Fixes are delivered on the main thread.
+ */
+@RequiresApi(Build.VERSION_CODES.S)
+final class BatchingLocationSource extends LocationSource {
+    private final Executor executor;
+
+    BatchingLocationSource(Context ctx, LocationManager manager, String provider, Callback callback) {
+        super(manager, provider, callback);
+        this.executor = ctx.getMainExecutor();
+    }
+
+    @Override
+    boolean request(long intervalMillis, float minDistance, long maxUpdateDelayMillis) throws SecurityException {
+        if (!this.manager.hasProvider(this.provider)) {
+            Log.w("Location provider %s does not exist", this.provider); //NON-NLS
+            return false;
+        }
+        LocationRequest request = new LocationRequest.Builder(intervalMillis)
+                .setQuality(getQuality())
+                .setMinUpdateDistanceMeters(minDistance)
+                .setMaxUpdateDelayMillis(maxUpdateDelayMillis)
+                .build();
+        Log.i("Requesting updates from %s with interval %s ms and maximum batching delay %s ms", this.provider, intervalMillis, maxUpdateDelayMillis); //NON-NLS
+        this.manager.requestLocationUpdates(this.provider, request, this.executor, this);
+        return true;
+    }
+
+    /**
+     * Returns the quality of the location request. The passive provider only receives fixes that
+     * were requested by other apps, so it should not cause any location work of its own.
+     */
+    private int getQuality() {
+        switch (this.provider) {
+            case LocationManager.GPS_PROVIDER:
+                return LocationRequest.QUALITY_HIGH_ACCURACY;
+            case LocationManager.PASSIVE_PROVIDER:
+                return LocationRequest.QUALITY_LOW_POWER;
+            default:
+                return LocationRequest.QUALITY_BALANCED_POWER_ACCURACY;
+        }
+    }
+}
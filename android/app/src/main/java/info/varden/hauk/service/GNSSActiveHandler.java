@@ -1,5 +1,7 @@
 package info.varden.hauk.service;
 
+import info.varden.hauk.manager.SessionTelemetry;
+
 /**
  * Interface template for handling UI updates when location data is received.
  *
@@ -31,6 +33,14 @@ public interface GNSSActiveHandler {
      */
     void onServerConnectionRestored();
 
+    /**
+     * Called when the performance metrics of the session have changed, e.g. after a location update
+     * has been accepted or rejected by the backend.
+     *
+     * @param telemetry The metrics of the session.
+     */
+    void onTelemetryUpdated(SessionTelemetry telemetry);
+
     /**
      * Called when a list of shares the client is contributing to has been received from the server.
      *
@@ -0,0 +1,28 @@
+package info.varden.hauk.service;
+
+import android.location.LocationManager;
+
+import info.varden.hauk.utils.Log;
+
+/**
+ * Location source for devices that do not support batched location delivery. Every fix is
+ * delivered individually as soon as it is received, and the requested maximum update delay is
+ * ignored.
+ */
+final class LegacyLocationSource extends LocationSource {
+    LegacyLocationSource(LocationManager manager, String provider, Callback callback) {
+        super(manager, provider, callback);
+    }
+
+    @Override
+    boolean request(long intervalMillis, float minDistance, long maxUpdateDelayMillis) throws SecurityException {
+        try {
+            Log.i("Requesting updates from %s with interval %s ms", this.provider, intervalMillis); //NON-NLS
+            this.manager.requestLocationUpdates(this.provider, intervalMillis, minDistance, this);
+            return true;
+        } catch (IllegalArgumentException ex) {
+            Log.w("Location provider %s does not exist", ex, this.provider); //NON-NLS
+            return false;
+        }
+    }
+}
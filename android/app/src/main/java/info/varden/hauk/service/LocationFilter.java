@@ -0,0 +1,127 @@
+package info.varden.hauk.service;
+
+import info.varden.hauk.Constants;
+
+/**
+ * A Kalman filter that smooths location fixes and fuses fixes from the coarse and fine location
+ * providers. Each fix is weighted by its accuracy radius, so an inaccurate network fix received
+ * after the fine provider has been lost only moves the estimate slightly, instead of making the
+ * viewers' map marker jump. The uncertainty of the estimate grows over time according to how fast
+ * the device may be moving, so that the estimate follows the device when it moves.
+ *
+ * <p>Fixes that are further away from the estimate than the device could have travelled since
+ * the last fix are rejected as outliers. If several fixes in a row are rejected, the device is
+ * assumed to actually be where the fixes say, and the filter is reset.</p>
+ *
+ * <p>The filter does not allocate objects per fix.</p>
+ */
+final class LocationFilter {
+    /**
+     * Whether or not the filter has received a fix since it was created or reset.
+     */
+    private boolean initialized = false;
+
+    /**
+     * The current estimate of the position, in degrees.
+     */
+    private double latitude;
+    private double longitude;
+
+    /**
+     * The variance of the position estimate, in square meters.
+     */
+    private double variance;
+
+    /**
+     * The time of the last accepted fix, in milliseconds since the Unix epoch.
+     */
+    private long time;
+
+    /**
+     * The number of fixes that have been rejected in a row.
+     */
+    private int rejected = 0;
+
+    /**
+     * The distance between the last fix and the estimate at the time it was received, in meters.
+     */
+    private double lastDistance = 0.0D;
+
+    /**
+     * Returns the estimated latitude, in degrees.
+     */
+    double getLatitude() {
+        return this.latitude;
+    }
+
+    /**
+     * Returns the estimated longitude, in degrees.
+     */
+    double getLongitude() {
+        return this.longitude;
+    }
+
+    /**
+     * Returns the accuracy radius of the estimate, in meters.
+     */
+    float getAccuracy() {
+        return (float) Math.sqrt(this.variance);
+    }
+
+    /**
+     * Returns the distance between the last fix passed to the filter and the estimate at the time
+     * it was received, in meters.
+     */
+    double getLastDistance() {
+        return this.lastDistance;
+    }
+
+    /**
+     * Updates the estimate with a new location fix.
+     *
+     * @param latitude  The latitude of the fix, in degrees.
+     * @param longitude The longitude of the fix, in degrees.
+     * @param accuracy  The accuracy radius of the fix, in meters, or NaN if unknown.
+     * @param speed     The speed of the device, in meters per second, or NaN if unknown.
+     * @param time      The time of the fix, in milliseconds since the Unix epoch.
+     * @return true if the fix was accepted, false if it was rejected as an outlier.
+     */
+    boolean update(double latitude, double longitude, float accuracy, float speed, long time) {
+        if (Float.isNaN(accuracy) || accuracy <= 0.0F) accuracy = Constants.FILTER_DEFAULT_ACCURACY;
+        double measurementVariance = (double) accuracy * accuracy;
+
+        if (!this.initialized || this.rejected >= Constants.FILTER_MAX_REJECTED) {
+            this.initialized = true;
+            this.rejected = 0;
+            this.lastDistance = 0.0D;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.variance = measurementVariance;
+            this.time = time;
+            return true;
+        }
+
+        // Predict. Fixes from different providers may arrive slightly out of order, in which case
+        // no time has passed.
+        double elapsed = Math.max(0L, time - this.time) / 1000.0D;
+        double noise = Float.isNaN(speed) ? Constants.FILTER_PROCESS_NOISE : Math.max(Constants.FILTER_PROCESS_NOISE, speed);
+        double predictedVariance = this.variance + elapsed * noise * noise;
+
+        // Reject fixes that could not have been reached from the estimate since the last fix, even
+        // allowing for the uncertainty of both.
+        this.lastDistance = AdaptiveIntervalController.distance(this.latitude, this.longitude, latitude, longitude);
+        if (this.lastDistance > Constants.FILTER_MAX_SPEED * elapsed + 3.0D * (Math.sqrt(predictedVariance) + accuracy)) {
+            this.rejected++;
+            return false;
+        }
+        this.rejected = 0;
+
+        // Update.
+        double gain = predictedVariance / (predictedVariance + measurementVariance);
+        this.latitude += gain * (latitude - this.latitude);
+        this.longitude += gain * (longitude - this.longitude);
+        this.variance = (1.0D - gain) * predictedVariance;
+        this.time = Math.max(this.time, time);
+        return true;
+    }
+}
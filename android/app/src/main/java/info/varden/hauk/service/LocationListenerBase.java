@@ -1,14 +1,13 @@
 package info.varden.hauk.service;
 
 import android.location.LocationListener;
-import android.location.LocationManager;
 import android.os.Bundle;
 
 import info.varden.hauk.utils.Log;
 
 /**
  * Location listener base class for Hauk. The purpose of this class is to remove unnecessary empty
- * function bodies from LocationPushService's source code.
+ * function bodies from the {@link LocationSource} implementations.
  *
  * @author Marius Lindvall
  */
@@ -27,13 +26,4 @@ abstract class LocationListenerBase implements LocationListener {
     public final void onProviderDisabled(String provider) {
         Log.w("Location provider %s was disabled", provider); //NON-NLS
     }
-
-    /**
-     * Request location updates from the given location manager.
-     *
-     * @param manager The location manager to request location updates from.
-     * @return true if successful, false otherwise.
-     * @throws SecurityException if location permission has not been granted.
-     */
-    abstract boolean request(LocationManager manager) throws SecurityException;
 }
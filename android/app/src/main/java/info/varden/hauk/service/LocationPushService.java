@@ -12,24 +12,42 @@ import android.os.IBinder;
 
 import androidx.annotation.Nullable;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import info.varden.hauk.Constants;
-import info.varden.hauk.http.LocationUpdatePacket;
-import info.varden.hauk.http.ServerException;
+import info.varden.hauk.http.NetworkPolicy;
 import info.varden.hauk.http.parameter.LocationProvider;
 import info.varden.hauk.manager.StopSharingTask;
 import info.varden.hauk.notify.SharingNotification;
+import info.varden.hauk.struct.LocationPoint;
+import info.varden.hauk.struct.Session;
 import info.varden.hauk.struct.Share;
-import info.varden.hauk.struct.Version;
 import info.varden.hauk.system.preferences.PreferenceManager;
 import info.varden.hauk.utils.Log;
 import info.varden.hauk.utils.ReceiverDataRegistry;
 import info.varden.hauk.utils.TimeUtils;
+import info.varden.hauk.utils.TraceEvent;
+import info.varden.hauk.utils.TraceRecorder;
 
 /**
  * This class is a location listener that POSTs all location updates to Hauk as it receives them. It
  * creates a persistent notification when it launches in order to stay running while the app is
  * minimized.
  *
+ * <p>The service runs a single location pipeline regardless of how many sessions are being shared
+ * at once. Each session started with {@link #ACTION_ID} gets its own {@link SessionUploader}, and
+ * every location fix is passed to all of them, so that sharing to more sessions does not use more
+ * GNSS power. Updates are requested at the shortest interval and distance of all active sessions.
+ * Sessions are stopped individually using {@link #stopSession(Context, String)}, and the service
+ * stops itself when the last session is stopped.</p>
+ *
+ * <p>While the device is inside a quiet zone of every active session, GNSS is turned off and the
+ * service only listens for fixes requested by other apps, plus an occasional network fix, until the
+ * device leaves the zone.</p>
+ *
  * @author Marius Lindvall
  */
 public final class LocationPushService extends Service {
@@ -37,32 +55,19 @@ public final class LocationPushService extends Service {
     @SuppressWarnings("HardCodedStringLiteral")
     public static final String ACTION_ID = "info.varden.hauk.LOCATION_SERVICE";
 
-    /**
-     * A task that should be run when locations start registering. Used further upstream to change a
-     * label on the main activity.
-     */
-    private GNSSActiveHandler gnssActiveTask;
-
-    /**
-     * An indicator of whether or the upstream GNSS handler's {@code onCoarseLocationReceived()}
-     * callback has been run. This call back should only run once to inform the upstream of the
-     * location provider state change when coarse location data has been initially received.
-     */
-    @SuppressWarnings("BooleanVariableAlwaysNegated")
-    private boolean hasRunCoarseTask = false;
+    @SuppressWarnings("HardCodedStringLiteral")
+    private static final String ACTION_STOP_SESSION = "info.varden.hauk.STOP_SESSION";
 
     /**
-     * An indicator of whether or the upstream GNSS handler's {@code onAccurateLocationReceived()}
-     * callback has been run. This call back should only run once to inform the upstream of the
-     * location provider state change when fine location data has been initially received.
+     * Uploaders for each of the active sessions, by session ID.
      */
-    @SuppressWarnings("BooleanVariableAlwaysNegated")
-    private boolean hasRunAccurateTask = false;
+    private final Map<String, SessionUploader> uploaders = new LinkedHashMap<>();
 
     /**
-     * The share that is to be represented in the notification.
+     * The ID of the notification the service is currently running in the foreground with, or 0 if
+     * the service is not in the foreground.
      */
-    private Share share;
+    private int foregroundID = 0;
 
     /**
      * Android location manager instance.
@@ -80,97 +85,328 @@ public final class LocationPushService extends Service {
     private CoarseLocationListener listenCoarse;
 
     /**
-     * The handler that has scheduled the stop task. This is needed so that the callback can be
-     * cancelled if the service is relaunched because of a {@link info.varden.hauk.ui.MainActivity}
-     * reset/recreation.
+     * The service's location listener while all sessions are in one of their quiet zones, or null
+     * if at least one session needs regular location updates.
      */
-    private Handler handler;
+    private QuietLocationListener listenQuiet;
 
     /**
-     * Whether or not the last update packet was sent successfully, i.e. whether there is a
-     * connection to the backend server.
+     * Holds uploads while the device is idle, and sends held points for all sessions when an upload
+     * window opens.
      */
-    private boolean connected = true;
+    private UploadScheduler scheduler;
+
+    /**
+     * Decides how location points are batched and sent depending on the current network.
+     */
+    private NetworkPolicy network;
+
+    /**
+     * Stops sharing location to the given session. If no other sessions are active, the service is
+     * stopped.
+     *
+     * @param ctx       Android application context.
+     * @param sessionID The ID of the session to stop.
+     */
+    public static void stopSession(Context ctx, String sessionID) {
+        Intent intent = new Intent(ctx, LocationPushService.class);
+        intent.setAction(ACTION_STOP_SESSION);
+        intent.putExtra(Constants.EXTRA_SESSION_ID, sessionID);
+        try {
+            ctx.startService(intent);
+        } catch (IllegalStateException ex) {
+            // The service cannot be started from the background if it is not already running, in
+            // which case there is nothing to stop.
+            Log.w("Location push service is not running; nothing to stop", ex); //NON-NLS
+        }
+    }
 
     @Override
     public void onCreate() {
         Log.d("Fetching location service"); //NON-NLS
         this.locMan = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        TraceRecorder.init(this);
+        this.scheduler = new UploadScheduler(this, new UploadScheduler.Listener() {
+            @Override
+            public void onWindowOpened() {
+                for (SessionUploader uploader : LocationPushService.this.uploaders.values()) {
+                    uploader.flushQueue();
+                }
+            }
+        });
+        this.scheduler.start();
+        this.network = new NetworkPolicy(this, new NetworkPolicy.Listener() {
+            @Override
+            public void onPolicyChanged(boolean constrained) {
+                // Points held back for a constrained network should be sent right away when the
+                // network is no longer constrained, and the platform may hold back fixes for a
+                // different time now.
+                for (SessionUploader uploader : LocationPushService.this.uploaders.values()) {
+                    uploader.flushQueue();
+                }
+                if (LocationPushService.this.listenFine != null) LocationPushService.this.listenFine.request();
+            }
+        });
+        this.network.start();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.i("Location push service %s was started, flags=%s, startId=%s", this, flags, startId); //NON-NLS
 
+        if (ACTION_STOP_SESSION.equals(intent.getAction())) {
+            removeSession(intent.getStringExtra(Constants.EXTRA_SESSION_ID), startId);
+            return START_NOT_STICKY;
+        }
+
         // A task that should be run when sharing ends, either automatically or by user request.
-        StopSharingTask stopTask = (StopSharingTask) ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_STOP_TASK, -1));
-        this.share = (Share) ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_SHARE, -1));
-        GNSSActiveHandler parentHandler = (GNSSActiveHandler) ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_GNSS_ACTIVE_TASK, -1));
-        this.handler = (Handler) ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_HANDLER, -1));
+        StopSharingTask stopTask = ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_STOP_TASK, -1), StopSharingTask.class);
+        Share share = ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_SHARE, -1), Share.class);
+        GNSSActiveHandler parentHandler = ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_GNSS_ACTIVE_TASK, -1), GNSSActiveHandler.class);
+        Handler handler = ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_HANDLER, -1), Handler.class);
 
-        Log.d("Pusher %s was given extras stopTask=%s, share=%s, parentHandler=%s, handler=%s", this, stopTask, this.share, parentHandler, this.handler); //NON-NLS
+        Log.d("Pusher %s was given extras stopTask=%s, share=%s, parentHandler=%s, handler=%s", this, stopTask, share, parentHandler, handler); //NON-NLS
 
         try {
             // Even though we previously requested location permission, we still have to check for
             // it when we actually use the location API.
             if (checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
                 Log.v("Location permission has been granted"); //NON-NLS
-                stopTask.setSession(this.share.getSession());
-
-                // Create a persistent notification for Hauk. This notification does have some
-                // buttons that let the user interact with Hauk while in the background, but the
-                // real reason we need a notification is so that Android does not kill our app while
-                // it is in the background. Having an active notification stops this from happening.
-                SharingNotification notify = new SharingNotification(this, this.share, stopTask);
-                startForeground(notify.getID(), notify.create());
-
-                // Send status changes both to the parent handler and the notification.
-                this.gnssActiveTask = new MultiTargetGNSSHandlerProxy(parentHandler, notify);
-
-                // Create and bind location listeners.
-                this.listenCoarse = new CoarseLocationListener();
-                this.listenFine = new FineLocationListener();
-                if (!this.listenCoarse.request(this.locMan)) this.listenCoarse = null;
-                if (!this.listenFine.request(this.locMan)) this.listenFine = null;
-
+                addSession(new SessionUploader(this, share, stopTask, parentHandler, handler, this.scheduler, this.network));
             } else {
                 Log.e("Location permission that was granted earlier has been rejected - sharing aborted"); //NON-NLS
             }
         } catch (Exception e) {
             Log.e("An exception occurred when starting the location push service", e); //NON-NLS
         }
+        if (this.uploaders.isEmpty()) stopSelf(startId);
         return START_NOT_STICKY;
     }
 
+    /**
+     * Starts uploading location fixes to a session, replacing any existing uploader for the same
+     * session, e.g. if the service is relaunched because of a
+     * {@link info.varden.hauk.ui.MainActivity} reset/recreation.
+     *
+     * @param uploader The uploader for the session.
+     */
+    private void addSession(SessionUploader uploader) throws Exception {
+        Session session = uploader.getSession();
+        SessionUploader previous = this.uploaders.remove(session.getID());
+        if (previous != null) {
+            Log.i("Replacing existing uploader for session"); //NON-NLS
+            previous.stop();
+        }
+
+        // Create a persistent notification for Hauk. This notification does have some buttons that
+        // let the user interact with Hauk while in the background, but the real reason we need a
+        // notification is so that Android does not kill our app while it is in the background.
+        // Having an active notification stops this from happening. Only one notification can keep
+        // the service in the foreground; the notifications of other sessions are displayed
+        // normally.
+        if (this.foregroundID == 0 || (previous != null && previous.getNotification().getID() == this.foregroundID)) {
+            startForeground(uploader.getNotification().getID(), uploader.getNotification().create());
+            this.foregroundID = uploader.getNotification().getID();
+        } else {
+            uploader.getNotification().push();
+        }
+        if (previous != null) previous.getNotification().cancel();
+
+        this.uploaders.put(session.getID(), uploader);
+        Log.i("Sharing location to %s sessions", this.uploaders.size()); //NON-NLS
+        Log.trace(TraceEvent.SERVICE_STARTED, session.getIntervalMillis(), session.getMaxIntervalMillis());
+
+        // Start sending any location points that were restored from a previous run right away.
+        uploader.flushQueue();
+        requestUpdates();
+    }
+
+    /**
+     * Stops uploading location fixes to a session. If no sessions remain, the service is stopped.
+     *
+     * @param sessionID The ID of the session to stop.
+     * @param startId   The start ID of the command that requested the session to be stopped.
+     */
+    private void removeSession(@Nullable String sessionID, int startId) {
+        SessionUploader uploader = sessionID == null ? null : this.uploaders.remove(sessionID);
+        if (uploader != null) {
+            Log.i("Stopping location sharing for session; %s sessions remain", this.uploaders.size()); //NON-NLS
+            uploader.stop();
+        }
+
+        if (this.uploaders.isEmpty()) {
+            // If a new session was started after this command, the service keeps running.
+            Log.i("No sessions remain; stopping location push service"); //NON-NLS
+            stopSelf(startId);
+            return;
+        }
+        if (uploader == null) return;
+
+        // If the removed session's notification kept the service in the foreground, hand that role
+        // over to one of the remaining sessions before removing the notification.
+        if (uploader.getNotification().getID() == this.foregroundID) {
+            SharingNotification next = this.uploaders.values().iterator().next().getNotification();
+            try {
+                startForeground(next.getID(), next.create());
+                this.foregroundID = next.getID();
+            } catch (Exception e) {
+                Log.e("Failed to move location push service to another notification", e); //NON-NLS
+            }
+        }
+        uploader.getNotification().cancel();
+        requestUpdates();
+    }
+
+    /**
+     * Requests location updates from the location pipeline with settings that satisfy all active
+     * sessions. If the listeners are already registered, their requests are replaced.
+     */
+    private void requestUpdates() {
+        if (isQuiet()) {
+            if (this.listenQuiet != null) return;
+            Log.i("All sessions are in a quiet zone; switching to passive location updates"); //NON-NLS
+            if (this.listenFine != null) {
+                this.listenFine.onStopped();
+                this.listenFine.remove();
+                this.listenFine = null;
+            }
+            if (this.listenCoarse != null) {
+                this.listenCoarse.remove();
+                this.listenCoarse = null;
+            }
+            this.listenQuiet = new QuietLocationListener();
+            this.listenQuiet.request();
+            return;
+        }
+        if (this.listenQuiet != null) {
+            Log.i("Left quiet zone; resuming regular location updates"); //NON-NLS
+            this.listenQuiet.remove();
+            this.listenQuiet = null;
+        }
+
+        if (this.listenFine == null) {
+            // Create and bind location listeners.
+            this.listenCoarse = new CoarseLocationListener();
+            this.listenFine = new FineLocationListener();
+            if (!this.listenCoarse.request()) this.listenCoarse = null;
+            if (!this.listenFine.request()) this.listenFine = null;
+        } else {
+            this.listenFine.onSessionsChanged();
+            if (this.listenCoarse != null && !this.listenCoarse.request()) this.listenCoarse = null;
+        }
+    }
+
+    /**
+     * Returns whether or not the device is inside a quiet zone of every active session.
+     */
+    private boolean isQuiet() {
+        if (this.uploaders.isEmpty()) return false;
+        for (SessionUploader uploader : this.uploaders.values()) {
+            if (!uploader.isQuiet()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the shortest update interval of all active sessions, in milliseconds.
+     */
+    private long getMinInterval() {
+        long interval = Long.MAX_VALUE;
+        for (SessionUploader uploader : this.uploaders.values()) {
+            interval = Math.min(interval, uploader.getSession().getIntervalMillis());
+        }
+        return interval;
+    }
+
+    /**
+     * Returns the longest update interval that satisfies all active sessions, in milliseconds. This
+     * is the shortest of the maximum intervals of the sessions, so that no session receives fewer
+     * updates than it would if it was shared alone.
+     */
+    private long getMaxInterval() {
+        long interval = Long.MAX_VALUE;
+        for (SessionUploader uploader : this.uploaders.values()) {
+            interval = Math.min(interval, uploader.getSession().getMaxIntervalMillis());
+        }
+        return Math.max(getMinInterval(), interval);
+    }
+
+    /**
+     * Returns the shortest minimum distance between updates of all active sessions, in meters.
+     */
+    private float getMinDistance() {
+        float distance = Float.MAX_VALUE;
+        for (SessionUploader uploader : this.uploaders.values()) {
+            distance = Math.min(distance, uploader.getSession().getMinimumDistance());
+        }
+        return distance;
+    }
+
+    /**
+     * Returns the maximum time location fixes may be held back by the platform so that they can be
+     * delivered in a batch. This is the shortest delay that is acceptable to all active sessions.
+     */
+    private long getMaxUpdateDelay() {
+        long delay = Long.MAX_VALUE;
+        for (SessionUploader uploader : this.uploaders.values()) {
+            delay = Math.min(delay, uploader.getMaxUpdateDelay());
+        }
+        return delay;
+    }
+
     @Override
     public void onDestroy() {
         if (this.listenCoarse != null) {
             Log.i("Service %s destroyed; removing updates from coarse location provider", this); //NON-NLS
-            this.locMan.removeUpdates(this.listenCoarse);
+            this.listenCoarse.remove();
+        }
+        if (this.listenFine != null) {
+            Log.i("Service %s destroyed; removing updates from fine location provider", this); //NON-NLS
+            this.listenFine.onStopped();
+            this.listenFine.remove();
+        }
+        if (this.listenQuiet != null) {
+            Log.i("Service %s destroyed; removing passive location updates", this); //NON-NLS
+            this.listenQuiet.remove();
         }
-        Log.i("Service %s destroyed; removing updates from fine location provider", this); //NON-NLS
-        this.listenFine.onStopped();
-        this.locMan.removeUpdates(this.listenFine);
 
-        Log.i("Removing callbacks from handler %s", this.handler); //NON-NLS
-        this.handler.removeCallbacksAndMessages(null);
-        this.gnssActiveTask = new MultiTargetGNSSHandlerProxy();
+        // Save any unsent location points so that they can be sent if the service is restarted.
+        for (SessionUploader uploader : this.uploaders.values()) {
+            uploader.stop();
+            uploader.getNotification().cancel();
+        }
+        this.uploaders.clear();
+        this.scheduler.stop();
+        this.network.stop();
+        TraceRecorder.flush();
 
         Log.i("Stopping foreground service"); //NON-NLS
         stopForeground(true);
+        this.foregroundID = 0;
 
         super.onDestroy();
     }
 
     /**
-     * Called when either the coarse or the fine location provider has received a location update.
-     * Pushes the location update to the session backend.
+     * Passes a batch of location fixes received by either the coarse or the fine location provider
+     * to all active sessions.
      *
-     * @param location The location received from the device's location services.
+     * @param locations The locations received from the device's location services.
+     * @param accuracy  The provider the locations were received from.
      */
-    private void onLocationChanged(Location location, LocationProvider accuracy) {
-        Log.v("Sending location update packet"); //NON-NLS
-        new LocationUpdatePacketImpl(location, accuracy).send();
+    private void onLocationsChanged(List<Location> locations, LocationProvider accuracy) {
+        for (Location location : locations) {
+            Log.trace(TraceEvent.FIX, accuracy.getMode(),
+                    location.hasAccuracy() ? Math.round(location.getAccuracy() * 10.0F) : -1,
+                    location.hasSpeed() ? Math.round(location.getSpeed() * 100.0F) : -1);
+        }
+        for (SessionUploader uploader : this.uploaders.values()) {
+            uploader.onLocationsChanged(locations, accuracy);
+        }
+
+        // Switch between regular and passive location updates if the device entered or left a
+        // quiet zone.
+        if (isQuiet() != (this.listenQuiet != null)) requestUpdates();
     }
 
     @Nullable
@@ -182,86 +418,108 @@ public final class LocationPushService extends Service {
     /**
      * Coarse location provider implementation (network-based location).
      */
-    private final class CoarseLocationListener extends LocationListenerBase {
-        @Override
-        public void onLocationChanged(Location location) {
-            if (!LocationPushService.this.hasRunCoarseTask) {
-                // Notify the main activity that coarse GPS data is now being received,
-                // such that the UI can be updated.
-                LocationPushService.this.hasRunCoarseTask = true;
-                LocationPushService.this.gnssActiveTask.onCoarseLocationReceived();
-            }
-            Log.v("Location was received on coarse location provider"); //NON-NLS
-            LocationPushService.this.onLocationChanged(location, LocationProvider.COARSE);
+    private final class CoarseLocationListener implements LocationSource.Callback {
+        private final LocationSource source;
+
+        private CoarseLocationListener() {
+            this.source = LocationSource.create(LocationPushService.this, LocationPushService.this.locMan, LocationManager.NETWORK_PROVIDER, this);
         }
 
         @Override
-        boolean request(LocationManager manager) throws SecurityException {
+        public void onLocationsChanged(List<Location> locations) {
+            Log.v("%s locations were received on coarse location provider", locations.size()); //NON-NLS
+            LocationPushService.this.onLocationsChanged(locations, LocationProvider.COARSE);
+        }
+
+        private boolean request() throws SecurityException {
             Log.i("Requesting location updates from device location services"); //NON-NLS
-            try {
-                manager.requestLocationUpdates(
-                        LocationManager.NETWORK_PROVIDER,
-                        LocationPushService.this.share.getSession().getIntervalMillis(),
-                        LocationPushService.this.share.getSession().getMinimumDistance(),
-                        this
-                );
-                return true;
-            } catch (IllegalArgumentException ex) {
-                Log.w("Coarse location provider does not exist!", ex); //NON-NLS
-                return false;
-            }
+            boolean success = this.source.request(getMinInterval(), getMinDistance(), getMaxUpdateDelay());
+            if (!success) Log.w("Coarse location provider does not exist!"); //NON-NLS
+            return success;
+        }
+
+        private void remove() {
+            this.source.remove();
         }
     }
 
     /**
      * Fine location provider implementation (GNSS-based location).
      */
-    private final class FineLocationListener extends LocationListenerBase {
+    private final class FineLocationListener implements LocationSource.Callback {
+        private final LocationSource source;
         private final Handler noGnssTimer;
         private final PreferenceManager prefs;
-        private Location locationOfLastUpdate;
-        private float minDistance;
+        private AdaptiveIntervalController adaptive;
+
+        /**
+         * The interval that updates were last requested at, in milliseconds.
+         */
+        private long requestedInterval;
+
+        /**
+         * The maximum batching delay that updates were last requested with, in milliseconds.
+         */
+        private long requestedDelay;
 
         private FineLocationListener() {
+            this.source = LocationSource.create(LocationPushService.this, LocationPushService.this.locMan, LocationManager.GPS_PROVIDER, this);
             this.noGnssTimer = new Handler();
             this.prefs = new PreferenceManager(LocationPushService.this);
-            this.locationOfLastUpdate = null;
-            this.minDistance = LocationPushService.this.share.getSession().getMinimumDistance();
+            this.adaptive = new AdaptiveIntervalController(getMinInterval(), getMaxInterval());
         }
 
         @Override
-        public void onLocationChanged(Location location) {
+        public void onLocationsChanged(List<Location> locations) {
             if (LocationPushService.this.listenCoarse != null) {
                 // Unregister the coarse location listener, since we are now receiving
                 // accurate location data.
                 Log.i("Accurate location found; removing updates from coarse location provider"); //NON-NLS
-                LocationPushService.this.locMan.removeUpdates(LocationPushService.this.listenCoarse);
+                LocationPushService.this.listenCoarse.remove();
                 LocationPushService.this.listenCoarse = null;
             }
-            if (!LocationPushService.this.hasRunAccurateTask) {
-                // Notify the main activity that accurate GPS data is now being
-                // received, such that the UI can be updated.
-                LocationPushService.this.hasRunAccurateTask = true;
-                LocationPushService.this.gnssActiveTask.onAccurateLocationReceived();
+            Log.v("%s locations were received on fine location provider", locations.size()); //NON-NLS
+
+            long interval = this.requestedInterval;
+            for (Location location : locations) {
+                // Adapt the update interval to how the device is moving. Fixes in a batch are
+                // passed with the time they were recorded, so that the controller sees the actual
+                // spacing between them rather than the time they were delivered.
+                interval = this.adaptive.onLocation(
+                        location.getLatitude(),
+                        location.getLongitude(),
+                        location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                        location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                        LocationPoint.getFixTimeMillis(location)
+                );
+            }
+            LocationPushService.this.onLocationsChanged(locations, LocationProvider.FINE);
+
+            // The device may have entered a quiet zone, in which case this listener was removed.
+            if (LocationPushService.this.listenFine != this) return;
+
+            // Updates are only requested again if the interval changes by more than 25%, since
+            // re-requesting is not free.
+            if (Math.abs(interval - this.requestedInterval) * 4 > this.requestedInterval) {
+                Log.i("Changing location update interval from %s to %s ms", this.requestedInterval, interval); //NON-NLS
+                Log.trace(TraceEvent.INTERVAL_CHANGED, interval);
+                request();
             }
-            Log.v("Location was received on fine location provider"); //NON-NLS
 
             // Set a timeout for the location updates to detect if the provider stops working. If
-            // that happens, fall back to the coarse location provider.
+            // that happens, fall back to the coarse location provider. Batched fixes may be held
+            // back for the maximum batching delay, so that is added to the timeout.
             this.noGnssTimer.removeCallbacksAndMessages(null);
-            this.noGnssTimer.postDelayed(new CoarseLocationFallbackTask(), LocationPushService.this.share.getSession().getIntervalMillis() + this.prefs.get(Constants.PREF_NO_GNSS_FALLBACK) * TimeUtils.MILLIS_PER_SECOND);
-
-            // Only update the location if it is more than the minimum distance specified in
-            // settings. Done manually rather than delegating to
-            // LocationManager.requestLocationUpdates; see issue #124
-            float distance = this.locationOfLastUpdate == null ? -1 : this.locationOfLastUpdate.distanceTo(location);
-            if (this.locationOfLastUpdate == null || distance >= this.minDistance) {
-                Log.v("Received distance %s, more than minimum distance %s", distance, this.minDistance); //NON-NLS
-                this.locationOfLastUpdate = location;
-                LocationPushService.this.onLocationChanged(location, LocationProvider.FINE);
-            } else {
-                Log.v("Received distance %s, less than minimum distance %s", distance, this.minDistance); //NON-NLS
-            }
+            this.noGnssTimer.postDelayed(new CoarseLocationFallbackTask(), this.requestedInterval + this.requestedDelay + this.prefs.get(Constants.PREF_NO_GNSS_FALLBACK) * TimeUtils.MILLIS_PER_SECOND);
+        }
+
+        /**
+         * Should be called when sessions are added or removed. Restarts interval adaptation within
+         * the bounds of the new set of sessions and requests updates again.
+         */
+        private void onSessionsChanged() {
+            this.adaptive = new AdaptiveIntervalController(getMinInterval(), getMaxInterval());
+            request();
         }
 
         /**
@@ -269,18 +527,22 @@ public final class LocationPushService extends Service {
          * prevents the timeout from activating after the session has been stopped.
          */
         private void onStopped() {
-            this.noGnssTimer.removeCallbacksAndMessages(false);
+            this.noGnssTimer.removeCallbacksAndMessages(null);
         }
 
-        @Override
-        boolean request(LocationManager manager) throws SecurityException {
-            manager.requestLocationUpdates(
-                    LocationManager.GPS_PROVIDER,
-                    LocationPushService.this.share.getSession().getIntervalMillis(),
+        private boolean request() throws SecurityException {
+            // Requesting updates again from the same source replaces the previous request.
+            this.requestedInterval = this.adaptive.getInterval();
+            this.requestedDelay = getMaxUpdateDelay();
+            return this.source.request(
+                    this.requestedInterval,
                     0.0F, // See https://github.com/bilde2910/Hauk/issues/124
-                    this
+                    this.requestedDelay
             );
-            return true;
+        }
+
+        private void remove() {
+            this.source.remove();
         }
 
         private final class CoarseLocationFallbackTask implements Runnable {
@@ -289,48 +551,53 @@ public final class LocationPushService extends Service {
                 // No location updates have been received for the timeout period. Rebind the coarse
                 // location listener while we wait for the fine listener to become functional again.
                 Log.w("Location fix lost. Rebinding coarse location provider."); //NON-NLS
-                LocationPushService.this.gnssActiveTask.onCoarseRebound();
-                LocationPushService.this.hasRunCoarseTask = false;
-                LocationPushService.this.hasRunAccurateTask = false;
+                Log.trace(TraceEvent.COARSE_FALLBACK);
+                for (SessionUploader uploader : LocationPushService.this.uploaders.values()) {
+                    uploader.onCoarseRebound();
+                }
                 LocationPushService.this.listenCoarse = new CoarseLocationListener();
-                if (!LocationPushService.this.listenCoarse.request(LocationPushService.this.locMan)) {
+                if (!LocationPushService.this.listenCoarse.request()) {
                     LocationPushService.this.listenCoarse = null;
                 }
             }
         }
     }
 
-    private final class LocationUpdatePacketImpl extends LocationUpdatePacket {
-        private LocationUpdatePacketImpl(Location location, LocationProvider accuracy) {
-            super(LocationPushService.this, LocationPushService.this.share.getSession(), location, accuracy);
-        }
-
-        @Override
-        public void onShareListReceived(String linkFormat, String[] shares) {
-            Log.v("Received list of shares from server"); //NON-NLS
-            LocationPushService.this.gnssActiveTask.onShareListReceived(linkFormat, shares);
+    /**
+     * Location listener used while the device is inside a quiet zone of every active session. It
+     * receives fixes that other apps request from the device's location services at no cost of its
+     * own, and requests a network fix occasionally in case no other app requests location.
+     */
+    private final class QuietLocationListener {
+        private final LocationSource passive;
+        private final LocationSource network;
+
+        private QuietLocationListener() {
+            LocationSource.Callback callback = new LocationSource.Callback() {
+                @Override
+                public void onLocationsChanged(List<Location> locations) {
+                    Log.v("%s locations were received while in quiet zone", locations.size()); //NON-NLS
+                    for (Location location : locations) {
+                        // The passive provider delivers fixes from all providers.
+                        LocationProvider accuracy = LocationManager.GPS_PROVIDER.equals(location.getProvider()) ? LocationProvider.FINE : LocationProvider.COARSE;
+                        LocationPushService.this.onLocationsChanged(Collections.singletonList(location), accuracy);
+                        // Stop if the device left the quiet zone.
+                        if (LocationPushService.this.listenQuiet != QuietLocationListener.this) return;
+                    }
+                }
+            };
+            this.passive = LocationSource.create(LocationPushService.this, LocationPushService.this.locMan, LocationManager.PASSIVE_PROVIDER, callback);
+            this.network = LocationSource.create(LocationPushService.this, LocationPushService.this.locMan, LocationManager.NETWORK_PROVIDER, callback);
         }
 
-        @Override
-        protected void onSuccess(String[] data, Version backendVersion) throws ServerException {
-            // Check if connection was lost previously, and notify upstream if that's the case.
-            if (!LocationPushService.this.connected) {
-                LocationPushService.this.connected = true;
-                Log.i("Connection to the backend was restored."); //NON-NLS
-                LocationPushService.this.gnssActiveTask.onServerConnectionRestored();
-            }
-            super.onSuccess(data, backendVersion);
+        private void request() throws SecurityException {
+            if (!this.passive.request(getMinInterval(), 0.0F, 0L)) Log.w("Passive location provider does not exist!"); //NON-NLS
+            if (!this.network.request(Constants.QUIET_CHECK_INTERVAL, 0.0F, 0L)) Log.w("Coarse location provider does not exist!"); //NON-NLS
         }
 
-        @Override
-        protected void onFailure(Exception ex) {
-            Log.w("Failed to push location update to server", ex); //NON-NLS
-            // Notify upstream about connectivity loss.
-            if (LocationPushService.this.connected) {
-                LocationPushService.this.connected = false;
-                Log.i("Connection to the backend was lost."); //NON-NLS
-                LocationPushService.this.gnssActiveTask.onServerConnectionLost();
-            }
+        private void remove() {
+            this.passive.remove();
+            this.network.remove();
         }
     }
 }
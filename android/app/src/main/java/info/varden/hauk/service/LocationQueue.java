@@ -0,0 +1,498 @@
+package info.varden.hauk.service;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.struct.LocationPoint;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.system.security.EncryptedData;
+import info.varden.hauk.system.security.EncryptionException;
+import info.varden.hauk.system.security.KeyStoreAlias;
+import info.varden.hauk.system.security.KeyStoreHelper;
+import info.varden.hauk.utils.Log;
+import info.varden.hauk.utils.StringUtils;
+
+/**
+ * A bounded outbound queue of location points that have not yet been accepted by the backend. All
+ * points pass through this queue, so that points recorded while the backend is unreachable are not
+ * lost, but are sent in order once the connection is restored. Each session has its own queue, so
+ * that several sessions can be shared at the same time without overwriting each other's points.
+ *
+ * <p>While uploads succeed, the queue is only kept in memory. Once {@link #persist()} is called
+ * because an upload failed or the service is stopping, the queue is written to a file on the device
+ * so that it survives the location push service being restarted. From then on, every change is
+ * appended to the file as a small record, so that adding a point does not require rewriting the
+ * whole backlog. The file is compacted once at least half of it is obsolete, and deleted when the
+ * backlog has been sent.</p>
+ *
+ * <p>The file starts with a magic number, a schema version and the expiry time of the session.
+ * Each record consists of a one-byte record type, a four-byte payload length, the payload, and a
+ * CRC32 checksum of the type and payload. Location points are written using
+ * {@link LocationPoint#writeTo(java.io.DataOutput)}, and are encrypted with a key held in the
+ * Android key store, so that the location history of a session is not readable from device storage,
+ * even for end-to-end encrypted sessions whose updates are only ever sent to the backend as
+ * ciphertext. If the points cannot be encrypted, they are not stored at all.</p>
+ *
+ * <p>The queue is not thread safe, and should only be used from the main thread.</p>
+ */
+final class LocationQueue {
+    private static final int MAGIC = 0x484B4C51;
+    private static final int SCHEMA_VERSION = 1;
+
+    /**
+     * The largest payload that is accepted when reading the queue file.
+     */
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    /**
+     * Record types. A snapshot contains all points in the queue at the time the file was written,
+     * a point record contains a single point added to the tail of the queue, and a removal record
+     * contains the number of points removed from the head of the queue.
+     */
+    private static final int RECORD_SNAPSHOT = 1;
+    private static final int RECORD_POINT = 2;
+    private static final int RECORD_REMOVED = 3;
+
+    /**
+     * Key store helper used to encrypt and decrypt the stored points.
+     */
+    private final KeyStoreHelper keyStore;
+
+    /**
+     * The file the queue is stored in.
+     */
+    private final File file;
+
+    /**
+     * The time at which the session expires, in milliseconds since the Unix epoch.
+     */
+    private final long expiry;
+
+    /**
+     * Points waiting to be sent, in the order they were recorded.
+     */
+    private final ArrayDeque<LocationPoint> points;
+
+    /**
+     * The number of points at the head of the queue that are currently being sent to the backend.
+     */
+    private int inTransfer = 0;
+
+    /**
+     * The stream that records are appended to, or null if the queue is not currently stored.
+     */
+    @Nullable
+    private FileOutputStream out = null;
+
+    /**
+     * The number of points and removal records in the queue file, including obsolete ones.
+     */
+    private int records = 0;
+
+    /**
+     * Buffers reused for encoding records.
+     */
+    private final ByteArrayOutputStream payloadBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream payload = new DataOutputStream(this.payloadBuffer);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Creates a location queue for the given session, restoring any points previously stored for
+     * that session. Points stored for other sessions that have since expired are discarded.
+     *
+     * @param ctx     Android application context.
+     * @param session The session whose location points should be queued.
+     */
+    LocationQueue(Context ctx, Session session) {
+        File dir = new File(ctx.getFilesDir(), Constants.LOCATION_QUEUE_DIRECTORY);
+        this.file = new File(dir, StringUtils.bytesToHex(session.getID().getBytes(StandardCharsets.UTF_8)));
+        this.expiry = session.getExpiryTime();
+        this.keyStore = new KeyStoreHelper(KeyStoreAlias.LOCATION_QUEUE);
+        this.points = new ArrayDeque<>();
+
+        discardExpired(dir);
+        if (this.file.exists()) {
+            load();
+            if (this.points.isEmpty()) {
+                delete();
+            } else {
+                Log.i("Restored %s queued location points for session", this.points.size()); //NON-NLS
+                // Rewrite the file, as it may end with a partially written record that new records
+                // must not be appended after.
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Reads all valid records from the queue file into memory.
+     */
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != SCHEMA_VERSION) {
+                Log.w("Queued location points have an unknown format and will be discarded"); //NON-NLS
+                return;
+            }
+            in.readLong();
+            int type;
+            while ((type = in.read()) != -1) {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE) throw new IOException("Invalid record length " + length);
+                byte[] data = new byte[length];
+                in.readFully(data);
+                if (in.readInt() != checksum(type, data)) throw new IOException("Record checksum mismatch");
+                apply(type, data);
+            }
+        } catch (IOException e) {
+            // The last record may have been partially written if the service was killed while
+            // writing it. Every record before it is still valid.
+            Log.w("Queued location points are truncated or corrupt after %s points", e, this.points.size()); //NON-NLS
+        } catch (EncryptionException e) {
+            Log.e("Discarding queued location points due to a decryption error", e); //NON-NLS
+            this.points.clear();
+        }
+    }
+
+    /**
+     * Applies a record to the in-memory queue.
+     *
+     * @param type The record type.
+     * @param data The record payload.
+     * @throws IOException         if the payload is invalid.
+     * @throws EncryptionException if the payload could not be decrypted.
+     */
+    private void apply(int type, byte[] data) throws IOException, EncryptionException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        switch (type) {
+            case RECORD_SNAPSHOT:
+                DataInputStream snapshot = decrypt(in);
+                this.points.clear();
+                for (int i = snapshot.readInt(); i > 0; i--) this.points.addLast(LocationPoint.readFrom(snapshot));
+                break;
+
+            case RECORD_POINT:
+                this.points.addLast(LocationPoint.readFrom(decrypt(in)));
+                break;
+
+            case RECORD_REMOVED:
+                for (int i = in.readInt(); i > 0 && !this.points.isEmpty(); i--) this.points.removeFirst();
+                break;
+
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Removes stored points belonging to sessions that have expired.
+     *
+     * @param dir The directory that queues are stored in.
+     */
+    private static void discardExpired(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            long expiry;
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                expiry = in.readInt() == MAGIC && in.readInt() == SCHEMA_VERSION ? in.readLong() : 0L;
+            } catch (IOException e) {
+                expiry = 0L;
+            }
+            if (expiry < now) {
+                Log.i("Discarding queued location points belonging to expired session"); //NON-NLS
+                if (!file.delete()) Log.w("Failed to delete expired location queue"); //NON-NLS
+            }
+        }
+    }
+
+    /**
+     * Adds a point to the tail of the queue. If the queue is full, the oldest point is dropped.
+     *
+     * @param point The location point to add.
+     */
+    void add(LocationPoint point) {
+        if (this.points.size() >= Constants.LOCATION_QUEUE_CAPACITY) {
+            Log.w("Location queue is full; dropping oldest point"); //NON-NLS
+            this.points.removeFirst();
+            // If the dropped point was being sent, it should no longer be removed when the transfer
+            // completes.
+            if (this.inTransfer > 0) this.inTransfer--;
+            appendRemoved(1);
+        }
+        this.points.addLast(point);
+        appendPoint(point);
+    }
+
+    /**
+     * Returns the number of points in the queue, including those currently being sent.
+     */
+    int size() {
+        return this.points.size();
+    }
+
+    /**
+     * Returns the time the oldest point in the queue was recorded, in milliseconds since the Unix
+     * epoch. Must not be called if the queue is empty.
+     */
+    long getOldestTimeMillis() {
+        return this.points.getFirst().getTimeMillis();
+    }
+
+    /**
+     * Returns whether or not there are points in the queue that are not currently being sent.
+     */
+    boolean hasPending() {
+        return this.points.size() > this.inTransfer;
+    }
+
+    /**
+     * Returns whether or not a transfer of points from this queue is currently in progress.
+     */
+    boolean isTransferring() {
+        return this.inTransfer > 0;
+    }
+
+    /**
+     * Marks up to the given number of points at the head of the queue as being sent, and returns
+     * them. Points remain in the queue until {@link #completeTransfer()} is called.
+     *
+     * @param max The maximum number of points to transfer.
+     * @return A list of the points to send, oldest first.
+     */
+    List<LocationPoint> beginTransfer(int max) {
+        List<LocationPoint> transfer = new ArrayList<>(Math.min(max, this.points.size()));
+        for (Iterator<LocationPoint> it = this.points.iterator(); it.hasNext() && transfer.size() < max;) {
+            transfer.add(it.next());
+        }
+        this.inTransfer = transfer.size();
+        return transfer;
+    }
+
+    /**
+     * Removes the points of the current transfer from the queue. Should be called when the backend
+     * has accepted the points.
+     */
+    void completeTransfer() {
+        int count = this.inTransfer;
+        for (int i = 0; i < count; i++) this.points.removeFirst();
+        this.inTransfer = 0;
+        if (count > 0) appendRemoved(count);
+    }
+
+    /**
+     * Returns the points of the current transfer to the queue, so that they are sent again in a
+     * later transfer. Should be called if the transfer failed.
+     */
+    void abortTransfer() {
+        this.inTransfer = 0;
+    }
+
+    /**
+     * Writes the queue to device storage, if it is not already stored. Should be called when an
+     * upload fails or the service is stopped. Until the queue has been emptied, all later changes
+     * are then appended to the stored copy as they are made.
+     */
+    void persist() {
+        if (this.out != null || this.points.isEmpty()) return;
+        Log.v("Storing %s queued location points", this.points.size()); //NON-NLS
+        compact();
+    }
+
+    /**
+     * Appends a point added to the queue to the stored copy, if the queue is stored.
+     *
+     * @param point The point that was added.
+     */
+    private void appendPoint(LocationPoint point) {
+        if (this.out == null) return;
+        try {
+            beginPayload();
+            point.writeTo(this.payload);
+            writeEncrypted(this.out, RECORD_POINT, this.payloadBuffer.toByteArray());
+            this.records++;
+        } catch (IOException | EncryptionException e) {
+            // Never fall back to storing the point in cleartext. The stored copy no longer reflects
+            // the queue, so remove it; it is written again the next time the queue is persisted.
+            Log.e("Failed to store queued location point", e); //NON-NLS
+            delete();
+        }
+    }
+
+    /**
+     * Appends the removal of points from the head of the queue to the stored copy, if the queue
+     * is stored. The stored copy is deleted once the queue is empty, and compacted if it contains
+     * too many obsolete points.
+     *
+     * @param count The number of points that were removed.
+     */
+    private void appendRemoved(int count) {
+        if (this.out == null) return;
+        if (this.points.isEmpty()) {
+            // The backlog has been sent; there is nothing left to store.
+            delete();
+            return;
+        }
+        if (this.records + 1 >= 2 * this.points.size() + Constants.LOCATION_QUEUE_COMPACT_THRESHOLD) {
+            compact();
+            return;
+        }
+        try {
+            beginPayload().writeInt(count);
+            writeRecord(this.out, RECORD_REMOVED, this.payloadBuffer.toByteArray());
+            this.records++;
+        } catch (IOException e) {
+            Log.e("Failed to store removal of queued location points", e); //NON-NLS
+            delete();
+        }
+    }
+
+    /**
+     * Rewrites the queue file so that it only contains a single snapshot of the queue, and opens
+     * it for appending further records. The new file is written to a temporary file before it
+     * replaces the old one.
+     */
+    private void compact() {
+        close();
+        File dir = this.file.getParentFile();
+        File temp = new File(this.file.getPath() + ".tmp");
+        try {
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) throw new IOException("Failed to create location queue directory");
+            DataOutputStream snapshot = beginPayload();
+            snapshot.writeInt(this.points.size());
+            for (LocationPoint point : this.points) point.writeTo(snapshot);
+
+            try (FileOutputStream tempOut = new FileOutputStream(temp)) {
+                DataOutputStream header = new DataOutputStream(tempOut);
+                header.writeInt(MAGIC);
+                header.writeInt(SCHEMA_VERSION);
+                header.writeLong(this.expiry);
+                writeEncrypted(tempOut, RECORD_SNAPSHOT, this.payloadBuffer.toByteArray());
+            }
+            if (!temp.renameTo(this.file)) throw new IOException("Failed to replace location queue file");
+            this.out = new FileOutputStream(this.file, true);
+            this.records = this.points.size();
+        } catch (IOException | EncryptionException e) {
+            // Never fall back to storing the points in cleartext. Remove any older copy instead, as
+            // it no longer reflects the queue.
+            Log.e("Failed to store queued location points", e); //NON-NLS
+            if (temp.exists() && !temp.delete()) Log.w("Failed to delete temporary location queue file"); //NON-NLS
+            delete();
+        }
+    }
+
+    /**
+     * Closes and deletes the queue file, so that the queue is only kept in memory.
+     */
+    private void delete() {
+        close();
+        this.records = 0;
+        if (this.file.exists() && !this.file.delete()) Log.w("Failed to delete location queue file"); //NON-NLS
+    }
+
+    /**
+     * Closes the queue file.
+     */
+    private void close() {
+        if (this.out == null) return;
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            Log.w("Failed to close location queue file", e); //NON-NLS
+        }
+        this.out = null;
+    }
+
+    /**
+     * Clears the payload buffer and returns a stream to write the next payload to.
+     */
+    private DataOutputStream beginPayload() {
+        this.payloadBuffer.reset();
+        return this.payload;
+    }
+
+    /**
+     * Encrypts a payload and writes it as a record.
+     *
+     * @param stream The stream to write to.
+     * @param type   The record type.
+     * @param data   The cleartext payload.
+     * @throws IOException         if writing fails.
+     * @throws EncryptionException if the payload could not be encrypted.
+     */
+    private void writeEncrypted(FileOutputStream stream, int type, byte[] data) throws IOException, EncryptionException {
+        EncryptedData encrypted = this.keyStore.encrypt(data);
+        beginPayload();
+        this.payload.writeByte(encrypted.getIV().length);
+        this.payload.write(encrypted.getIV());
+        this.payload.writeInt(encrypted.getMessage().length);
+        this.payload.write(encrypted.getMessage());
+        writeRecord(stream, type, this.payloadBuffer.toByteArray());
+    }
+
+    /**
+     * Reads and decrypts an encrypted payload written by
+     * {@link #writeEncrypted(FileOutputStream, int, byte[])}.
+     *
+     * @param in The record payload.
+     * @return A stream over the cleartext payload.
+     * @throws IOException         if the payload is invalid.
+     * @throws EncryptionException if the payload could not be decrypted.
+     */
+    private DataInputStream decrypt(DataInputStream in) throws IOException, EncryptionException {
+        byte[] iv = new byte[in.readUnsignedByte()];
+        in.readFully(iv);
+        int length = in.readInt();
+        if (length < 0 || length > MAX_RECORD_SIZE) throw new IOException("Invalid message length " + length);
+        byte[] message = new byte[length];
+        in.readFully(message);
+        return new DataInputStream(new ByteArrayInputStream(this.keyStore.decrypt(new EncryptedData(iv, message))));
+    }
+
+    /**
+     * Frames a record payload with its type, length and checksum, and writes it to the stream in
+     * a single write.
+     *
+     * @param stream The stream to write to.
+     * @param type   The record type.
+     * @param data   The record payload.
+     * @throws IOException if writing fails.
+     */
+    private void writeRecord(FileOutputStream stream, int type, byte[] data) throws IOException {
+        ByteArrayOutputStream frameBuffer = new ByteArrayOutputStream(data.length + 9);
+        DataOutputStream frame = new DataOutputStream(frameBuffer);
+        frame.writeByte(type);
+        frame.writeInt(data.length);
+        frame.write(data);
+        frame.writeInt(checksum(type, data));
+        frameBuffer.writeTo(stream);
+    }
+
+    /**
+     * Calculates the checksum of a record.
+     */
+    private int checksum(int type, byte[] data) {
+        this.crc.reset();
+        this.crc.update(type);
+        this.crc.update(data, 0, data.length);
+        return (int) this.crc.getValue();
+    }
+}
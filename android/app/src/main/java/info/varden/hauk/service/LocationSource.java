@@ -0,0 +1,99 @@
+package info.varden.hauk.service;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A source of location updates from one of the device's location providers. Updates may be
+ * delivered in batches: if a maximum update delay is requested, the platform is allowed to hold
+ * back fixes and deliver them together, so that the device can stay asleep between deliveries.
+ * Each fix in a batch keeps the time it was recorded.
+ */
+abstract class LocationSource extends LocationListenerBase {
+    /**
+     * The location manager that updates are requested from.
+     */
+    final LocationManager manager;
+
+    /**
+     * The location provider that updates are requested from, e.g.
+     * {@link LocationManager#GPS_PROVIDER}.
+     */
+    final String provider;
+
+    /**
+     * The callback that receives location updates.
+     */
+    private final Callback callback;
+
+    LocationSource(LocationManager manager, String provider, Callback callback) {
+        this.manager = manager;
+        this.provider = provider;
+        this.callback = callback;
+    }
+
+    /**
+     * Creates a location source for the given provider, using hardware batching if the platform
+     * supports it.
+     *
+     * @param ctx      Android application context.
+     * @param manager  The location manager to request updates from.
+     * @param provider The location provider to request updates from.
+     * @param callback The callback that receives location updates.
+     */
+    static LocationSource create(Context ctx, LocationManager manager, String provider, Callback callback) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return new BatchingLocationSource(ctx, manager, provider, callback);
+        } else {
+            return new LegacyLocationSource(manager, provider, callback);
+        }
+    }
+
+    /**
+     * Requests location updates, replacing any previous request from this source.
+     *
+     * @param intervalMillis       The desired interval between location fixes.
+     * @param minDistance          The minimum distance between location fixes, in meters.
+     * @param maxUpdateDelayMillis The maximum time fixes may be held back so that they can be
+     *                             delivered in a batch, or 0 to deliver every fix right away.
+     * @return true if successful, false if the provider does not exist on this device.
+     * @throws SecurityException if location permission has not been granted.
+     */
+    abstract boolean request(long intervalMillis, float minDistance, long maxUpdateDelayMillis) throws SecurityException;
+
+    /**
+     * Stops receiving location updates.
+     */
+    final void remove() {
+        this.manager.removeUpdates(this);
+    }
+
+    @Override
+    public final void onLocationChanged(@NonNull Location location) {
+        this.callback.onLocationsChanged(Collections.singletonList(location));
+    }
+
+    @Override
+    public final void onLocationChanged(@NonNull List<Location> locations) {
+        if (!locations.isEmpty()) this.callback.onLocationsChanged(locations);
+    }
+
+    /**
+     * Receives location updates from a location source.
+     */
+    interface Callback {
+        /**
+         * Called when one or more location fixes have been received.
+         *
+         * @param locations The received fixes, ordered from oldest to newest. Never empty.
+         */
+        void onLocationsChanged(List<Location> locations);
+    }
+}
@@ -1,5 +1,7 @@
 package info.varden.hauk.service;
 
+import info.varden.hauk.manager.SessionTelemetry;
+
 /**
  * Proxy class that forwards GNSS activity events to multiple upstream {@link GNSSActiveHandler}s.
  *
@@ -37,6 +39,11 @@ final class MultiTargetGNSSHandlerProxy implements GNSSActiveHandler {
         for (GNSSActiveHandler up : this.upstream) up.onServerConnectionRestored();
     }
 
+    @Override
+    public void onTelemetryUpdated(SessionTelemetry telemetry) {
+        for (GNSSActiveHandler up : this.upstream) up.onTelemetryUpdated(telemetry);
+    }
+
     @Override
     public void onShareListReceived(String linkFormat, String[] shareIDs) {
         for (GNSSActiveHandler up : this.upstream) up.onShareListReceived(linkFormat, shareIDs);
@@ -0,0 +1,484 @@
+package info.varden.hauk.service;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Handler;
+
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.BatchLocationUpdatePacket;
+import info.varden.hauk.http.NetworkPolicy;
+import info.varden.hauk.http.ServerException;
+import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.manager.SessionTelemetry;
+import info.varden.hauk.manager.StopSharingTask;
+import info.varden.hauk.notify.SharingNotification;
+import info.varden.hauk.struct.Geofence;
+import info.varden.hauk.struct.LocationPoint;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.system.preferences.PreferenceManager;
+import info.varden.hauk.utils.Log;
+import info.varden.hauk.utils.TraceEvent;
+
+/**
+ * Uploads the location fixes of a single session to its backend. The location push service runs a
+ * single location pipeline for all active sessions, and passes every fix it receives to the
+ * uploader of each session. The uploader filters the fixes according to the session's own interval
+ * and minimum distance, queues them and sends them according to the session's batching settings.
+ *
+ * <p>Uploaders should only be used from the main thread.</p>
+ */
+final class SessionUploader {
+    /**
+     * Android application context.
+     */
+    private final Context ctx;
+
+    /**
+     * The share that is to be represented in the notification.
+     */
+    private final Share share;
+
+    /**
+     * The persistent notification that represents this session.
+     */
+    private final SharingNotification notification;
+
+    /**
+     * A task that should be run when locations start registering. Used further upstream to change a
+     * label on the main activity.
+     */
+    private final GNSSActiveHandler gnssActiveTask;
+
+    /**
+     * The handler that has scheduled the stop task. This is needed so that the callback can be
+     * cancelled if the service is relaunched because of a {@link info.varden.hauk.ui.MainActivity}
+     * reset/recreation.
+     */
+    private final Handler handler;
+
+    /**
+     * Outbound queue of location points that have not yet been accepted by the backend.
+     */
+    private final LocationQueue queue;
+
+    /**
+     * Decides whether points can be uploaded while the device is idle.
+     */
+    private final UploadScheduler scheduler;
+
+    /**
+     * Decides how points are batched and sent depending on the current network.
+     */
+    private final NetworkPolicy network;
+
+    /**
+     * Performance metrics of the session.
+     */
+    private final SessionTelemetry telemetry;
+
+    /**
+     * An indicator of whether or the upstream GNSS handler's {@code onCoarseLocationReceived()}
+     * callback has been run since the location provider state last changed.
+     */
+    private boolean hasRunCoarseTask = false;
+
+    /**
+     * An indicator of whether or the upstream GNSS handler's {@code onAccurateLocationReceived()}
+     * callback has been run since the location provider state last changed.
+     */
+    private boolean hasRunAccurateTask = false;
+
+    /**
+     * Whether or not the last update packet was sent successfully, i.e. whether there is a
+     * connection to the backend server.
+     */
+    private boolean connected = true;
+
+    /**
+     * Whether or not the uploader has been stopped. Packets that are still in transfer when the
+     * uploader is stopped should not start new transfers when they complete.
+     */
+    private boolean stopped = false;
+
+    /**
+     * Drops fixes that can be predicted from the previously queued fixes, or null if track
+     * simplification is disabled.
+     */
+    @Nullable
+    private final TrackSimplifier simplifier;
+
+    /**
+     * Smooths fixes and rejects outliers before they are queued.
+     */
+    private final LocationFilter filter = new LocationFilter();
+
+    /**
+     * The position and time of the last location point that was queued for this session.
+     */
+    private boolean hasQueued = false;
+    private double lastQueuedLatitude;
+    private double lastQueuedLongitude;
+    private long lastQueuedTime;
+
+    /**
+     * Whether or not the device is inside one of the session's quiet zones. No fixes are queued
+     * for a quiet session until the device has left the zone.
+     */
+    private boolean quiet = false;
+
+    /**
+     * A task that sends queued location points that have been held back for batching once the
+     * session's maximum batching delay has passed.
+     */
+    private final Runnable batchTimeout = this::flushQueue;
+
+    /**
+     * A task that passes updated metrics upstream. It is posted rather than run directly so that
+     * it runs after the packet that triggered it has recorded its outcome.
+     */
+    private final Runnable telemetryUpdate = new Runnable() {
+        @Override
+        public void run() {
+            SessionUploader.this.gnssActiveTask.onTelemetryUpdated(SessionUploader.this.telemetry);
+        }
+    };
+
+    /**
+     * Creates an uploader for the given share, restoring any location points that were not sent
+     * before the session was last stopped.
+     *
+     * @param ctx           Android application context.
+     * @param share         The share whose session should be uploaded to.
+     * @param stopTask      A task that should be run when sharing ends.
+     * @param parentHandler A handler that should receive status updates for the session.
+     * @param handler       The handler that has scheduled the stop task.
+     * @param scheduler     The scheduler that decides when points can be uploaded while idle.
+     * @param network       The policy that decides how points are sent on the current network.
+     */
+    SessionUploader(Context ctx, Share share, @Nullable StopSharingTask stopTask, GNSSActiveHandler parentHandler, Handler handler, UploadScheduler scheduler, NetworkPolicy network) {
+        this.ctx = ctx;
+        this.share = share;
+        this.handler = handler;
+        this.scheduler = scheduler;
+        this.network = network;
+        if (stopTask != null) stopTask.setSession(share.getSession());
+        this.telemetry = SessionTelemetry.forSession(share.getSession().getID());
+        this.queue = new LocationQueue(ctx, share.getSession());
+
+        float tolerance = new PreferenceManager(ctx).get(Constants.PREF_TRACK_TOLERANCE);
+        this.simplifier = tolerance > 0.0F ? new TrackSimplifier(tolerance, Math.max(share.getSession().getIntervalMillis(), Constants.TRACK_MAX_GAP)) : null;
+
+        // Send status changes both to the parent handler and the notification.
+        this.notification = new SharingNotification(ctx, share, stopTask);
+        this.gnssActiveTask = new MultiTargetGNSSHandlerProxy(parentHandler, this.notification);
+    }
+
+    Session getSession() {
+        return this.share.getSession();
+    }
+
+    SharingNotification getNotification() {
+        return this.notification;
+    }
+
+    /**
+     * Returns whether or not the device is inside one of the session's quiet zones, in which case
+     * the session does not need location updates other than to find out when the device leaves.
+     */
+    boolean isQuiet() {
+        return this.quiet;
+    }
+
+    /**
+     * Returns the maximum time location fixes may be held back by the platform so that they can be
+     * delivered in a batch. Fixes are not uploaded until a full upload batch has been collected
+     * anyway, so they may be held back for up to the session's batching delay, which allows the
+     * device to sleep between uploads. If the session does not batch uploads, fixes are delivered
+     * right away.
+     */
+    long getMaxUpdateDelay() {
+        if (getBatchSize() <= 1) return 0L;
+        long delay = getBatchIntervalMillis();
+        return delay > 0 ? delay : getSession().getIntervalMillis() * getBatchSize();
+    }
+
+    /**
+     * Returns the number of location points to collect before they are sent. This is the session's
+     * batch size, but at least {@link Constants#NETWORK_CONSTRAINED_BATCH_SIZE} while the network
+     * is constrained.
+     */
+    private int getBatchSize() {
+        int size = getSession().getBatchSize();
+        return this.network.isConstrained() ? Math.max(size, Constants.NETWORK_CONSTRAINED_BATCH_SIZE) : size;
+    }
+
+    /**
+     * Returns the maximum time a location point may be held back for batching, in milliseconds, or
+     * 0 if points are held back until a full batch has been collected. While the network is
+     * constrained, points are held back for at least
+     * {@link Constants#NETWORK_CONSTRAINED_FLUSH_INTERVAL}.
+     */
+    private long getBatchIntervalMillis() {
+        long delay = getSession().getBatchIntervalMillis();
+        if (!this.network.isConstrained()) return delay;
+        return delay > 0 ? Math.max(delay, Constants.NETWORK_CONSTRAINED_FLUSH_INTERVAL) : Constants.NETWORK_CONSTRAINED_FLUSH_INTERVAL;
+    }
+
+    /**
+     * Called with each batch of location fixes received from the location pipeline. Queues the
+     * fixes that are relevant to this session and sends them to the backend.
+     *
+     * @param locations The locations received, oldest first.
+     * @param accuracy  The provider the locations were received from.
+     */
+    void onLocationsChanged(List<Location> locations, LocationProvider accuracy) {
+        if (this.stopped) return;
+        if (accuracy == LocationProvider.FINE && !this.hasRunAccurateTask) {
+            // Notify the main activity that accurate GPS data is now being received, such that the
+            // UI can be updated.
+            this.hasRunAccurateTask = true;
+            this.gnssActiveTask.onAccurateLocationReceived();
+        } else if (accuracy == LocationProvider.COARSE && !this.hasRunCoarseTask) {
+            // Notify the main activity that coarse GPS data is now being received, such that the UI
+            // can be updated.
+            this.hasRunCoarseTask = true;
+            this.gnssActiveTask.onCoarseLocationReceived();
+        }
+        for (Location location : locations) onLocationChanged(location, accuracy);
+        flushQueue();
+    }
+
+    /**
+     * Queues a single location fix if enough time has passed and the device has moved far enough
+     * since the last fix that was queued for this session. The location pipeline delivers fixes at
+     * the shortest interval of all active sessions, so sessions with longer intervals skip some.
+     * Every fix is first passed through the location filter, and the smoothed position is queued
+     * instead of the raw fix. Fixes that pass these checks may still be dropped by the track
+     * simplifier. No fixes are queued while the device is inside one of the session's quiet zones.
+     */
+    private void onLocationChanged(Location location, LocationProvider accuracy) {
+        Session session = getSession();
+        long time = LocationPoint.getFixTimeMillis(location);
+        float speed = location.hasSpeed() ? location.getSpeed() : Float.NaN;
+
+        // The filter sees every fix, including those that are not queued, so that its estimate is
+        // as good as possible.
+        if (!this.filter.update(location.getLatitude(), location.getLongitude(), location.hasAccuracy() ? location.getAccuracy() : Float.NaN, speed, time)) {
+            if (Log.isVerbose()) Log.v("Rejected fix %s meters away from the estimated position", this.filter.getLastDistance()); //NON-NLS
+            Log.trace(TraceEvent.FIX_REJECTED, Math.round(this.filter.getLastDistance()));
+            return;
+        }
+        double latitude = this.filter.getLatitude();
+        double longitude = this.filter.getLongitude();
+        float radius = this.filter.getAccuracy();
+
+        // The fixes where the device enters and leaves a quiet zone are always queued, so that
+        // viewers see where the device stopped and that it has started moving again.
+        if (updateQuiet(latitude, longitude, radius)) {
+            enqueue(latitude, longitude, radius, speed, time, accuracy);
+            return;
+        }
+        if (this.quiet) return;
+
+        if (this.hasQueued) {
+            // Allow some jitter in the delivery of fixes from the pipeline.
+            long elapsed = time - this.lastQueuedTime;
+            if (elapsed < session.getIntervalMillis() - session.getIntervalMillis() / 10) return;
+
+            // Only update the location if it is more than the minimum distance specified in
+            // settings. Done manually rather than delegating to
+            // LocationManager.requestLocationUpdates; see issue #124
+            double distance = AdaptiveIntervalController.distance(this.lastQueuedLatitude, this.lastQueuedLongitude, latitude, longitude);
+            if (distance < session.getMinimumDistance()) {
+                if (Log.isVerbose()) Log.v("Received distance %s, less than minimum distance %s", distance, session.getMinimumDistance()); //NON-NLS
+                Log.trace(TraceEvent.FIX_SKIPPED, Math.round(distance * 10.0D));
+                return;
+            }
+        }
+        if (this.simplifier != null && !this.simplifier.offer(latitude, longitude, radius, speed, time)) {
+            Log.trace(TraceEvent.FIX_PREDICTED, Math.round(this.simplifier.getLastError() * 10.0D));
+            return;
+        }
+        enqueue(latitude, longitude, radius, speed, time, accuracy);
+    }
+
+    /**
+     * Checks whether the device has entered or left one of the session's quiet zones. The device
+     * enters a zone as soon as the estimated position is inside it, but only leaves once it is
+     * certainly outside all zones, so that an inaccurate passive fix does not resume sharing.
+     *
+     * @return true if the device entered or left a quiet zone.
+     */
+    private boolean updateQuiet(double latitude, double longitude, float radius) {
+        List<Geofence> zones = getSession().getQuietZones();
+        if (zones.isEmpty()) return false;
+        double distance = Double.MAX_VALUE;
+        for (Geofence zone : zones) distance = Math.min(distance, zone.distanceToEdge(latitude, longitude));
+
+        boolean quiet = this.quiet ? distance - radius <= Constants.QUIET_EXIT_MARGIN : distance <= 0.0D;
+        if (quiet == this.quiet) return false;
+        this.quiet = quiet;
+        Log.i(quiet ? "Entered a quiet zone, pausing updates" : "Left all quiet zones, resuming updates"); //NON-NLS
+        Log.trace(TraceEvent.QUIET_ZONE, quiet ? 1 : 0);
+        return true;
+    }
+
+    /**
+     * Adds a filtered location fix to the outbound queue.
+     */
+    private void enqueue(double latitude, double longitude, float radius, float speed, long time, LocationProvider accuracy) {
+        this.hasQueued = true;
+        this.lastQueuedLatitude = latitude;
+        this.lastQueuedLongitude = longitude;
+        this.lastQueuedTime = time;
+        this.telemetry.onFix(accuracy);
+        this.queue.add(new LocationPoint(latitude, longitude, time, accuracy, Float.isNaN(speed) ? null : speed, radius));
+    }
+
+    /**
+     * Called when the location pipeline has lost its fine location fix and has fallen back to the
+     * coarse location provider.
+     */
+    void onCoarseRebound() {
+        if (this.stopped) return;
+        this.gnssActiveTask.onCoarseRebound();
+        this.hasRunCoarseTask = false;
+        this.hasRunAccurateTask = false;
+    }
+
+    /**
+     * Stops uploading for this session. Any unsent location points are saved so that they can be
+     * sent if the session is resumed.
+     */
+    void stop() {
+        this.stopped = true;
+        Log.i("Removing callbacks from handler %s", this.handler); //NON-NLS
+        this.handler.removeCallbacksAndMessages(null);
+
+        this.queue.persist();
+        Log.trace(TraceEvent.SERVICE_STOPPED, this.queue.size());
+    }
+
+    /**
+     * Schedules an update of the session metrics to be passed upstream.
+     */
+    private void postTelemetryUpdate() {
+        if (this.stopped) return;
+        this.handler.removeCallbacks(this.telemetryUpdate);
+        this.handler.post(this.telemetryUpdate);
+    }
+
+    /**
+     * Sends the oldest queued location points to the backend, unless a previous transfer is still
+     * in progress. Only one transfer is in progress at any time, which ensures that points arrive
+     * at the backend in the order they were recorded. When a transfer succeeds, the next points in
+     * the queue are sent immediately, draining any backlog that built up while the backend was
+     * unreachable. If it fails, the points are retried when the next location update is received.
+     *
+     * <p>If the session uses batching, or the network is constrained, points are held back until a
+     * full batch has been collected or the oldest point has been held back for the maximum
+     * batching delay.</p>
+     *
+     * <p>While the device is idle, points are held back until the upload scheduler opens a
+     * window. Sessions that do not batch uploads request a wakeup so that viewers are not left
+     * without updates until the next maintenance window.</p>
+     */
+    void flushQueue() {
+        if (this.stopped || this.queue.isTransferring() || !this.queue.hasPending()) return;
+        Session session = getSession();
+
+        if (this.scheduler.isRestricted()) {
+            if (getMaxUpdateDelay() == 0L) this.scheduler.requestWakeup(session.getIntervalMillis());
+            return;
+        }
+
+        // A backlog is always sent right away; otherwise wait until the batch is full.
+        if (this.connected && this.queue.size() < getBatchSize()) {
+            long delay = getBatchIntervalMillis();
+            if (delay <= 0) return;
+            long remaining = this.queue.getOldestTimeMillis() + delay - System.currentTimeMillis();
+            if (remaining > 0) {
+                this.handler.removeCallbacks(this.batchTimeout);
+                this.handler.postDelayed(this.batchTimeout, remaining);
+                return;
+            }
+        }
+        this.handler.removeCallbacks(this.batchTimeout);
+
+        // Backends that do not support batching only accept one point per request.
+        int max = session.getBackendVersion().isAtLeast(Constants.VERSION_COMPAT_BATCH_POST) ? Constants.LOCATION_BATCH_MAX_POINTS : 1;
+        if (!this.connected) Log.v("Retrying oldest of %s queued location points", this.queue.size()); //NON-NLS
+        BatchLocationUpdatePacketImpl packet = new BatchLocationUpdatePacketImpl(this.queue.beginTransfer(max));
+        Log.v("Sending location update packet with %s points", packet.getSize()); //NON-NLS
+        Log.trace(TraceEvent.UPLOAD_SENT, packet.getSize(), this.queue.size());
+        packet.send();
+    }
+
+    private final class BatchLocationUpdatePacketImpl extends BatchLocationUpdatePacket {
+        /**
+         * The location points contained in this packet.
+         */
+        private final List<LocationPoint> points;
+
+        private BatchLocationUpdatePacketImpl(List<LocationPoint> points) {
+            super(SessionUploader.this.ctx, SessionUploader.this.share.getSession(), points, SessionUploader.this.network.shouldCompress());
+            this.points = points;
+        }
+
+        @Override
+        public void onShareListReceived(String linkFormat, String[] shares) {
+            Log.v("Received list of shares from server"); //NON-NLS
+            if (!SessionUploader.this.stopped) SessionUploader.this.gnssActiveTask.onShareListReceived(linkFormat, shares);
+        }
+
+        @Override
+        protected void onSuccess(String[] data, Version backendVersion) throws ServerException {
+            // Check if connection was lost previously, and notify upstream if that's the case.
+            if (!SessionUploader.this.connected) {
+                SessionUploader.this.connected = true;
+                Log.i("Connection to the backend was restored."); //NON-NLS
+                if (!SessionUploader.this.stopped) SessionUploader.this.gnssActiveTask.onServerConnectionRestored();
+            }
+            super.onSuccess(data, backendVersion);
+
+            // The points were accepted by the backend. Continue with the next points in the queue.
+            Log.trace(TraceEvent.UPLOAD_OK, getSize());
+            long now = System.currentTimeMillis();
+            for (LocationPoint point : this.points) {
+                SessionUploader.this.telemetry.onFixUploaded(point.getTimeMillis(), now);
+            }
+            postTelemetryUpdate();
+            SessionUploader.this.queue.completeTransfer();
+            flushQueue();
+        }
+
+        @Override
+        protected void onFailure(Exception ex) {
+            Log.w("Failed to push location update to server", ex); //NON-NLS
+            Log.trace(TraceEvent.UPLOAD_FAILED, getSize());
+            postTelemetryUpdate();
+            // Keep the points in the queue so that they are sent when the connection is restored.
+            SessionUploader.this.queue.abortTransfer();
+            if (SessionUploader.this.scheduler.isRestricted()) {
+                // The device went idle during the transfer. The points are sent when the next
+                // upload window opens, so the connection has not really been lost.
+                Log.i("Upload failed because the device is idle; holding location points"); //NON-NLS
+                SessionUploader.this.queue.persist();
+                return;
+            }
+            // Notify upstream about connectivity loss.
+            if (SessionUploader.this.connected) {
+                SessionUploader.this.connected = false;
+                Log.i("Connection to the backend was lost."); //NON-NLS
+                SessionUploader.this.queue.persist();
+                if (!SessionUploader.this.stopped) SessionUploader.this.gnssActiveTask.onServerConnectionLost();
+            }
+        }
+    }
+}
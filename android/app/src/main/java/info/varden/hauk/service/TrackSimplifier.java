@@ -0,0 +1,190 @@
+package info.varden.hauk.service;
+
+import info.varden.hauk.Constants;
+
+/**
+ * Streaming track compression for outgoing location fixes. The simplifier keeps a constant-velocity
+ * model of the device derived from the last two fixes that were sent, and drops fixes that the
+ * model predicts to within a configured error. Viewers draw the track as straight lines between
+ * the fixes they receive, so dropped fixes lie close to the line that is drawn anyway. This removes
+ * most uploads while moving in a straight line at a steady speed, e.g. in a vehicle on a highway.
+ *
+ * <p>Regardless of the model, a fix is always sent if:</p>
+ * <ul>
+ *     <li>the device stops or starts moving,</li>
+ *     <li>the heading changes by more than {@link Constants#TRACK_HEADING_CHANGE} degrees,</li>
+ *     <li>the accuracy of the fix changes significantly, e.g. when switching providers, or</li>
+ *     <li>no fix has been sent for the maximum gap, so that viewers do not consider the device
+ *     offline.</li>
+ * </ul>
+ *
+ * <p>The simplifier does not allocate objects per fix.</p>
+ */
+final class TrackSimplifier {
+    /**
+     * The maximum distance between a fix and its predicted position for it to be dropped, in
+     * meters.
+     */
+    private final float tolerance;
+
+    /**
+     * The longest time that may pass without sending a fix, in milliseconds.
+     */
+    private final long maxGap;
+
+    /**
+     * Whether or not any fix has been sent yet.
+     */
+    private boolean hasSent = false;
+
+    /**
+     * The last fix that was sent.
+     */
+    private double sentLatitude;
+    private double sentLongitude;
+    private float sentAccuracy;
+    private long sentTime;
+
+    /**
+     * The modelled velocity of the device, in meters per second to the east and north.
+     */
+    private double velocityEast = 0.0D;
+    private double velocityNorth = 0.0D;
+
+    /**
+     * The last fix that was offered, whether it was sent or not.
+     */
+    private double lastLatitude;
+    private double lastLongitude;
+    private long lastTime;
+
+    /**
+     * The distance between the last offered fix and its predicted position, in meters.
+     */
+    private double lastError = 0.0D;
+
+    /**
+     * Creates a track simplifier.
+     *
+     * @param tolerance The maximum distance between a fix and its predicted position for it to be
+     *                  dropped, in meters.
+     * @param maxGap    The longest time that may pass without sending a fix, in milliseconds.
+     */
+    TrackSimplifier(float tolerance, long maxGap) {
+        this.tolerance = tolerance;
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * Returns the distance between the last offered fix and the position the model predicted for
+     * it, in meters.
+     */
+    double getLastError() {
+        return this.lastError;
+    }
+
+    /**
+     * Offers a new location fix to the simplifier, and returns whether or not it should be sent.
+     *
+     * @param latitude  The latitude of the fix, in degrees.
+     * @param longitude The longitude of the fix, in degrees.
+     * @param accuracy  The accuracy radius of the fix, in meters, or NaN if unknown.
+     * @param speed     The speed of the device, in meters per second, or NaN if unknown.
+     * @param time      The time of the fix, in milliseconds since the Unix epoch.
+     * @return true if the fix should be sent, false if it can be dropped.
+     */
+    boolean offer(double latitude, double longitude, float accuracy, float speed, long time) {
+        boolean send;
+        if (!this.hasSent) {
+            send = true;
+            this.lastError = 0.0D;
+        } else {
+            // Estimate the speed from the previous fix if the provider does not report it.
+            double lastEast = east(this.lastLatitude, this.lastLongitude, latitude, longitude);
+            double lastNorth = north(this.lastLatitude, latitude);
+            double step = Math.hypot(lastEast, lastNorth);
+            if (Float.isNaN(speed) && time > this.lastTime) {
+                speed = (float) (step * 1000.0D / (time - this.lastTime));
+            }
+
+            // Dead reckoning from the last sent fix.
+            double elapsed = (time - this.sentTime) / 1000.0D;
+            double errorEast = east(this.sentLatitude, this.sentLongitude, latitude, longitude) - this.velocityEast * elapsed;
+            double errorNorth = north(this.sentLatitude, latitude) - this.velocityNorth * elapsed;
+            this.lastError = Math.hypot(errorEast, errorNorth);
+
+            boolean modelMoving = isMoving(Math.hypot(this.velocityEast, this.velocityNorth));
+            send = this.lastError > this.tolerance
+                    || time - this.sentTime >= this.maxGap
+                    || modelMoving != isMoving(speed)
+                    || modelMoving && step >= Math.max(this.tolerance, Float.isNaN(accuracy) ? 0.0F : accuracy)
+                            && hasTurned(lastEast, lastNorth, step)
+                    || hasAccuracyJump(accuracy);
+        }
+
+        if (send) onSent(latitude, longitude, accuracy, speed, time);
+        this.lastLatitude = latitude;
+        this.lastLongitude = longitude;
+        this.lastTime = time;
+        return send;
+    }
+
+    /**
+     * Updates the model with a fix that is being sent.
+     */
+    private void onSent(double latitude, double longitude, float accuracy, float speed, long time) {
+        if (!this.hasSent || !isMoving(speed) || time <= this.sentTime) {
+            this.velocityEast = 0.0D;
+            this.velocityNorth = 0.0D;
+        } else {
+            double elapsed = (time - this.sentTime) / 1000.0D;
+            this.velocityEast = east(this.sentLatitude, this.sentLongitude, latitude, longitude) / elapsed;
+            this.velocityNorth = north(this.sentLatitude, latitude) / elapsed;
+        }
+        this.hasSent = true;
+        this.sentLatitude = latitude;
+        this.sentLongitude = longitude;
+        this.sentAccuracy = accuracy;
+        this.sentTime = time;
+    }
+
+    /**
+     * Returns whether or not the given speed counts as moving. Unknown speeds count as stationary.
+     */
+    private static boolean isMoving(double speed) {
+        return speed >= Constants.TRACK_STOP_SPEED;
+    }
+
+    /**
+     * Returns whether or not the direction of the given step differs from the modelled heading by
+     * more than the heading change threshold.
+     */
+    private boolean hasTurned(double east, double north, double step) {
+        double cos = (east * this.velocityEast + north * this.velocityNorth) / (step * Math.hypot(this.velocityEast, this.velocityNorth));
+        return cos < Math.cos(Math.toRadians(Constants.TRACK_HEADING_CHANGE));
+    }
+
+    /**
+     * Returns whether or not the given accuracy differs from the accuracy of the last sent fix by
+     * more than the better of the two, and by more than the tolerance.
+     */
+    private boolean hasAccuracyJump(float accuracy) {
+        if (Float.isNaN(accuracy) || Float.isNaN(this.sentAccuracy)) return false;
+        return Math.abs(accuracy - this.sentAccuracy) > Math.max(this.tolerance, Math.min(accuracy, this.sentAccuracy));
+    }
+
+    /**
+     * Returns the eastward distance between two coordinates on a local flat projection, in meters.
+     */
+    private static double east(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        double latitude = Math.toRadians((fromLatitude + toLatitude) / 2.0D);
+        return Math.toRadians(toLongitude - fromLongitude) * Math.cos(latitude) * AdaptiveIntervalController.EARTH_RADIUS;
+    }
+
+    /**
+     * Returns the northward distance between two latitudes, in meters.
+     */
+    private static double north(double fromLatitude, double toLatitude) {
+        return Math.toRadians(toLatitude - fromLatitude) * AdaptiveIntervalController.EARTH_RADIUS;
+    }
+}
@@ -0,0 +1,274 @@
+package info.varden.hauk.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import androidx.core.content.ContextCompat;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.utils.Log;
+import info.varden.hauk.utils.TraceEvent;
+
+/**
+ * Decides when location points can be uploaded while the device is dozing. Network access is
+ * suspended while the device is idle, so requests made then fail, which previously made every
+ * session report a lost connection until the device woke up. Uploaders should instead hold their
+ * points while {@link #isRestricted()} returns true; the listener is called when a maintenance
+ * window opens or the device leaves idle mode, at which point all held points can be sent in one
+ * batch.
+ *
+ * <p>Sessions that require real-time updates may additionally request a wakeup. This sets an alarm
+ * that is allowed to fire while idle, which gives the app a short window of network access. Exact
+ * alarms are used if the app is allowed to schedule them; otherwise the system decides when the
+ * alarm fires. In either case the system limits how often such alarms fire while the device is
+ * idle.</p>
+ *
+ * <p>The power and alarm managers are accessed through {@link Platform}, so that the scheduling
+ * logic can be tested without a device.</p>
+ */
+final class UploadScheduler {
+    @SuppressWarnings("HardCodedStringLiteral")
+    private static final String ACTION_WAKEUP = "info.varden.hauk.UPLOAD_WAKEUP";
+
+    /**
+     * Android application context.
+     */
+    private final Context ctx;
+
+    /**
+     * The platform services used to query the idle state and set wakeup alarms.
+     */
+    private final Platform platform;
+
+    /**
+     * The listener that is called when points can be uploaded again.
+     */
+    private final Listener listener;
+
+    /**
+     * The time until which the app has network access because of a wakeup alarm, in milliseconds
+     * of {@link Platform#elapsedRealtime()}.
+     */
+    private long windowEnd = 0L;
+
+    /**
+     * Whether or not a wakeup alarm is currently set.
+     */
+    private boolean wakeupPending = false;
+
+    /**
+     * Whether or not uploads were restricted the last time the idle state changed.
+     */
+    private boolean wasRestricted = false;
+
+    /**
+     * Receives changes of the device's idle state.
+     */
+    private final BroadcastReceiver idleReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onIdleChanged();
+        }
+    };
+
+    /**
+     * Receives wakeup alarms.
+     */
+    private final BroadcastReceiver wakeupReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onWakeup();
+        }
+    };
+
+    UploadScheduler(Context ctx, Listener listener) {
+        this(ctx, new AndroidPlatform(ctx), listener);
+    }
+
+    UploadScheduler(Context ctx, Platform platform, Listener listener) {
+        this.ctx = ctx;
+        this.platform = platform;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts listening for changes of the device's idle state.
+     */
+    void start() {
+        IntentFilter idleFilter = new IntentFilter(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            idleFilter.addAction(PowerManager.ACTION_DEVICE_LIGHT_IDLE_MODE_CHANGED);
+        }
+        ContextCompat.registerReceiver(this.ctx, this.idleReceiver, idleFilter, ContextCompat.RECEIVER_NOT_EXPORTED);
+        ContextCompat.registerReceiver(this.ctx, this.wakeupReceiver, new IntentFilter(ACTION_WAKEUP), ContextCompat.RECEIVER_NOT_EXPORTED);
+        this.wasRestricted = isRestricted();
+    }
+
+    /**
+     * Stops listening for changes of the device's idle state and cancels any pending wakeup.
+     */
+    void stop() {
+        this.ctx.unregisterReceiver(this.idleReceiver);
+        this.ctx.unregisterReceiver(this.wakeupReceiver);
+        this.platform.cancelWakeup();
+        this.wakeupPending = false;
+    }
+
+    /**
+     * Returns whether or not uploads should be held back because the device is idle and the app
+     * does not currently have network access.
+     */
+    boolean isRestricted() {
+        // Apps exempted from battery optimizations keep network access while idle.
+        if (this.platform.isExempt()) return false;
+        if (this.platform.elapsedRealtime() < this.windowEnd) return false;
+        return this.platform.isDeviceIdle() || this.platform.isDeviceLightIdle();
+    }
+
+    /**
+     * Wakes the device up after the given delay so that held location points can be sent, even if
+     * the device is still idle. Does nothing if a wakeup is already pending.
+     *
+     * @param delay The delay after which to wake up, in milliseconds.
+     */
+    void requestWakeup(long delay) {
+        if (this.wakeupPending) return;
+        this.wakeupPending = true;
+        this.platform.setWakeup(this.platform.elapsedRealtime() + delay);
+    }
+
+    /**
+     * Called when the device enters or leaves an idle mode.
+     */
+    void onIdleChanged() {
+        boolean restricted = isRestricted();
+        if (restricted == this.wasRestricted) return;
+        this.wasRestricted = restricted;
+        Log.i(restricted ? "Device is idle; holding location uploads" : "Device left idle mode; sending held location points"); //NON-NLS
+        Log.trace(TraceEvent.IDLE_CHANGED, restricted ? 1 : 0);
+        if (!restricted) this.listener.onWindowOpened();
+    }
+
+    /**
+     * Called when a requested wakeup alarm fires. Opens a short window of network access.
+     */
+    void onWakeup() {
+        this.wakeupPending = false;
+        Log.i("Woke up to send location points while idle"); //NON-NLS
+        this.windowEnd = this.platform.elapsedRealtime() + Constants.UPLOAD_WAKEUP_WINDOW;
+        this.listener.onWindowOpened();
+    }
+
+    /**
+     * Receives notice when held location points can be uploaded.
+     */
+    interface Listener {
+        /**
+         * Called when the device leaves idle mode, enters a maintenance window, or wakes up for a
+         * requested wakeup.
+         */
+        void onWindowOpened();
+    }
+
+    /**
+     * The platform services that the scheduler depends on.
+     */
+    interface Platform {
+        /**
+         * Returns whether or not the app is exempted from battery optimizations.
+         */
+        boolean isExempt();
+
+        /**
+         * Returns whether or not the device is in deep idle mode.
+         */
+        boolean isDeviceIdle();
+
+        /**
+         * Returns whether or not the device is in light idle mode.
+         */
+        boolean isDeviceLightIdle();
+
+        /**
+         * Returns the time since boot, in milliseconds, including time spent asleep.
+         */
+        long elapsedRealtime();
+
+        /**
+         * Sets an alarm that broadcasts {@link #ACTION_WAKEUP} at the given time, even if the
+         * device is idle.
+         *
+         * @param time The time to wake up at, in milliseconds of {@link #elapsedRealtime()}.
+         */
+        void setWakeup(long time);
+
+        /**
+         * Cancels any alarm set by {@link #setWakeup(long)}.
+         */
+        void cancelWakeup();
+    }
+
+    /**
+     * Platform services provided by the Android power and alarm managers.
+     */
+    private static final class AndroidPlatform implements Platform {
+        private final PowerManager power;
+        private final AlarmManager alarms;
+        private final String packageName;
+
+        /**
+         * The intent that is broadcast when a wakeup alarm fires.
+         */
+        private final PendingIntent wakeupIntent;
+
+        private AndroidPlatform(Context ctx) {
+            this.power = (PowerManager) ctx.getSystemService(Context.POWER_SERVICE);
+            this.alarms = (AlarmManager) ctx.getSystemService(Context.ALARM_SERVICE);
+            this.packageName = ctx.getPackageName();
+            this.wakeupIntent = PendingIntent.getBroadcast(ctx, 0, new Intent(ACTION_WAKEUP).setPackage(this.packageName), PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        }
+
+        @Override
+        public boolean isExempt() {
+            return this.power.isIgnoringBatteryOptimizations(this.packageName);
+        }
+
+        @Override
+        public boolean isDeviceIdle() {
+            return this.power.isDeviceIdleMode();
+        }
+
+        @Override
+        public boolean isDeviceLightIdle() {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU && this.power.isDeviceLightIdleMode();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void setWakeup(long time) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S || this.alarms.canScheduleExactAlarms()) {
+                Log.v("Scheduling exact wakeup at %s", time); //NON-NLS
+                this.alarms.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, time, this.wakeupIntent);
+            } else {
+                Log.v("Exact alarms not permitted; scheduling inexact wakeup at %s", time); //NON-NLS
+                this.alarms.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, time, this.wakeupIntent);
+            }
+        }
+
+        @Override
+        public void cancelWakeup() {
+            this.alarms.cancel(this.wakeupIntent);
+        }
+    }
+}
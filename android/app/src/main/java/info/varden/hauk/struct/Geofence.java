@@ -0,0 +1,122 @@
+package info.varden.hauk.struct;
+
+import androidx.annotation.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A circular region on the map. Sessions may define geofences as quiet zones, in which location
+ * updates are paused and the device only listens passively for location changes until it leaves the
+ * zone.
+ */
+public final class Geofence implements Serializable {
+    private static final long serialVersionUID = -2318462741986529823L;
+
+    /**
+     * The separator between geofences in the string representation of a list of geofences.
+     */
+    private static final String LIST_SEPARATOR = ";";
+
+    /**
+     * The separator between fields in the string representation of a geofence.
+     */
+    private static final String FIELD_SEPARATOR = ",";
+
+    /**
+     * The mean radius of the Earth, in meters.
+     */
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    /**
+     * The center of the geofence, in degrees.
+     */
+    private final double latitude;
+    private final double longitude;
+
+    /**
+     * The radius of the geofence, in meters.
+     */
+    private final float radius;
+
+    public Geofence(double latitude, double longitude, float radius) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+    }
+
+    /**
+     * Parses a list of geofences from a string, such as one entered in settings or passed in a
+     * broadcast. Each geofence is written as {@code latitude,longitude,radius}, and geofences are
+     * separated by semicolons.
+     *
+     * @param list The string to parse. May be null or empty.
+     * @return A list of geofences, which is empty if the string is null or empty.
+     * @throws IllegalArgumentException if the string is not a valid list of geofences.
+     */
+    public static List<Geofence> parseList(@Nullable String list) throws IllegalArgumentException {
+        if (list == null || list.trim().isEmpty()) return Collections.emptyList();
+        List<Geofence> geofences = new ArrayList<>();
+        for (String entry : list.split(LIST_SEPARATOR)) {
+            if (entry.trim().isEmpty()) continue;
+            String[] fields = entry.split(FIELD_SEPARATOR);
+            if (fields.length != 3) throw new IllegalArgumentException("Geofence must have three fields: " + entry);
+            double latitude = Double.parseDouble(fields[0].trim());
+            double longitude = Double.parseDouble(fields[1].trim());
+            float radius = Float.parseFloat(fields[2].trim());
+            if (latitude < -90.0D || latitude > 90.0D || longitude < -180.0D || longitude > 180.0D || !(radius > 0.0F)) {
+                throw new IllegalArgumentException("Geofence is out of range: " + entry);
+            }
+            geofences.add(new Geofence(latitude, longitude, radius));
+        }
+        return Collections.unmodifiableList(geofences);
+    }
+
+    /**
+     * Writes this geofence to a stream.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeDouble(this.latitude);
+        out.writeDouble(this.longitude);
+        out.writeFloat(this.radius);
+    }
+
+    /**
+     * Reads a geofence written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in The stream to read from.
+     * @throws IOException if reading fails.
+     */
+    public static Geofence readFrom(DataInput in) throws IOException {
+        return new Geofence(in.readDouble(), in.readDouble(), in.readFloat());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s,%s,%s", this.latitude, this.longitude, this.radius); //NON-NLS
+    }
+
+    /**
+     * Returns the distance between the given coordinates and the edge of this geofence, in meters.
+     * The distance is negative if the coordinates are inside the geofence.
+     *
+     * @param latitude  The latitude, in degrees.
+     * @param longitude The longitude, in degrees.
+     */
+    public double distanceToEdge(double latitude, double longitude) {
+        double dLat = Math.toRadians(latitude - this.latitude);
+        double dLon = Math.toRadians(longitude - this.longitude);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(this.latitude)) * Math.cos(Math.toRadians(latitude)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1.0D, Math.sqrt(a))) - this.radius;
+    }
+}
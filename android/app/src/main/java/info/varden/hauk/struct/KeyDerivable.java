@@ -1,34 +1,59 @@
 package info.varden.hauk.struct;
 
+import androidx.annotation.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import info.varden.hauk.Constants;
+import info.varden.hauk.utils.Log;
+import info.varden.hauk.utils.Pbkdf2;
 import info.varden.hauk.utils.StringUtils;
 
 /**
  * Serializable key spec that stores a password and salt for deriving a secret AES key spec.
  *
+ * <p>The password is never written by {@link #writeTo(DataOutput)}. A key read back with
+ * {@link #readFrom(DataInput)} has no password, and can only be used once its derived key has been
+ * restored with {@link #restoreDerivedKey(byte[])}.</p>
+ *
+ * <p>Key derivation is slow by design, and should be started in the background with
+ * {@link #deriveInBackground(DerivationListener)} as soon as the session is set up, so that it
+ * does not block the first location update.</p>
+ *
  * @author Marius Lindvall
  */
 public final class KeyDerivable implements Serializable {
     private static final long serialVersionUID = -4298542521894801298L;
 
+    /**
+     * Executor that runs background key derivations.
+     */
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
     /**
      * Salt used in PBKDF2 for key derivation.
      */
     private final byte[] salt;
 
     /**
-     * End-to-end password to encrypt outgoing data with.
+     * End-to-end password to encrypt outgoing data with, or null if the key was read from storage.
      */
     @SuppressWarnings("FieldNotUsedInToString")
+    @Nullable
     private final String password;
 
     /**
@@ -37,28 +62,167 @@ public final class KeyDerivable implements Serializable {
     @SuppressWarnings("FieldNotUsedInToString")
     private transient SecretKeySpec keySpec = null;
 
+    /**
+     * The background key derivation task, if one has been started.
+     */
+    @SuppressWarnings("FieldNotUsedInToString")
+    private transient Future<SecretKeySpec> derivation = null;
+
     public KeyDerivable(String password, byte[] salt) {
         this.password = password;
         this.salt = salt.clone();
     }
 
     /**
-     * Derives a key spec from this derivable key.
+     * Creates a key without a password, whose derived key must be restored before it is used.
+     *
+     * @param salt The salt the key was derived with.
+     */
+    private KeyDerivable(byte[] salt) {
+        this.password = null;
+        this.salt = salt;
+    }
+
+    /**
+     * Derives a key spec from this derivable key. If the key is being derived in the background,
+     * this waits for that derivation to complete.
      *
      * @return A secret key spec for use with encryption functions.
-     * @throws InvalidKeySpecException if the key spec doesn't exist.
-     * @throws NoSuchAlgorithmException if the algorithm doesn't exist.
-     */
-    public SecretKeySpec deriveSpec() throws InvalidKeySpecException, NoSuchAlgorithmException {
-        if (this.keySpec == null) {
-            // E2E encryption is used, but the key spec hasn't been cached yet. Generate and cache
-            // it, then return the spec.
-            KeySpec ks = new PBEKeySpec(this.password.toCharArray(), this.salt, Constants.E2E_PBKDF2_ITERATIONS, Constants.E2E_AES_KEY_SIZE);
-            SecretKeyFactory kf = SecretKeyFactory.getInstance(Constants.E2E_KD_FUNCTION);
-            byte[] key = kf.generateSecret(ks).getEncoded();
-            this.keySpec = new SecretKeySpec(key, Constants.E2E_KEY_SPEC);
+     * @throws GeneralSecurityException if the key could not be derived.
+     */
+    public SecretKeySpec deriveSpec() throws GeneralSecurityException {
+        Future<SecretKeySpec> task;
+        synchronized (this) {
+            if (this.keySpec != null) return this.keySpec;
+            task = this.derivation;
+        }
+        if (task == null) return derive(null);
+
+        try {
+            return task.get();
+        } catch (InterruptedException | CancellationException e) {
+            // The background derivation was cancelled; derive on this thread instead.
+            return derive(null);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneralSecurityException) throw (GeneralSecurityException) e.getCause();
+            throw new GeneralSecurityException(e.getCause());
         }
-        return this.keySpec;
+    }
+
+    /**
+     * Starts deriving the key spec on a background thread. If the key has already been derived, or
+     * is already being derived, this does not start a new derivation.
+     *
+     * @param listener A listener to report progress and completion to, or null.
+     * @return A future that completes with the derived key spec, and that can be cancelled.
+     */
+    public synchronized Future<SecretKeySpec> deriveInBackground(@Nullable final DerivationListener listener) {
+        if (this.keySpec != null) {
+            FutureTask<SecretKeySpec> done = new FutureTask<>(new Callable<SecretKeySpec>() {
+                @Override
+                public SecretKeySpec call() {
+                    if (listener != null) listener.onDerived(KeyDerivable.this);
+                    return KeyDerivable.this.keySpec;
+                }
+            });
+            done.run();
+            return done;
+        }
+        if (this.derivation == null || this.derivation.isCancelled()) {
+            Log.i("Starting background key derivation"); //NON-NLS
+            this.derivation = executor.submit(new Callable<SecretKeySpec>() {
+                @Override
+                public SecretKeySpec call() throws GeneralSecurityException {
+                    SecretKeySpec spec = derive(listener);
+                    if (listener != null) listener.onDerived(KeyDerivable.this);
+                    return spec;
+                }
+            });
+        }
+        return this.derivation;
+    }
+
+    /**
+     * Returns the salt used for key derivation.
+     */
+    public byte[] getSalt() {
+        return this.salt.clone();
+    }
+
+    /**
+     * Returns whether or not a key spec can be obtained from this key, i.e. whether it has been
+     * derived or the password is available to derive it.
+     */
+    public synchronized boolean isUsable() {
+        return this.keySpec != null || this.password != null;
+    }
+
+    /**
+     * Returns whether or not the key spec has been derived.
+     */
+    public synchronized boolean isDerived() {
+        return this.keySpec != null;
+    }
+
+    /**
+     * Returns the raw derived key, or null if the key has not been derived yet. Should only be used
+     * to store the key securely, e.g. wrapped by the Android key store.
+     */
+    @Nullable
+    public synchronized byte[] getDerivedKey() {
+        return this.keySpec == null ? null : this.keySpec.getEncoded();
+    }
+
+    /**
+     * Restores a previously derived key, so that it does not have to be derived again.
+     *
+     * @param key The raw derived key, as returned by {@link #getDerivedKey()}.
+     */
+    public synchronized void restoreDerivedKey(byte[] key) {
+        if (key.length != Constants.E2E_AES_KEY_SIZE / Byte.SIZE) {
+            Log.w("Ignoring restored key of invalid length %s", key.length); //NON-NLS
+            return;
+        }
+        this.keySpec = new SecretKeySpec(key, Constants.E2E_KEY_SPEC);
+    }
+
+    /**
+     * Derives the key spec on the calling thread and caches it.
+     *
+     * @param listener A listener to report progress to, or null.
+     * @throws GeneralSecurityException if the key could not be derived.
+     */
+    private SecretKeySpec derive(@Nullable Pbkdf2.ProgressListener listener) throws GeneralSecurityException {
+        if (this.password == null) throw new GeneralSecurityException("Password is not available for key derivation");
+        byte[] key = Pbkdf2.deriveHmacSha1(this.password.getBytes(StandardCharsets.UTF_8), this.salt, Constants.E2E_PBKDF2_ITERATIONS, Constants.E2E_AES_KEY_SIZE / Byte.SIZE, listener);
+        SecretKeySpec spec = new SecretKeySpec(key, Constants.E2E_KEY_SPEC);
+        synchronized (this) {
+            this.keySpec = spec;
+        }
+        return spec;
+    }
+
+    /**
+     * Writes the salt of this key to a stream. Neither the password nor the derived key is written.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeShort(this.salt.length);
+        out.write(this.salt);
+    }
+
+    /**
+     * Reads a key written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in The stream to read from.
+     * @throws IOException if reading fails.
+     */
+    public static KeyDerivable readFrom(DataInput in) throws IOException {
+        byte[] salt = new byte[in.readUnsignedShort()];
+        in.readFully(salt);
+        return new KeyDerivable(salt);
     }
 
     @Override
@@ -67,4 +231,16 @@ public final class KeyDerivable implements Serializable {
                 + ",salt=0x" + StringUtils.bytesToHex(this.salt)
                 + "}";
     }
+
+    /**
+     * A listener that receives progress updates during background key derivation.
+     */
+    public interface DerivationListener extends Pbkdf2.ProgressListener {
+        /**
+         * Called when the key has been derived.
+         *
+         * @param key The derivable key whose key spec is now available.
+         */
+        void onDerived(KeyDerivable key);
+    }
 }
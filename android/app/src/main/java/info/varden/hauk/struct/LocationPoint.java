@@ -0,0 +1,180 @@
+package info.varden.hauk.struct;
+
+import android.location.Location;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.utils.TimeUtils;
+
+/**
+ * A data structure that contains a single location fix as it should be sent to the backend. Unlike
+ * {@link Location}, this class can be written to a stream, so that fixes can be stored on the device
+ * while the backend is unreachable and sent at a later time.
+ */
+public final class LocationPoint implements Serializable {
+    private static final long serialVersionUID = 2818395407417066290L;
+
+    /**
+     * The latitude of the fix, in degrees.
+     */
+    private final double latitude;
+
+    /**
+     * The longitude of the fix, in degrees.
+     */
+    private final double longitude;
+
+    /**
+     * A timestamp of when the fix was received, in milliseconds since the Unix epoch.
+     */
+    private final long time;
+
+    /**
+     * The location provider that produced the fix.
+     */
+    private final LocationProvider provider;
+
+    /**
+     * The speed of the device at the time of the fix, in meters per second, or null if unavailable.
+     */
+    @Nullable
+    private final Float speed;
+
+    /**
+     * The accuracy radius of the fix, in meters, or null if unavailable.
+     */
+    @Nullable
+    private final Float accuracy;
+
+    public LocationPoint(double latitude, double longitude, long time, LocationProvider provider, @Nullable Float speed, @Nullable Float accuracy) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.time = time;
+        this.provider = provider;
+        this.speed = speed;
+        this.accuracy = accuracy;
+    }
+
+    /**
+     * Creates a location point from a location received from the device's location services. The
+     * point is timestamped with the time the fix was recorded, which may be in the past if the fix
+     * was delivered in a batch.
+     *
+     * @param location The location received from the device's location services.
+     * @param provider The location provider that produced the fix.
+     */
+    public LocationPoint(Location location, LocationProvider provider) {
+        this(
+                location.getLatitude(),
+                location.getLongitude(),
+                getFixTimeMillis(location),
+                provider,
+                location.hasSpeed() ? location.getSpeed() : null,
+                location.hasAccuracy() ? location.getAccuracy() : null
+        );
+    }
+
+    /**
+     * Returns the time a location fix was recorded, in milliseconds since the Unix epoch. The age
+     * of the fix is measured on the monotonic clock, so that the result is consistent with the
+     * system clock even if the clock of the location provider is not.
+     *
+     * @param location The location received from the device's location services.
+     */
+    public static long getFixTimeMillis(Location location) {
+        long ageMillis = (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1000000L;
+        return System.currentTimeMillis() - Math.max(0L, ageMillis);
+    }
+
+    /**
+     * Writes this location point to a stream.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeDouble(this.latitude);
+        out.writeDouble(this.longitude);
+        out.writeLong(this.time);
+        out.writeByte(this.provider.getMode());
+        out.writeBoolean(this.speed != null);
+        if (this.speed != null) out.writeFloat(this.speed);
+        out.writeBoolean(this.accuracy != null);
+        if (this.accuracy != null) out.writeFloat(this.accuracy);
+    }
+
+    /**
+     * Reads a location point written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in The stream to read from.
+     * @throws IOException if reading fails or the data is invalid.
+     */
+    public static LocationPoint readFrom(DataInput in) throws IOException {
+        double latitude = in.readDouble();
+        double longitude = in.readDouble();
+        long time = in.readLong();
+        int mode = in.readUnsignedByte();
+        LocationProvider provider = null;
+        for (LocationProvider candidate : LocationProvider.values()) {
+            if (candidate.getMode() == mode) provider = candidate;
+        }
+        if (provider == null) throw new IOException("Unknown location provider " + mode);
+        Float speed = in.readBoolean() ? in.readFloat() : null;
+        Float accuracy = in.readBoolean() ? in.readFloat() : null;
+        return new LocationPoint(latitude, longitude, time, provider, speed, accuracy);
+    }
+
+    @Override
+    public String toString() {
+        return "LocationPoint{latitude=" + this.latitude
+                + ",longitude=" + this.longitude
+                + ",time=" + this.time
+                + ",provider=" + this.provider
+                + ",speed=" + this.speed
+                + ",accuracy=" + this.accuracy
+                + "}";
+    }
+
+    public double getLatitude() {
+        return this.latitude;
+    }
+
+    public double getLongitude() {
+        return this.longitude;
+    }
+
+    /**
+     * Returns the time the fix was received, in milliseconds since the Unix epoch.
+     */
+    public long getTimeMillis() {
+        return this.time;
+    }
+
+    /**
+     * Returns the time the fix was received, in fractional seconds since the Unix epoch.
+     */
+    public double getTimeSeconds() {
+        return this.time / (double) TimeUtils.MILLIS_PER_SECOND;
+    }
+
+    public LocationProvider getProvider() {
+        return this.provider;
+    }
+
+    @Nullable
+    public Float getSpeed() {
+        return this.speed;
+    }
+
+    @Nullable
+    public Float getAccuracy() {
+        return this.accuracy;
+    }
+}
@@ -2,9 +2,15 @@ package info.varden.hauk.struct;
 
 import androidx.annotation.Nullable;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 import info.varden.hauk.Constants;
@@ -51,26 +57,101 @@ public final class Session implements Serializable {
      */
     private final int interval;
 
+    /**
+     * The longest interval between each location update, in seconds, that may be used while the
+     * device is moving slowly or is stationary.
+     */
+    private final int maxInterval;
+
     /**
      * The minimum distance between each location update, in meters.
      */
     private final float minDistance;
 
+    /**
+     * The number of location updates to collect before sending them to the backend in one request.
+     */
+    private final int batchSize;
+
+    /**
+     * The maximum time location updates may be held back for batching, in seconds, or 0 to hold
+     * them back until a full batch has been collected.
+     */
+    private final int batchInterval;
+
     /**
      * End-to-end encryption parameters.
      */
     @Nullable
     private final KeyDerivable e2eParams;
 
-    public Session(String serverURL, ConnectionParameters connParams, Version backendVersion, String sessionID, long expiry, int interval, float minDistance, @Nullable KeyDerivable e2eParams) {
+    /**
+     * Regions in which location updates are paused while the device is inside them.
+     */
+    private final List<Geofence> quietZones;
+
+    public Session(String serverURL, ConnectionParameters connParams, Version backendVersion, String sessionID, long expiry, int interval, int maxInterval, float minDistance, int batchSize, int batchInterval, @Nullable KeyDerivable e2eParams, List<Geofence> quietZones) {
         this.serverURL = serverURL;
         this.backendVersion = backendVersion;
         this.sessionID = sessionID;
         this.expiry = expiry;
         this.interval = interval;
+        this.maxInterval = maxInterval;
         this.minDistance = minDistance;
+        this.batchSize = batchSize;
+        this.batchInterval = batchInterval;
         this.e2eParams = e2eParams;
         this.connParams = connParams;
+        this.quietZones = quietZones;
+    }
+
+    /**
+     * Writes this session to a stream.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(this.serverURL);
+        this.connParams.writeTo(out);
+        out.writeUTF(this.backendVersion.toString());
+        out.writeUTF(this.sessionID);
+        out.writeLong(this.expiry);
+        out.writeInt(this.interval);
+        out.writeInt(this.maxInterval);
+        out.writeFloat(this.minDistance);
+        out.writeInt(this.batchSize);
+        out.writeInt(this.batchInterval);
+        out.writeBoolean(this.e2eParams != null);
+        if (this.e2eParams != null) this.e2eParams.writeTo(out);
+        List<Geofence> zones = getQuietZones();
+        out.writeShort(zones.size());
+        for (Geofence zone : zones) zone.writeTo(out);
+    }
+
+    /**
+     * Reads a session written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in The stream to read from.
+     * @throws IOException if reading fails or the data is invalid.
+     */
+    public static Session readFrom(DataInput in) throws IOException {
+        String serverURL = in.readUTF();
+        ConnectionParameters connParams = ConnectionParameters.readFrom(in);
+        Version backendVersion = new Version(in.readUTF());
+        String sessionID = in.readUTF();
+        long expiry = in.readLong();
+        int interval = in.readInt();
+        int maxInterval = in.readInt();
+        float minDistance = in.readFloat();
+        int batchSize = in.readInt();
+        int batchInterval = in.readInt();
+        KeyDerivable e2eParams = in.readBoolean() ? KeyDerivable.readFrom(in) : null;
+        int zoneCount = in.readUnsignedShort();
+        List<Geofence> quietZones = new ArrayList<>(zoneCount);
+        for (int i = 0; i < zoneCount; i++) quietZones.add(Geofence.readFrom(in));
+
+        return new Session(serverURL, connParams, backendVersion, sessionID, expiry, interval, maxInterval, minDistance, batchSize, batchInterval, e2eParams, Collections.unmodifiableList(quietZones));
     }
 
     @Override
@@ -81,7 +162,11 @@ public final class Session implements Serializable {
                 + ",sessionID=" + this.sessionID
                 + ",expiry=" + this.expiry
                 + ",interval=" + this.interval
+                + ",maxInterval=" + this.maxInterval
+                + ",batchSize=" + this.batchSize
+                + ",batchInterval=" + this.batchInterval
                 + ",e2eParams=" + this.e2eParams
+                + ",quietZones=" + getQuietZones()
                 + "}";
     }
 
@@ -158,6 +243,15 @@ public final class Session implements Serializable {
         return getIntervalSeconds() * TimeUtils.MILLIS_PER_SECOND;
     }
 
+    /**
+     * Returns the longest interval between each location update, in milliseconds. This is never
+     * shorter than {@link #getIntervalMillis()}.
+     */
+    public long getMaxIntervalMillis() {
+        // Sessions resumed from an older version of the app have no maximum interval set.
+        return Math.max(this.maxInterval, getIntervalSeconds()) * TimeUtils.MILLIS_PER_SECOND;
+    }
+
     /**
      * Returns the minimum distance between each location update, in meters.
      */
@@ -165,6 +259,33 @@ public final class Session implements Serializable {
         return this.minDistance;
     }
 
+    /**
+     * Returns the number of location updates that should be sent to the backend in one request.
+     * Batching requires backend support; if the backend does not support it, this returns 1.
+     */
+    public int getBatchSize() {
+        // Sessions resumed from an older version of the app have no batch size set.
+        if (this.batchSize <= 1 || !this.backendVersion.isAtLeast(Constants.VERSION_COMPAT_BATCH_POST)) return 1;
+        return Math.min(this.batchSize, Constants.LOCATION_BATCH_MAX_POINTS);
+    }
+
+    /**
+     * Returns the maximum time location updates may be held back for batching, in milliseconds, or
+     * 0 if they should be held back until a full batch has been collected.
+     */
+    public long getBatchIntervalMillis() {
+        return this.batchInterval * TimeUtils.MILLIS_PER_SECOND;
+    }
+
+    /**
+     * Returns the regions in which location updates should be paused while the device is inside
+     * them.
+     */
+    public List<Geofence> getQuietZones() {
+        // Sessions serialized by an older version of the app have no quiet zones set.
+        return this.quietZones != null ? this.quietZones : Collections.<Geofence>emptyList();
+    }
+
     @Nullable
     public KeyDerivable getDerivableE2EKey() {
         return this.e2eParams;
@@ -1,5 +1,8 @@
 package info.varden.hauk.struct;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 /**
@@ -68,6 +71,38 @@ public final class Share implements Serializable {
         this.type = type;
     }
 
+    /**
+     * Writes this share to a stream. The session is not written.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(this.viewURL);
+        out.writeUTF(this.viewID);
+        out.writeBoolean(this.joinCode != null);
+        if (this.joinCode != null) out.writeUTF(this.joinCode);
+        out.writeInt(this.type.getIndex());
+    }
+
+    /**
+     * Reads a share written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in      The stream to read from.
+     * @param session The session to attach to the share.
+     * @throws IOException if reading fails or the data is invalid.
+     */
+    public static Share readFrom(DataInput in, Session session) throws IOException {
+        String viewURL = in.readUTF();
+        String viewID = in.readUTF();
+        String joinCode = in.readBoolean() ? in.readUTF() : null;
+        try {
+            return new Share(session, viewURL, viewID, joinCode, ShareMode.fromMode(in.readInt()));
+        } catch (EnumConstantNotPresentException e) {
+            throw new IOException(e);
+        }
+    }
+
     @Override
     public String toString() {
         return "Share{session=" + this.session
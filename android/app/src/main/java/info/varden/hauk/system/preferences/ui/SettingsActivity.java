@@ -1,9 +1,14 @@
 package info.varden.hauk.system.preferences.ui;
 
 import android.content.Context;
+import android.net.Uri;
 import android.os.Bundle;
 import android.text.InputType;
+import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultCallback;
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.preference.EditTextPreference;
@@ -19,12 +24,14 @@ import info.varden.hauk.system.preferences.PreferenceHandler;
 import info.varden.hauk.system.preferences.ui.listener.CascadeBindListener;
 import info.varden.hauk.system.preferences.ui.listener.CascadeChangeListener;
 import info.varden.hauk.system.preferences.ui.listener.FloatBoundChangeListener;
+import info.varden.hauk.system.preferences.ui.listener.GeofenceListChangeListener;
 import info.varden.hauk.system.preferences.ui.listener.HintBindListener;
 import info.varden.hauk.system.preferences.ui.listener.InputTypeBindListener;
 import info.varden.hauk.system.preferences.ui.listener.IntegerBoundChangeListener;
 import info.varden.hauk.system.preferences.ui.listener.NightModeChangeListener;
 import info.varden.hauk.system.preferences.ui.listener.ProxyPreferenceChangeListener;
 import info.varden.hauk.utils.Log;
+import info.varden.hauk.utils.TraceRecorder;
 
 /**
  * Settings activity that allows the user to change app preferences.
@@ -51,6 +58,19 @@ public final class SettingsActivity extends AppCompatActivity {
 
         private Context ctx = null;
 
+        /**
+         * Lets the user pick where to save an exported diagnostic trace.
+         */
+        private final ActivityResultLauncher<String> traceExporter = registerForActivityResult(
+                new ActivityResultContracts.CreateDocument(Constants.TRACE_EXPORT_MIME_TYPE),
+                new ActivityResultCallback<Uri>() {
+                    @Override
+                    public void onActivityResult(Uri uri) {
+                        if (uri != null) exportTrace(uri);
+                    }
+                }
+        );
+
         @Override
         public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
             PreferenceManager manager = getPreferenceManager();
@@ -69,7 +89,12 @@ public final class SettingsActivity extends AppCompatActivity {
             setTextEditParams(manager, Constants.PREF_PASSWORD_ENCRYPTED, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD));
             setTextEditParams(manager, Constants.PREF_E2E_PASSWORD, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD));
             setTextEditParams(manager, Constants.PREF_INTERVAL, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
+            setTextEditParams(manager, Constants.PREF_MAX_INTERVAL, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
             setTextEditParams(manager, Constants.PREF_UPDATE_DISTANCE, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL));
+            setTextEditParams(manager, Constants.PREF_TRACK_TOLERANCE, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL));
+            setTextEditParams(manager, Constants.PREF_QUIET_ZONES, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT), new HintBindListener(R.string.pref_quietZones_hint));
+            setTextEditParams(manager, Constants.PREF_BATCH_SIZE, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
+            setTextEditParams(manager, Constants.PREF_BATCH_INTERVAL, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
             setTextEditParams(manager, Constants.PREF_CUSTOM_ID, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_SHORT_MESSAGE), new HintBindListener(R.string.pref_requestLink_hint));
             setTextEditParams(manager, Constants.PREF_PROXY_HOST, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_URI));
             setTextEditParams(manager, Constants.PREF_PROXY_PORT, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
@@ -77,7 +102,12 @@ public final class SettingsActivity extends AppCompatActivity {
 
             // Set value bounds checks.
             setChangeListeners(manager, Constants.PREF_INTERVAL, new IntegerBoundChangeListener(1, Integer.MAX_VALUE));
+            setChangeListeners(manager, Constants.PREF_MAX_INTERVAL, new IntegerBoundChangeListener(0, Integer.MAX_VALUE));
             setChangeListeners(manager, Constants.PREF_UPDATE_DISTANCE, new FloatBoundChangeListener(0.0F, Float.MAX_VALUE));
+            setChangeListeners(manager, Constants.PREF_TRACK_TOLERANCE, new FloatBoundChangeListener(0.0F, Float.MAX_VALUE));
+            setChangeListeners(manager, Constants.PREF_QUIET_ZONES, new GeofenceListChangeListener());
+            setChangeListeners(manager, Constants.PREF_BATCH_SIZE, new IntegerBoundChangeListener(1, Constants.LOCATION_BATCH_MAX_POINTS));
+            setChangeListeners(manager, Constants.PREF_BATCH_INTERVAL, new IntegerBoundChangeListener(0, Integer.MAX_VALUE));
             setChangeListeners(manager, Constants.PREF_PROXY_PORT, new IntegerBoundChangeListener(Constants.PORT_MIN, Constants.PORT_MAX));
             setChangeListeners(manager, Constants.PREF_CONNECTION_TIMEOUT, new IntegerBoundChangeListener(1, Integer.MAX_VALUE));
 
@@ -95,6 +125,28 @@ public final class SettingsActivity extends AppCompatActivity {
             manager.findPreference("dummy_version").setSummary(BuildConfig.VERSION_NAME);
             manager.findPreference("dummy_sourceCode").setOnPreferenceClickListener(new OpenLinkListener(this.ctx, R.string.label_source_link));
             manager.findPreference("dummy_reportIssue").setOnPreferenceClickListener(new OpenLinkListener(this.ctx, R.string.link_issue_tracker));
+            manager.findPreference("dummy_exportTrace").setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    SettingsFragment.this.traceExporter.launch(Constants.TRACE_EXPORT_FILE_NAME);
+                    return true;
+                }
+            });
+        }
+
+        private void exportTrace(Uri uri) {
+            final Context appCtx = this.ctx.getApplicationContext();
+            TraceRecorder.export(appCtx, uri, new TraceRecorder.ExportListener() {
+                @Override
+                public void onExported() {
+                    Toast.makeText(appCtx, R.string.trace_export_success, Toast.LENGTH_SHORT).show();
+                }
+
+                @Override
+                public void onExportFailed(Exception ex) {
+                    Toast.makeText(appCtx, R.string.trace_export_failed, Toast.LENGTH_LONG).show();
+                }
+            });
         }
 
         private static void setTextEditParams(PreferenceManager manager, info.varden.hauk.system.preferences.Preference<?> preference, EditTextPreference.OnBindEditTextListener... listeners) {
@@ -0,0 +1,24 @@
+package info.varden.hauk.system.preferences.ui.listener;
+
+import androidx.preference.Preference;
+
+import info.varden.hauk.struct.Geofence;
+import info.varden.hauk.utils.Log;
+
+/**
+ * Preference change listener that ensures the given value is a valid list of geofences.
+ *
+ * @see Geofence#parseList(String)
+ */
+public final class GeofenceListChangeListener implements Preference.OnPreferenceChangeListener {
+    @Override
+    public boolean onPreferenceChange(Preference preference, Object newValue) {
+        try {
+            Geofence.parseList((String) newValue);
+            return true;
+        } catch (IllegalArgumentException ex) {
+            Log.e("%s is not a valid list of geofences", ex, newValue); //NON-NLS
+        }
+        return false;
+    }
+}
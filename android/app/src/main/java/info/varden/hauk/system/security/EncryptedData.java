@@ -19,16 +19,16 @@ public final class EncryptedData implements Serializable {
      * @param iv   An encryption initialization vector.
      * @param data Encrypted binary data.
      */
-    EncryptedData(byte[] iv, byte[] data) {
+    public EncryptedData(byte[] iv, byte[] data) {
         this.iv = iv;
         this.data = data;
     }
 
-    byte[] getIV() {
+    public byte[] getIV() {
         return this.iv.clone();
     }
 
-    byte[] getMessage() {
+    public byte[] getMessage() {
         return this.data.clone();
     }
 }
@@ -10,7 +10,19 @@ public enum KeyStoreAlias {
      * Key store alias for use in encrypting and decrypting shared preferences.
      */
     @SuppressWarnings("HardCodedStringLiteral")
-    PREFERENCES("sharedPrefs");
+    PREFERENCES("sharedPrefs"),
+
+    /**
+     * Key store alias for use in wrapping derived end-to-end encryption keys for resumption.
+     */
+    @SuppressWarnings("HardCodedStringLiteral")
+    E2E_KEYS("e2eKeys"),
+
+    /**
+     * Key store alias for use in encrypting location points queued on the device.
+     */
+    @SuppressWarnings("HardCodedStringLiteral")
+    LOCATION_QUEUE("locationQueue");
 
     /**
      * The alias of the key in the key store.
@@ -67,7 +67,7 @@ public final class KeyStoreHelper {
      * @return The encrypted data and IV.
      * @throws EncryptionException if there was an error while encrypting.
      */
-    private EncryptedData encrypt(byte[] data) throws EncryptionException {
+    public EncryptedData encrypt(byte[] data) throws EncryptionException {
         Log.v("Encrypting data"); //NON-NLS
 
         // Catch errors during initialization.
@@ -91,7 +91,7 @@ public final class KeyStoreHelper {
      * @return The cleartext data.
      * @throws EncryptionException if there was an error while decrypting.
      */
-    private byte[] decrypt(EncryptedData data) throws EncryptionException {
+    public byte[] decrypt(EncryptedData data) throws EncryptionException {
         Log.v("Decrypting data"); //NON-NLS
 
         // Catch errors during initialization.
@@ -23,6 +23,8 @@ import androidx.appcompat.app.AppCompatDelegate;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.app.ActivityCompat;
 
+import java.util.List;
+
 import info.varden.hauk.Constants;
 import info.varden.hauk.R;
 import info.varden.hauk.caching.ResumePrompt;
@@ -37,6 +39,7 @@ import info.varden.hauk.manager.SessionInitiationResponseHandler;
 import info.varden.hauk.manager.SessionListener;
 import info.varden.hauk.manager.SessionManager;
 import info.varden.hauk.manager.ShareListener;
+import info.varden.hauk.struct.Geofence;
 import info.varden.hauk.struct.Session;
 import info.varden.hauk.struct.Share;
 import info.varden.hauk.struct.ShareMode;
@@ -94,6 +97,11 @@ public final class MainActivity extends AppCompatActivity {
      */
     private ShareLinkLayoutManager linkList;
 
+    /**
+     * Shows performance metrics of the active session in the diagnostics panel.
+     */
+    private TelemetryPanelUpdater telemetryPanel;
+
     private static final int MY_PERMISSIONS_REQUEST_FINE_LOCATION = 123;
 
     @Override
@@ -115,8 +123,6 @@ public final class MainActivity extends AppCompatActivity {
 
         loadPreferences();
 
-        // TODO: resumeShares was removed from SessionManager as ResumableShare is missing a.i. generated
-        /*
         this.manager.resumeShares(new ResumePrompt() {
             @Override
             public void promptForResumption(Context ctx, Session session, Share[] shares, PromptCallback response) {
@@ -128,7 +134,6 @@ public final class MainActivity extends AppCompatActivity {
                 );
             }
         });
-        */
 
         new DeviceChecker(this).performCheck();
     }
@@ -178,10 +183,14 @@ public final class MainActivity extends AppCompatActivity {
         String password = prefs.get(Constants.PREF_PASSWORD_ENCRYPTED);
         int duration;
         int interval = prefs.get(Constants.PREF_INTERVAL);
+        int maxInterval = prefs.get(Constants.PREF_MAX_INTERVAL);
         float minDistance = prefs.get(Constants.PREF_UPDATE_DISTANCE);
+        int batchSize = prefs.get(Constants.PREF_BATCH_SIZE);
+        int batchInterval = prefs.get(Constants.PREF_BATCH_INTERVAL);
         String customID = prefs.get(Constants.PREF_CUSTOM_ID).trim();
         boolean useE2E = prefs.get(Constants.PREF_ENABLE_E2E);
         String e2ePass = !useE2E ? "" : prefs.get(Constants.PREF_E2E_PASSWORD);
+        List<Geofence> quietZones;
         
         String nickname = ((TextView) findViewById(R.id.txtNickname)).getText().toString().trim();
         
@@ -208,6 +217,14 @@ public final class MainActivity extends AppCompatActivity {
             return;
         }
 
+        try {
+            quietZones = Geofence.parseList(prefs.get(Constants.PREF_QUIET_ZONES));
+        } catch (IllegalArgumentException ex) {
+            Log.e("Illegal quiet zones value", ex); //NON-NLS
+            this.dialogSvc.showDialog(R.string.err_client, R.string.err_invalid_quiet_zones, this.uiResetTask);
+            return;
+        }
+
         if (nickname.isEmpty()) {
              Log.e("No nickname set!"); //NON-NLS
              // Consider keeping a generic "nickname required" string or a new one for solo shares.
@@ -223,7 +240,7 @@ public final class MainActivity extends AppCompatActivity {
             return;
         }
 
-        SessionInitiationPacket.InitParameters initParams = new SessionInitiationPacket.InitParameters(server, username, password, duration, interval, minDistance, customID, e2ePass);
+        SessionInitiationPacket.InitParameters initParams = new SessionInitiationPacket.InitParameters(server, username, password, duration, interval, maxInterval, minDistance, batchSize, batchInterval, customID, e2ePass, quietZones);
         new ProxyHostnameResolverImpl(this, this.manager, this.uiResetTask, prefs, new SessionInitiationResponseHandlerImpl(), initParams, mode, allowAdoption, nickname, groupPin).resolve();
     }
 
@@ -266,7 +283,7 @@ public final class MainActivity extends AppCompatActivity {
 
         this.uiResetTask = new ResetTask();
         this.uiStopTask = new StopSharingUICallback(this, this.uiResetTask);
-        this.shareCountdown = new TextViewCountdownRunner((TextView) findViewById(R.id.btnShare), getString(R.string.btn_stop));
+        this.shareCountdown = new TextViewCountdownRunner(this, (TextView) findViewById(R.id.btnShare), getString(R.string.btn_stop));
         this.dialogSvc = new DialogService(this);
 
         this.manager = new SessionManager(this, this.uiStopTask) {
@@ -280,6 +297,9 @@ public final class MainActivity extends AppCompatActivity {
         this.manager.attachShareListener(new ShareListenerImpl());
         this.manager.attachSessionListener(new SessionListenerImpl());
 
+        this.telemetryPanel = new TelemetryPanelUpdater(this, findViewById(R.id.layoutTelemetry), (TextView) findViewById(R.id.labelTelemetry));
+        this.manager.attachTelemetryListener(this.telemetryPanel);
+
         this.linkList = new ShareLinkLayoutManager(this, this.manager, (ViewGroup) findViewById(R.id.tableLinks), (TextView) findViewById(R.id.headerLinks));
     }
 
@@ -366,6 +386,7 @@ public final class MainActivity extends AppCompatActivity {
             // Removed: findViewById(R.id.btnAdopt).setOnClickListener(null);
 
             MainActivity.this.linkList.removeAll();
+            MainActivity.this.telemetryPanel.reset();
             Log.i("App state was reset"); //NON-NLS
         }
     }
@@ -1,37 +1,59 @@
 package info.varden.hauk.ui;
 
-import android.os.Handler;
-
+import androidx.annotation.NonNull;
 import androidx.annotation.UiThread;
-
-import java.util.Timer;
-import java.util.TimerTask;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
 
 /**
- * UI timer class that repeatedly runs a given task on the UI thread.
+ * UI timer class that repeatedly runs a given task on the UI thread. All executors are ticked by
+ * the shared {@link UITicker}, and are paused while the UI they belong to is not visible. When the
+ * UI becomes visible again, the task is ticked immediately, so implementations should derive what
+ * they display from the current time rather than from the number of ticks.
  *
  * @author Marius Lindvall
  */
-abstract class RepeatingUIThreadTaskExecutor {
+@UiThread
+abstract class RepeatingUIThreadTaskExecutor implements DefaultLifecycleObserver {
+    /**
+     * The lifecycle of the UI this executor belongs to.
+     */
+    private final Lifecycle lifecycle;
+
     /**
-     * Android handler for task posting.
+     * The task registered with the ticker.
      */
-    private final Handler handler;
+    private final Runnable task = new Runnable() {
+        @Override
+        public void run() {
+            onTick();
+        }
+    };
 
     /**
-     * Timer that repeatedly posts to the handler.
+     * Whether or not the executor has been started and not stopped.
      */
-    private Timer timer = null;
-    private long currentInterval; // Store interval for rescheduling
+    private boolean running = false;
+
+    /**
+     * The interval between each tick, in milliseconds.
+     */
+    private long interval;
 
     /**
      * Called from the UI thread on every tick of the timer.
      */
     protected abstract void onTick();
 
-    @UiThread
-    RepeatingUIThreadTaskExecutor() {
-        this.handler = new Handler();
+    /**
+     * Creates the executor.
+     *
+     * @param owner The owner of the UI this executor belongs to, e.g. an activity.
+     */
+    RepeatingUIThreadTaskExecutor(LifecycleOwner owner) {
+        this.lifecycle = owner.getLifecycle();
+        this.lifecycle.addObserver(this);
     }
 
     /**
@@ -42,66 +64,34 @@ abstract class RepeatingUIThreadTaskExecutor {
      */
     @SuppressWarnings("SameParameterValue") // to ensure future extensibility
     final void start(long delay, long interval) {
-        if (this.timer != null) { // Stop any existing timer first
-            this.timer.cancel();
-            this.timer.purge();
+        this.running = true;
+        this.interval = interval;
+        if (this.lifecycle.getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+            UITicker.getInstance().add(this.task, delay, interval);
         }
-        this.timer = new Timer();
-        this.currentInterval = interval; // Store the interval
-        this.timer.schedule(new RepeatingTask(this.currentInterval), delay); // Schedule first run
     }
 
     /**
      * Stops the timer and prevents it from ticking further.
      */
     final void stop() {
-        if (this.timer != null) {
-            this.timer.cancel();
-            this.timer.purge();
-            this.timer = null;
-        }
+        this.running = false;
+        UITicker.getInstance().remove(this.task);
     }
 
-    /**
-     * The timer task that is executed by the timer.
-     */
-    private final class RepeatingTask extends TimerTask {
-        private final long taskInterval;
-
-        RepeatingTask(long interval) {
-            this.taskInterval = interval;
-        }
-
-        @Override
-        public void run() {
-            // Post the task to be run on the UI thread
-            RepeatingUIThreadTaskExecutor.this.handler.post(new Task());
+    @Override
+    public final void onStart(@NonNull LifecycleOwner owner) {
+        if (this.running) UITicker.getInstance().add(this.task, 0L, this.interval);
+    }
 
-            // Reschedule if the timer hasn't been stopped
-            synchronized (RepeatingUIThreadTaskExecutor.this) {
-                if (RepeatingUIThreadTaskExecutor.this.timer != null) {
-                    try {
-                        RepeatingUIThreadTaskExecutor.this.timer.schedule(new RepeatingTask(this.taskInterval), this.taskInterval);
-                    } catch (IllegalStateException e) {
-                        // Timer was cancelled or purged concurrently, which is fine.
-                    }
-                }
-            }
-        }
+    @Override
+    public final void onStop(@NonNull LifecycleOwner owner) {
+        UITicker.getInstance().remove(this.task);
     }
 
-    /**
-     * The runnable that is executed by the {@link Handler}. Calls the tick function.
-     */
-    private final class Task implements Runnable {
-        @Override
-        public void run() {
-            // Only run if the timer is still active (not stopped)
-            // This check helps prevent onTick from running after stop() has been called,
-            // especially if there was a pending post in the Handler queue.
-            if (RepeatingUIThreadTaskExecutor.this.timer != null) {
-                onTick();
-            }
-        }
+    @Override
+    public final void onDestroy(@NonNull LifecycleOwner owner) {
+        stop();
+        this.lifecycle.removeObserver(this);
     }
 }
@@ -0,0 +1,51 @@
+package info.varden.hauk.ui;
+
+import android.content.Context;
+import android.view.View;
+import android.widget.TextView;
+
+import info.varden.hauk.R;
+import info.varden.hauk.manager.SessionTelemetry;
+import info.varden.hauk.manager.TelemetryListener;
+
+/**
+ * Implementation of {@link info.varden.hauk.manager.SessionManager}'s telemetry listener for
+ * {@link MainActivity}. Shows the performance metrics of the active session in the diagnostics
+ * panel.
+ */
+final class TelemetryPanelUpdater implements TelemetryListener {
+    /**
+     * Android application context.
+     */
+    private final Context ctx;
+
+    /**
+     * The panel that is shown while a session is active.
+     */
+    private final View panel;
+
+    /**
+     * The label to update with the session metrics.
+     */
+    private final TextView label;
+
+    TelemetryPanelUpdater(Context ctx, View panel, TextView label) {
+        this.ctx = ctx;
+        this.panel = panel;
+        this.label = label;
+    }
+
+    @Override
+    public void onTelemetryUpdated(SessionTelemetry.Snapshot telemetry) {
+        this.label.setText(telemetry.describe(this.ctx));
+        this.panel.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Hides the panel when sharing is stopped.
+     */
+    void reset() {
+        this.panel.setVisibility(View.GONE);
+        this.label.setText(R.string.telemetry_none);
+    }
+}
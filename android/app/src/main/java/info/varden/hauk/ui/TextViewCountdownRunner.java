@@ -1,8 +1,10 @@
 package info.varden.hauk.ui;
 
+import android.os.SystemClock;
 import android.widget.TextView;
 
 import androidx.annotation.UiThread;
+import androidx.lifecycle.LifecycleOwner;
 
 import info.varden.hauk.utils.TimeUtils;
 
@@ -24,12 +26,13 @@ public final class TextViewCountdownRunner extends RepeatingUIThreadTaskExecutor
     private final String formatString;
 
     /**
-     * Remaining seconds counter.
+     * The time at which the countdown ends, from {@link SystemClock#elapsedRealtime()}.
      */
-    private long counter;
+    private long endTime;
 
     @UiThread
-    public TextViewCountdownRunner(TextView view, String formatString) {
+    public TextViewCountdownRunner(LifecycleOwner owner, TextView view, String formatString) {
+        super(owner);
         this.view = view;
         this.formatString = formatString;
     }
@@ -40,15 +43,16 @@ public final class TextViewCountdownRunner extends RepeatingUIThreadTaskExecutor
      * @param duration The number of seconds to count down for.
      */
     public void start(long duration) {
-        this.counter = duration;
+        this.endTime = SystemClock.elapsedRealtime() + duration * TimeUtils.MILLIS_PER_SECOND;
         super.start(0L, TimeUtils.MILLIS_PER_SECOND);
     }
 
     @Override
     public void onTick() {
-        if (this.counter >= 0) {
-            this.view.setText(String.format(this.formatString, TimeUtils.secondsToTime(this.counter)));
+        // The remaining time is rounded up, so that the countdown starts at the full duration.
+        long remaining = (this.endTime - SystemClock.elapsedRealtime() + TimeUtils.MILLIS_PER_SECOND - 1) / TimeUtils.MILLIS_PER_SECOND;
+        if (remaining >= 0) {
+            this.view.setText(String.format(this.formatString, TimeUtils.secondsToTime(remaining)));
         }
-        this.counter--;
     }
 }
@@ -0,0 +1,127 @@
+package info.varden.hauk.ui;
+
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import androidx.annotation.UiThread;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A shared scheduler for periodic UI updates on the main thread. Instead of each repeating task
+ * running its own timer thread, all tasks are ticked from a single frame callback. Tasks with the
+ * same interval are aligned to the same multiples of that interval on the uptime clock, so that
+ * they are updated together in one frame, and the ticker does not wake up at all while no tasks
+ * are active.
+ */
+@UiThread
+final class UITicker implements Choreographer.FrameCallback {
+    private static UITicker instance = null;
+
+    /**
+     * Returns the ticker for the main thread.
+     */
+    static UITicker getInstance() {
+        if (instance == null) instance = new UITicker();
+        return instance;
+    }
+
+    private final Choreographer choreographer;
+
+    /**
+     * Tasks that are currently ticking.
+     */
+    private final List<Subscription> active = new ArrayList<>();
+
+    /**
+     * Whether or not a frame callback has been posted and not yet run.
+     */
+    private boolean scheduled = false;
+
+    /**
+     * The uptime at which the posted frame callback is due to run.
+     */
+    private long scheduledTime = Long.MAX_VALUE;
+
+    private UITicker() {
+        this.choreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * Starts ticking a task. If the task is already ticking, its schedule is reset.
+     *
+     * @param task     The task to tick.
+     * @param delay    The delay before the first tick, in milliseconds.
+     * @param interval The interval between each subsequent tick, in milliseconds.
+     */
+    void add(Runnable task, long delay, long interval) {
+        remove(task);
+        this.active.add(new Subscription(task, SystemClock.uptimeMillis() + delay, interval));
+        schedule();
+    }
+
+    /**
+     * Stops ticking a task.
+     *
+     * @param task The task to stop ticking.
+     */
+    void remove(Runnable task) {
+        for (int i = this.active.size() - 1; i >= 0; i--) {
+            if (this.active.get(i).task == task) this.active.remove(i);
+        }
+        // The posted callback is left in place if other tasks remain; it reschedules itself.
+        if (this.active.isEmpty() && this.scheduled) {
+            this.choreographer.removeFrameCallback(this);
+            this.scheduled = false;
+            this.scheduledTime = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Posts a frame callback for the earliest due task, unless an earlier one is already posted.
+     */
+    private void schedule() {
+        long next = Long.MAX_VALUE;
+        for (Subscription sub : this.active) next = Math.min(next, sub.due);
+        if (next == Long.MAX_VALUE) return;
+        if (this.scheduled && this.scheduledTime <= next) return;
+
+        if (this.scheduled) this.choreographer.removeFrameCallback(this);
+        this.choreographer.postFrameCallbackDelayed(this, Math.max(0L, next - SystemClock.uptimeMillis()));
+        this.scheduled = true;
+        this.scheduledTime = next;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        this.scheduled = false;
+        this.scheduledTime = Long.MAX_VALUE;
+        long now = SystemClock.uptimeMillis();
+
+        // Tasks may stop themselves while being ticked, so iterate over a copy.
+        for (Subscription sub : new ArrayList<>(this.active)) {
+            if (sub.due > now || !this.active.contains(sub)) continue;
+            // Align the next tick to the next multiple of the interval. This also skips any ticks
+            // that were missed, e.g. while the main thread was busy.
+            sub.due = (now / sub.interval + 1) * sub.interval;
+            sub.task.run();
+        }
+        schedule();
+    }
+
+    /**
+     * A task that is ticked by the ticker.
+     */
+    private static final class Subscription {
+        private final Runnable task;
+        private final long interval;
+        private long due;
+
+        private Subscription(Runnable task, long due, long interval) {
+            this.task = task;
+            this.due = due;
+            this.interval = interval;
+        }
+    }
+}
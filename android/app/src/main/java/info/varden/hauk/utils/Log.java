@@ -10,24 +10,93 @@ import info.varden.hauk.Constants;
 /**
  * Log wrapper to simplify logging in Hauk.
  *
+ * <p>Messages below {@link #MIN_LEVEL} are discarded before any formatting takes place, so that
+ * verbose logging in hot paths such as location updates and HTTP requests costs nothing in release
+ * builds. Callers that need to do work to build log arguments should check {@link #isVerbose()}
+ * first. The calling method is only looked up for messages that are logged; in release builds,
+ * those are the comparatively rare informational messages, warnings and errors.</p>
+ *
+ * <p>Structured diagnostic events are recorded separately from log messages using
+ * {@link #trace(TraceEvent, long, long, long)}, and can be exported by the user.</p>
+ *
  * @author Marius Lindvall
  */
 @SuppressWarnings({"unused", "ClassWithTooManyMethods", "OverloadedVarargsMethod"})
 public enum Log {
     ;
-    private static final int STACK_DEPTH = 4;
+    private static final String TAG = BuildConfig.APPLICATION_ID;
+
+    /**
+     * The index of the caller of a log function in the stack trace of {@link #getLogPrefix()}.
+     */
+    private static final int CALLER_DEPTH = 2;
+
+    /**
+     * The lowest priority that is logged. Verbose and debug messages are only logged in debug
+     * builds.
+     */
+    private static final int MIN_LEVEL = BuildConfig.DEBUG ? android.util.Log.VERBOSE : android.util.Log.INFO;
 
     /**
-     * Returns the timestamp and caller of the log function.
+     * Timestamp formatters for log messages. {@link SimpleDateFormat} is not thread safe, so each
+     * thread gets its own instance rather than creating one per message.
      */
-    private static String getLogPrefix() {
-        String timestamp = new SimpleDateFormat(Constants.DATE_FORMAT_LOG, Locale.US).format(new Date());
+    private static final ThreadLocal<SimpleDateFormat> timestampFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(Constants.DATE_FORMAT_LOG, Locale.US);
+        }
+    };
+
+    /**
+     * Returns whether or not messages of the given priority are logged.
+     *
+     * @param level The priority, as defined in {@link android.util.Log}.
+     */
+    private static boolean isLoggable(int level) {
+        return level >= MIN_LEVEL;
+    }
 
-        String caller = Thread.currentThread().getStackTrace()[STACK_DEPTH].toString();
+    /**
+     * Returns whether or not verbose messages are logged.
+     */
+    public static boolean isVerbose() {
+        return isLoggable(android.util.Log.VERBOSE);
+    }
+
+    /**
+     * Records a structured event in the diagnostic trace. Events are recorded regardless of the
+     * log level; see {@link TraceRecorder}.
+     *
+     * @param event The event to record.
+     */
+    public static void trace(TraceEvent event) {
+        TraceRecorder.record(event, 0L, 0L, 0L);
+    }
+
+    public static void trace(TraceEvent event, long a) {
+        TraceRecorder.record(event, a, 0L, 0L);
+    }
+
+    public static void trace(TraceEvent event, long a, long b) {
+        TraceRecorder.record(event, a, b, 0L);
+    }
+
+    public static void trace(TraceEvent event, long a, long b, long c) {
+        TraceRecorder.record(event, a, b, c);
+    }
+
+    /**
+     * Returns the timestamp of the log message, the name of the calling thread and the method that
+     * called the log function. Finding the calling method requires walking the stack, so this must
+     * only be called for messages that are actually logged, i.e. after the level check.
+     */
+    static String getLogPrefix() {
+        String caller = new Throwable().getStackTrace()[CALLER_DEPTH].toString();
         if (caller.startsWith(BuildConfig.APPLICATION_ID)) {
             caller = caller.substring(BuildConfig.APPLICATION_ID.length());
         }
-        return timestamp + ": " + caller + ": ";
+        return timestampFormat.get().format(new Date()) + " [" + Thread.currentThread().getName() + "] " + caller + ": ";
     }
 
     /**
@@ -44,98 +113,122 @@ public enum Log {
     }
 
     public static void e(String msg) {
-        android.util.Log.e(BuildConfig.APPLICATION_ID, getLogPrefix() + msg);
+        if (!isLoggable(android.util.Log.ERROR)) return;
+        android.util.Log.e(TAG, getLogPrefix() + msg);
     }
 
     public static void e(String msg, Object... args) {
-        android.util.Log.e(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)));
+        if (!isLoggable(android.util.Log.ERROR)) return;
+        android.util.Log.e(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)));
     }
 
     public static void e(String msg, Throwable tr) {
-        android.util.Log.e(BuildConfig.APPLICATION_ID, getLogPrefix() + msg, tr);
+        if (!isLoggable(android.util.Log.ERROR)) return;
+        android.util.Log.e(TAG, getLogPrefix() + msg, tr);
     }
 
     public static void e(String msg, Throwable tr, Object... args) {
-        android.util.Log.e(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
+        if (!isLoggable(android.util.Log.ERROR)) return;
+        android.util.Log.e(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
     }
 
     public static void w(String msg) {
-        android.util.Log.w(BuildConfig.APPLICATION_ID, getLogPrefix() + msg);
+        if (!isLoggable(android.util.Log.WARN)) return;
+        android.util.Log.w(TAG, getLogPrefix() + msg);
     }
 
     public static void w(String msg, Object... args) {
-        android.util.Log.w(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)));
+        if (!isLoggable(android.util.Log.WARN)) return;
+        android.util.Log.w(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)));
     }
 
     public static void w(String msg, Throwable tr) {
-        android.util.Log.w(BuildConfig.APPLICATION_ID, getLogPrefix() + msg, tr);
+        if (!isLoggable(android.util.Log.WARN)) return;
+        android.util.Log.w(TAG, getLogPrefix() + msg, tr);
     }
 
     public static void w(String msg, Throwable tr, Object... args) {
-        android.util.Log.w(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
+        if (!isLoggable(android.util.Log.WARN)) return;
+        android.util.Log.w(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
     }
 
     public static void i(String msg) {
-        android.util.Log.i(BuildConfig.APPLICATION_ID, getLogPrefix() + msg);
+        if (!isLoggable(android.util.Log.INFO)) return;
+        android.util.Log.i(TAG, getLogPrefix() + msg);
     }
 
     public static void i(String msg, Object... args) {
-        android.util.Log.i(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)));
+        if (!isLoggable(android.util.Log.INFO)) return;
+        android.util.Log.i(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)));
     }
 
     public static void i(String msg, Throwable tr) {
-        android.util.Log.i(BuildConfig.APPLICATION_ID, getLogPrefix() + msg, tr);
+        if (!isLoggable(android.util.Log.INFO)) return;
+        android.util.Log.i(TAG, getLogPrefix() + msg, tr);
     }
 
     public static void i(String msg, Throwable tr, Object... args) {
-        android.util.Log.i(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
+        if (!isLoggable(android.util.Log.INFO)) return;
+        android.util.Log.i(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
     }
 
     public static void v(String msg) {
-        android.util.Log.v(BuildConfig.APPLICATION_ID, getLogPrefix() + msg);
+        if (!isLoggable(android.util.Log.VERBOSE)) return;
+        android.util.Log.v(TAG, getLogPrefix() + msg);
     }
 
     public static void v(String msg, Object... args) {
-        android.util.Log.v(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)));
+        if (!isLoggable(android.util.Log.VERBOSE)) return;
+        android.util.Log.v(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)));
     }
 
     public static void v(String msg, Throwable tr) {
-        android.util.Log.v(BuildConfig.APPLICATION_ID, getLogPrefix() + msg, tr);
+        if (!isLoggable(android.util.Log.VERBOSE)) return;
+        android.util.Log.v(TAG, getLogPrefix() + msg, tr);
     }
 
     public static void v(String msg, Throwable tr, Object... args) {
-        android.util.Log.v(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
+        if (!isLoggable(android.util.Log.VERBOSE)) return;
+        android.util.Log.v(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
     }
 
     public static void d(String msg) {
-        android.util.Log.d(BuildConfig.APPLICATION_ID, getLogPrefix() + msg);
+        if (!isLoggable(android.util.Log.DEBUG)) return;
+        android.util.Log.d(TAG, getLogPrefix() + msg);
     }
 
     public static void d(String msg, Object... args) {
-        android.util.Log.d(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)));
+        if (!isLoggable(android.util.Log.DEBUG)) return;
+        android.util.Log.d(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)));
     }
 
     public static void d(String msg, Throwable tr) {
-        android.util.Log.v(BuildConfig.APPLICATION_ID, getLogPrefix() + msg, tr);
+        if (!isLoggable(android.util.Log.DEBUG)) return;
+        android.util.Log.d(TAG, getLogPrefix() + msg, tr);
     }
 
     public static void d(String msg, Throwable tr, Object... args) {
-        android.util.Log.d(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
+        if (!isLoggable(android.util.Log.DEBUG)) return;
+        android.util.Log.d(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
     }
 
     public static void wtf(String msg) {
-        android.util.Log.wtf(BuildConfig.APPLICATION_ID, getLogPrefix() + msg);
+        if (!isLoggable(android.util.Log.ASSERT)) return;
+        android.util.Log.wtf(TAG, getLogPrefix() + msg);
     }
 
     public static void wtf(String msg, Object... args) {
-        android.util.Log.wtf(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)));
+        if (!isLoggable(android.util.Log.ASSERT)) return;
+        android.util.Log.wtf(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)));
     }
 
     public static void wtf(String msg, Throwable tr) {
-        android.util.Log.wtf(BuildConfig.APPLICATION_ID, getLogPrefix() + msg, tr);
+        if (!isLoggable(android.util.Log.ASSERT)) return;
+        android.util.Log.wtf(TAG, getLogPrefix() + msg, tr);
     }
 
     public static void wtf(String msg, Throwable tr, Object... args) {
-        android.util.Log.wtf(BuildConfig.APPLICATION_ID, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
+        if (!isLoggable(android.util.Log.ASSERT)) return;
+        android.util.Log.wtf(TAG, getLogPrefix() + String.format(msg, argsToStrings(args)), tr);
     }
 }
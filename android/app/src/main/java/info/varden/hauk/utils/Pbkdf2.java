@@ -0,0 +1,98 @@
+package info.varden.hauk.utils;
+
+import androidx.annotation.Nullable;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CancellationException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An implementation of PBKDF2 with HMAC-SHA1 (RFC 8018) that reports its progress and can be
+ * cancelled. It produces the same output as the {@code PBKDF2WithHmacSHA1} secret key factory
+ * given the UTF-8 encoded password, but the key factory offers no way to observe or interrupt a
+ * derivation, which can take several seconds on older devices.
+ */
+public enum Pbkdf2 {
+    ;
+
+    @SuppressWarnings("HardCodedStringLiteral")
+    private static final String MAC_ALGORITHM = "HmacSHA1";
+
+    /**
+     * The number of iterations between each progress report and cancellation check. Must be a power
+     * of two.
+     */
+    private static final int PROGRESS_INTERVAL = 1024;
+
+    /**
+     * Derives a key from the given password and salt. The derivation is cancelled if the calling
+     * thread is interrupted.
+     *
+     * @param password   The password, encoded as UTF-8.
+     * @param salt       The salt.
+     * @param iterations The number of iterations.
+     * @param keyLength  The length of the derived key, in bytes.
+     * @param listener   A listener to report progress to, or null.
+     * @return The derived key.
+     * @throws GeneralSecurityException if HMAC-SHA1 is not available or the password is invalid.
+     * @throws CancellationException if the calling thread was interrupted during derivation.
+     */
+    public static byte[] deriveHmacSha1(byte[] password, byte[] salt, int iterations, int keyLength, @Nullable ProgressListener listener) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(password, MAC_ALGORITHM));
+        int hashLength = mac.getMacLength();
+        int blocks = (keyLength + hashLength - 1) / hashLength;
+        int total = blocks * iterations;
+        int done = 0;
+
+        byte[] key = new byte[keyLength];
+        byte[] u = new byte[hashLength];
+        byte[] t = new byte[hashLength];
+        byte[] blockIndex = new byte[4];
+
+        for (int block = 1; block <= blocks; block++) {
+            // U_1 = PRF(P, S || INT(i))
+            blockIndex[0] = (byte) (block >>> 24);
+            blockIndex[1] = (byte) (block >>> 16);
+            blockIndex[2] = (byte) (block >>> 8);
+            blockIndex[3] = (byte) block;
+            mac.update(salt);
+            mac.update(blockIndex);
+            mac.doFinal(u, 0);
+            System.arraycopy(u, 0, t, 0, hashLength);
+
+            // T_i = U_1 ^ U_2 ^ ... ^ U_c, where U_j = PRF(P, U_{j-1})
+            for (int i = 1; i < iterations; i++) {
+                mac.update(u);
+                mac.doFinal(u, 0);
+                for (int j = 0; j < hashLength; j++) t[j] ^= u[j];
+
+                if ((++done & (PROGRESS_INTERVAL - 1)) == 0) {
+                    if (Thread.currentThread().isInterrupted()) throw new CancellationException("Key derivation was cancelled");
+                    if (listener != null) listener.onProgress(done, total);
+                }
+            }
+            done++;
+
+            int offset = (block - 1) * hashLength;
+            System.arraycopy(t, 0, key, offset, Math.min(hashLength, keyLength - offset));
+        }
+        if (listener != null) listener.onProgress(total, total);
+        return key;
+    }
+
+    /**
+     * A listener that receives progress updates during key derivation.
+     */
+    public interface ProgressListener {
+        /**
+         * Called periodically during key derivation.
+         *
+         * @param done  The number of iterations completed so far.
+         * @param total The total number of iterations.
+         */
+        void onProgress(int done, int total);
+    }
+}
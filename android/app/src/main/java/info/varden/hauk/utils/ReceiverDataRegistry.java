@@ -1,8 +1,17 @@
 package info.varden.hauk.utils;
 
-import android.util.SparseArray;
+import android.os.SystemClock;
 
-import java.util.Random;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import info.varden.hauk.Constants;
 
 /**
  * Receiver classes and services are instantiated by Android itself, and we cannot pass arbitrary
@@ -13,32 +22,110 @@ import java.util.Random;
  * to retrieve the object itself from the registry, allowing transfers of complex objects to
  * receiver classes.
  *
+ * <p>The registry may be used from any thread. Indices are assigned sequentially, so they do not
+ * collide, and are always positive, so that -1 can be used as a missing value. There are two kinds
+ * of entries:</p>
+ * <ul>
+ *     <li>One-shot entries, created by {@link #register(Object)}, hold a strong reference to their
+ *     object and are removed when retrieved. If an entry is never retrieved, e.g. because the
+ *     service it was passed to was never started, it expires after
+ *     {@link Constants#RECEIVER_REGISTRY_TTL} and is counted as leaked.</li>
+ *     <li>Persistent entries, created by {@link #registerPersistent(Object)}, may be retrieved any
+ *     number of times, e.g. by notification buttons. They hold a weak reference to their object and
+ *     are removed once the object is no longer used elsewhere, so the caller must keep the object
+ *     strongly reachable for as long as the index may be used. Registering the same object
+ *     instance again returns the existing index; equal but distinct objects get separate
+ *     entries.</li>
+ * </ul>
+ *
  * @author Marius Lindvall
  */
 public enum ReceiverDataRegistry {
     ;
 
-    private static final SparseArray<Object> data = new SparseArray<>();
-    private static final Random random = new Random();
+    private static final Map<Integer, Entry> data = new ConcurrentHashMap<>();
+
+    /**
+     * Indices of persistent entries, keyed by the identity of their objects.
+     */
+    private static final Map<IdentityKey, Integer> persistent = new ConcurrentHashMap<>();
+    private static final AtomicInteger lastIndex = new AtomicInteger(0);
+
+    private static final AtomicLong expiredCount = new AtomicLong(0L);
+    private static final AtomicLong missCount = new AtomicLong(0L);
 
     /**
-     * Registers the given object in the registry.
+     * Registers the given object in the registry as a one-shot entry.
      *
      * @param obj The object to register.
      * @return An index which can be used to retrieve the object later using retrieve().
      */
     public static int register(Object obj) {
-        int index = random.nextInt();
-        data.put(index, obj);
+        return put(new Entry(obj, SystemClock.elapsedRealtime() + Constants.RECEIVER_REGISTRY_TTL));
+    }
+
+    /**
+     * Registers the given object in the registry as a persistent entry, or returns the index of the
+     * existing entry if the object is already registered as one.
+     *
+     * @param obj The object to register.
+     * @return An index which can be used to retrieve the object later using retrieve().
+     */
+    public static int registerPersistent(Object obj) {
+        synchronized (persistent) {
+            IdentityKey key = new IdentityKey(obj);
+            Integer existing = persistent.get(key);
+            // The entry may have been removed by a retrieval that did not keep it.
+            if (existing != null && data.containsKey(existing)) return existing;
+            // Replace the key object as well as the index, so that the mapping can be removed
+            // using the key held by the new entry once the object is collected.
+            persistent.remove(key);
+            int index = put(new Entry(key));
+            persistent.put(key, index);
+            return index;
+        }
+    }
+
+    /**
+     * Stores an entry under a new index, and removes expired and collected entries.
+     */
+    private static int put(Entry entry) {
+        sweep();
+        int index;
+        do {
+            // Skip zero and negative indices when the counter wraps around.
+            index = lastIndex.incrementAndGet() & Integer.MAX_VALUE;
+        } while (index == 0 || data.containsKey(index));
+        data.put(index, entry);
         return index;
     }
 
+    /**
+     * Removes one-shot entries that have expired and persistent entries whose objects have been
+     * garbage collected.
+     */
+    private static void sweep() {
+        long now = SystemClock.elapsedRealtime();
+        for (Iterator<Entry> it = data.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if (entry.isExpired(now)) {
+                it.remove();
+                expiredCount.incrementAndGet();
+                Log.w("Registry entry of type %s expired without being retrieved", entry.getTypeName()); //NON-NLS
+            } else if (entry.get() == null) {
+                it.remove();
+                if (entry.weak != null) persistent.remove(entry.weak);
+            }
+        }
+    }
+
     /**
      * Retrieves an object from the registry given its index and deletes the object.
      *
      * @param index The index obtained when registering the object using register().
-     * @return The object that was stored in the registry.
+     * @return The object that was stored in the registry, or null if there is no such object.
      */
+    @Nullable
     public static Object retrieve(int index) {
         return retrieve(index, false);
     }
@@ -48,11 +135,131 @@ public enum ReceiverDataRegistry {
      *
      * @param index The index obtained when registering the object using register().
      * @param keep  Whether or not to keep the object in the registry after retrieval.
-     * @return The object that was stored in the registry.
+     * @return The object that was stored in the registry, or null if there is no such object.
      */
+    @Nullable
     public static Object retrieve(int index, boolean keep) {
-        Object obj = data.get(index);
-        if (!keep) data.remove(index);
+        Entry entry = keep ? data.get(index) : data.remove(index);
+        Object obj = entry == null ? null : entry.get();
+        if (obj == null) {
+            missCount.incrementAndGet();
+            Log.w("No object is registered with index %s", index); //NON-NLS
+        }
         return obj;
     }
+
+    /**
+     * Retrieves an object of the given type from the registry given its index and deletes the
+     * object.
+     *
+     * @param index The index obtained when registering the object using register().
+     * @param type  The expected type of the object.
+     * @param <T>   The expected type of the object.
+     * @return The object that was stored in the registry, or null if there is no such object or it
+     *         is not of the expected type.
+     */
+    @Nullable
+    public static <T> T retrieve(int index, Class<T> type) {
+        Object obj = retrieve(index);
+        if (obj != null && !type.isInstance(obj)) {
+            Log.e("Object registered with index %s is of type %s, expected %s", index, obj.getClass().getName(), type.getName()); //NON-NLS
+            return null;
+        }
+        return type.cast(obj);
+    }
+
+    /**
+     * Returns the number of entries currently in the registry.
+     */
+    public static int size() {
+        return data.size();
+    }
+
+    /**
+     * Returns the number of one-shot entries that expired without being retrieved.
+     */
+    public static long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Returns the number of retrievals of indices that had no object registered.
+     */
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * An entry in the registry.
+     */
+    private static final class Entry {
+        @Nullable
+        private final Object strong;
+        @Nullable
+        private final IdentityKey weak;
+
+        /**
+         * The time at which the entry expires, from {@link SystemClock#elapsedRealtime()}, or 0 if
+         * the entry is persistent.
+         */
+        private final long expiry;
+
+        /**
+         * Creates a one-shot entry.
+         */
+        private Entry(Object obj, long expiry) {
+            this.strong = obj;
+            this.weak = null;
+            this.expiry = expiry;
+        }
+
+        /**
+         * Creates a persistent entry.
+         */
+        private Entry(IdentityKey key) {
+            this.strong = null;
+            this.weak = key;
+            this.expiry = 0L;
+        }
+
+        private boolean isExpired(long now) {
+            return this.expiry != 0L && now >= this.expiry;
+        }
+
+        @Nullable
+        private Object get() {
+            return this.weak != null ? this.weak.get() : this.strong;
+        }
+
+        private String getTypeName() {
+            Object obj = get();
+            return obj == null ? "null" : obj.getClass().getName(); //NON-NLS
+        }
+    }
+
+    /**
+     * A weak reference to an object that is equal to another key only if both refer to the same
+     * object instance. A key whose object has been collected is only equal to itself.
+     */
+    private static final class IdentityKey extends WeakReference<Object> {
+        private final int hash;
+
+        private IdentityKey(Object obj) {
+            super(obj);
+            this.hash = System.identityHashCode(obj);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof IdentityKey)) return false;
+            Object obj = get();
+            return obj != null && obj == ((IdentityKey) other).get();
+        }
+    }
 }
@@ -0,0 +1,163 @@
+package info.varden.hauk.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A bounded ring buffer of structured trace events. Events are stored in preallocated primitive
+ * arrays, so that recording an event does not allocate. When the buffer is full, the oldest events
+ * are overwritten.
+ *
+ * <p>Events are written to and read from trace segments. A segment starts with the wall clock time
+ * and monotonic time at which it was written, which allows the monotonic event timestamps to be
+ * converted to wall clock time as long as the device has not rebooted in between. This is followed
+ * by the number of events that were overwritten before the segment was written, the number of
+ * events in the segment, and the events themselves, oldest first. Each event consists of its
+ * monotonic timestamp in milliseconds, its event ID and {@link #FIELDS} numeric fields.</p>
+ */
+final class TraceBuffer {
+    /**
+     * The number of numeric fields stored for each event.
+     */
+    static final int FIELDS = 3;
+
+    private final long[] times;
+    private final int[] events;
+    private final long[] fields;
+
+    /**
+     * The index that the next event will be written to.
+     */
+    private int head = 0;
+
+    /**
+     * The number of events currently in the buffer.
+     */
+    private int size = 0;
+
+    /**
+     * The number of events that have been overwritten since the buffer was last drained.
+     */
+    private long overwritten = 0L;
+
+    TraceBuffer(int capacity) {
+        this.times = new long[capacity];
+        this.events = new int[capacity];
+        this.fields = new long[capacity * FIELDS];
+    }
+
+    /**
+     * Adds an event to the buffer, overwriting the oldest event if the buffer is full.
+     *
+     * @param time  The monotonic timestamp of the event, in milliseconds.
+     * @param event The ID of the event.
+     * @param a     The first field.
+     * @param b     The second field.
+     * @param c     The third field.
+     * @return The number of events in the buffer after adding the event.
+     */
+    synchronized int add(long time, int event, long a, long b, long c) {
+        int capacity = this.times.length;
+        this.times[this.head] = time;
+        this.events[this.head] = event;
+        this.fields[this.head * FIELDS] = a;
+        this.fields[this.head * FIELDS + 1] = b;
+        this.fields[this.head * FIELDS + 2] = c;
+        this.head = (this.head + 1) % capacity;
+        if (this.size < capacity) {
+            this.size++;
+        } else {
+            this.overwritten++;
+        }
+        return this.size;
+    }
+
+    /**
+     * Returns the number of events in the buffer.
+     */
+    synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the maximum number of events the buffer can hold.
+     */
+    int capacity() {
+        return this.times.length;
+    }
+
+    /**
+     * Writes all events in the buffer as a segment and empties the buffer.
+     *
+     * @param out           The stream to write to.
+     * @param wallTime      The current wall clock time, in milliseconds since the Unix epoch.
+     * @param monotonicTime The current monotonic time, in milliseconds.
+     * @return The number of events written.
+     * @throws IOException if writing fails. The buffer is emptied regardless.
+     */
+    synchronized int drainTo(DataOutput out, long wallTime, long monotonicTime) throws IOException {
+        int count = this.size;
+        int capacity = this.times.length;
+        int start = (this.head - count + capacity) % capacity;
+        long lost = this.overwritten;
+        this.size = 0;
+        this.overwritten = 0L;
+
+        out.writeLong(wallTime);
+        out.writeLong(monotonicTime);
+        out.writeLong(lost);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            int index = (start + i) % capacity;
+            out.writeLong(this.times[index]);
+            out.writeShort(this.events[index]);
+            for (int f = 0; f < FIELDS; f++) out.writeLong(this.fields[index * FIELDS + f]);
+        }
+        return count;
+    }
+
+    /**
+     * Reads a segment written by {@link #drainTo(DataOutput, long, long)} and passes its events to
+     * the given visitor.
+     *
+     * @param in      The stream to read from.
+     * @param visitor The visitor to pass the events to.
+     * @throws IOException if reading fails.
+     */
+    static void readSegment(DataInput in, Visitor visitor) throws IOException {
+        long wallTime = in.readLong();
+        long monotonicTime = in.readLong();
+        long lost = in.readLong();
+        int count = in.readInt();
+        visitor.onSegment(lost);
+        long[] values = new long[FIELDS];
+        for (int i = 0; i < count; i++) {
+            long time = in.readLong();
+            int event = in.readUnsignedShort();
+            for (int f = 0; f < FIELDS; f++) values[f] = in.readLong();
+            visitor.onEvent(wallTime + time - monotonicTime, event, values);
+        }
+    }
+
+    /**
+     * Receives events read from a trace segment.
+     */
+    interface Visitor {
+        /**
+         * Called at the start of each segment.
+         *
+         * @param lost The number of events that were overwritten before the segment was written.
+         */
+        void onSegment(long lost);
+
+        /**
+         * Called for each event in the segment.
+         *
+         * @param wallTime The wall clock time of the event, in milliseconds since the Unix epoch.
+         * @param event    The ID of the event.
+         * @param fields   The fields of the event. Only valid for the duration of the call.
+         */
+        void onEvent(long wallTime, int event, long[] fields);
+    }
+}
@@ -0,0 +1,120 @@
+package info.varden.hauk.utils;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Structured events recorded by the trace recorder for field diagnostics. Each event has a stable
+ * ID that is stored in trace files instead of its name, and up to {@link TraceBuffer#FIELDS}
+ * numeric fields whose meaning is given by the field names. IDs must never be reused, so that
+ * traces recorded by older versions can still be read.
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+public enum TraceEvent {
+    /**
+     * The location push service was started.
+     */
+    SERVICE_STARTED(1, "intervalMs", "maxIntervalMs"),
+
+    /**
+     * The location push service was stopped.
+     */
+    SERVICE_STOPPED(2, "queued"),
+
+    /**
+     * A location fix was received. The provider is the {@code prv} value sent to the backend.
+     * Accuracy and speed are -1 if not reported by the device.
+     */
+    FIX(3, "provider", "accuracyDm", "speedCms"),
+
+    /**
+     * A fine location fix was discarded because the device has not moved the minimum distance.
+     */
+    FIX_SKIPPED(4, "distanceDm"),
+
+    /**
+     * The fine location update interval was changed.
+     */
+    INTERVAL_CHANGED(5, "intervalMs"),
+
+    /**
+     * No fine location fix was received in time, so the coarse provider was bound again.
+     */
+    COARSE_FALLBACK(6),
+
+    /**
+     * A location update packet was sent to the backend.
+     */
+    UPLOAD_SENT(7, "points", "queued"),
+
+    /**
+     * A location update packet was accepted by the backend.
+     */
+    UPLOAD_OK(8, "points"),
+
+    /**
+     * A location update packet failed and will be retried.
+     */
+    UPLOAD_FAILED(9, "points"),
+
+    /**
+     * A location fix was discarded because it was predicted by the track simplifier.
+     */
+    FIX_PREDICTED(10, "errorDm"),
+
+    /**
+     * A location fix was discarded because it is further from the estimated position than the
+     * device could have travelled.
+     */
+    FIX_REJECTED(11, "distanceM"),
+
+    /**
+     * A session entered (1) or left (0) one of its quiet zones.
+     */
+    QUIET_ZONE(12, "quiet"),
+
+    /**
+     * The device entered (1) or left (0) an idle mode in which uploads are held back.
+     */
+    IDLE_CHANGED(13, "restricted"),
+
+    /**
+     * The default network changed between unmetered (0), metered (1) and constrained (2).
+     */
+    NETWORK_CHANGED(14, "link", "upKbps");
+
+    private final int id;
+    private final String[] fields;
+
+    TraceEvent(int id, String... fields) {
+        this.id = id;
+        this.fields = fields;
+    }
+
+    /**
+     * Returns the ID of the event, as stored in trace files.
+     */
+    int getID() {
+        return this.id;
+    }
+
+    /**
+     * Returns the names of the numeric fields of this event.
+     */
+    String[] getFieldNames() {
+        return this.fields.clone();
+    }
+
+    /**
+     * Resolves an event by its ID.
+     *
+     * @param id The ID of the event.
+     * @return The event, or null if there is no event with the given ID.
+     */
+    @Nullable
+    static TraceEvent fromID(int id) {
+        for (TraceEvent event : values()) {
+            if (event.id == id) return event;
+        }
+        return null;
+    }
+}
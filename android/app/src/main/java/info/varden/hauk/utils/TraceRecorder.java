@@ -0,0 +1,272 @@
+package info.varden.hauk.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import info.varden.hauk.BuildConfig;
+import info.varden.hauk.Constants;
+
+/**
+ * Records structured diagnostic events, such as location fixes, uploads and GNSS fallbacks, so that
+ * the last hours of activity can be exported by the user when reporting a problem. Unlike logcat,
+ * recording is always enabled and cheap: events are stored in a {@link TraceBuffer} of numeric
+ * fields, and are only converted to text when exported.
+ *
+ * <p>The buffer is periodically spilled to a compressed segment file by a background writer. Only
+ * the most recent {@link Constants#TRACE_MAX_SEGMENTS} segments are kept.</p>
+ */
+public enum TraceRecorder {
+    ;
+
+    private static final int MAGIC = 0x484B5452;
+    private static final int FORMAT_VERSION = 1;
+
+    @SuppressWarnings("HardCodedStringLiteral")
+    private static final String SEGMENT_SUFFIX = ".trace.gz";
+
+    private static final TraceBuffer buffer = new TraceBuffer(Constants.TRACE_BUFFER_SIZE);
+
+    /**
+     * The background writer that spills the buffer to disk and exports traces.
+     */
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Whether or not a spill has been scheduled and not yet run.
+     */
+    private static final AtomicBoolean spillScheduled = new AtomicBoolean(false);
+
+    /**
+     * Whether or not an immediate spill has been requested because the buffer is filling up.
+     */
+    private static final AtomicBoolean spillUrgent = new AtomicBoolean(false);
+
+    /**
+     * The directory segments are stored in, or null if the recorder has not been initialized.
+     */
+    private static volatile File directory = null;
+
+    private static final Runnable spillTask = new Runnable() {
+        @Override
+        public void run() {
+            spillScheduled.set(false);
+            spillUrgent.set(false);
+            spill();
+        }
+    };
+
+    /**
+     * Sets the directory that trace segments are stored in. Events recorded before this is called
+     * are kept in memory until the first spill.
+     *
+     * @param ctx Android application context.
+     */
+    public static void init(Context ctx) {
+        if (directory == null) directory = new File(ctx.getFilesDir(), Constants.TRACE_DIRECTORY);
+    }
+
+    /**
+     * Records an event. A spill is scheduled if one is not already pending, and is run right away
+     * if the buffer is about to overflow.
+     *
+     * @param event The event to record.
+     * @param a     The first field of the event.
+     * @param b     The second field of the event.
+     * @param c     The third field of the event.
+     */
+    static void record(TraceEvent event, long a, long b, long c) {
+        int size = buffer.add(SystemClock.elapsedRealtime(), event.getID(), a, b, c);
+        if (directory == null) return;
+
+        if (size >= buffer.capacity() * 3 / 4) {
+            if (spillUrgent.compareAndSet(false, true)) writer.execute(spillTask);
+        } else if (spillScheduled.compareAndSet(false, true)) {
+            writer.schedule(spillTask, Constants.TRACE_SPILL_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Spills all buffered events to disk in the background, e.g. when sharing is stopped.
+     */
+    public static void flush() {
+        if (directory != null) writer.execute(spillTask);
+    }
+
+    /**
+     * Writes the buffer to a new segment file and deletes the oldest segments if there are too
+     * many. Must be called on the writer thread.
+     */
+    private static void spill() {
+        File dir = directory;
+        if (dir == null || buffer.size() == 0) return;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e("Could not create trace directory"); //NON-NLS
+            return;
+        }
+
+        // The buffer is copied to memory first, so that recording is not blocked on disk I/O.
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(segment);
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            buffer.drainTo(out, System.currentTimeMillis(), SystemClock.elapsedRealtime());
+            out.flush();
+        } catch (IOException e) {
+            Log.e("Could not serialize trace buffer", e); //NON-NLS
+            return;
+        }
+
+        File file = new File(dir, System.currentTimeMillis() + SEGMENT_SUFFIX);
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            segment.writeTo(out);
+        } catch (IOException e) {
+            Log.e("Could not write trace segment %s", e, file); //NON-NLS
+            if (!file.delete()) Log.w("Could not delete incomplete trace segment %s", file); //NON-NLS
+        }
+
+        File[] segments = listSegments(dir);
+        for (int i = 0; i < segments.length - Constants.TRACE_MAX_SEGMENTS; i++) {
+            if (!segments[i].delete()) Log.w("Could not delete old trace segment %s", segments[i]); //NON-NLS
+        }
+    }
+
+    /**
+     * Returns all segment files in the given directory, oldest first.
+     */
+    private static File[] listSegments(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) return new File[0];
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Exports all recorded events as compressed text to the given document in the background.
+     *
+     * @param ctx      Android application context.
+     * @param uri      The document to export to, e.g. one created through the storage access
+     *                 framework.
+     * @param listener A listener that is called on the main thread when the export completes.
+     */
+    public static void export(final Context ctx, final Uri uri, final ExportListener listener) {
+        init(ctx);
+        final Handler main = new Handler(Looper.getMainLooper());
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                spill();
+                try (OutputStream out = ctx.getContentResolver().openOutputStream(uri)) {
+                    if (out == null) throw new IOException("Could not open " + uri);
+                    exportTo(out);
+                    main.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onExported();
+                        }
+                    });
+                } catch (final IOException e) {
+                    Log.e("Could not export trace", e); //NON-NLS
+                    main.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onExportFailed(e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes all spilled segments as gzip-compressed text, one event per line. Must be called on
+     * the writer thread.
+     */
+    @SuppressWarnings("HardCodedStringLiteral")
+    private static void exportTo(OutputStream stream) throws IOException {
+        final SimpleDateFormat format = new SimpleDateFormat(Constants.DATE_FORMAT_LOG, Locale.US);
+        final Writer out = new OutputStreamWriter(new GZIPOutputStream(stream), StandardCharsets.UTF_8);
+        out.write("# Hauk " + BuildConfig.VERSION_NAME + " trace exported " + format.format(new Date()) + "\n");
+
+        final StringBuilder line = new StringBuilder();
+        TraceBuffer.Visitor visitor = new TraceBuffer.Visitor() {
+            @Override
+            public void onSegment(long lost) {
+                if (lost > 0) line.append("# ").append(lost).append(" events lost\n");
+            }
+
+            @Override
+            public void onEvent(long wallTime, int id, long[] fields) {
+                TraceEvent event = TraceEvent.fromID(id);
+                line.append(format.format(new Date(wallTime))).append(' ');
+                if (event == null) {
+                    line.append("UNKNOWN_").append(id);
+                    for (long field : fields) line.append(' ').append(field);
+                } else {
+                    line.append(event.name());
+                    String[] names = event.getFieldNames();
+                    for (int i = 0; i < names.length; i++) line.append(' ').append(names[i]).append('=').append(fields[i]);
+                }
+                line.append('\n');
+            }
+        };
+
+        File dir = directory;
+        for (File file : listSegments(dir)) {
+            if (!file.getName().endsWith(SEGMENT_SUFFIX)) continue;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+                if (in.readInt() != MAGIC || in.readUnsignedByte() != FORMAT_VERSION) {
+                    out.write("# Skipped unsupported segment " + file.getName() + "\n");
+                    continue;
+                }
+                TraceBuffer.readSegment(in, visitor);
+            } catch (IOException e) {
+                line.append("# Skipped unreadable segment ").append(file.getName()).append('\n');
+            }
+            out.append(line);
+            line.setLength(0);
+        }
+        out.flush();
+        out.close();
+    }
+
+    /**
+     * Receives the result of a trace export.
+     */
+    public interface ExportListener {
+        void onExported();
+        void onExportFailed(Exception ex);
+    }
+}
@@ -0,0 +1,233 @@
+package info.varden.hauk.caching;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.ConnectionParameters;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.struct.Geofence;
+import info.varden.hauk.struct.KeyDerivable;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.struct.ShareMode;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.system.security.EncryptedData;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class ResumptionJournalTest {
+
+    private static final byte[] SALT = {1, 2, 3, 4};
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.file = File.createTempFile("resumption", ".journal");
+        assertThat("Temporary file not deleted", this.file.delete(), is(true));
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        this.file.delete();
+    }
+
+    private static Session session(String id, List<Geofence> quietZones) {
+        ConnectionParameters params = new ConnectionParameters(null, null, 10000, CertificateValidationPolicy.VALIDATE_ALL);
+        return new Session("https://example.com/", params, new Version("1.8"), id, Long.MAX_VALUE, 1, 60, 0.0F, 1, 0, new KeyDerivable("password", SALT), quietZones);
+    }
+
+    private static Share share(Session session, String id) {
+        return new Share(session, "https://example.com/?" + id, id, ShareMode.CREATE_ALONE);
+    }
+
+    private static List<String> sessionIDs(ResumptionJournal journal) {
+        List<String> ids = new ArrayList<>();
+        for (Session session : journal.getSessions()) ids.add(session.getID());
+        return ids;
+    }
+
+    private static List<String> shareIDs(ResumptionJournal journal, String sessionID) {
+        List<String> ids = new ArrayList<>();
+        for (Share share : journal.getShares(sessionID)) ids.add(share.getID());
+        return ids;
+    }
+
+    @Test
+    public void roundTrip() {
+        Session session = session("sid", Collections.singletonList(new Geofence(60.0D, 10.0D, 100.0F)));
+        ResumptionJournal journal = new ResumptionJournal(this.file);
+        journal.setSession(session);
+        journal.addShare(share(session, "a"));
+        journal.addShare(share(session, "b"));
+        journal.removeShare("sid", "a");
+        journal.setWrappedKey("sid", SALT, new EncryptedData(new byte[] {5, 6}, new byte[] {7, 8, 9}));
+
+        ResumptionJournal read = new ResumptionJournal(this.file);
+        assertThat("Session not read", sessionIDs(read), is(Collections.singletonList("sid")));
+        Session readSession = read.getSessions().get(0);
+        assertThat("Quiet zones changed", readSession.getQuietZones().size(), is(1));
+        assertThat("Password written to journal", readSession.getDerivableE2EKey().isUsable(), is(false));
+        assertThat("Shares changed", shareIDs(read, "sid"), is(Collections.singletonList("b")));
+
+        EncryptedData key = read.getWrappedKey("sid", SALT);
+        assertThat("Key not read", key, is(notNullValue()));
+        assertThat("Key IV changed", key.getIV()[1], is((byte) 6));
+        assertThat("Key message changed", key.getMessage().length, is(3));
+        assertThat("Key returned for other session", read.getWrappedKey("other", SALT), is(nullValue()));
+        assertThat("Key returned for other salt", read.getWrappedKey("sid", new byte[] {4, 3, 2, 1}), is(nullValue()));
+    }
+
+    @Test
+    public void multipleSessions() {
+        Session first = session("first", null);
+        Session second = session("second", null);
+        ResumptionJournal journal = new ResumptionJournal(this.file);
+        journal.setSession(first);
+        journal.addShare(share(first, "a"));
+        journal.setWrappedKey("first", SALT, new EncryptedData(new byte[] {1}, new byte[] {2}));
+        journal.setSession(second);
+        journal.addShare(share(second, "b"));
+        journal.setSession(session("first", null));
+
+        ResumptionJournal read = new ResumptionJournal(this.file);
+        assertThat("Sessions not kept apart", sessionIDs(read), is(Arrays.asList("first", "second")));
+        assertThat("Shares of first session changed", shareIDs(read, "first"), is(Collections.singletonList("a")));
+        assertThat("Shares of second session changed", shareIDs(read, "second"), is(Collections.singletonList("b")));
+        assertThat("Key of first session lost", read.getWrappedKey("first", SALT), is(notNullValue()));
+        assertThat("Key returned for second session", read.getWrappedKey("second", SALT), is(nullValue()));
+    }
+
+    @Test
+    public void removeSession() {
+        Session first = session("first", null);
+        Session second = session("second", null);
+        ResumptionJournal journal = new ResumptionJournal(this.file);
+        journal.setSession(first);
+        journal.addShare(share(first, "a"));
+        journal.setWrappedKey("first", SALT, new EncryptedData(new byte[] {1}, new byte[] {2}));
+        journal.setSession(second);
+        journal.addShare(share(second, "b"));
+        journal.removeSession("first");
+
+        ResumptionJournal read = new ResumptionJournal(this.file);
+        assertThat("Removed session kept", sessionIDs(read), is(Collections.singletonList("second")));
+        assertThat("Shares of removed session kept", read.getShares("first").isEmpty(), is(true));
+        assertThat("Key of removed session kept", read.getWrappedKey("first", SALT), is(nullValue()));
+        assertThat("Shares of other session lost", shareIDs(read, "second"), is(Collections.singletonList("b")));
+
+        read.removeSession("second");
+        assertThat("Empty journal not deleted", this.file.exists(), is(false));
+    }
+
+    @Test
+    public void truncatedRecord() throws IOException {
+        Session session = session("sid", null);
+        ResumptionJournal journal = new ResumptionJournal(this.file);
+        journal.setSession(session);
+        journal.addShare(share(session, "a"));
+        journal.addShare(share(session, "b"));
+
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        ResumptionJournal read = new ResumptionJournal(this.file);
+        assertThat("Records before truncated record lost", sessionIDs(read), is(Collections.singletonList("sid")));
+        assertThat("Truncated record not discarded", shareIDs(read, "sid"), is(Collections.singletonList("a")));
+
+        // The journal is compacted when loaded, so new records are not written after the garbage.
+        read.addShare(share(read.getSessions().get(0), "c"));
+        assertThat("Record after truncation lost", shareIDs(new ResumptionJournal(this.file), "sid"), is(Arrays.asList("a", "c")));
+    }
+
+    @Test
+    public void checksumMismatch() throws IOException {
+        Session session = session("sid", null);
+        ResumptionJournal journal = new ResumptionJournal(this.file);
+        journal.setSession(session);
+        journal.addShare(share(session, "a"));
+        journal.addShare(share(session, "b"));
+
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            // The last four bytes are the checksum; corrupt the payload in front of it.
+            raf.seek(raf.length() - 6);
+            int b = raf.read();
+            raf.seek(raf.length() - 6);
+            raf.write(b ^ 0xFF);
+        }
+
+        ResumptionJournal read = new ResumptionJournal(this.file);
+        assertThat("Records before corrupt record lost", sessionIDs(read), is(Collections.singletonList("sid")));
+        assertThat("Corrupt record not discarded", shareIDs(read, "sid"), is(Collections.singletonList("a")));
+    }
+
+    @Test
+    public void compaction() {
+        Session session = session("sid", null);
+        ResumptionJournal journal = new ResumptionJournal(this.file);
+        journal.setSession(session);
+        long sessionLength = this.file.length();
+        journal.addShare(share(session, "x"));
+        long recordLength = this.file.length() - sessionLength;
+        journal.removeShare("sid", "x");
+
+        for (int i = 0; i < 10 * Constants.RESUME_JOURNAL_COMPACT_THRESHOLD; i++) {
+            journal.addShare(share(session, "x"));
+            journal.removeShare("sid", "x");
+        }
+        journal.addShare(share(session, "y"));
+
+        assertThat("Journal not compacted", this.file.length() <= sessionLength + (Constants.RESUME_JOURNAL_COMPACT_THRESHOLD + 1) * recordLength, is(true));
+        ResumptionJournal read = new ResumptionJournal(this.file);
+        assertThat("Session lost by compaction", sessionIDs(read), is(Collections.singletonList("sid")));
+        assertThat("Shares changed by compaction", shareIDs(read, "sid"), is(Collections.singletonList("y")));
+    }
+
+    @Test
+    public void legacyMigration() throws IOException, ClassNotFoundException {
+        // Older versions stored resumption data as Java-serialized objects, which leaves fields
+        // added since then unset.
+        List<Share> legacyShares = new ArrayList<>();
+        legacyShares.add(share(session("sid", null), "a"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(session("sid", null));
+            out.writeObject(legacyShares);
+        }
+        Session legacySession;
+        List<Share> shares;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            legacySession = (Session) in.readObject();
+            //noinspection unchecked
+            shares = (List<Share>) in.readObject();
+        }
+
+        ResumptionJournal journal = new ResumptionJournal(this.file);
+        journal.importLegacy(legacySession, shares);
+        assertThat("Migrated key not usable in this process", journal.getSessions().get(0).getDerivableE2EKey().isUsable(), is(true));
+
+        ResumptionJournal read = new ResumptionJournal(this.file);
+        assertThat("Session not migrated", sessionIDs(read), is(Collections.singletonList("sid")));
+        assertThat("Shares not migrated", shareIDs(read, "sid"), is(Collections.singletonList("a")));
+
+        read.importLegacy(session("sid", null), Collections.singletonList(share(session("sid", null), "b")));
+        assertThat("Legacy data replaced journaled session", shareIDs(read, "sid"), is(Collections.singletonList("a")));
+    }
+}
@@ -0,0 +1,76 @@
+package info.varden.hauk.http;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.struct.LocationPoint;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class BinaryLocationEncoderTest {
+
+    private static final LocationPoint FIRST = new LocationPoint(59.9138688D, 10.7522454D, 1600000000500L, LocationProvider.FINE, null, 4.5F);
+    private static final LocationPoint SECOND = new LocationPoint(59.9138663D, 10.7522554D, 1600000001500L, LocationProvider.COARSE, 1.5F, null);
+
+    private static byte[] bytes(int... values) {
+        byte[] out = new byte[values.length];
+        for (int i = 0; i < values.length; i++) out[i] = (byte) values[i];
+        return out;
+    }
+
+    @Test
+    public void singlePoint() {
+        byte[] expected = bytes(
+                0x01, 0x02, 0x00, 0xFF, 0x01, 0x5F, 0x5E, 0x10, 0x00,
+                0x02, 0xE8, 0x07, 0x23, 0xB6, 0x21, 0x80, 0x06, 0x68, 0xA9, 0x96, 0x00, 0x2D
+        );
+        assertThat("Single point improperly encoded", BinaryLocationEncoder.encode("00ff", Collections.singletonList(FIRST)), is(expected));
+    }
+
+    @Test
+    public void deltas() {
+        byte[] encoded = BinaryLocationEncoder.encode("00ff", Arrays.asList(FIRST, SECOND));
+        byte[] expected = bytes(0x05, 0xD0, 0x0F, 0x31, 0xC8, 0x01, 0x00, 0x96);
+        assertThat("Point count improperly encoded", encoded[4], is((byte) 2));
+        assertThat("Second point improperly delta encoded", Arrays.copyOfRange(encoded, encoded.length - expected.length, encoded.length), is(expected));
+    }
+
+    @Test
+    public void antimeridian() {
+        LocationPoint east = new LocationPoint(0.0D, 179.9D, 1600000000000L, LocationProvider.FINE, null, null);
+        LocationPoint west = new LocationPoint(0.0D, -179.9D, 1600000000000L, LocationProvider.FINE, null, null);
+        byte[] encoded = BinaryLocationEncoder.encode("00ff", Arrays.asList(east, west));
+        // Flags, time delta, latitude delta, and a longitude delta of -3598000000 units.
+        byte[] expected = bytes(0x00, 0x00, 0x00, 0xFF, 0xFD, 0xA8, 0xE7, 0x1A);
+        assertThat("Longitude delta across antimeridian improperly encoded", Arrays.copyOfRange(encoded, encoded.length - expected.length, encoded.length), is(expected));
+    }
+
+    private static byte[] encodeAccuracy(float accuracy) {
+        LocationPoint point = new LocationPoint(59.9138688D, 10.7522454D, 1600000000500L, LocationProvider.COARSE, null, accuracy);
+        byte[] encoded = BinaryLocationEncoder.encode("00ff", Collections.singletonList(point));
+        // The flags of the point, followed by the accuracy field at the end of the body.
+        return new byte[] {encoded[9], encoded[encoded.length - 2], encoded[encoded.length - 1]};
+    }
+
+    @Test
+    public void accuracyBoundary() {
+        int flags = BinaryLocationEncoder.FLAG_COARSE | BinaryLocationEncoder.FLAG_ACCURACY;
+        int wideFlags = flags | BinaryLocationEncoder.FLAG_ACCURACY_METERS;
+        assertThat("Largest decimeter accuracy improperly encoded", encodeAccuracy(6553.5F), is(bytes(flags, 0xFF, 0xFF)));
+        assertThat("Accuracy above decimeter range not stored in meters", encodeAccuracy(6553.6F), is(bytes(wideFlags, 0x19, 0x9A)));
+        assertThat("Large accuracy improperly encoded", encodeAccuracy(20000.0F), is(bytes(wideFlags, 0x4E, 0x20)));
+        assertThat("Accuracy above meter range not clamped", encodeAccuracy(100000.0F), is(bytes(wideFlags, 0xFF, 0xFF)));
+    }
+
+    @Test
+    public void sessionID() {
+        assertThat("Hexadecimal session ID rejected", BinaryLocationEncoder.canEncode("0123456789abcdefABCDEF"), is(true));
+        assertThat("Odd-length session ID accepted", BinaryLocationEncoder.canEncode("abc"), is(false));
+        assertThat("Non-hexadecimal session ID accepted", BinaryLocationEncoder.canEncode("session"), is(false));
+        assertThat("Empty session ID accepted", BinaryLocationEncoder.canEncode(""), is(false));
+    }
+}
@@ -0,0 +1,126 @@
+package info.varden.hauk.http;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.struct.Geofence;
+import info.varden.hauk.struct.LocationPoint;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Version;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class ConnectionThreadTest {
+
+    private static final Context CTX = new ContextWrapper(null);
+    private static final ConnectionParameters PARAMS = new ConnectionParameters(null, null, 10000, CertificateValidationPolicy.VALIDATE_ALL);
+
+    private FakeBackend backend;
+
+    @After
+    public void stop() {
+        if (this.backend != null) this.backend.close();
+    }
+
+    private static ConnectionThread.Response perform(ConnectionThread.Request request) {
+        return new ConnectionThread(new ConnectionThread.Callback() {
+            @Override
+            public void run(ConnectionThread.Response resp) {
+            }
+        }).performRequest(request);
+    }
+
+    /**
+     * Starts a backend of the given version and creates a session on it through the client.
+     */
+    private Session createSession(String version) throws IOException {
+        this.backend = new FakeBackend(version, 1L);
+        Map<String, String> data = new HashMap<>();
+        data.put(Constants.PACKET_PARAM_DURATION, "3600");
+        data.put(Constants.PACKET_PARAM_INTERVAL, "1");
+        data.put(Constants.PACKET_PARAM_SHARE_MODE, "0");
+        data.put(Constants.PACKET_PARAM_E2E_FLAG, "0");
+        ConnectionThread.Response resp = perform(new ConnectionThread.Request(CTX, this.backend.getBaseURL() + FakeBackend.PATH_CREATE, data, null, null, false, PARAMS, null, false));
+        assertThat("Session not created", resp.getData()[0], is(Constants.PACKET_RESPONSE_OK));
+        return new Session(this.backend.getBaseURL(), PARAMS, new Version(version), resp.getData()[1], Long.MAX_VALUE, 1, 60, 0.0F, 1, 0, null, Collections.<Geofence>emptyList());
+    }
+
+    private static List<LocationPoint> points(int count) {
+        List<LocationPoint> points = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            points.add(new LocationPoint(59.9138688D + i * 0.0001D, 10.7522454D - i * 0.0001D, 1600000000500L + i * 1000L, LocationProvider.FINE, 1.25F, 4.5F));
+        }
+        return points;
+    }
+
+    /**
+     * Sends a batch of location points the way an uploader does, and checks that they arrive.
+     */
+    private void send(Session session, List<LocationPoint> points, boolean compress) {
+        BatchLocationUpdatePacket packet = new BatchLocationUpdatePacket(CTX, session, points, compress) {
+            @Override
+            protected void onShareListReceived(String linkFormat, String[] shares) {
+            }
+
+            @Override
+            protected void onFailure(Exception ex) {
+            }
+        };
+        this.backend.resetStatistics();
+        ConnectionThread.Response resp = perform(packet.toRequest());
+        assertThat("Request failed", resp.getEx(), is(nullValue()));
+        assertThat("Update rejected", resp.getData()[0], is(Constants.PACKET_RESPONSE_OK));
+        assertThat("Sent bytes not counted", resp.getBytesSent(), is(this.backend.getBytesReceived()));
+        assertThat("Points not stored", this.backend.getPoints(session.getID()).size(), is(points.size()));
+    }
+
+    @Test
+    public void compressed() throws IOException {
+        Session session = createSession(FakeBackend.DEFAULT_VERSION);
+        List<LocationPoint> points = points(Constants.LOCATION_BATCH_MAX_POINTS);
+        assertThat("Body too small for the test", BinaryLocationEncoder.encode(session.getID(), points).length >= Constants.HTTP_GZIP_MIN_SIZE, is(true));
+
+        send(session, points, true);
+        assertThat("Body not sent with gzip content encoding", this.backend.getCompressedCount(), is(1));
+    }
+
+    @Test
+    public void notRequested() throws IOException {
+        Session session = createSession(FakeBackend.DEFAULT_VERSION);
+        send(session, points(Constants.LOCATION_BATCH_MAX_POINTS), false);
+        assertThat("Body compressed without being requested", this.backend.getCompressedCount(), is(0));
+    }
+
+    @Test
+    public void belowThreshold() throws IOException {
+        Session session = createSession(FakeBackend.DEFAULT_VERSION);
+        List<LocationPoint> points = points(1);
+        assertThat("Body too large for the test", BinaryLocationEncoder.encode(session.getID(), points).length < Constants.HTTP_GZIP_MIN_SIZE, is(true));
+
+        send(session, points, true);
+        assertThat("Small body compressed", this.backend.getCompressedCount(), is(0));
+    }
+
+    @Test
+    public void unsupportedBackend() throws IOException {
+        Session session = createSession("1.7");
+        assertThat("Backend version used for the test supports compression", session.getBackendVersion().isAtLeast(Constants.VERSION_COMPAT_GZIP_POST), is(false));
+
+        send(session, points(Constants.LOCATION_BATCH_MAX_POINTS), true);
+        assertThat("Body compressed for a backend that does not support it", this.backend.getCompressedCount(), is(0));
+    }
+}
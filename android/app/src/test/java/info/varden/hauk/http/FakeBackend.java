@@ -0,0 +1,996 @@
+package info.varden.hauk.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import info.varden.hauk.Constants;
+
+/**
+ * An in-process stand-in for the PHP backend, for integration and load testing of the client
+ * without a real PHP and memcached deployment. It implements the session creation, location
+ * posting, fetching, adoption, link creation and session termination endpoints with the same
+ * line-based responses and {@code X-Hauk-Version} header as the real backend, and keeps all state
+ * in memory.
+ *
+ * <p>Latency, packet loss and server errors can be injected to test how the client copes with
+ * poor connections. All requests are counted per endpoint together with the number of bytes
+ * transferred, so that tests can assert on the network cost of client behavior.</p>
+ */
+public final class FakeBackend implements Closeable {
+    /**
+     * The backend version reported by default, matching the current PHP backend.
+     */
+    public static final String DEFAULT_VERSION = "1.8";
+
+    // Paths of the endpoints implemented by this backend.
+    public static final String PATH_CREATE = "api/create";
+    public static final String PATH_CREATE_PHP = "api/create.php";
+    public static final String PATH_POST = "api/post.php";
+    public static final String PATH_FETCH = "api/fetch.php";
+    public static final String PATH_ADOPT = "api/adopt.php";
+    public static final String PATH_NEW_LINK = "api/new-link.php";
+    public static final String PATH_STOP = "api/stop.php";
+
+    // Error messages, matching the English language file of the PHP backend.
+    private static final String ERR_INCORRECT_PASSWORD = "Incorrect password!";
+    private static final String ERR_SESSION_EXPIRED = "Session expired!";
+    private static final String ERR_SESSION_INVALID = "Invalid session!";
+    private static final String ERR_GROUP_PIN_INVALID = "Invalid group PIN!";
+    private static final String ERR_SHARE_NOT_FOUND = "The given share does not exist!";
+    private static final String ERR_ADOPTION_NOT_ALLOWED = "The host of the given share does not permit adoption!";
+    private static final String ERR_MISSING_DATA = "Missing data!";
+    private static final String ERR_SHARE_MODE_UNSUPPORTED = "Unsupported share mode!";
+
+    // Share types and modes, matching the PHP backend.
+    private static final int SHARE_TYPE_ALONE = 0;
+    private static final int SHARE_TYPE_GROUP = 1;
+    private static final int SHARE_MODE_CREATE_ALONE = 0;
+    private static final int SHARE_MODE_CREATE_GROUP = 1;
+    private static final int SHARE_MODE_JOIN_GROUP = 2;
+
+    private static final String CONTENT_TYPE_JSON = "application/json";
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_INTERNAL_ERROR = 500;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String version;
+
+    /**
+     * Random number generator for IDs and fault injection. Seeded so that test runs are
+     * reproducible.
+     */
+    private final Random random;
+
+    // State of the backend.
+    private final Map<String, Client> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Share> shares = new ConcurrentHashMap<>();
+    private final Map<String, Share> groupPins = new ConcurrentHashMap<>();
+    private volatile String password = null;
+
+    // Injected faults.
+    private volatile long minLatency = 0L;
+    private volatile long maxLatency = 0L;
+    private volatile double lossRate = 0.0D;
+    private volatile double errorRate = 0.0D;
+
+    // Statistics.
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger compressed = new AtomicInteger();
+
+    /**
+     * Starts a backend reporting {@link #DEFAULT_VERSION} on a random loopback port.
+     *
+     * @param seed The seed for ID generation and fault injection.
+     * @throws IOException if the server could not be started.
+     */
+    public FakeBackend(long seed) throws IOException {
+        this(DEFAULT_VERSION, seed);
+    }
+
+    /**
+     * Starts a backend on a random loopback port.
+     *
+     * @param version The backend version to report in the {@code X-Hauk-Version} header.
+     * @param seed    The seed for ID generation and fault injection.
+     * @throws IOException if the server could not be started.
+     */
+    public FakeBackend(String version, long seed) throws IOException {
+        this.version = version;
+        this.random = new Random(seed);
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", new Dispatcher());
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Returns the base URL of the backend, including trailing slash, as entered in the app.
+     */
+    public String getBaseURL() {
+        return "http://" + this.server.getAddress().getHostString() + ":" + this.server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Requires clients to authenticate with the given password when creating sessions.
+     *
+     * @param password The password, or null to accept any password.
+     */
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    /**
+     * Delays every response by a random duration in the given range.
+     *
+     * @param minMillis The minimum delay, in milliseconds.
+     * @param maxMillis The maximum delay, in milliseconds.
+     */
+    public void setLatency(long minMillis, long maxMillis) {
+        this.minLatency = minMillis;
+        this.maxLatency = Math.max(minMillis, maxMillis);
+    }
+
+    /**
+     * Drops the given fraction of requests by closing the connection without a response. Dropped
+     * requests are not processed.
+     *
+     * @param rate The fraction of requests to drop, between 0 and 1.
+     */
+    public void setLossRate(double rate) {
+        this.lossRate = rate;
+    }
+
+    /**
+     * Answers the given fraction of requests with an HTTP 500 error. Failed requests are not
+     * processed.
+     *
+     * @param rate The fraction of requests to fail, between 0 and 1.
+     */
+    public void setErrorRate(double rate) {
+        this.errorRate = rate;
+    }
+
+    /**
+     * Returns the number of requests received for the given endpoint, including dropped and
+     * failed requests.
+     *
+     * @param path The path of the endpoint, e.g. {@link #PATH_POST}.
+     */
+    public int getRequestCount(String path) {
+        AtomicInteger count = this.requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Returns the total number of requests received for all endpoints.
+     */
+    public int getTotalRequestCount() {
+        int total = 0;
+        for (AtomicInteger count : this.requestCounts.values()) total += count.get();
+        return total;
+    }
+
+    /**
+     * Returns the total size of all request bodies received, in bytes.
+     */
+    public long getBytesReceived() {
+        return this.bytesReceived.get();
+    }
+
+    /**
+     * Returns the total size of all response bodies sent, in bytes.
+     */
+    public long getBytesSent() {
+        return this.bytesSent.get();
+    }
+
+    /**
+     * Returns the number of requests dropped by injected packet loss.
+     */
+    public int getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Returns the number of requests answered with an injected server error.
+     */
+    public int getFailedCount() {
+        return this.failed.get();
+    }
+
+    /**
+     * Returns the number of requests received with a gzip-compressed body.
+     */
+    public int getCompressedCount() {
+        return this.compressed.get();
+    }
+
+    /**
+     * Resets all request and traffic counters. Backend state is kept.
+     */
+    public void resetStatistics() {
+        this.requestCounts.clear();
+        this.bytesReceived.set(0L);
+        this.bytesSent.set(0L);
+        this.dropped.set(0);
+        this.failed.set(0);
+        this.compressed.set(0);
+    }
+
+    /**
+     * Returns the location points stored for the given session, oldest first. Each point is an
+     * array of latitude, longitude, timestamp, provider, accuracy and speed, where accuracy and
+     * speed may be null. Points of end-to-end encrypted sessions are prefixed by the IV, and
+     * contain encrypted strings.
+     *
+     * @param sessionID The ID of the session.
+     * @return A copy of the points, or an empty list if the session does not exist.
+     */
+    public List<Object[]> getPoints(String sessionID) {
+        Client session = this.sessions.get(sessionID);
+        if (session == null) return Collections.emptyList();
+        synchronized (session) {
+            return new ArrayList<>(session.points);
+        }
+    }
+
+    /**
+     * Returns the IDs of all sessions that have not been stopped.
+     */
+    public Set<String> getSessionIDs() {
+        return new LinkedHashSet<>(this.sessions.keySet());
+    }
+
+    /**
+     * Handles all requests, applies injected faults and dispatches them to the endpoints.
+     */
+    private final class Dispatcher implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String path = exchange.getRequestURI().getPath().substring(1);
+                byte[] body = readFully(exchange.getRequestBody());
+                FakeBackend.this.bytesReceived.addAndGet(body.length);
+                if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) FakeBackend.this.compressed.incrementAndGet();
+                count(path);
+
+                long delay;
+                boolean drop;
+                boolean fail;
+                synchronized (FakeBackend.this.random) {
+                    delay = FakeBackend.this.minLatency + (long) (FakeBackend.this.random.nextDouble() * (FakeBackend.this.maxLatency - FakeBackend.this.minLatency));
+                    drop = FakeBackend.this.random.nextDouble() < FakeBackend.this.lossRate;
+                    fail = !drop && FakeBackend.this.random.nextDouble() < FakeBackend.this.errorRate;
+                }
+                if (delay > 0L) Thread.sleep(delay);
+
+                if (drop) {
+                    // Closing the exchange before sending headers aborts the connection.
+                    FakeBackend.this.dropped.incrementAndGet();
+                    return;
+                }
+
+                exchange.getResponseHeaders().set(Constants.HTTP_HEADER_HAUK_VERSION, FakeBackend.this.version);
+                if (fail) {
+                    FakeBackend.this.failed.incrementAndGet();
+                    respond(exchange, HTTP_INTERNAL_ERROR, "Internal Server Error\n");
+                    return;
+                }
+
+                switch (path) {
+                    case PATH_CREATE:
+                    case PATH_CREATE_PHP:
+                        handleCreate(exchange, parseRequest(exchange, body));
+                        break;
+                    case PATH_POST:
+                        handlePost(exchange, parseRequest(exchange, body));
+                        break;
+                    case PATH_FETCH:
+                        handleFetch(exchange, parseForm(exchange.getRequestURI().getRawQuery()));
+                        break;
+                    case PATH_ADOPT:
+                        handleAdopt(exchange, parseRequest(exchange, body));
+                        break;
+                    case PATH_NEW_LINK:
+                        handleNewLink(exchange, parseRequest(exchange, body));
+                        break;
+                    case PATH_STOP:
+                        handleStop(exchange, parseRequest(exchange, body));
+                        break;
+                    default:
+                        respond(exchange, HTTP_NOT_FOUND, "Not Found\n");
+                        break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                FakeBackend.this.failed.incrementAndGet();
+                respond(exchange, HTTP_INTERNAL_ERROR, e + "\n");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Handles {@code api/create}.
+     */
+    private void handleCreate(HttpExchange exchange, Map<String, List<String>> req) throws IOException {
+        if (!require(exchange, req, Constants.PACKET_PARAM_DURATION, Constants.PACKET_PARAM_INTERVAL)) return;
+        if (this.password != null && !this.password.equals(first(req, Constants.PACKET_PARAM_PASSWORD))) {
+            respondLines(exchange, ERR_INCORRECT_PASSWORD);
+            return;
+        }
+
+        long expire = System.currentTimeMillis() / 1000L + Long.parseLong(first(req, Constants.PACKET_PARAM_DURATION));
+        double interval = Double.parseDouble(first(req, Constants.PACKET_PARAM_INTERVAL));
+        int mode = req.containsKey(Constants.PACKET_PARAM_SHARE_MODE) ? Integer.parseInt(first(req, Constants.PACKET_PARAM_SHARE_MODE)) : SHARE_MODE_CREATE_ALONE;
+        boolean encrypted = "1".equals(first(req, Constants.PACKET_PARAM_E2E_FLAG));
+
+        Client host = new Client(randomHex(32), expire, interval, encrypted ? first(req, Constants.PACKET_PARAM_SALT) : null);
+        Share share;
+        switch (mode) {
+            case SHARE_MODE_CREATE_ALONE:
+                share = createShare(SHARE_TYPE_ALONE, expire, "1".equals(first(req, Constants.PACKET_PARAM_ADOPTABLE)));
+                share.hosts.put("", host.id);
+                host.targets.add(share.id);
+                this.sessions.put(host.id, host);
+                respondLines(exchange, Constants.PACKET_RESPONSE_OK, host.id, viewLink(share), share.id);
+                break;
+
+            case SHARE_MODE_CREATE_GROUP:
+                if (!require(exchange, req, Constants.PACKET_PARAM_NICKNAME)) return;
+                share = createShare(SHARE_TYPE_GROUP, expire, false);
+                share.pin = String.valueOf(100000 + nextInt(900000));
+                share.hosts.put(first(req, Constants.PACKET_PARAM_NICKNAME), host.id);
+                host.targets.add(share.id);
+                this.sessions.put(host.id, host);
+                this.groupPins.put(share.pin, share);
+                respondLines(exchange, Constants.PACKET_RESPONSE_OK, host.id, viewLink(share), share.pin, share.id);
+                break;
+
+            case SHARE_MODE_JOIN_GROUP:
+                if (!require(exchange, req, Constants.PACKET_PARAM_NICKNAME, Constants.PACKET_PARAM_GROUP_PIN)) return;
+                share = this.groupPins.get(first(req, Constants.PACKET_PARAM_GROUP_PIN));
+                if (share == null) {
+                    respondLines(exchange, ERR_GROUP_PIN_INVALID);
+                    return;
+                }
+                synchronized (share) {
+                    share.hosts.put(first(req, Constants.PACKET_PARAM_NICKNAME), host.id);
+                    share.modified++;
+                }
+                host.targets.add(share.id);
+                this.sessions.put(host.id, host);
+                respondLines(exchange, Constants.PACKET_RESPONSE_OK, host.id, viewLink(share), share.id);
+                break;
+
+            default:
+                respondLines(exchange, ERR_SHARE_MODE_UNSUPPORTED);
+                break;
+        }
+    }
+
+    /**
+     * Handles {@code api/post.php}, for both form-encoded and binary location updates.
+     */
+    private void handlePost(HttpExchange exchange, Map<String, List<String>> req) throws IOException {
+        if (!require(exchange, req, Constants.PACKET_PARAM_SESSION_ID)) return;
+        Client session = this.sessions.get(first(req, Constants.PACKET_PARAM_SESSION_ID));
+        if (session == null) {
+            respondLines(exchange, ERR_SESSION_EXPIRED);
+            return;
+        }
+
+        String primary = req.containsKey(Constants.PACKET_PARAM_PACKED_DATA) ? Constants.PACKET_PARAM_PACKED_DATA : Constants.PACKET_PARAM_LATITUDE;
+        List<String> primaries = req.get(primary);
+        if (primaries == null || (session.salt != null && !req.containsKey(Constants.PACKET_PARAM_INIT_VECTOR))) {
+            respondLines(exchange, ERR_MISSING_DATA);
+            return;
+        }
+
+        List<Object[]> points = new ArrayList<>(primaries.size());
+        for (int i = 0; i < primaries.size(); i++) {
+            if (session.salt != null && req.containsKey(Constants.PACKET_PARAM_PACKED_DATA)) {
+                points.add(new Object[] {get(req, Constants.PACKET_PARAM_INIT_VECTOR, i), get(req, Constants.PACKET_PARAM_PACKED_DATA, i)});
+                continue;
+            }
+
+            String lat = get(req, Constants.PACKET_PARAM_LATITUDE, i);
+            String lon = get(req, Constants.PACKET_PARAM_LONGITUDE, i);
+            String time = get(req, Constants.PACKET_PARAM_TIMESTAMP, i);
+            if (lat == null || lon == null || time == null) {
+                respondLines(exchange, ERR_MISSING_DATA);
+                return;
+            }
+            String provider = get(req, Constants.PACKET_PARAM_PROVIDER_ACCURACY, i);
+            String accuracy = get(req, Constants.PACKET_PARAM_ACCURACY, i);
+            String speed = get(req, Constants.PACKET_PARAM_SPEED, i);
+
+            if (session.salt == null) {
+                points.add(new Object[] {
+                        Double.parseDouble(lat), Double.parseDouble(lon), Double.parseDouble(time),
+                        "1".equals(provider) ? 1 : 0,
+                        accuracy == null ? null : Double.parseDouble(accuracy),
+                        speed == null ? null : Double.parseDouble(speed)
+                });
+            } else {
+                points.add(new Object[] {get(req, Constants.PACKET_PARAM_INIT_VECTOR, i), lat, lon, time, provider, accuracy, speed});
+            }
+        }
+
+        String targets;
+        synchronized (session) {
+            session.points.addAll(points);
+            session.modified++;
+            targets = join(session.targets);
+        }
+
+        if (session.hasExpired()) {
+            respondLines(exchange, ERR_SESSION_EXPIRED);
+        } else {
+            respondLines(exchange, Constants.PACKET_RESPONSE_OK, getBaseURL() + "?%s", targets);
+        }
+    }
+
+    /**
+     * Handles {@code api/fetch.php}, including entity tags for unchanged shares. Points are always
+     * returned in full; delta encoding is not implemented.
+     */
+    private void handleFetch(HttpExchange exchange, Map<String, List<String>> req) throws IOException {
+        Share share = req.containsKey("id") ? this.shares.get(first(req, "id")) : null;
+        if (share == null || share.hasExpired()) {
+            respond(exchange, HTTP_NOT_FOUND, ERR_SESSION_INVALID + "\n");
+            return;
+        }
+
+        List<Client> hosts = new ArrayList<>();
+        Map<String, String> members;
+        long stamp;
+        synchronized (share) {
+            members = new TreeMap<>(share.hosts);
+            stamp = share.modified;
+        }
+        StringBuilder etag = new StringBuilder("\"").append(share.id).append('-').append(stamp);
+        for (String sid : members.values()) {
+            Client host = this.sessions.get(sid);
+            if (host == null) continue;
+            hosts.add(host);
+            synchronized (host) {
+                etag.append('-').append(host.modified);
+            }
+        }
+        etag.append('"');
+
+        exchange.getResponseHeaders().set("Cache-Control", "no-store");
+        exchange.getResponseHeaders().set("ETag", etag.toString());
+        if (etag.toString().equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(HTTP_NOT_MODIFIED, -1);
+            return;
+        }
+
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"type\":").append(share.type);
+        json.append(",\"expire\":").append(share.expire);
+        json.append(",\"serverTime\":").append(System.currentTimeMillis() / 1000.0D);
+        if (share.type == SHARE_TYPE_ALONE) {
+            if (hosts.isEmpty()) {
+                respond(exchange, HTTP_NOT_FOUND, ERR_SESSION_INVALID + "\n");
+                return;
+            }
+            Client host = hosts.get(0);
+            json.append(",\"interval\":").append(host.interval);
+            json.append(",\"points\":");
+            appendPoints(json, host);
+            json.append(",\"delta\":false");
+            json.append(",\"encrypted\":").append(host.salt != null);
+            json.append(",\"salt\":");
+            appendValue(json, host.salt);
+        } else {
+            double interval = Double.MAX_VALUE;
+            StringBuilder points = new StringBuilder("{");
+            for (Map.Entry<String, String> member : members.entrySet()) {
+                Client host = this.sessions.get(member.getValue());
+                if (host == null) continue;
+                interval = Math.min(interval, host.interval);
+                if (points.length() > 1) points.append(',');
+                appendValue(points, member.getKey());
+                points.append(':');
+                appendPoints(points, host);
+            }
+            points.append('}');
+            json.append(",\"interval\":").append(hosts.isEmpty() ? 1.0D : interval);
+            json.append(",\"points\":").append(points);
+            json.append(",\"delta\":false");
+        }
+        json.append("}\n");
+
+        exchange.getResponseHeaders().set("Content-Type", "text/json");
+        respond(exchange, HTTP_OK, json.toString());
+    }
+
+    /**
+     * Handles {@code api/adopt.php}.
+     */
+    private void handleAdopt(HttpExchange exchange, Map<String, List<String>> req) throws IOException {
+        if (!require(exchange, req, Constants.PACKET_PARAM_SESSION_ID, Constants.PACKET_PARAM_NICKNAME, Constants.PACKET_PARAM_ID_TO_ADOPT, Constants.PACKET_PARAM_GROUP_PIN)) return;
+        if (!this.sessions.containsKey(first(req, Constants.PACKET_PARAM_SESSION_ID))) {
+            respondLines(exchange, ERR_SESSION_EXPIRED);
+            return;
+        }
+
+        Share share = this.shares.get(first(req, Constants.PACKET_PARAM_ID_TO_ADOPT));
+        if (share == null) {
+            respondLines(exchange, ERR_SHARE_NOT_FOUND);
+            return;
+        }
+        Client adopted = this.sessions.get(share.hosts.get(""));
+        if (share.type != SHARE_TYPE_ALONE || !share.adoptable || adopted == null || adopted.salt != null) {
+            respondLines(exchange, ERR_ADOPTION_NOT_ALLOWED);
+            return;
+        }
+
+        Share target = this.groupPins.get(first(req, Constants.PACKET_PARAM_GROUP_PIN));
+        if (target == null) {
+            respondLines(exchange, ERR_SESSION_EXPIRED);
+            return;
+        }
+        synchronized (target) {
+            target.hosts.put(first(req, Constants.PACKET_PARAM_NICKNAME), adopted.id);
+            target.modified++;
+        }
+        synchronized (adopted) {
+            adopted.targets.add(target.id);
+            adopted.modified++;
+        }
+        respondLines(exchange, Constants.PACKET_RESPONSE_OK);
+    }
+
+    /**
+     * Handles {@code api/new-link.php}.
+     */
+    private void handleNewLink(HttpExchange exchange, Map<String, List<String>> req) throws IOException {
+        if (!require(exchange, req, Constants.PACKET_PARAM_SESSION_ID, Constants.PACKET_PARAM_ADOPTABLE)) return;
+        Client session = this.sessions.get(first(req, Constants.PACKET_PARAM_SESSION_ID));
+        if (session == null) {
+            respondLines(exchange, ERR_SESSION_EXPIRED);
+            return;
+        }
+
+        Share share = createShare(SHARE_TYPE_ALONE, session.expire, "1".equals(first(req, Constants.PACKET_PARAM_ADOPTABLE)));
+        share.hosts.put("", session.id);
+        synchronized (session) {
+            session.targets.add(share.id);
+            session.modified++;
+        }
+        respondLines(exchange, Constants.PACKET_RESPONSE_OK, viewLink(share), share.id);
+    }
+
+    /**
+     * Handles {@code api/stop.php}.
+     */
+    private void handleStop(HttpExchange exchange, Map<String, List<String>> req) throws IOException {
+        if (!require(exchange, req, Constants.PACKET_PARAM_SESSION_ID)) return;
+        Client session = this.sessions.get(first(req, Constants.PACKET_PARAM_SESSION_ID));
+
+        if (req.containsKey(Constants.PACKET_PARAM_SHARE_ID)) {
+            // Terminate the given share membership.
+            String shareID = first(req, Constants.PACKET_PARAM_SHARE_ID);
+            if (session != null && session.targets.contains(shareID)) {
+                Share share = this.shares.get(shareID);
+                if (share != null) endMembership(share, session);
+                synchronized (session) {
+                    session.targets.remove(shareID);
+                    session.modified++;
+                }
+            }
+        } else if (session != null) {
+            // Terminate the entire session.
+            for (String shareID : new ArrayList<>(session.targets)) {
+                Share share = this.shares.get(shareID);
+                if (share != null) endMembership(share, session);
+            }
+            this.sessions.remove(session.id);
+        }
+        respondLines(exchange, Constants.PACKET_RESPONSE_OK);
+    }
+
+    /**
+     * Removes a session from a share, ending the share if it is a solo share or no hosts remain.
+     */
+    private void endMembership(Share share, Client session) {
+        boolean empty;
+        synchronized (share) {
+            share.hosts.values().remove(session.id);
+            share.modified++;
+            empty = share.type == SHARE_TYPE_ALONE || share.hosts.isEmpty();
+        }
+        if (empty) {
+            this.shares.remove(share.id);
+            if (share.pin != null) this.groupPins.remove(share.pin);
+        }
+    }
+
+    private Share createShare(int type, long expire, boolean adoptable) {
+        Share share = new Share(randomHex(8), type, expire, adoptable);
+        this.shares.put(share.id, share);
+        return share;
+    }
+
+    private String viewLink(Share share) {
+        return getBaseURL() + "?" + share.id;
+    }
+
+    private String randomHex(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append(Character.forDigit(nextInt(16), 16));
+        return sb.toString();
+    }
+
+    private int nextInt(int bound) {
+        synchronized (this.random) {
+            return this.random.nextInt(bound);
+        }
+    }
+
+    private void count(String path) {
+        AtomicInteger count = this.requestCounts.get(path);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = this.requestCounts.putIfAbsent(path, created);
+            if (count == null) count = created;
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Responds with the given lines, each terminated by a newline, like the PHP backend.
+     */
+    private void respondLines(HttpExchange exchange, String... lines) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) sb.append(line).append('\n');
+        respond(exchange, HTTP_OK, sb.toString());
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] data = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+        this.bytesSent.addAndGet(data.length);
+    }
+
+    /**
+     * Checks that all the given parameters are present, responding with an error like the PHP
+     * backend's {@code requirePOST()} if they are not.
+     *
+     * @return true if all parameters are present.
+     */
+    private boolean require(HttpExchange exchange, Map<String, List<String>> req, String... keys) throws IOException {
+        for (String key : keys) {
+            if (!req.containsKey(key)) {
+                respondLines(exchange, ERR_MISSING_DATA);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a request body into a map from parameter names to one value per location point.
+     * Form data with array indices, such as {@code lat[2]}, is collected under the name without the
+     * index. JSON and binary bodies are supported as sent by the client, as are gzip-compressed
+     * bodies.
+     */
+    private static Map<String, List<String>> parseRequest(HttpExchange exchange, byte[] body) throws IOException {
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            body = readFully(new GZIPInputStream(new ByteArrayInputStream(body)));
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith(Constants.HTTP_CONTENT_TYPE_BINARY_POST)) {
+            return decodeBinary(body);
+        } else if (contentType != null && contentType.startsWith(CONTENT_TYPE_JSON)) {
+            return parseJson(new String(body, StandardCharsets.UTF_8));
+        } else {
+            return parseForm(new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, List<String>> parseForm(String data) throws UnsupportedEncodingException {
+        Map<String, TreeMap<Integer, String>> indexed = new HashMap<>();
+        if (data != null && !data.isEmpty()) {
+            for (String pair : data.split("&")) {
+                int eq = pair.indexOf('=');
+                String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8.name());
+                String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8.name());
+                int index = 0;
+                int bracket = key.indexOf('[');
+                if (bracket > 0 && key.endsWith("]")) {
+                    index = Integer.parseInt(key.substring(bracket + 1, key.length() - 1));
+                    key = key.substring(0, bracket);
+                }
+                TreeMap<Integer, String> values = indexed.get(key);
+                if (values == null) {
+                    values = new TreeMap<>();
+                    indexed.put(key, values);
+                }
+                values.put(index, value);
+            }
+        }
+
+        // Location update fields may be omitted for single points, e.g. speed, so values are kept
+        // at their index rather than compacted.
+        Map<String, List<String>> result = new HashMap<>();
+        for (Map.Entry<String, TreeMap<Integer, String>> entry : indexed.entrySet()) {
+            List<String> values = new ArrayList<>();
+            for (Map.Entry<Integer, String> value : entry.getValue().entrySet()) {
+                while (values.size() < value.getKey()) values.add(null);
+                values.add(value.getValue());
+            }
+            result.put(entry.getKey(), values);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the flat JSON object of string values sent by the client to {@code api/create}.
+     */
+    private static Map<String, List<String>> parseJson(String data) {
+        Map<String, List<String>> result = new HashMap<>();
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = null;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (token == null) {
+                if (c == '"') token = new StringBuilder();
+            } else if (c == '\\' && i + 1 < data.length()) {
+                token.append(data.charAt(++i));
+            } else if (c == '"') {
+                tokens.add(token.toString());
+                token = null;
+            } else {
+                token.append(c);
+            }
+        }
+        for (int i = 0; i + 1 < tokens.size(); i += 2) {
+            result.put(tokens.get(i), new ArrayList<>(Collections.singletonList(tokens.get(i + 1))));
+        }
+        return result;
+    }
+
+    /**
+     * Decodes a binary location update into the same fields as a form-encoded batch, like the
+     * PHP backend's {@code decodeBinaryPost()}. See {@link BinaryLocationEncoder} for the format.
+     */
+    private static Map<String, List<String>> decodeBinary(byte[] body) throws IOException {
+        BinaryReader in = new BinaryReader(body);
+        if (in.u8() != Constants.BINARY_POST_FORMAT_VERSION) throw new IOException("Unsupported binary post version");
+
+        int sidLength = in.u8();
+        StringBuilder sid = new StringBuilder(sidLength * 2);
+        for (int i = 0; i < sidLength; i++) {
+            int b = in.u8();
+            sid.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0x0F, 16));
+        }
+
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        result.put(Constants.PACKET_PARAM_SESSION_ID, new ArrayList<>(Collections.singletonList(sid.toString())));
+        String[] keys = {
+                Constants.PACKET_PARAM_LATITUDE, Constants.PACKET_PARAM_LONGITUDE, Constants.PACKET_PARAM_TIMESTAMP,
+                Constants.PACKET_PARAM_PROVIDER_ACCURACY, Constants.PACKET_PARAM_ACCURACY, Constants.PACKET_PARAM_SPEED
+        };
+        for (String key : keys) result.put(key, new ArrayList<String>());
+
+        int count = in.u8();
+        long time = (in.s32() & 0xFFFFFFFFL) * 1000L;
+        // Coordinates are accumulated without wrapping, like the real backend does.
+        long lat = 0L;
+        long lon = 0L;
+        for (int i = 0; i < count; i++) {
+            int flags = in.u8();
+            time += in.svarint();
+            if (i == 0) {
+                lat = in.s32();
+                lon = in.s32();
+            } else {
+                lat += in.svarint();
+                lon += in.svarint();
+            }
+            result.get(Constants.PACKET_PARAM_LATITUDE).add(String.valueOf(lat / BinaryLocationEncoder.COORDINATE_SCALE));
+            result.get(Constants.PACKET_PARAM_LONGITUDE).add(String.valueOf(lon / BinaryLocationEncoder.COORDINATE_SCALE));
+            result.get(Constants.PACKET_PARAM_TIMESTAMP).add(String.valueOf(time / 1000.0D));
+            result.get(Constants.PACKET_PARAM_PROVIDER_ACCURACY).add((flags & BinaryLocationEncoder.FLAG_COARSE) != 0 ? "1" : "0");
+            double accuracyScale = (flags & BinaryLocationEncoder.FLAG_ACCURACY_METERS) != 0 ? 1.0D : 10.0D;
+            result.get(Constants.PACKET_PARAM_ACCURACY).add((flags & BinaryLocationEncoder.FLAG_ACCURACY) != 0 ? String.valueOf(in.u16() / accuracyScale) : null);
+            result.get(Constants.PACKET_PARAM_SPEED).add((flags & BinaryLocationEncoder.FLAG_SPEED) != 0 ? String.valueOf(in.u16() / 100.0D) : null);
+        }
+        return result;
+    }
+
+    private static String first(Map<String, List<String>> req, String key) {
+        return get(req, key, 0);
+    }
+
+    private static String get(Map<String, List<String>> req, String key, int index) {
+        List<String> values = req.get(key);
+        return values == null || index >= values.size() ? null : values.get(index);
+    }
+
+    private static String join(Iterable<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    private static void appendPoints(StringBuilder json, Client host) {
+        json.append('[');
+        synchronized (host) {
+            for (int i = 0; i < host.points.size(); i++) {
+                if (i > 0) json.append(',');
+                json.append('[');
+                Object[] point = host.points.get(i);
+                for (int j = 0; j < point.length; j++) {
+                    if (j > 0) json.append(',');
+                    appendValue(json, point[j]);
+                }
+                json.append(']');
+            }
+        }
+        json.append(']');
+    }
+
+    private static void appendValue(StringBuilder json, Object value) {
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Number) {
+            json.append(value);
+        } else {
+            json.append('"').append(value.toString().replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+
+    /**
+     * A sharing session, corresponding to a {@code Client} in the PHP backend.
+     */
+    private static final class Client {
+        private final String id;
+        private final long expire;
+        private final double interval;
+        private final String salt;
+        private final Set<String> targets = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final List<Object[]> points = new ArrayList<>();
+        private long modified = 0L;
+
+        private Client(String id, long expire, double interval, String salt) {
+            this.id = id;
+            this.expire = expire;
+            this.interval = interval;
+            this.salt = salt;
+        }
+
+        private boolean hasExpired() {
+            return System.currentTimeMillis() / 1000L >= this.expire;
+        }
+    }
+
+    /**
+     * A solo or group share.
+     */
+    private static final class Share {
+        private final String id;
+        private final int type;
+        private final long expire;
+        private final boolean adoptable;
+
+        /**
+         * Session IDs of the hosts of this share, by nickname. Solo shares have a single host with
+         * an empty nickname.
+         */
+        private final Map<String, String> hosts = new LinkedHashMap<>();
+        private String pin = null;
+        private long modified = 0L;
+
+        private Share(String id, int type, long expire, boolean adoptable) {
+            this.id = id;
+            this.type = type;
+            this.expire = expire;
+            this.adoptable = adoptable;
+        }
+
+        private boolean hasExpired() {
+            return System.currentTimeMillis() / 1000L >= this.expire;
+        }
+    }
+
+    /**
+     * Reads big-endian integers and varints from a binary request body.
+     */
+    private static final class BinaryReader {
+        private final byte[] data;
+        private int offset = 0;
+
+        private BinaryReader(byte[] data) {
+            this.data = data;
+        }
+
+        private int u8() throws IOException {
+            if (this.offset >= this.data.length) throw new IOException("Truncated binary post");
+            return this.data[this.offset++] & 0xFF;
+        }
+
+        private int u16() throws IOException {
+            return u8() << 8 | u8();
+        }
+
+        private int s32() throws IOException {
+            return u8() << 24 | u8() << 16 | u8() << 8 | u8();
+        }
+
+        private long svarint() throws IOException {
+            long value = 0L;
+            int shift = 0;
+            int b;
+            do {
+                b = u8();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value >>> 1 ^ -(value & 1L);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package info.varden.hauk.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.struct.LocationPoint;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class FakeBackendTest {
+
+    private static final String FORM = "application/x-www-form-urlencoded";
+
+    private FakeBackend backend;
+
+    @Before
+    public void start() throws IOException {
+        this.backend = new FakeBackend(1L);
+    }
+
+    @After
+    public void stop() {
+        this.backend.close();
+    }
+
+    private HttpURLConnection request(String path, String contentType, byte[] body) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(this.backend.getBaseURL() + path).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type", contentType);
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body);
+        }
+        return conn;
+    }
+
+    private static String[] lines(HttpURLConnection conn) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (InputStream in = conn.getInputStream(); BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) lines.add(line);
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    private String[] post(String path, String form) throws IOException {
+        return lines(request(path, FORM, form.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private String[] create() throws IOException {
+        HttpURLConnection conn = request(FakeBackend.PATH_CREATE, "application/json; charset=UTF-8", "{\"dur\":\"3600\",\"int\":\"1\",\"mod\":\"0\",\"e2e\":\"0\"}".getBytes(StandardCharsets.UTF_8));
+        assertThat("Backend version not reported", conn.getHeaderField(Constants.HTTP_HEADER_HAUK_VERSION), is(FakeBackend.DEFAULT_VERSION));
+        return lines(conn);
+    }
+
+    @Test
+    public void shareLifecycle() throws IOException {
+        String[] created = create();
+        assertThat("Session not created", created[0], is(Constants.PACKET_RESPONSE_OK));
+        assertThat("Unexpected response length", created.length, is(4));
+        String sessionID = created[1];
+        String shareID = created[3];
+        assertThat("View link does not point to share", created[2], is(this.backend.getBaseURL() + "?" + shareID));
+
+        String[] posted = post(FakeBackend.PATH_POST, "sid=" + sessionID + "&lat[0]=59.9&lon[0]=10.7&time[0]=1600000000&lat[1]=59.91&lon[1]=10.71&time[1]=1600000001&spd[1]=2.5");
+        assertThat("Location update rejected", posted, is(new String[] {Constants.PACKET_RESPONSE_OK, this.backend.getBaseURL() + "?%s", shareID}));
+        List<Object[]> points = this.backend.getPoints(sessionID);
+        assertThat("Batch not stored", points.size(), is(2));
+        assertThat("Missing speed not stored as null", points.get(0)[5], is(nullValue()));
+        assertThat("Speed not stored", points.get(1)[5], is((Object) 2.5D));
+
+        String[] linked = post(FakeBackend.PATH_NEW_LINK, "sid=" + sessionID + "&ado=0");
+        assertThat("New link not created", linked[0], is(Constants.PACKET_RESPONSE_OK));
+        assertThat("Stopping share failed", post(FakeBackend.PATH_STOP, "sid=" + sessionID + "&lid=" + linked[2])[0], is(Constants.PACKET_RESPONSE_OK));
+        assertThat("Stopping session failed", post(FakeBackend.PATH_STOP, "sid=" + sessionID)[0], is(Constants.PACKET_RESPONSE_OK));
+        assertThat("Post accepted after stop", post(FakeBackend.PATH_POST, "sid=" + sessionID + "&lat=0&lon=0&time=0")[0], is("Session expired!"));
+        assertThat("Requests not counted", this.backend.getRequestCount(FakeBackend.PATH_STOP), is(2));
+    }
+
+    @Test
+    public void binaryPost() throws IOException {
+        String sessionID = create()[1];
+        List<LocationPoint> sent = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            sent.add(new LocationPoint(59.9138688D + i * 0.0001D, 10.7522454D - i * 0.0001D, 1600000000500L + i * 1000L, LocationProvider.FINE, 1.25F, 4.5F));
+        }
+        this.backend.resetStatistics();
+        String[] posted = lines(request(FakeBackend.PATH_POST, Constants.HTTP_CONTENT_TYPE_BINARY_POST, BinaryLocationEncoder.encode(sessionID, sent)));
+        assertThat("Binary update rejected", posted[0], is(Constants.PACKET_RESPONSE_OK));
+
+        List<Object[]> points = this.backend.getPoints(sessionID);
+        assertThat("Binary points not stored", points.size(), is(sent.size()));
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals("Latitude improperly decoded", sent.get(i).getLatitude(), (Double) points.get(i)[0], 1.0E-7D);
+            assertEquals("Longitude improperly decoded", sent.get(i).getLongitude(), (Double) points.get(i)[1], 1.0E-7D);
+            assertEquals("Timestamp improperly decoded", sent.get(i).getTimeMillis() / 1000.0D, (Double) points.get(i)[2], 1.0E-3D);
+            assertThat("Speed improperly decoded", points.get(i)[5], is((Object) 1.25D));
+        }
+        assertThat("Binary body too large", this.backend.getBytesReceived() < sent.size() * 16L, is(true));
+    }
+
+    @Test
+    public void binaryAntimeridian() throws IOException {
+        String sessionID = create()[1];
+        List<LocationPoint> sent = new ArrayList<>();
+        sent.add(new LocationPoint(-16.5D, 179.9D, 1600000000500L, LocationProvider.FINE, null, null));
+        sent.add(new LocationPoint(-16.5D, -179.9D, 1600000001500L, LocationProvider.FINE, null, null));
+        sent.add(new LocationPoint(-16.5D, 179.9D, 1600000002500L, LocationProvider.FINE, null, null));
+        String[] posted = lines(request(FakeBackend.PATH_POST, Constants.HTTP_CONTENT_TYPE_BINARY_POST, BinaryLocationEncoder.encode(sessionID, sent)));
+        assertThat("Binary update rejected", posted[0], is(Constants.PACKET_RESPONSE_OK));
+
+        List<Object[]> points = this.backend.getPoints(sessionID);
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals("Longitude across antimeridian improperly decoded", sent.get(i).getLongitude(), (Double) points.get(i)[1], 1.0E-7D);
+        }
+    }
+
+    @Test
+    public void binaryAccuracyBoundary() throws IOException {
+        String sessionID = create()[1];
+        float[] accuracies = {6553.5F, 6553.6F, 20000.0F};
+        List<LocationPoint> sent = new ArrayList<>();
+        for (int i = 0; i < accuracies.length; i++) {
+            sent.add(new LocationPoint(59.9138688D, 10.7522454D, 1600000000500L + i * 1000L, LocationProvider.COARSE, null, accuracies[i]));
+        }
+        String[] posted = lines(request(FakeBackend.PATH_POST, Constants.HTTP_CONTENT_TYPE_BINARY_POST, BinaryLocationEncoder.encode(sessionID, sent)));
+        assertThat("Binary update rejected", posted[0], is(Constants.PACKET_RESPONSE_OK));
+
+        List<Object[]> points = this.backend.getPoints(sessionID);
+        assertThat("Largest decimeter accuracy improperly decoded", points.get(0)[4], is((Object) 6553.5D));
+        assertThat("Accuracy in meters improperly decoded", points.get(1)[4], is((Object) 6554.0D));
+        assertThat("Large accuracy improperly decoded", points.get(2)[4], is((Object) 20000.0D));
+    }
+
+    @Test
+    public void notModified() throws IOException {
+        String[] created = create();
+        URL url = new URL(this.backend.getBaseURL() + FakeBackend.PATH_FETCH + "?id=" + created[3]);
+        HttpURLConnection first = (HttpURLConnection) url.openConnection();
+        assertThat("Fetch failed", first.getResponseCode(), is(HttpURLConnection.HTTP_OK));
+        lines(first);
+
+        HttpURLConnection second = (HttpURLConnection) url.openConnection();
+        second.setRequestProperty("If-None-Match", first.getHeaderField("ETag"));
+        assertThat("Unchanged share not answered with 304", second.getResponseCode(), is(HttpURLConnection.HTTP_NOT_MODIFIED));
+
+        post(FakeBackend.PATH_POST, "sid=" + created[1] + "&lat=1&lon=2&time=3");
+        HttpURLConnection third = (HttpURLConnection) url.openConnection();
+        third.setRequestProperty("If-None-Match", first.getHeaderField("ETag"));
+        assertThat("Changed share answered with 304", third.getResponseCode(), is(HttpURLConnection.HTTP_OK));
+        assertThat("Point not returned", lines(third)[0].contains("[1.0,2.0,3.0,0,null,null]"), is(true));
+    }
+
+    @Test
+    public void faultInjection() throws IOException {
+        String sessionID = create()[1];
+        this.backend.setErrorRate(1.0D);
+        assertThat("Error not injected", request(FakeBackend.PATH_POST, FORM, ("sid=" + sessionID + "&lat=1&lon=2&time=3").getBytes(StandardCharsets.UTF_8)).getResponseCode(), is(HttpURLConnection.HTTP_INTERNAL_ERROR));
+        assertThat("Failed request processed", this.backend.getPoints(sessionID).size(), is(0));
+
+        this.backend.setErrorRate(0.0D);
+        this.backend.setLossRate(1.0D);
+        try {
+            post(FakeBackend.PATH_POST, "sid=" + sessionID + "&lat=1&lon=2&time=3");
+            fail("Dropped request answered");
+        } catch (IOException expected) {
+            assertThat("Dropped request processed", this.backend.getPoints(sessionID).size(), is(0));
+        }
+        // The HTTP client may silently retry a dropped request, so only check that it was counted.
+        assertThat("Error not counted", this.backend.getFailedCount(), is(1));
+        assertThat("Loss not counted", this.backend.getDroppedCount() > 0, is(true));
+    }
+}
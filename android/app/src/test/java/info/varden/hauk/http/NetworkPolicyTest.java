@@ -0,0 +1,35 @@
+package info.varden.hauk.http;
+
+import org.junit.Test;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.NetworkPolicy.LinkClass;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class NetworkPolicyTest {
+
+    private static final int FAST = 10 * Constants.NETWORK_SLOW_BANDWIDTH;
+
+    @Test
+    public void unmetered() {
+        assertThat("Wi-Fi not unmetered", LinkClass.classify(false, false, true, FAST), is(LinkClass.UNMETERED));
+        assertThat("Unknown bandwidth treated as slow", LinkClass.classify(false, false, true, 0), is(LinkClass.UNMETERED));
+    }
+
+    @Test
+    public void metered() {
+        // Mobile data in the home network should not delay real-time sessions.
+        assertThat("Mobile data not metered", LinkClass.classify(true, false, true, FAST), is(LinkClass.METERED));
+        assertThat("Mobile data with unknown bandwidth not metered", LinkClass.classify(true, false, true, 0), is(LinkClass.METERED));
+    }
+
+    @Test
+    public void constrained() {
+        assertThat("Roaming not constrained", LinkClass.classify(true, true, true, FAST), is(LinkClass.CONSTRAINED));
+        assertThat("Unvalidated not constrained", LinkClass.classify(false, false, false, FAST), is(LinkClass.CONSTRAINED));
+        assertThat("Slow link not constrained", LinkClass.classify(true, false, true, Constants.NETWORK_SLOW_BANDWIDTH - 1), is(LinkClass.CONSTRAINED));
+        assertThat("Slow threshold is exclusive", LinkClass.classify(true, false, true, Constants.NETWORK_SLOW_BANDWIDTH), is(LinkClass.METERED));
+    }
+}
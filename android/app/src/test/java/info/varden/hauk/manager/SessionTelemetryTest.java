@@ -0,0 +1,83 @@
+package info.varden.hauk.manager;
+
+import org.junit.Test;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.parameter.LocationProvider;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class SessionTelemetryTest {
+
+    @Test
+    public void histogramPercentiles() {
+        SessionTelemetry.Histogram histogram = new SessionTelemetry.Histogram();
+        assertThat("Empty histogram has a percentile", histogram.getPercentile(0.5D), is(-1L));
+
+        for (int i = 0; i < 90; i++) histogram.add(100L);
+        for (int i = 0; i < 10; i++) histogram.add(5000L);
+        assertThat("Values not counted", histogram.getCount(), is(100L));
+
+        long median = histogram.getPercentile(0.5D);
+        assertThat("Median below recorded value", median >= 100L, is(true));
+        assertThat("Median more than twice recorded value", median < 200L, is(true));
+        long p95 = histogram.getPercentile(0.95D);
+        assertThat("95th percentile below recorded value", p95 >= 5000L, is(true));
+        assertThat("95th percentile more than twice recorded value", p95 < 10000L, is(true));
+
+        histogram.add(0L);
+        histogram.add(Long.MAX_VALUE);
+        assertThat("Extreme values not counted", histogram.getCount(), is(102L));
+    }
+
+    @Test
+    public void snapshot() {
+        SessionTelemetry telemetry = new SessionTelemetry();
+        telemetry.onRequestCompleted(120L, 300L, 40L);
+        telemetry.onRequestCompleted(80L, 200L, 0L);
+        telemetry.onPacketResult("BatchLocationUpdatePacket", true);
+        telemetry.onPacketResult("BatchLocationUpdatePacket", false);
+        telemetry.onPacketResult("StopSharingPacket", true);
+        telemetry.onFix(LocationProvider.FINE);
+        telemetry.onFix(LocationProvider.FINE);
+        telemetry.onFix(LocationProvider.FINE);
+        telemetry.onFix(LocationProvider.COARSE);
+        telemetry.onFixUploaded(1000L, 3000L);
+
+        SessionTelemetry.Snapshot snapshot = telemetry.snapshot();
+        telemetry.onPacketResult("StopSharingPacket", false);
+
+        assertThat("Requests not counted", snapshot.getRequestCount(), is(2L));
+        assertThat("Bytes sent not summed", snapshot.getBytesSent(), is(500L));
+        assertThat("Bytes received not summed", snapshot.getBytesReceived(), is(40L));
+        assertThat("Successes not counted per type", snapshot.getSuccessCount("BatchLocationUpdatePacket"), is(1L));
+        assertThat("Failures not counted per type", snapshot.getFailureCount("BatchLocationUpdatePacket"), is(1L));
+        assertThat("Snapshot changed after it was taken", snapshot.getFailureCount("StopSharingPacket"), is(0L));
+        assertThat("Unknown packet type counted", snapshot.getSuccessCount("AdoptSharePacket"), is(0L));
+        assertEquals("Coarse ratio improperly calculated", 0.25D, snapshot.getCoarseRatio(), 1.0E-9D);
+        assertThat("Uploaded fix not counted", snapshot.getUploadedFixCount(), is(1L));
+        assertThat("Fix delay below recorded value", snapshot.getFixDelayMedian() >= 2000L, is(true));
+    }
+
+    @Test
+    public void registry() {
+        SessionTelemetry first = SessionTelemetry.forSession("registry");
+        assertThat("Telemetry not shared within session", SessionTelemetry.forSession("registry"), is(sameInstance(first)));
+        SessionTelemetry.discard("registry");
+        SessionTelemetry detached = SessionTelemetry.forSession("registry");
+        assertThat("Telemetry not discarded", detached == first, is(false));
+        assertThat("Telemetry registered again after discard", SessionTelemetry.forSession("registry") == detached, is(false));
+    }
+
+    @Test
+    public void discardRetention() {
+        long now = System.currentTimeMillis();
+        SessionTelemetry.discard("retention-old", now);
+        SessionTelemetry.discard("retention-new", now + Constants.TELEMETRY_DISCARD_RETENTION);
+        SessionTelemetry old = SessionTelemetry.forSession("retention-old");
+        assertThat("Discarded session remembered past retention period", SessionTelemetry.forSession("retention-old"), is(sameInstance(old)));
+        SessionTelemetry recent = SessionTelemetry.forSession("retention-new");
+        assertThat("Discarded session forgotten within retention period", SessionTelemetry.forSession("retention-new") == recent, is(false));
+    }
+}
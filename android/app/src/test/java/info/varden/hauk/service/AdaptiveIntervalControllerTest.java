@@ -0,0 +1,54 @@
+package info.varden.hauk.service;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class AdaptiveIntervalControllerTest {
+
+    @Test
+    public void disabled() {
+        AdaptiveIntervalController controller = new AdaptiveIntervalController(1000L, 0L);
+        assertThat("Controller enabled without a maximum interval", controller.isEnabled(), is(false));
+        for (int i = 0; i < 120; i++) {
+            assertThat("Interval changed while disabled", controller.onLocation(60.0D, 10.0D, 5.0F, 0.0F, i * 1000L), is(1000L));
+        }
+    }
+
+    @Test
+    public void stationaryBackoff() {
+        AdaptiveIntervalController controller = new AdaptiveIntervalController(1000L, 20000L);
+        long time = 0L;
+        for (; time < 60000L; time += 1000L) {
+            assertThat("Interval raised before device was stationary", controller.onLocation(60.0D, 10.0D, 5.0F, Float.NaN, time), is(1000L));
+        }
+        assertThat("Interval not doubled when stationary", controller.onLocation(60.0D, 10.0D, 5.0F, Float.NaN, time), is(2000L));
+        assertThat("Interval not doubled when stationary", controller.onLocation(60.0D, 10.0D, 5.0F, Float.NaN, time += 2000L), is(4000L));
+        for (int i = 0; i < 10; i++) controller.onLocation(60.0D, 10.0D, 5.0F, Float.NaN, time += controller.getInterval());
+        assertThat("Interval exceeded maximum", controller.getInterval(), is(20000L));
+
+        // Jitter within the accuracy radius should not count as movement.
+        assertThat("Jitter treated as movement", controller.onLocation(60.0002D, 10.0D, 30.0F, Float.NaN, time += 20000L), is(20000L));
+
+        // Moving 200 meters should immediately lower the interval.
+        assertThat("Interval not lowered on movement", controller.onLocation(60.002D, 10.0D, 5.0F, 10.0F, time + 20000L), is(2000L));
+    }
+
+    @Test
+    public void speedBasedInterval() {
+        AdaptiveIntervalController controller = new AdaptiveIntervalController(1000L, 20000L);
+        long time = 0L;
+        assertThat("Interval not raised gradually", controller.onLocation(60.0D, 10.0D, 5.0F, 2.0F, time), is(2000L));
+        assertThat("Interval not raised gradually", controller.onLocation(60.00004D, 10.0D, 5.0F, 2.0F, time += 2000L), is(4000L));
+        assertThat("Interval not raised gradually", controller.onLocation(60.00011D, 10.0D, 5.0F, 2.0F, time += 4000L), is(8000L));
+        assertThat("Interval not based on speed", controller.onLocation(60.00025D, 10.0D, 5.0F, 2.0F, time += 8000L), is(10000L));
+        assertThat("Interval below minimum at high speed", controller.onLocation(60.003D, 10.0D, 5.0F, 30.0F, time + 10000L), is(1000L));
+    }
+
+    @Test
+    public void distance() {
+        assertThat("One degree of latitude improperly calculated", Math.round(AdaptiveIntervalController.distance(0.0D, 0.0D, 1.0D, 0.0D)), is(111195L));
+        assertThat("Zero distance improperly calculated", AdaptiveIntervalController.distance(60.0D, 10.0D, 60.0D, 10.0D), is(0.0D));
+    }
+}
@@ -0,0 +1,53 @@
+package info.varden.hauk.service;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class LocationFilterTest {
+
+    // Degrees of latitude per 10 meters.
+    private static final double STEP = 10.0D / 111195.0D;
+
+    @Test
+    public void smoothing() {
+        LocationFilter filter = new LocationFilter();
+        long time = 0L;
+        for (int i = 0; i < 20; i++) {
+            // Noise of 10 meters either side of the actual position.
+            assertThat("Noisy fix rejected", filter.update(60.0D + (i % 2 == 0 ? STEP : -STEP), 10.0D, 10.0F, 0.0F, time += 1000L), is(true));
+        }
+        assertThat("Estimate not smoothed", AdaptiveIntervalController.distance(60.0D, 10.0D, filter.getLatitude(), filter.getLongitude()) < 5.0D, is(true));
+        assertThat("Estimate not more accurate than fixes", filter.getAccuracy() < 10.0F, is(true));
+    }
+
+    @Test
+    public void coarseFusion() {
+        LocationFilter filter = new LocationFilter();
+        long time = 0L;
+        for (int i = 0; i < 10; i++) filter.update(60.0D, 10.0D, 5.0F, 0.0F, time += 1000L);
+
+        // A coarse fix 300 meters away should barely move the estimate.
+        assertThat("Coarse fix rejected", filter.update(60.0D + 30 * STEP, 10.0D, 500.0F, Float.NaN, time + 1000L), is(true));
+        assertThat("Estimate jumped to coarse fix", AdaptiveIntervalController.distance(60.0D, 10.0D, filter.getLatitude(), filter.getLongitude()) < 10.0D, is(true));
+    }
+
+    @Test
+    public void outliers() {
+        LocationFilter filter = new LocationFilter();
+        long time = 0L;
+        for (int i = 0; i < 10; i++) filter.update(60.0D, 10.0D, 5.0F, 0.0F, time += 1000L);
+
+        // A jump of 5 km in one second is not possible.
+        for (int i = 0; i < 3; i++) {
+            assertThat("Impossible jump accepted", filter.update(60.0D + 500 * STEP, 10.0D, 5.0F, Float.NaN, time += 1000L), is(false));
+            assertThat("Outlier distance not reported", Math.round(filter.getLastDistance() / 1000.0D), is(5L));
+        }
+        assertThat("Estimate changed by outliers", filter.getLatitude(), is(60.0D));
+
+        // Repeated fixes at the new position mean the device really is there.
+        assertThat("Filter not reset after repeated outliers", filter.update(60.0D + 500 * STEP, 10.0D, 5.0F, Float.NaN, time + 1000L), is(true));
+        assertThat("Filter not reset to new position", filter.getLatitude(), is(60.0D + 500 * STEP));
+    }
+}
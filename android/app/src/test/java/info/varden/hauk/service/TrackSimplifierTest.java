@@ -0,0 +1,62 @@
+package info.varden.hauk.service;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class TrackSimplifierTest {
+
+    // Degrees of latitude per 10 meters.
+    private static final double STEP = 10.0D / 111195.0D;
+
+    @Test
+    public void straightLine() {
+        TrackSimplifier simplifier = new TrackSimplifier(5.0F, 20000L);
+        int sent = 0;
+        for (int i = 0; i < 60; i++) {
+            boolean result = simplifier.offer(60.0D + i * STEP, 10.0D, 5.0F, 10.0F, i * 1000L);
+            if (i < 2) assertThat("Start of track not sent", result, is(true));
+            if (result) sent++;
+        }
+        assertThat("Predictable fixes sent, or gap exceeded", sent, is(4));
+    }
+
+    @Test
+    public void turn() {
+        TrackSimplifier simplifier = new TrackSimplifier(5.0F, 20000L);
+        long time = 0L;
+        for (int i = 0; i < 5; i++) simplifier.offer(60.0D + i * STEP, 10.0D, 5.0F, 10.0F, time += 1000L);
+        assertThat("Straight fix sent", simplifier.offer(60.0D + 5 * STEP, 10.0D, 5.0F, 10.0F, time += 1000L), is(false));
+        assertThat("Heading change not sent", simplifier.offer(60.0D + 5 * STEP, 10.0D + 2 * STEP, 5.0F, 10.0F, time + 1000L), is(true));
+    }
+
+    @Test
+    public void stop() {
+        TrackSimplifier simplifier = new TrackSimplifier(50.0F, 20000L);
+        long time = 0L;
+        for (int i = 0; i < 5; i++) simplifier.offer(60.0D + i * STEP, 10.0D, 5.0F, 10.0F, time += 1000L);
+        assertThat("Stop not sent", simplifier.offer(60.0D + 4 * STEP, 10.0D, 5.0F, 0.0F, time += 1000L), is(true));
+        assertThat("Stationary fix sent", simplifier.offer(60.0D + 4 * STEP, 10.0D, 5.0F, 0.0F, time += 1000L), is(false));
+        assertThat("Start not sent", simplifier.offer(60.0D + 5 * STEP, 10.0D, 5.0F, 10.0F, time + 1000L), is(true));
+    }
+
+    @Test
+    public void accuracyJump() {
+        TrackSimplifier simplifier = new TrackSimplifier(5.0F, 20000L);
+        long time = 0L;
+        for (int i = 0; i < 5; i++) simplifier.offer(60.0D + i * STEP, 10.0D, 5.0F, 10.0F, time += 1000L);
+        assertThat("Small accuracy change sent", simplifier.offer(60.0D + 5 * STEP, 10.0D, 8.0F, 10.0F, time += 1000L), is(false));
+        assertThat("Accuracy jump not sent", simplifier.offer(60.0D + 6 * STEP, 10.0D, 50.0F, 10.0F, time + 1000L), is(true));
+    }
+
+    @Test
+    public void deviation() {
+        TrackSimplifier simplifier = new TrackSimplifier(5.0F, 20000L);
+        long time = 0L;
+        for (int i = 0; i < 5; i++) simplifier.offer(60.0D + i * STEP, 10.0D, 5.0F, 10.0F, time += 1000L);
+        // Slowing down leaves the fix 8 meters behind its predicted position.
+        assertThat("Deviating fix not sent", simplifier.offer(60.0D + 4.2D * STEP, 10.0D, 5.0F, 2.0F, time + 1000L), is(true));
+        assertThat("Prediction error not reported", Math.round(simplifier.getLastError()), is(8L));
+    }
+}
@@ -0,0 +1,129 @@
+package info.varden.hauk.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import info.varden.hauk.Constants;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class UploadSchedulerTest {
+
+    private FakePlatform platform;
+    private int windowsOpened;
+    private UploadScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        this.platform = new FakePlatform();
+        this.windowsOpened = 0;
+        this.scheduler = new UploadScheduler(null, this.platform, new UploadScheduler.Listener() {
+            @Override
+            public void onWindowOpened() {
+                UploadSchedulerTest.this.windowsOpened++;
+            }
+        });
+    }
+
+    @Test
+    public void idleModes() {
+        assertThat("Restricted while awake", this.scheduler.isRestricted(), is(false));
+        this.platform.lightIdle = true;
+        assertThat("Not restricted in light idle", this.scheduler.isRestricted(), is(true));
+        this.platform.lightIdle = false;
+        this.platform.deepIdle = true;
+        assertThat("Not restricted in deep idle", this.scheduler.isRestricted(), is(true));
+    }
+
+    @Test
+    public void exemption() {
+        this.platform.deepIdle = true;
+        this.platform.exempt = true;
+        assertThat("Exempted app restricted while idle", this.scheduler.isRestricted(), is(false));
+    }
+
+    @Test
+    public void idleChanges() {
+        this.platform.deepIdle = true;
+        this.scheduler.onIdleChanged();
+        assertThat("Window opened when entering idle", this.windowsOpened, is(0));
+        this.platform.deepIdle = false;
+        this.platform.lightIdle = true;
+        this.scheduler.onIdleChanged();
+        assertThat("Window opened when switching idle mode", this.windowsOpened, is(0));
+        this.platform.lightIdle = false;
+        this.scheduler.onIdleChanged();
+        assertThat("Window not opened when leaving idle", this.windowsOpened, is(1));
+    }
+
+    @Test
+    public void wakeupWindow() {
+        this.platform.deepIdle = true;
+        this.platform.time = 1000L;
+        this.scheduler.requestWakeup(5000L);
+        assertThat("Wakeup not scheduled", this.platform.wakeupTime, is(6000L));
+
+        this.platform.time = 6000L;
+        this.scheduler.onWakeup();
+        assertThat("Window not opened on wakeup", this.windowsOpened, is(1));
+        assertThat("Restricted during wakeup window", this.scheduler.isRestricted(), is(false));
+        this.platform.time += Constants.UPLOAD_WAKEUP_WINDOW - 1L;
+        assertThat("Restricted during wakeup window", this.scheduler.isRestricted(), is(false));
+        this.platform.time += 1L;
+        assertThat("Not restricted after wakeup window", this.scheduler.isRestricted(), is(true));
+    }
+
+    @Test
+    public void wakeupDeduplication() {
+        this.platform.deepIdle = true;
+        this.scheduler.requestWakeup(5000L);
+        this.scheduler.requestWakeup(1000L);
+        assertThat("Pending wakeup rescheduled", this.platform.wakeupsSet, is(1));
+        assertThat("Pending wakeup rescheduled", this.platform.wakeupTime, is(5000L));
+
+        this.scheduler.onWakeup();
+        this.scheduler.requestWakeup(1000L);
+        assertThat("Wakeup not scheduled after previous wakeup fired", this.platform.wakeupsSet, is(2));
+    }
+
+    private static final class FakePlatform implements UploadScheduler.Platform {
+        private boolean exempt = false;
+        private boolean deepIdle = false;
+        private boolean lightIdle = false;
+        private long time = 0L;
+        private long wakeupTime = -1L;
+        private int wakeupsSet = 0;
+
+        @Override
+        public boolean isExempt() {
+            return this.exempt;
+        }
+
+        @Override
+        public boolean isDeviceIdle() {
+            return this.deepIdle;
+        }
+
+        @Override
+        public boolean isDeviceLightIdle() {
+            return this.lightIdle;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return this.time;
+        }
+
+        @Override
+        public void setWakeup(long time) {
+            this.wakeupTime = time;
+            this.wakeupsSet++;
+        }
+
+        @Override
+        public void cancelWakeup() {
+            this.wakeupTime = -1L;
+        }
+    }
+}
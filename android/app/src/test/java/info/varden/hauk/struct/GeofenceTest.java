@@ -0,0 +1,56 @@
+package info.varden.hauk.struct;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class GeofenceTest {
+
+    // Degrees of latitude per 10 meters.
+    private static final double STEP = 10.0D / 111195.0D;
+
+    @Test
+    public void parse() {
+        assertThat("Empty list not empty", Geofence.parseList("").isEmpty(), is(true));
+        assertThat("Null list not empty", Geofence.parseList(null).isEmpty(), is(true));
+
+        List<Geofence> zones = Geofence.parseList(" 59.9139, 10.7522, 200 ;60,11,50;");
+        assertThat("Wrong number of zones", zones.size(), is(2));
+        assertThat("Zone parsed incorrectly", zones.get(1).toString(), is("60.0,11.0,50.0"));
+    }
+
+    @Test
+    public void invalid() {
+        for (String list : new String[] {"60,11", "60,11,50,1", "91,11,50", "60,181,50", "60,11,0", "60,11,abc"}) {
+            try {
+                Geofence.parseList(list);
+                fail("Invalid list accepted: " + list);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void distance() {
+        Geofence zone = new Geofence(60.0D, 10.0D, 100.0F);
+        assertThat("Center not inside", Math.round(zone.distanceToEdge(60.0D, 10.0D)), is(-100L));
+        assertThat("Point inside not inside", Math.round(zone.distanceToEdge(60.0D + 5 * STEP, 10.0D)), is(-50L));
+        assertThat("Point outside not outside", Math.round(zone.distanceToEdge(60.0D + 15 * STEP, 10.0D)), is(50L));
+    }
+
+    @Test
+    public void serialization() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new Geofence(59.9139D, 10.7522D, 200.0F).writeTo(new DataOutputStream(bytes));
+        Geofence read = Geofence.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertThat("Geofence changed by serialization", read.toString(), is("59.9139,10.7522,200.0"));
+    }
+}
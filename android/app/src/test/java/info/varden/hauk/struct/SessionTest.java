@@ -0,0 +1,58 @@
+package info.varden.hauk.struct;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import info.varden.hauk.http.ConnectionParameters;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class SessionTest {
+
+    private static Session create(List<Geofence> quietZones) {
+        ConnectionParameters params = new ConnectionParameters(null, null, 10000, CertificateValidationPolicy.VALIDATE_ALL);
+        return new Session("https://example.com/", params, new Version("1.8"), "sid", Long.MAX_VALUE, 1, 60, 0.0F, 1, 0, null, quietZones);
+    }
+
+    private static Session roundTrip(Session session) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        session.writeTo(new DataOutputStream(bytes));
+        return Session.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    public void quietZones() throws IOException {
+        Session read = roundTrip(create(Collections.singletonList(new Geofence(60.0D, 10.0D, 100.0F))));
+        assertThat("Wrong number of quiet zones", read.getQuietZones().size(), is(1));
+        assertThat("Quiet zone changed by serialization", read.getQuietZones().get(0).toString(), is("60.0,10.0,100.0"));
+    }
+
+    @Test
+    public void legacyMigration() throws IOException, ClassNotFoundException {
+        // Sessions serialized by older versions of the app have no quiet zones field, which leaves
+        // it null when they are deserialized for migration to the resumption journal.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(create(null));
+        }
+        Session legacy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            legacy = (Session) in.readObject();
+        }
+
+        Session read = roundTrip(legacy);
+        assertThat("Session ID changed by migration", read.getID(), is("sid"));
+        assertThat("Legacy session has quiet zones", read.getQuietZones().isEmpty(), is(true));
+    }
+}
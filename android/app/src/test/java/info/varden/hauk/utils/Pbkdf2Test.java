@@ -0,0 +1,58 @@
+package info.varden.hauk.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CancellationException;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class Pbkdf2Test {
+
+    private static final byte[] PASSWORD = "password".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SALT = "salt".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void rfc6070() throws GeneralSecurityException {
+        assertThat("Output for c=1 does not match RFC 6070", StringUtils.bytesToHex(Pbkdf2.deriveHmacSha1(PASSWORD, SALT, 1, 20, null)), is("0C60C80F961F0E71F3A9B524AF6012062FE037A6"));
+        assertThat("Output for c=2 does not match RFC 6070", StringUtils.bytesToHex(Pbkdf2.deriveHmacSha1(PASSWORD, SALT, 2, 20, null)), is("EA6C014DC72D6F8CCD1ED92ACE1D41F0D8DE8957"));
+        assertThat("Output for c=4096 does not match RFC 6070", StringUtils.bytesToHex(Pbkdf2.deriveHmacSha1(PASSWORD, SALT, 4096, 20, null)), is("4B007901B765489ABEAD49D926F721D065A429C1"));
+    }
+
+    @Test
+    public void matchesKeyFactory() throws GeneralSecurityException {
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        byte[] expected = factory.generateSecret(new PBEKeySpec("password".toCharArray(), SALT, 4096, 256)).getEncoded();
+        assertThat("Output does not match key factory", Pbkdf2.deriveHmacSha1(PASSWORD, SALT, 4096, 32, null), is(expected));
+    }
+
+    @Test
+    public void progress() throws GeneralSecurityException {
+        final int[] last = new int[2];
+        Pbkdf2.deriveHmacSha1(PASSWORD, SALT, 4096, 32, new Pbkdf2.ProgressListener() {
+            @Override
+            public void onProgress(int done, int total) {
+                assertThat("Progress went backwards", done >= last[0], is(true));
+                last[0] = done;
+                last[1] = total;
+            }
+        });
+        assertThat("Progress did not reach total", last[0], is(8192));
+        assertThat("Total does not cover all blocks", last[1], is(8192));
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancellation() throws GeneralSecurityException {
+        Thread.currentThread().interrupt();
+        try {
+            Pbkdf2.deriveHmacSha1(PASSWORD, SALT, 4096, 20, null);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package info.varden.hauk.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class TraceBufferTest {
+
+    private static final class Collector implements TraceBuffer.Visitor {
+        private long lost = -1L;
+        private final List<long[]> events = new ArrayList<>();
+
+        @Override
+        public void onSegment(long lost) {
+            this.lost = lost;
+        }
+
+        @Override
+        public void onEvent(long wallTime, int event, long[] fields) {
+            this.events.add(new long[] {wallTime, event, fields[0], fields[1], fields[2]});
+        }
+    }
+
+    private static Collector roundTrip(TraceBuffer buffer, long wallTime, long monotonicTime) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        buffer.drainTo(new DataOutputStream(bytes), wallTime, monotonicTime);
+        Collector collector = new Collector();
+        TraceBuffer.readSegment(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), collector);
+        return collector;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        TraceBuffer buffer = new TraceBuffer(8);
+        buffer.add(1000L, 3, 1L, -1L, 250L);
+        buffer.add(2500L, 7, 4L, 12L, 0L);
+
+        Collector collector = roundTrip(buffer, 1600000010000L, 10000L);
+        assertThat("Events lost without overflow", collector.lost, is(0L));
+        assertThat("Wrong number of events", collector.events.size(), is(2));
+        assertThat("First event improperly read", collector.events.get(0), is(new long[] {1600000001000L, 3L, 1L, -1L, 250L}));
+        assertThat("Second event improperly read", collector.events.get(1), is(new long[] {1600000002500L, 7L, 4L, 12L, 0L}));
+        assertThat("Buffer not emptied", buffer.size(), is(0));
+    }
+
+    @Test
+    public void overflow() throws IOException {
+        TraceBuffer buffer = new TraceBuffer(4);
+        for (int i = 0; i < 10; i++) buffer.add(i, 1, i, 0L, 0L);
+        assertThat("Buffer grew past capacity", buffer.size(), is(4));
+
+        Collector collector = roundTrip(buffer, 100L, 100L);
+        assertThat("Overwritten events not counted", collector.lost, is(6L));
+        for (int i = 0; i < 4; i++) {
+            assertThat("Oldest events not overwritten", collector.events.get(i)[2], is((long) (6 + i)));
+        }
+
+        buffer.add(20L, 1, 20L, 0L, 0L);
+        collector = roundTrip(buffer, 100L, 100L);
+        assertThat("Lost count not reset", collector.lost, is(0L));
+        assertThat("Event after drain improperly stored", collector.events.get(0)[2], is(20L));
+    }
+}
@@ -18,10 +18,32 @@ if (!$share->exists()) {
     header("HTTP/1.1 404 Not Found");
     die($LANG['session_invalid']."\n");
 } else {
+    // Since backend version 1.7, viewers may request delta-encoded points.
+    $delta = isset($_GET["delta"]) && $_GET["delta"] == "1";
+
+    // Viewers poll this script once per interval, and most polls happen when
+    // nothing has changed. An entity tag derived from the modification stamps
+    // of the share's sessions lets those polls be answered without loading or
+    // serializing any location data. The response must not be cached by the
+    // browser, since the viewer handles revalidation itself.
+    header("Cache-Control: no-store");
+    $etag = $share->getETag($delta ? "delta" : "full");
+    if ($etag !== null) {
+        header("ETag: ".$etag);
+        if (isset($_SERVER["HTTP_IF_NONE_MATCH"]) && $_SERVER["HTTP_IF_NONE_MATCH"] === $etag) {
+            header("HTTP/1.1 304 Not Modified");
+            exit;
+        }
+    }
+
     header("Content-Type: text/json");
 
     $sinceTime=$_GET["since"] ?? null;
 
+    // Since backend version 1.8, viewers of end-to-end encrypted shares send
+    // the latest receive time of the packed points they have already seen.
+    $sinceReceived = $_GET["recv"] ?? null;
+
     // Solo and group shares have different internal structures. Figure out the
     // correct type so that it can be output.
     switch ($share->getType()) {
@@ -36,7 +58,8 @@ if (!$share->exists()) {
                 "expire" => $share->getExpirationTime(),
                 "serverTime" => microtime(true),
                 "interval" => $session->getInterval(),
-                "points" => $session->getPoints($sinceTime),
+                "points" => $delta ? $session->getDeltaPoints($sinceTime, $sinceReceived) : $session->getPoints($sinceTime, $sinceReceived),
+                "delta" => $delta && !$session->isEncrypted(),
                 "encrypted" => $session->isEncrypted(),
                 "salt" => $session->getEncryptionSalt()
             ));
@@ -48,7 +71,8 @@ if (!$share->exists()) {
                 "expire" => $share->getExpirationTime(),
                 "serverTime" => microtime(true),
                 "interval" => $share->getAutoInterval(),
-                "points" => $share->getAllPoints($sinceTime)
+                "points" => $share->getAllPoints($sinceTime, $delta),
+                "delta" => $delta
             ));
             break;
     }
@@ -7,13 +7,41 @@
 include("../include/inc.php");
 header("X-Hauk-Version: ".BACKEND_VERSION);
 
+// Since backend version 1.7, clients may send location updates in a compact
+// binary format instead of form data. Binary updates are decoded into the same
+// fields as a form-encoded batch of location updates.
+//
+// Since backend version 1.8, clients on metered or slow connections may
+// compress the request body with gzip. PHP does not decompress request bodies,
+// so compressed form data is parsed here as well.
+if (isGzipPost()) {
+    $body = readGzipPost();
+    if (isBinaryPost()) {
+        $_POST = decodeBinaryPost($body);
+    } else {
+        $_POST = array();
+        parse_str($body, $_POST);
+    }
+} else if (isBinaryPost()) {
+    $_POST = decodeBinaryPost(file_get_contents("php://input"));
+}
+
 requirePOST(
-    "lat",  // Current latitude.
-    "lon",  // Current longitude.
-    "time", // Current timestamp.
     "sid"   // Session ID to post to.
 );
 
+// Since backend version 1.7, end-to-end encrypted clients may send all data
+// fields of a location update as a single packed field instead of separate
+// latitude, longitude and timestamp fields.
+$primary = isset($_POST["pkd"]) ? "pkd" : "lat";
+if ($primary == "lat") {
+    requirePOST(
+        "lat",  // Current latitude.
+        "lon",  // Current longitude.
+        "time"  // Current timestamp.
+    );
+}
+
 $memcache = memConnect();
 
 // Retrieve the session data from memcached.
@@ -21,43 +49,79 @@ $sid = $_POST["sid"];
 $session = new Client($memcache, $sid);
 if (!$session->exists()) die($LANG['session_expired']."\n");
 
+// Since backend version 1.7, the client may send several location updates in
+// one request. In that case, every data field is an array, with one entry per
+// location update, ordered from oldest to newest. Single location updates are
+// treated as a batch of one.
+if (is_array($_POST[$primary])) {
+    $indices = array_keys($_POST[$primary]);
+    $fields = $_POST;
+} else {
+    $indices = [0];
+    $fields = array();
+    foreach ($_POST as $key => $value) $fields[$key] = [$value];
+}
+
 if (!$session->isEncrypted()) {
-    // Perform input validation.
-    $lat = floatval($_POST["lat"]);
-    $lon = floatval($_POST["lon"]);
-    $time = floatval($_POST["time"]);
-    if ($lat < -90 || $lat > 90 || $lon < -180 || $lon > 180) die($LANG['location_invalid']."\n");
-
-    // Not all devices report speed and accuracy, but if available, report them
-    // too.
-    $speed = isset($_POST["spd"]) ? floatval($_POST["spd"]) : null;
-    $accuracy = isset($_POST["acc"]) ? floatval($_POST["acc"]) : null;
-    $provider = isset($_POST["prv"]) && $_POST["prv"] == "1" ? 1 : 0;
-
-    // The location data object contains the sharing interval (i), duration (d)
-    // and a location list (l). Each entry in the location list contains a
-    // latitude, longitude, timestamp, provider, accuracy and speed, in that
-    // order, as an array.
-    $session->addPoint([$lat, $lon, $time, $provider, $accuracy, $speed])->save();
+    foreach ($indices as $i) {
+        if (!isset($fields["lat"][$i]) || !isset($fields["lon"][$i]) || !isset($fields["time"][$i])) die("Missing data!\n");
 
-} else {
-    // Input validation cannot be performed for end-to-end encrypted data.
-    $lat = $_POST["lat"];
-    $lon = $_POST["lon"];
-    $time = $_POST["time"];
-    $speed = isset($_POST["spd"]) ? $_POST["spd"] : null;
-    $accuracy = isset($_POST["acc"]) ? $_POST["acc"] : null;
-    $provider = isset($_POST["prv"]) ? $_POST["prv"] : null;
+        // Perform input validation.
+        $lat = floatval($fields["lat"][$i]);
+        $lon = floatval($fields["lon"][$i]);
+        $time = floatval($fields["time"][$i]);
+        if ($lat < -90 || $lat > 90 || $lon < -180 || $lon > 180) die($LANG['location_invalid']."\n");
 
+        // Not all devices report speed and accuracy, but if available, report
+        // them too.
+        $speed = isset($fields["spd"][$i]) ? floatval($fields["spd"][$i]) : null;
+        $accuracy = isset($fields["acc"][$i]) ? floatval($fields["acc"][$i]) : null;
+        $provider = isset($fields["prv"][$i]) && $fields["prv"][$i] == "1" ? 1 : 0;
+
+        // The location data object contains the sharing interval (i), duration
+        // (d) and a location list (l). Each entry in the location list contains
+        // a latitude, longitude, timestamp, provider, accuracy and speed, in
+        // that order, as an array.
+        $session->addPoint([$lat, $lon, $time, $provider, $accuracy, $speed]);
+    }
+
+} else {
     // End-to-end encrypted connections also have an IV field used to decrypt
     // the data fields.
     requirePOST("iv");
-    $iv = $_POST["iv"];
 
-    // The IV field is prepended to the array to send to the client.
-    $session->addPoint([$iv, $lat, $lon, $time, $provider, $accuracy, $speed])->save();
+    foreach ($indices as $i) {
+        if (!isset($fields["iv"][$i])) die("Missing data!\n");
+        $iv = $fields["iv"][$i];
+
+        // Packed updates contain the latitude, longitude, timestamp, provider,
+        // accuracy and speed as one encrypted comma-separated string, and are
+        // stored as an array of the IV, the packed data and the time the
+        // update was received by the server. The timestamp of the update
+        // itself is encrypted, so viewers request new packed points by the
+        // receive time instead.
+        if (isset($fields["pkd"][$i])) {
+            $session->addPoint([$iv, $fields["pkd"][$i], microtime(true)]);
+            continue;
+        }
+        if (!isset($fields["lat"][$i]) || !isset($fields["lon"][$i]) || !isset($fields["time"][$i])) die("Missing data!\n");
+
+        // Input validation cannot be performed for end-to-end encrypted data.
+        $lat = $fields["lat"][$i];
+        $lon = $fields["lon"][$i];
+        $time = $fields["time"][$i];
+        $speed = isset($fields["spd"][$i]) ? $fields["spd"][$i] : null;
+        $accuracy = isset($fields["acc"][$i]) ? $fields["acc"][$i] : null;
+        $provider = isset($fields["prv"][$i]) ? $fields["prv"][$i] : null;
+
+        // The IV field is prepended to the array to send to the client.
+        $session->addPoint([$iv, $lat, $lon, $time, $provider, $accuracy, $speed]);
+    }
 }
 
+// All points in the request are written to storage at once.
+$session->save();
+
 if ($session->hasExpired()) {
     echo $LANG['session_expired']."\n";
 } else {
@@ -259,6 +259,13 @@
 // the page.
 "max_cached_pts"    => 3,
 
+// Whether to store the data points of each share in a separate list instead of
+// together with the rest of the share's data. When enabled, each location
+// update only appends the new points to the list, rather than reading and
+// rewriting all stored points, and concurrent updates do not overwrite each
+// other. This is recommended if `max_cached_pts` is set to a high value.
+"separate_point_storage" => false,
+
 // Maximum number of data points that may be visible on the map at any time.
 // This is used to draw trails behind the current location map marker. Higher
 // values will show longer trails, but may reduce performance.
@@ -3,7 +3,7 @@
 // An include file containing constants and common functions for the Hauk
 // backend. It loads the configuration file and declares it as a constant.
 
-const BACKEND_VERSION = "1.6.2";
+const BACKEND_VERSION = "1.8";
 const LANGUAGES = ["ca", "de", "en", "eu", "fr", "it", "nb_NO", "nl", "nn", "ro", "ru", "tr", "uk"];
 
 // Create mode for create.php. Corresponds with the constants from the Android
@@ -18,10 +18,33 @@ const SHARE_TYPE_ALONE = 0;
 const SHARE_TYPE_GROUP = 1;
 
 const SESSION_ID_SIZE = 32;
+
+// Location updates sent in the compact binary post format. See
+// BinaryLocationEncoder in the Android app for a description of the format.
+const BINARY_POST_CONTENT_TYPE = "application/vnd.hauk.location";
+const BINARY_POST_FORMAT_VERSION = 1;
+const BINARY_POST_FLAG_COARSE = 0x01;
+const BINARY_POST_FLAG_ACCURACY = 0x02;
+const BINARY_POST_FLAG_SPEED = 0x04;
+const BINARY_POST_FLAG_ACCURACY_METERS = 0x08;
+
+// Maximum size of a compressed request body once decompressed, in bytes.
+const GZIP_POST_MAX_SIZE = 1048576;
+
+// Number of units per degree in fixed-point coordinates.
+const COORDINATE_SCALE = 10000000;
 const LINK_ID_RAND_BYTES = 32;
 const GROUP_PIN_MIN = 100000;
 const GROUP_PIN_MAX = 999999;
 
+// Updates of location lists stored separately from their session. Updates are
+// attempted this many times before giving up if other requests keep changing
+// the list at the same time. Lock timeout is in seconds and retry delay is in
+// microseconds.
+const LIST_UPDATE_ATTEMPTS = 10;
+const LIST_LOCK_TIMEOUT = 5;
+const LIST_LOCK_RETRY_DELAY = 10000;
+
 const MEMCACHED = 0;
 const REDIS = 1;
 
@@ -145,6 +168,7 @@ const DEFAULTS = array(
     "offline_timeout"       => 30,
     "request_timeout"       => 10,
     "max_cached_pts"        => 3,
+    "separate_point_storage"=> false,
     "max_shown_pts"         => 100,
     "v_data_points"         => 2,
     "trail_color"           => '#d80037',
@@ -181,6 +205,8 @@ function getConfig($item) {
 define("PREFIX_SESSION", "-session-");
 define("PREFIX_LOCDATA", "-locdata-");
 define("PREFIX_GROUPID", "-groupid-");
+define("PREFIX_LASTMOD", "-lastmod-");
+define("PREFIX_POINTS", "-points-");
 
 // A base class for location shares. Shares contain a reference to all sessions
 // that broadcasts location data to the share, but does not contain the location
@@ -235,6 +261,24 @@ class Share {
         }
     }
 
+    // Returns an entity tag that changes whenever this share or the location
+    // data of any of its hosts changes, or null if it cannot be determined. Only
+    // the small modification stamps written when sessions are saved are read,
+    // so that unchanged data can be detected without loading the location data
+    // itself. $variant distinguishes between representations of the data.
+    public function getETag($variant) {
+        $keys = array();
+        foreach ($this->getHostSessionIDs() as $sid) $keys[] = PREFIX_LASTMOD.$sid;
+        $stamps = count($keys) > 0 ? $this->memcache->getMulti($keys) : array();
+        if (in_array(false, $stamps, true)) return null;
+        return '"'.md5($variant.json_encode($this->shareData).json_encode($stamps)).'"';
+    }
+
+    // Returns the session IDs of all hosts of this share.
+    protected function getHostSessionIDs() {
+        return array();
+    }
+
     // Whether or not the share exists. Returns false if the share was not found
     // in Memcached. Returns true if the share is newly created but not saved in
     // Memcached yet.
@@ -445,6 +489,10 @@ class SoloShare extends Share {
     public function getHost() {
         return new Client($this->memcache, $this->shareData["host"]);
     }
+
+    protected function getHostSessionIDs() {
+        return array($this->shareData["host"]);
+    }
 }
 
 // An extension to the Share base class for group shares. Such shares can have
@@ -525,6 +573,10 @@ class GroupShare extends Share {
         return $hosts;
     }
 
+    protected function getHostSessionIDs() {
+        return array_values($this->shareData["hosts"]);
+    }
+
     // Removes a host from the share. After calling, also call ->clean().
     public function removeHost($session) {
         while (($key = array_search($session->getSessionID(), $this->shareData["hosts"])) !== false) {
@@ -564,13 +616,14 @@ class GroupShare extends Share {
         return $interval;
     }
 
-    // Returns a map of nicknames and the users' corresponding coordinates.
-    public function getAllPoints($sinceTime) {
+    // Returns a map of nicknames and the users' corresponding coordinates. If
+    // $delta is true, the coordinates are delta-encoded as by getDeltaPoints().
+    public function getAllPoints($sinceTime, $delta = false) {
         $points = array();
         $hosts = $this->getHosts();
         foreach ($hosts as $nick => $host) {
             if ($host->exists()) {
-                $points[$nick] = $host->getPoints($sinceTime);
+                $points[$nick] = $delta ? $host->getDeltaPoints($sinceTime) : $host->getPoints($sinceTime);
             }
         }
         return $points;
@@ -591,6 +644,8 @@ class Client {
     private $memcache;      // A Memcached wrapper.
     private $sessionID;     // The hexadecimal ID of this session.
     private $sessionData;   // An array containing this session's data.
+    private $dirty;         // Whether the session data has unsaved changes.
+    private $newPoints;     // Points added but not yet appended to storage.
 
     // Creates a new Client instance. If $sid is provided, fetches the
     // corresponding session from Memcached. Otherwise, a new session is
@@ -608,10 +663,20 @@ class Client {
             );
             // Generate new session IDs for new sessions.
             $this->sessionID = $this->generateSessionID();
+            $this->dirty = true;
         } else {
             $this->sessionData = $memcache->get(PREFIX_SESSION.$sid);
             $this->sessionID = $sid;
+            $this->dirty = false;
         }
+        $this->newPoints = array();
+    }
+
+    // Whether location points are stored in a list separate from the rest of
+    // the session data. If they are, adding points only appends them to the
+    // list, instead of rewriting the whole session.
+    private static function hasSeparatePoints() {
+        return getConfig("separate_point_storage") === true;
     }
 
     // Whether or not this session exists in Memcached. Returns false if the
@@ -631,11 +696,26 @@ class Client {
         }
         // If the session has already expired, delete it instead of saving it to
         // clean up Memcached.
+        // A modification stamp is saved alongside the session, so that viewers
+        // can tell whether the session has changed without loading it.
+        // The session data itself is only written if it has changed, and new
+        // points stored separately are appended to their list.
         if (!$this->hasExpired()) {
-            $this->memcache->set(PREFIX_SESSION.$this->sessionID, $this->sessionData, $this->getExpirationTime());
+            if (!$this->dirty && count($this->newPoints) == 0) return $this;
+            if ($this->dirty) {
+                $this->memcache->set(PREFIX_SESSION.$this->sessionID, $this->sessionData, $this->getExpirationTime());
+            }
+            if (count($this->newPoints) > 0) {
+                $this->memcache->appendList(PREFIX_POINTS.$this->sessionID, $this->newPoints, getConfig("max_cached_pts"), $this->getExpirationTime());
+            }
+            $this->memcache->set(PREFIX_LASTMOD.$this->sessionID, microtime(true), $this->getExpirationTime());
         } else {
             $this->memcache->delete(PREFIX_SESSION.$this->sessionID);
+            $this->memcache->delete(PREFIX_LASTMOD.$this->sessionID);
+            $this->memcache->delete(PREFIX_POINTS.$this->sessionID);
         }
+        $this->dirty = false;
+        $this->newPoints = array();
         return $this;
     }
 
@@ -644,6 +724,8 @@ class Client {
     // list of shares is stored in the "targets" key of each session.)
     public function end() {
         $this->memcache->delete(PREFIX_SESSION.$this->sessionID);
+        $this->memcache->delete(PREFIX_LASTMOD.$this->sessionID);
+        $this->memcache->delete(PREFIX_POINTS.$this->sessionID);
         $targets = $this->getTargets();
         foreach ($targets as $share) {
             if ($share->exists()) {
@@ -668,6 +750,7 @@ class Client {
     // save() is called.
     public function setExpirationTime($expire) {
         $this->sessionData["expire"] = $expire;
+        $this->dirty = true;
         return $this;
     }
 
@@ -685,6 +768,7 @@ class Client {
     // effect until save() is called.
     public function setInterval($interval) {
         $this->sessionData["interval"] = $interval;
+        $this->dirty = true;
         return $this;
     }
 
@@ -697,6 +781,7 @@ class Client {
     public function setEncrypted($encrypted, $salt) {
         $this->sessionData["encrypted"] = $encrypted;
         $this->sessionData["salt"] = $salt;
+        $this->dirty = true;
         return $this;
     }
 
@@ -715,6 +800,7 @@ class Client {
     // Share instance. Does not take effect until save() is called.
     public function addTarget($share) {
         $this->sessionData["targets"][] = $share->getShareID();
+        $this->dirty = true;
         return $this;
     }
 
@@ -733,6 +819,7 @@ class Client {
         if (($key = array_search($share->getShareID(), $this->sessionData["targets"])) !== false) {
             unset($this->sessionData["targets"][$key]);
             $this->sessionData["targets"] = array_values($this->sessionData["targets"]);
+            $this->dirty = true;
         }
         return $this;
     }
@@ -748,27 +835,55 @@ class Client {
     // latter two elements may be null. Does not take effect until save() is
     // called.
     public function addPoint($point) {
+        if (self::hasSeparatePoints()) {
+            $this->newPoints[] = $point;
+            return $this;
+        }
         $this->sessionData["points"][] = $point;
         // Ensure that we don't exceed the maximum number of points stored in
         // memcached.
         while (count($this->sessionData["points"]) > getConfig("max_cached_pts")) {
             array_shift($this->sessionData["points"]);
         }
+        $this->dirty = true;
         return $this;
     }
 
-    // Returns a list of all point arrays for this session.
-    public function getPoints($sinceTime) {
-        if (is_null($sinceTime)) {
+    // Returns all stored point arrays for this session, oldest first. Points
+    // stored in the session data before separate point storage was enabled
+    // are returned ahead of the separately stored ones.
+    private function getStoredPoints() {
+        if (!self::hasSeparatePoints()) return $this->sessionData["points"];
+        $points = array_merge(
+            $this->sessionData["points"],
+            $this->memcache->getList(PREFIX_POINTS.$this->sessionID),
+            $this->newPoints
+        );
+        return array_slice($points, -getConfig("max_cached_pts"));
+    }
+
+    // Returns a list of all point arrays for this session. If $sinceTime is
+    // given, only points with a more recent timestamp are returned. Packed end-
+    // to-end encrypted points have no plaintext timestamp, and are instead
+    // filtered by the time they were received by the server if
+    // $sinceReceived is given. Packed points stored before receive times were
+    // recorded are only returned if $sinceReceived is not given.
+    public function getPoints($sinceTime, $sinceReceived = null) {
+        $stored = $this->getStoredPoints();
+        if (is_null($sinceTime) && is_null($sinceReceived)) {
             // return all memcached points
-        return $this->sessionData["points"];
+        return $stored;
         } else {
             $newPoints = [];
             // FIXME: use map instead of indices
             $timeIndex = $this->isEncrypted() ? 3 : 2;
             // only return points which are more recent than $oldestPointTime
-            foreach ($this->sessionData["points"] as $point) {
-                if (floatval($point[$timeIndex]) > $sinceTime) {
+            foreach ($stored as $point) {
+                if ($this->isEncrypted() && count($point) <= 3) {
+                    if (is_null($sinceReceived) || (isset($point[2]) && floatval($point[2]) > $sinceReceived)) {
+                        array_push($newPoints, $point);
+                    }
+                } else if (is_null($sinceTime) || floatval($point[$timeIndex]) > $sinceTime) {
                     array_push($newPoints, $point);
                 }
             }
@@ -776,6 +891,33 @@ class Client {
         }
     }
 
+    // Returns the location points of this session that are more recent than
+    // $sinceTime, delta-encoded for viewers that support it. The latitude and
+    // longitude are sent as differences in fixed-point units of
+    // 1/COORDINATE_SCALE degrees, and the timestamp as a difference in
+    // milliseconds, from the previous point, or from zero for the first point.
+    // The remaining fields are sent unchanged. End-to-end encrypted points
+    // cannot be delta-encoded and are returned as-is.
+    public function getDeltaPoints($sinceTime, $sinceReceived = null) {
+        $points = $this->getPoints($sinceTime, $sinceReceived);
+        if ($this->isEncrypted()) return $points;
+
+        $encoded = array();
+        $lat = 0;
+        $lon = 0;
+        $time = 0;
+        foreach ($points as $point) {
+            $pointLat = (int) round($point[0] * COORDINATE_SCALE);
+            $pointLon = (int) round($point[1] * COORDINATE_SCALE);
+            $pointTime = (int) round($point[2] * 1000);
+            $encoded[] = array_merge([$pointLat - $lat, $pointLon - $lon, $pointTime - $time], array_slice($point, 3));
+            $lat = $pointLat;
+            $lon = $pointLon;
+            $time = $pointTime;
+        }
+        return $encoded;
+    }
+
     // Generates a random session ID for new sessions.
     private function generateSessionID() {
         $sid = "";
@@ -793,6 +935,94 @@ function requirePOST(...$args) {
     }
 }
 
+// Returns whether or not the request body is compressed with gzip.
+function isGzipPost() {
+    return isset($_SERVER["HTTP_CONTENT_ENCODING"]) && strtolower(trim($_SERVER["HTTP_CONTENT_ENCODING"])) == "gzip";
+}
+
+// Returns the decompressed request body of a gzip-compressed request.
+function readGzipPost() {
+    $body = gzdecode(file_get_contents("php://input"), GZIP_POST_MAX_SIZE);
+    if ($body === false) die("Invalid compressed data!\n");
+    return $body;
+}
+
+// Returns whether or not the request body is a location update in the binary
+// post format.
+function isBinaryPost() {
+    return isset($_SERVER["CONTENT_TYPE"]) && trim(strtok($_SERVER["CONTENT_TYPE"], ";")) == BINARY_POST_CONTENT_TYPE;
+}
+
+// Decodes a location update in the binary post format into the same fields as
+// a form-encoded batch location update, i.e. the session ID, and an array for
+// each data field with one entry per location point.
+function decodeBinaryPost($body) {
+    $pos = 0;
+    if (binaryReadU8($body, $pos) != BINARY_POST_FORMAT_VERSION) die("Unsupported data format!\n");
+
+    $sidLength = binaryReadU8($body, $pos);
+    $fields = array("sid" => bin2hex(binaryRead($body, $pos, $sidLength)));
+    $count = binaryReadU8($body, $pos);
+
+    // Timestamps are sent in milliseconds relative to the previous point, and
+    // coordinates as fixed-point numbers relative to the previous point.
+    $time = unpack("N", binaryRead($body, $pos, 4))[1] * 1000;
+    $lat = 0;
+    $lon = 0;
+    for ($i = 0; $i < $count; $i++) {
+        $flags = binaryReadU8($body, $pos);
+        $time += binaryReadSignedVarint($body, $pos);
+        if ($i == 0) {
+            $lat = binaryReadS32($body, $pos);
+            $lon = binaryReadS32($body, $pos);
+        } else {
+            $lat += binaryReadSignedVarint($body, $pos);
+            $lon += binaryReadSignedVarint($body, $pos);
+        }
+
+        $fields["lat"][$i] = $lat / COORDINATE_SCALE;
+        $fields["lon"][$i] = $lon / COORDINATE_SCALE;
+        $fields["time"][$i] = $time / 1000;
+        $fields["prv"][$i] = $flags & BINARY_POST_FLAG_COARSE ? 1 : 0;
+        if ($flags & BINARY_POST_FLAG_ACCURACY) $fields["acc"][$i] = binaryReadU16($body, $pos) / ($flags & BINARY_POST_FLAG_ACCURACY_METERS ? 1 : 10);
+        if ($flags & BINARY_POST_FLAG_SPEED) $fields["spd"][$i] = binaryReadU16($body, $pos) / 100;
+    }
+    return $fields;
+}
+
+// Reads the given number of bytes from a binary string, starting at $pos, and
+// advances $pos past them.
+function binaryRead($data, &$pos, $length) {
+    if ($pos + $length > strlen($data)) die("Missing data!\n");
+    $bytes = substr($data, $pos, $length);
+    $pos += $length;
+    return $bytes;
+}
+
+function binaryReadU8($data, &$pos) {
+    return ord(binaryRead($data, $pos, 1));
+}
+
+function binaryReadU16($data, &$pos) {
+    return unpack("n", binaryRead($data, $pos, 2))[1];
+}
+
+function binaryReadS32($data, &$pos) {
+    $value = unpack("N", binaryRead($data, $pos, 4))[1];
+    return $value >= 0x80000000 ? $value - 0x100000000 : $value;
+}
+
+// Reads a zigzag-encoded signed LEB128 varint.
+function binaryReadSignedVarint($data, &$pos) {
+    $value = 0;
+    for ($shift = 0; $shift < 63; $shift += 7) {
+        $byte = binaryReadU8($data, $pos);
+        $value |= ($byte & 0x7F) << $shift;
+        if (($byte & 0x80) == 0) return ($value >> 1) ^ -($value & 1);
+    }
+    die("Invalid data!\n");
+}
+
 // Checks whether or not the user is correctly authenticated based on the
 // server's requirements.
 function authenticated() {
@@ -20,6 +20,20 @@ class MemWrapper {
         return json_decode($data, true);
     }
 
+    // Fetches several keys at once. Returns an array with one entry per key,
+    // in the same order, where missing keys are false.
+    function getMulti($keys) {
+        $prefix = getConfig("memcached_prefix");
+        $prefixed = array();
+        foreach ($keys as $key) $prefixed[] = $prefix.$key;
+        $found = $this->memcache->get($prefixed);
+        $result = array();
+        foreach ($prefixed as $key) {
+            $result[] = isset($found[$key]) ? json_decode($found[$key], true) : false;
+        }
+        return $result;
+    }
+
     function set($key, $data, $expire) {
         $this->memcache->set(getConfig("memcached_prefix").$key, json_encode($data), 0, $expire);
     }
@@ -27,6 +41,30 @@ class MemWrapper {
     function delete($key) {
         $this->memcache->delete(getConfig("memcached_prefix").$key);
     }
+
+    // Appends the given items to the list stored at the given key, and trims
+    // the list so that only the last $max items are kept. The `memcache`
+    // extension does not support compare-and-swap, so the list is instead
+    // locked with a short-lived key while it is updated.
+    function appendList($key, $items, $max, $expire) {
+        $key = getConfig("memcached_prefix").$key;
+        $lock = $key."-lock";
+        for ($i = 0; !$this->memcache->add($lock, 1, 0, LIST_LOCK_TIMEOUT); $i++) {
+            if ($i >= LIST_UPDATE_ATTEMPTS) die("Server could not update location list in memcached!\n");
+            usleep(LIST_LOCK_RETRY_DELAY);
+        }
+        $data = $this->memcache->get($key);
+        $list = $data === false ? $items : array_merge(json_decode($data, true), $items);
+        $this->memcache->set($key, json_encode(array_slice($list, -$max)), 0, $expire);
+        $this->memcache->delete($lock);
+    }
+
+    // Returns all items in the list stored at the given key, oldest first.
+    function getList($key) {
+        $data = $this->memcache->get(getConfig("memcached_prefix").$key);
+        if ($data === false) return array();
+        return json_decode($data, true);
+    }
 }
 
 ?>
@@ -32,6 +32,20 @@ class MemWrapper {
         return json_decode($data, true);
     }
 
+    // Fetches several keys at once. Returns an array with one entry per key,
+    // in the same order, where missing keys are false.
+    function getMulti($keys) {
+        $prefix = getConfig("memcached_prefix");
+        $prefixed = array();
+        foreach ($keys as $key) $prefixed[] = $prefix.$key;
+        $found = $this->memcache->getMulti($prefixed);
+        $result = array();
+        foreach ($prefixed as $key) {
+            $result[] = isset($found[$key]) ? json_decode($found[$key], true) : false;
+        }
+        return $result;
+    }
+
     function set($key, $data, $expire) {
         $this->memcache->set(getConfig("memcached_prefix").$key, json_encode($data), $expire);
     }
@@ -39,6 +53,32 @@ class MemWrapper {
     function delete($key) {
         $this->memcache->delete(getConfig("memcached_prefix").$key);
     }
+
+    // Appends the given items to the list stored at the given key, and trims
+    // the list so that only the last $max items are kept. memcached has no
+    // list type, so the list is updated with compare-and-swap and retried if
+    // another request changed it in the meantime.
+    function appendList($key, $items, $max, $expire) {
+        $key = getConfig("memcached_prefix").$key;
+        for ($i = 0; $i < LIST_UPDATE_ATTEMPTS; $i++) {
+            $found = $this->memcache->get($key, null, Memcached::GET_EXTENDED);
+            $list = $found === false ? $items : array_merge(json_decode($found["value"], true), $items);
+            $data = json_encode(array_slice($list, -$max));
+            if ($found === false) {
+                if ($this->memcache->add($key, $data, $expire)) return;
+            } else {
+                if ($this->memcache->cas($found["cas"], $key, $data, $expire)) return;
+            }
+        }
+        die("Server could not update location list in memcached!\n");
+    }
+
+    // Returns all items in the list stored at the given key, oldest first.
+    function getList($key) {
+        $data = $this->memcache->get(getConfig("memcached_prefix").$key);
+        if ($data === false) return array();
+        return json_decode($data, true);
+    }
 }
 
 ?>
@@ -27,6 +27,18 @@ class MemWrapper {
         return json_decode($data, true);
     }
 
+    // Fetches several keys at once. Returns an array with one entry per key,
+    // in the same order, where missing keys are false.
+    function getMulti($keys) {
+        $prefixed = array();
+        foreach ($keys as $key) $prefixed[] = getConfig("redis_prefix").$key;
+        $result = array();
+        foreach ($this->redis->mget($prefixed) as $data) {
+            $result[] = $data === false ? false : json_decode($data, true);
+        }
+        return $result;
+    }
+
     function set($key, $data, $expire) {
         $this->redis->setEx(getConfig("redis_prefix").$key, $expire - time(), json_encode($data));
     }
@@ -34,6 +46,29 @@ class MemWrapper {
     function delete($key) {
         $this->redis->del(getConfig("redis_prefix").$key);
     }
+
+    // Appends the given items to the list stored at the given key, and trims
+    // the list so that only the last $max items are kept. The append and trim
+    // run in one transaction, so concurrent appends do not lose items.
+    function appendList($key, $items, $max, $expire) {
+        $key = getConfig("redis_prefix").$key;
+        $encoded = array();
+        foreach ($items as $item) $encoded[] = json_encode($item);
+        $this->redis->multi()
+            ->rPush($key, ...$encoded)
+            ->lTrim($key, -$max, -1)
+            ->expireAt($key, $expire)
+            ->exec();
+    }
+
+    // Returns all items in the list stored at the given key, oldest first.
+    function getList($key) {
+        $result = array();
+        foreach ($this->redis->lRange(getConfig("redis_prefix").$key, 0, -1) as $data) {
+            $result[] = json_decode($data, true);
+        }
+        return $result;
+    }
 }
 
 ?>
@@ -13,6 +13,9 @@ const STATE_DEAD_COLOR = '#555555';
 const EARTH_DIAMETER_KM = 6371 * 2;
 const HAV_MOD = EARTH_DIAMETER_KM * 1000;
 
+// Number of units per degree in delta-encoded coordinates from fetch.php.
+const COORDINATE_SCALE = 10000000;
+
 // Find preferred language.
 var locales = ['ca', 'de', 'en', 'eu', 'fr', 'it', 'nb_NO', 'nl', 'nn', 'pt_BR', 'ro', 'ru', 'tr', 'uk'];
 var prefLang = 'en';
@@ -88,7 +91,7 @@ function init() {
         if (storeIconGplayE !== null) storeIconGplayE.src = LANG["google_play_badge_url"];
     } else {
         // Attempt to fetch location data from the server once.
-        getJSON("./api/fetch.php?id=" + id, function(data) {
+        getJSON("./api/fetch.php?id=" + id + "&delta=1", function(data) {
             // Initialize the Leaflet map.
             initMap();
             noGPS.style.display = "block";
@@ -250,15 +253,26 @@ if (id.indexOf("&") !== -1) id = id.substr(0, id.indexOf("&"));
 // Whether the "offline" popup has appeared when the browser is offline.
 var knownOffline = false;
 
-function getJSON(url, callback, invalid) {
+// The entity tag of the last location data received from the server. Sent with
+// each poll so that the server can skip sending data that has not changed.
+var fetchETag = null;
+
+function getJSON(url, callback, invalid, notModified) {
     var xhr = new XMLHttpRequest();
     xhr.timeout = REQUEST_TIMEOUT * 1000;
     xhr.open('GET', url, true);
+    if (notModified && fetchETag !== null) xhr.setRequestHeader("If-None-Match", fetchETag);
     xhr.onreadystatechange = function() {
         if (this.readyState == 4) {
             var offlineE = document.getElementById("offline");
             var notchE = document.getElementById("notch");
-            if (this.status === 200) {
+            if (this.status === 304 && notModified) {
+                // Nothing has changed since the last poll.
+                knownOffline = false;
+                if (offlineE !== null) offlineE.style.display = "none";
+                if (notchE !== null) notchE.className = "";
+                notModified();
+            } else if (this.status === 200) {
                 // Request successful. Reset offline state and parse the JSON.
                 knownOffline = false;
                 if (offlineE !== null) {
@@ -269,6 +283,7 @@ function getJSON(url, callback, invalid) {
                 }
                 try {
                     var json = JSON.parse(this.responseText);
+                    fetchETag = this.getResponseHeader("ETag");
                     callback(json);
                 } catch (ex) {
                     console.log(ex);
@@ -438,7 +453,9 @@ function setNewInterval(expire, interval, serverTime) {
         }
 
         // Start incremental fetch
-        getJSON("./api/fetch.php?id=" + id + "&since=" + getOldestPointTime(), function(data) {
+        var query = "&delta=1&since=" + getOldestPointTime();
+        if (lastReceiveTime !== null) query += "&recv=" + lastReceiveTime;
+        getJSON("./api/fetch.php?id=" + id + query, function(data) {
             // Recreate the interval timers if the interval or expiration
             // change.
             if (data.expire != expire || data.interval != interval) {
@@ -453,6 +470,8 @@ function setNewInterval(expire, interval, serverTime) {
             clearInterval(countIntv);
             if (countdownE !== null) countdownE.textContent = LANG["status_expired"];
             showMessage(LANG["dialog_expired_head"], LANG["dialog_expired_body"]);
+        }, function() {
+            // The location data has not changed since the last poll.
         });
     }, interval * 1000);
 }
@@ -486,6 +505,11 @@ var following = null;
 // The decryption key for end-to-end encrypted shares.
 var aesKey = null;
 
+// The latest time a packed end-to-end encrypted point was received by the
+// server. Packed points have no plaintext timestamp, so the backend uses this
+// to return only new packed points.
+var lastReceiveTime = null;
+
 // Button handler for the "Decrypt" button on the E2E password prompt.
 var acceptKeyFunc = null;
 
@@ -523,6 +547,22 @@ function autoCenter() {
     if (map.getZoom() > DEFAULT_ZOOM) map.setZoom(DEFAULT_ZOOM);
 }
 
+// Converts delta-encoded points returned from ./api/fetch.php back to absolute
+// coordinates and timestamps, in place. Each point's latitude and longitude are
+// relative to the previous point in fixed-point units, and its timestamp is
+// relative to the previous point in milliseconds.
+function decodeDeltas(points) {
+    var lat = 0, lon = 0, time = 0;
+    for (var i = 0; i < points.length; i++) {
+        lat += points[i][0];
+        lon += points[i][1];
+        time += points[i][2];
+        points[i][0] = lat / COORDINATE_SCALE;
+        points[i][1] = lon / COORDINATE_SCALE;
+        points[i][2] = time / 1000;
+    }
+}
+
 // Parses the data returned from ./api/fetch.php and updates the map marker.
 function processUpdate(data, init) {
     var users = {};
@@ -535,6 +575,14 @@ function processUpdate(data, init) {
         multiUser = true;
     }
 
+    // Restore absolute values if the points are delta-encoded.
+    if (data.delta) {
+        for (var user in users) {
+            if (users.hasOwnProperty(user)) decodeDeltas(users[user]);
+        }
+        data.delta = false;
+    }
+
     // Check for crypto support if necessary.
     if (data.encrypted && !("crypto" in window)) {
         showMessage(LANG["e2e_title"], LANG["e2e_unsupported"]);
@@ -598,8 +646,19 @@ function processUpdate(data, init) {
         var algo = {name: "AES-CBC"};
 
         var pointPromises = [];
+        var receiveTime = lastReceiveTime;
         for (var i = 0; i < data.points.length; i++) {
             algo.iv = byteArray(data.points[i][0]);
+
+            // Packed points contain only the IV, a single encrypted string
+            // with all of the data fields, and the time they were received by
+            // the server.
+            if (data.points[i].length <= 3) {
+                if (data.points[i].length == 3) receiveTime = Math.max(receiveTime, data.points[i][2]);
+                pointPromises.push(crypto.subtle.decrypt(algo, aesKey, byteArray(data.points[i][1])));
+                continue;
+            }
+
             var promises = [];
             for (var j = 1; j < data.points[i].length; j++) {
                 // Check that the array entry is not null to prevent an
@@ -625,6 +684,15 @@ function processUpdate(data, init) {
                 // (all values in the array are currently numbers).
                 var decoder = new TextDecoder("utf-8");
                 for (var i = 0; i < values.length; i++) {
+                    // Packed points decrypt to a comma-separated list of
+                    // values, where empty values are null.
+                    if (!Array.isArray(values[i])) {
+                        data.points[i] = decoder.decode(values[i]).split(",").map(function(value) {
+                            return value === "" ? null : parseFloat(value);
+                        });
+                        continue;
+                    }
+
                     for (var j = 0; j < values[i].length; j++) {
                         // Check that the value isn't null to avoid exceptions.
                         if (values[i][j] !== null) {
@@ -638,6 +706,10 @@ function processUpdate(data, init) {
                     data.points[i].pop();
                 }
 
+                // Only request newer packed points once these have been
+                // decrypted successfully.
+                lastReceiveTime = receiveTime;
+
                 // Flag the data as unencrypted and re-process the update.
                 data.encrypted = false;
                 processUpdate(data, init);